@@ -16,7 +16,11 @@
 package org.sqsh;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Manager that is responsible for managing sqsh aliases.
@@ -25,6 +29,27 @@ public class AliasManager {
     
     private List<Alias> aliases = new ArrayList<Alias>();
     
+    /*
+     * Aliases that are only expanded at the start of a line, by the first
+     * character of their name, and global aliases, which need to be looked
+     * for everywhere. These are built when the aliases change so that
+     * the (common) case of a line that has no aliases in it can be found 
+     * without searching the line for every alias.
+     */
+    private Map<Character, List<Alias>> leading =
+        new HashMap<Character, List<Alias>>();
+    private List<Alias> global = new ArrayList<Alias>();
+    
+    private static final Comparator<ExpansionPoint> BY_POSITION =
+        new Comparator<ExpansionPoint>() {
+        
+            @Override
+            public int compare(ExpansionPoint p1, ExpansionPoint p2) {
+                
+                return p1.idx - p2.idx;
+            }
+        };
+    
     /**
      * Creates an alias manager.
      */
@@ -49,6 +74,36 @@ public class AliasManager {
         }
         
         aliases.add(alias);
+        index();
+    }
+    
+    /**
+     * Rebuilds the lookup structures after the set of aliases changes.
+     */
+    private void index() {
+        
+        leading.clear();
+        global.clear();
+        
+        for (Alias alias : aliases) {
+            
+            if (alias.isGlobal()) {
+                
+                global.add(alias);
+            }
+            else if (alias.getName().length() > 0) {
+                
+                Character first = alias.getName().charAt(0);
+                List<Alias> list = leading.get(first);
+                if (list == null) {
+                    
+                    list = new ArrayList<Alias>();
+                    leading.put(first, list);
+                }
+                
+                list.add(alias);
+            }
+        }
     }
     
     /**
@@ -157,8 +212,6 @@ public class AliasManager {
         
         int len = line.length();
         int start = 0;
-        int idx = 0;
-        
         
         /*
          * First, skip whitepaces on the line.
@@ -166,58 +219,50 @@ public class AliasManager {
         for (; start < len
             && Character.isWhitespace(line.charAt(start)); ++start);
         
+        /*
+         * Aliases that aren't global can only be at the start of the line,
+         * so only those that start with the same character need to be
+         * looked at.
+         */
+        List<Alias> candidates = (start < len
+            ? leading.get(line.charAt(start)) : null);
+        if (candidates != null) {
+            
+            for (Alias alias : candidates) {
+                
+                if (line.startsWith(alias.getName(), start)
+                        && isEndOfName(line, start + alias.getName().length())) {
+                    
+                    if (expansions == null) {
+                        
+                        expansions = new ArrayList<ExpansionPoint>();
+                    }
+                    
+                    expansions.add(new ExpansionPoint(alias, start));
+                }
+            }
+        }
         
         /*
-         * Iterate through our aliases.
+         * Global aliases could be anywhere.
          */
-        for (Alias alias : aliases) {
+        for (Alias alias : global) {
             
             String name = alias.getName();
-            
-            /*
-             * First we do a rudamentary check to see if the name of the
-             * alias exists anywhere in the line at all.
-             */
-            idx = line.indexOf(name);
+            int idx = line.indexOf(name);
             while (idx >= 0) {
                 
-                /*
-                 * Look at the character immediately following the location
-                 * at which we found the alias.
-                 */
-                char ch = (idx + name.length() == len) 
-                    ? ' ' : line.charAt(idx + name.length());
-                
-                /*
-                 * If it is a white-space then we have found an alias 
-                 * that we (probably) need to expand.
-                 */
-                if (!Character.isLetter(ch)
-                        && !Character.isDigit(ch)
-                        && ch != '_') {
+                if (isEndOfName(line, idx + name.length())) {
                     
-                    /*
-                     * If the alias is not global the alias must be found 
-                     * at the start of the string.
-                     */
-                    if (alias.isGlobal() || idx == start) {
+                    if (expansions == null) {
                         
-                        if (expansions == null) {
-                            
-                            expansions = new ArrayList<ExpansionPoint>();
-                        }
-                        
-                        expansions.add(new ExpansionPoint(alias, idx));
+                        expansions = new ArrayList<ExpansionPoint>();
                     }
+                    
+                    expansions.add(new ExpansionPoint(alias, idx));
                 }
                 
-                /*
-                 * Don't bother moving forward for another occurance of
-                 * the alias if it isn't global or if we have hit the
-                 * end of the line.
-                 */
-                if (alias.isGlobal() == false 
-                        || idx + name.length() >= len) {
+                if (idx + name.length() >= len) {
                     
                     idx = -1;
                 }
@@ -228,9 +273,38 @@ public class AliasManager {
             }
         }
         
+        /*
+         * Expansions are applied from left to right.
+         */
+        if (expansions != null && expansions.size() > 1) {
+            
+            Collections.sort(expansions, BY_POSITION);
+        }
+        
         return expansions;
     }
     
+    /**
+     * Checks whether the character following a possible alias is one that
+     * could not be part of a longer word (so "go" doesn't match "gone").
+     * 
+     * @param line The line.
+     * @param idx The index just after the alias.
+     * @return true if the alias ends there.
+     */
+    private static boolean isEndOfName(String line, int idx) {
+        
+        if (idx >= line.length()) {
+            
+            return true;
+        }
+        
+        char ch = line.charAt(idx);
+        return !Character.isLetter(ch)
+            && !Character.isDigit(ch)
+            && ch != '_';
+    }
+    
     /**
      * Used internally to represent a location within the input string 
      * at which we need to expand an alias.
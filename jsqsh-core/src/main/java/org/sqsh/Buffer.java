@@ -46,6 +46,11 @@ public class Buffer
      */
     private int lineCount = 0;
     
+    /**
+     * Changed whenever text in the buffer is altered or removed.
+     */
+    private int version = 0;
+    
     /**
      * The platform-specific line separator.
      */
@@ -94,6 +99,20 @@ public class Buffer
         this.id = id;
     }
     
+    /**
+     * Returns the version of the buffer. The version changes any time
+     * text that is already in the buffer is altered or removed, but not
+     * when text is appended to it, so text taken from the buffer under a
+     * given version is always the beginning of the buffer's current
+     * contents if the version remains the same.
+     * 
+     * @return The version of the buffer.
+     */
+    public int getVersion() {
+        
+        return version;
+    }
+    
     /**
      * Checks whether or not a buffer is empty.
      * 
@@ -248,6 +267,7 @@ public class Buffer
      */
     public void set(String sql) {
         
+        ++version;
         buffer = new StringBuilder();
         add(sql);
     }
@@ -257,6 +277,7 @@ public class Buffer
      */
     public void clear() {
         
+        ++version;
         lineCount = 0;
         buffer.setLength(0);
     }
@@ -274,6 +295,7 @@ public class Buffer
             return;
         }
         
+        ++version;
         for (int i = length; i < buffer.length(); i++) {
             
             if (buffer.charAt(i) == '\n') {
@@ -154,7 +154,23 @@ public class ColumnDescription {
         this.overflowBehavior = overflowBehavior;
         this.resizeable = resizeable;
     }
-    
+
+    /**
+     * Creates a copy of a column. Renderers adjust the width of the
+     * columns they are handed, so a copy is needed to display the same
+     * description more than once. The formatter is shared.
+     *
+     * @param other The column to copy.
+     */
+    public ColumnDescription (ColumnDescription other) {
+
+        this(other.name, other.width, other.alignment,
+            other.overflowBehavior, other.resizeable);
+        this.type = other.type;
+        this.nativeType = other.nativeType;
+        this.formatter = other.formatter;
+    }
+
     /**
      * @return the formatter
      */
@@ -20,6 +20,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.BitSet;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Map;
@@ -52,6 +53,11 @@ public class CommandManager {
     private Map<String, Command>commandMap =
         new HashMap<String, Command>();
     
+    /**
+     * The characters that command names start with.
+     */
+    private BitSet leadingChars = new BitSet();
+    
     /**
      * Creates a new command manager.
      */
@@ -86,6 +92,24 @@ public class CommandManager {
         
         commandMap.put(command.getName(), command);
         command.setManager(this);
+        
+        if (command.getName().length() > 0) {
+            
+            leadingChars.set(command.getName().charAt(0));
+        }
+    }
+    
+    /**
+     * Used to quickly rule out lines of input that cannot be commands
+     * (which is most of them, since most input is SQL) without having to
+     * tokenize them.
+     * 
+     * @param ch The first character of a line.
+     * @return true if there is a command whose name starts with the character.
+     */
+    public boolean isCommandStart(char ch) {
+        
+        return leadingChars.get(ch);
     }
     
     /**
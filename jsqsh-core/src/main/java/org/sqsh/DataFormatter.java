@@ -15,6 +15,7 @@
  */
 package org.sqsh;
 
+import java.io.File;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
@@ -26,6 +27,7 @@ import org.sqsh.format.BlobFormatter;
 import org.sqsh.format.BooleanFormatter;
 import org.sqsh.format.ByteFormatter;
 import org.sqsh.format.ClobFormatter;
+import org.sqsh.format.LobExporter;
 import org.sqsh.format.NumberFormatter;
 import org.sqsh.format.DateFormatter;
 import org.sqsh.format.Unformatter;
@@ -47,6 +49,18 @@ public class DataFormatter {
     private int maxTimeWidth = -1;;
     private boolean byteStringFormat = false;
     
+    /*
+     * Maximum number of characters (CLOB) or bytes (BLOB) of a LOB value
+     * that will be fetched for display.
+     */
+    private int maxLobLength = 1048576;
+    
+    /*
+     * If non-null, LOB values are streamed to files in this directory
+     * instead of being displayed.
+     */
+    private LobExporter lobExporter = null;
+    
     /*
      * Number of decimal places of precision to use when displaying
      * floating point values (except for BigDecimal).
@@ -59,6 +73,24 @@ public class DataFormatter {
      */
     private int precision = 20;
     
+    /*
+     * Bumped whenever a setting changes, so that anything holding on to
+     * formatters can tell that they are out of date.
+     */
+    private int version = 0;
+    
+    /**
+     * Returns a number that changes whenever any of the formatting
+     * settings change. Formatters handed out before the number changed
+     * may no longer reflect the current settings.
+     * 
+     * @return The current settings version.
+     */
+    public int getVersion() {
+        
+        return version;
+    }
+    
     /* ====================================================================
      *                           NULL
      * ==================================================================== */
@@ -70,6 +102,7 @@ public class DataFormatter {
      */
     public void setNull(String str) {
         
+        ++version;
         this.nullFormat = str;
     }
     
@@ -112,6 +145,7 @@ public class DataFormatter {
      */
     public void setDateFormat (String dateFormat) {
     
+        ++version;
         this.dateFormat = dateFormat;
         this.dateFormatter = null;
         maxDateWidth = -1;
@@ -136,6 +170,8 @@ public class DataFormatter {
      *                              TIME
      * ==================================================================== */
     
+    private DateFormatter timeFormatter = null;
+    
     /**
      * @return the timeFormat
      */
@@ -149,7 +185,9 @@ public class DataFormatter {
      */
     public void setTimeFormat (String timeFormat) {
     
+        ++version;
         this.timeFormat = timeFormat;
+        this.timeFormatter = null;
         maxTimeWidth = -1;
     }
     
@@ -160,7 +198,12 @@ public class DataFormatter {
             maxTimeWidth = getMaxDateWidth(timeFormat);
         }
         
-        return new DateFormatter(timeFormat, maxTimeWidth);
+        if (timeFormatter == null) {
+            
+            timeFormatter = new DateFormatter(timeFormat, maxTimeWidth);
+        }
+        
+        return timeFormatter;
     }
     
     /* ====================================================================
@@ -182,6 +225,7 @@ public class DataFormatter {
      */
     public void setDatetimeFormat (String datetimeFormat) {
     
+        ++version;
         this.datetimeFormat = datetimeFormat;
         this.datetimeFormatter = null;
         maxDatetimeWidth = -1;
@@ -215,6 +259,7 @@ public class DataFormatter {
      */
     public void setScale(int scale) {
         
+        ++version;
         this.scale = scale;
     }
     
@@ -236,6 +281,7 @@ public class DataFormatter {
      */
     public void setPrecision(int precision) {
         
+        ++version;
         this.precision = precision;
     }
     
@@ -379,7 +425,7 @@ public class DataFormatter {
      */
     public Formatter getClobFormatter() {
         
-        return new ClobFormatter();
+        return new ClobFormatter(maxLobLength, lobExporter);
     }
     
     /**
@@ -411,7 +457,68 @@ public class DataFormatter {
      */
     public Formatter getBlobFormatter() {
         
-        return new BlobFormatter();
+        return new BlobFormatter(maxLobLength, lobExporter);
+    }
+    
+    /* ====================================================================
+     *                               LOBS
+     * ==================================================================== */
+    
+    /**
+     * Sets the maximum number of characters (for a CLOB) or bytes (for
+     * a BLOB) that will be fetched from the driver for display. Anything
+     * beyond this length is never read.
+     * 
+     * @param maxLobLength The maximum length. A value <= 0 indicates that
+     *   LOB values are displayed in their entirety.
+     */
+    public void setMaxLobLength(int maxLobLength) {
+        
+        ++version;
+        this.maxLobLength = maxLobLength;
+    }
+    
+    /**
+     * @return The maximum number of characters or bytes of a LOB value that
+     *   will be fetched for display.
+     */
+    public int getMaxLobLength() {
+        
+        return maxLobLength;
+    }
+    
+    /**
+     * Sets the directory to which LOB values will be exported. When set,
+     * each CLOB or BLOB value is streamed to its own file in this directory
+     * and the name of the file is displayed in place of the value.
+     * 
+     * @param dir The directory. A null or empty value disables exporting.
+     */
+    public void setLobExportDirectory(String dir) {
+        
+        ++version;
+        if (dir == null || dir.length() == 0) {
+            
+            lobExporter = null;
+        }
+        else {
+            
+            lobExporter = new LobExporter(new File(dir));
+        }
+    }
+    
+    /**
+     * @return The directory to which LOB values are exported, or null if
+     *   LOB values are being displayed.
+     */
+    public String getLobExportDirectory() {
+        
+        if (lobExporter == null) {
+            
+            return null;
+        }
+        
+        return lobExporter.getDirectory().getPath();
     }
     
     /* ====================================================================
@@ -424,6 +531,7 @@ public class DataFormatter {
      */
     public void setByteStringFormat(boolean useStringFormat)
     {
+        ++version;
         byteStringFormat = useStringFormat;
     }
 
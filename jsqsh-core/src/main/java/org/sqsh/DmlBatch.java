@@ -0,0 +1,539 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.sqsh.parser.SimpleSQLTokenizer;
+
+/**
+ * Sends the simple INSERT, UPDATE and DELETE statements of a script to
+ * the server in JDBC batches ({@link Statement#addBatch(String)} and
+ * {@link Statement#executeBatch()}) rather than one round trip at a time.
+ * While a script is running, \go hands each batch that is a single, simple
+ * DML statement to {@link #add(Session, SQLConnectionContext, String, int)}
+ * instead of executing it; the statements that have built up are sent
+ * when the batch is full, before any other command (including a \go of
+ * anything else) runs, and at the end of the script.
+ *
+ * <p>Update counts and errors are reported for each statement, along with
+ * the line of the script that it started on. If a statement fails, the
+ * statements after it that the driver didn't get to are sent again, so
+ * that the script carries on as it would have without batching (unless
+ * the failure is one that stops the script). When the script's batches
+ * are grouped into transactions (see {@link TransactionGroup}), each
+ * statement counts as a batch of the group and the JDBC batches are cut
+ * short at the end of a group, so that commits happen in the same places
+ * that they would have without batching.
+ */
+public class DmlBatch {
+
+    private static final Logger LOG =
+        Logger.getLogger(DmlBatch.class.getName());
+
+    /*
+     * Words that, outside of parentheses, mean that the SQL is more than a
+     * single simple DML statement, or may produce results.
+     */
+    private static HashSet<String> UNSAFE = new HashSet<String>();
+    static {
+
+        UNSAFE.add(";");
+        UNSAFE.add("?");
+        UNSAFE.add("GO");
+        UNSAFE.add("CREATE");
+        UNSAFE.add("ALTER");
+        UNSAFE.add("DROP");
+        UNSAFE.add("EXEC");
+        UNSAFE.add("EXECUTE");
+        UNSAFE.add("CALL");
+        UNSAFE.add("DECLARE");
+        UNSAFE.add("BEGIN");
+        UNSAFE.add("IF");
+        UNSAFE.add("WHILE");
+        UNSAFE.add("PRINT");
+        UNSAFE.add("USE");
+        UNSAFE.add("COMMIT");
+        UNSAFE.add("ROLLBACK");
+        UNSAFE.add("RETURNING");
+        UNSAFE.add("OUTPUT");
+        UNSAFE.add("MERGE");
+    }
+
+    /**
+     * A statement waiting to be sent.
+     */
+    private static class Entry {
+
+        public final String sql;
+        public final int line;
+
+        public Entry (String sql, int line) {
+
+            this.sql = sql;
+            this.line = line;
+        }
+    }
+
+    private final int size;
+    private final List<Entry> entries = new ArrayList<Entry>();
+    private SQLConnectionContext conn = null;
+    private long statements = 0L;
+    private long flushes = 0L;
+
+    /**
+     * Creates a batch.
+     *
+     * @param size The most statements to send at once.
+     */
+    public DmlBatch (int size) {
+
+        this.size = Math.max(1, size);
+    }
+
+    /**
+     * Checks whether SQL can be sent as part of a JDBC batch: a single
+     * INSERT, UPDATE or DELETE statement that produces no results.
+     *
+     * @param sql The SQL.
+     * @return true if it can be batched.
+     */
+    public static boolean isSimpleDml(String sql) {
+
+        SimpleSQLTokenizer tokenizer = new SimpleSQLTokenizer(sql);
+        String token = next(tokenizer);
+        if (!"INSERT".equals(token) && !"UPDATE".equals(token)
+            && !"DELETE".equals(token)) {
+
+            return false;
+        }
+
+        String prev = token;
+        token = next(tokenizer);
+        while (token != null) {
+
+            int depth = tokenizer.getParenCount();
+            if (token.equals("(")) {
+
+                --depth;
+            }
+
+            if (depth < 0) {
+
+                return false;
+            }
+
+            if (depth == 0) {
+
+                if (UNSAFE.contains(token)) {
+
+                    return false;
+                }
+
+                /*
+                 * A second statement, other than MySQL's INSERT ... ON
+                 * DUPLICATE KEY UPDATE.
+                 */
+                if ((token.equals("INSERT") || token.equals("DELETE")
+                        || (token.equals("UPDATE") && !"KEY".equals(prev)))) {
+
+                    return false;
+                }
+            }
+
+            prev = token;
+            token = next(tokenizer);
+        }
+
+        return tokenizer.getParenCount() == 0;
+    }
+
+    /**
+     * Adds a statement to the batch, sending the batch if it is full.
+     *
+     * @param session The session running the script.
+     * @param conn The connection that the statement is for.
+     * @param sql The statement, with its variables already expanded.
+     * @param line The line of the script that the statement starts on.
+     * @return The number of statements that failed, if the batch was sent.
+     */
+    public int add(Session session, SQLConnectionContext conn, String sql,
+            int line) {
+
+        int failed = 0;
+        if (this.conn != null && this.conn != conn) {
+
+            failed += flush(session);
+        }
+
+        this.conn = conn;
+        entries.add(new Entry(sql, line));
+        if (entries.size() >= limit(session)) {
+
+            failed += flush(session);
+        }
+
+        return failed;
+    }
+
+    /**
+     * @return The number of statements waiting to be sent.
+     */
+    public int size() {
+
+        return entries.size();
+    }
+
+    /**
+     * Sends the statements that have built up.
+     *
+     * @param session The session running the script.
+     * @return The number of statements that failed.
+     */
+    public int flush(Session session) {
+
+        if (entries.isEmpty()) {
+
+            return 0;
+        }
+
+        List<Entry> pending = new ArrayList<Entry>(entries);
+        SQLConnectionContext ctx = conn;
+        entries.clear();
+        conn = null;
+
+        return send(session, ctx, pending);
+    }
+
+    /**
+     * @return The number of statements sent in batches.
+     */
+    public long getStatements() {
+
+        return statements;
+    }
+
+    /**
+     * @return The number of batches sent.
+     */
+    public long getFlushes() {
+
+        return flushes;
+    }
+
+    /*
+     * The number of statements to send at once, which stops at the end of
+     * the current transaction group.
+     */
+    private int limit(Session session) {
+
+        TransactionGroup group = session.getTransactionGroup();
+        return group == null ? size : Math.min(size, group.getRemaining());
+    }
+
+    /*
+     * Sends statements, in as many JDBC batches as it takes to get past
+     * the statements that fail.
+     */
+    private int send(Session session, SQLConnectionContext ctx,
+            List<Entry> pending) {
+
+        int failed = 0;
+        while (!pending.isEmpty()) {
+
+            int []result = sendBatch(session, ctx, pending);
+            failed += result[0];
+            pending = pending.subList(result[1], pending.size());
+
+            /*
+             * A commit that failed may have stopped the script.
+             */
+            TransactionGroup group = session.getTransactionGroup();
+            if (!pending.isEmpty() && group != null && group.isStopped()) {
+
+                notRun(session, pending, 0);
+                break;
+            }
+        }
+
+        return failed;
+    }
+
+    /*
+     * Sends one JDBC batch. Returns the number of statements that failed
+     * and the number of statements that are done with (the rest are to be
+     * sent again).
+     */
+    private int[] sendBatch(Session session, SQLConnectionContext ctx,
+            List<Entry> pending) {
+
+        TransactionGroup group = session.getTransactionGroup();
+        Connection c = ctx.getConnection();
+        int n = pending.size();
+        int []counts = null;
+        SQLException error = null;
+        Statement statement = null;
+        long start = System.nanoTime();
+
+        ++flushes;
+        statements += n;
+
+        try {
+
+            if (group != null) {
+
+                group.begin(session, c);
+            }
+
+            statement = c.createStatement();
+            for (Entry entry : pending) {
+
+                statement.addBatch(entry.sql);
+            }
+
+            counts = statement.executeBatch();
+            SQLTools.printWarnings(session, statement);
+        }
+        catch (BatchUpdateException e) {
+
+            error = e;
+            counts = e.getUpdateCounts();
+            if (counts == null) {
+
+                counts = new int[0];
+            }
+        }
+        catch (SQLException e) {
+
+            error = e;
+        }
+        finally {
+
+            SQLTools.close(statement);
+        }
+
+        long nanosEach = (System.nanoTime() - start) / n;
+
+        /*
+         * If the batch couldn't be sent at all there is no telling which
+         * statements ran, so the whole lot are counted as failed.
+         */
+        if (counts == null) {
+
+            session.err.println(n + " statement" + (n == 1 ? "" : "s")
+                + " from line " + pending.get(0).line + " failed:");
+            SQLTools.printException(session, error);
+            if (group != null) {
+
+                group.end(session, false);
+            }
+
+            return new int[] { n, n };
+        }
+
+        /*
+         * The first statement to fail is either marked as having failed,
+         * or is the one the driver stopped at.
+         */
+        int failedAt = -1;
+        for (int i = 0; i < counts.length && i < n; i++) {
+
+            if (counts[i] == Statement.EXECUTE_FAILED) {
+
+                failedAt = i;
+                break;
+            }
+        }
+
+        if (failedAt < 0 && error != null) {
+
+            failedAt = Math.min(counts.length, n - 1);
+        }
+
+        if (LOG.isLoggable(Level.FINE)) {
+
+            LOG.fine("Sent " + n + " statements in a batch: "
+                + (failedAt < 0 ? "ok" : "statement " + failedAt + " failed"));
+        }
+
+        if (failedAt < 0) {
+
+            report(session, ctx, pending, counts, 0, n, nanosEach);
+            if (group != null) {
+
+                /*
+                 * If the group couldn't be committed, that counts as a
+                 * failure.
+                 */
+                group.succeeded(n - 1);
+                if (!group.end(session, true)) {
+
+                    return new int[] { 1, n };
+                }
+            }
+
+            return new int[] { 0, n };
+        }
+
+        report(session, ctx, pending, counts, 0, failedAt, nanosEach);
+        failed(session, ctx, pending.get(failedAt), error);
+        int failed = 1;
+
+        boolean stop;
+        int resume = failedAt + 1;
+        if (group != null) {
+
+            /*
+             * Everything since the last commit is rolled back, including
+             * anything the driver ran after the failure, so the rest of the
+             * statements will need to be sent again.
+             */
+            group.succeeded(failedAt);
+            group.end(session, false);
+            stop = group.isStopped();
+        }
+        else {
+
+            stop = session.getContext().shouldExitOnFailure("\\go");
+
+            /*
+             * If the driver carried on after the failure then the rest of
+             * the statements have already been run.
+             */
+            if (counts.length >= n) {
+
+                for (int i = resume; i < n; i++) {
+
+                    if (counts[i] == Statement.EXECUTE_FAILED) {
+
+                        failed(session, ctx, pending.get(i), null);
+                        ++failed;
+                    }
+                    else {
+
+                        report(session, ctx, pending, counts, i, i + 1,
+                            nanosEach);
+                    }
+                }
+
+                resume = n;
+            }
+        }
+
+        if (stop && resume < n) {
+
+            notRun(session, pending, resume);
+            resume = n;
+        }
+
+        return new int[] { failed, resume };
+    }
+
+    /*
+     * Reports that the statements from start on won't be run because the
+     * script is stopping.
+     */
+    private void notRun(Session session, List<Entry> pending, int start) {
+
+        int n = pending.size() - start;
+        session.err.println(n + " statement" + (n == 1 ? "" : "s")
+            + " from line " + pending.get(start).line + " on were not run");
+    }
+
+    /*
+     * Displays (and logs) the update counts of the statements from start
+     * up to end.
+     */
+    private void report(Session session, SQLConnectionContext ctx,
+            List<Entry> pending, int []counts, int start, int end,
+            long nanosEach) {
+
+        SqshContext sqshContext = session.getContext();
+        boolean footers = session.getRendererManager().isShowFooters()
+            && !session.getSQLRenderer().isNoCount();
+        QueryLog log = sqshContext.getQueryLog();
+
+        for (int i = start; i < end; i++) {
+
+            int count = (i < counts.length ? counts[i] : Statement.SUCCESS_NO_INFO);
+            if (footers) {
+
+                if (count >= 0) {
+
+                    session.err.println(count + " row"
+                        + (count != 1 ? "s" : "") + " affected");
+                }
+                else {
+
+                    session.err.println("ok.");
+                }
+            }
+
+            if (log.isEnabled()) {
+
+                QueryLog.Entry entry = newLogEntry(session, ctx,
+                    pending.get(i).sql);
+                entry.setTimings(0L, nanosEach, 0L);
+                entry.setCounts(0L, Math.max(0, count));
+                log.log(entry);
+            }
+        }
+    }
+
+    private void failed(Session session, SQLConnectionContext ctx,
+            Entry entry, SQLException error) {
+
+        session.err.println("Statement at line " + entry.line + " failed:");
+        if (error != null) {
+
+            SQLTools.printException(session, error);
+        }
+
+        QueryLog log = session.getContext().getQueryLog();
+        if (log.isEnabled()) {
+
+            QueryLog.Entry logEntry = newLogEntry(session, ctx, entry.sql);
+            if (error != null) {
+
+                logEntry.setFailed(error);
+            }
+            log.log(logEntry);
+        }
+    }
+
+    private static QueryLog.Entry newLogEntry(Session session,
+            SQLConnectionContext ctx, String sql) {
+
+        String connName = (ctx.getConnectionDescriptor() == null
+            ? null : ctx.getConnectionDescriptor().getName());
+        return new QueryLog.Entry(System.currentTimeMillis(),
+            session.getId(), connName, sql);
+    }
+
+    private static String next(SimpleSQLTokenizer tokenizer) {
+
+        String token = tokenizer.next();
+        return token == null ? null : token.toUpperCase();
+    }
+}
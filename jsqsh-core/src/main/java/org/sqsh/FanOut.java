@@ -0,0 +1,648 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import org.sqsh.signals.Sig;
+import org.sqsh.signals.SigHandler;
+import org.sqsh.signals.SignalManager;
+import org.sqsh.util.TimeUtils;
+
+/**
+ * Executes one batch of SQL on the connections of several sessions at
+ * the same time. Each session's statement runs in a thread of its own,
+ * so the whole thing takes about as long as the slowest session rather
+ * than the sum of all of them. A failure in one session is reported
+ * against that session and does not stop the others.
+ *
+ * <p>The results are either merged into a single result set, with a
+ * leading "Source" column identifying where each row came from, or are
+ * collected separately for each session and displayed one after the
+ * other once all of the sessions have finished.
+ */
+public class FanOut {
+
+    private static final Logger LOG = Logger.getLogger(FanOut.class.getName());
+
+    private Session session;
+    private List<Session> targets;
+    private int parallel = 8;
+    private boolean merge = true;
+    private String style = null;
+    private int queryTimeout = 0;
+
+    /*
+     * State shared by the renderers of the sessions when merging.
+     */
+    private final Object lock = new Object();
+    private Renderer merged = null;
+    private ColumnDescription []mergedColumns = null;
+    private int sourceWidth = 6;
+
+    /**
+     * Creates a fan-out.
+     *
+     * @param session The session that is executing the fan-out. Results
+     *   and errors are displayed to this session.
+     * @param targets The sessions to execute on (see
+     *   {@link #select(SqshContext, String)}).
+     */
+    public FanOut(Session session, List<Session> targets) {
+
+        this.session = session;
+        this.targets = targets;
+    }
+
+    /**
+     * @param parallel The maximum number of sessions that will be
+     *   executing at the same time.
+     */
+    public void setParallel(int parallel) {
+
+        this.parallel = parallel;
+    }
+
+    /**
+     * @param merge If true (the default), results from all sessions are
+     *   merged into one result set, otherwise each session's output is
+     *   displayed separately.
+     */
+    public void setMerge(boolean merge) {
+
+        this.merge = merge;
+    }
+
+    /**
+     * @param style The display style to use, or null to use the current
+     *   default style.
+     */
+    public void setStyle(String style) {
+
+        this.style = style;
+    }
+
+    /**
+     * @param queryTimeout If &gt; 0, the number of seconds each session
+     *   is given before its query is cancelled.
+     */
+    public void setQueryTimeout(int queryTimeout) {
+
+        this.queryTimeout = queryTimeout;
+    }
+
+    /**
+     * Picks out the sessions named by a session specification. The
+     * specification is a comma separated list of:
+     * <ul>
+     *   <li>A session number</li>
+     *   <li>A range of session numbers, such as 2-5</li>
+     *   <li>A pattern, in which <code>*</code> and <code>?</code> are
+     *     wildcards, that is matched against the logical connection name
+     *     or the URL of each session's connection. A pattern of just
+     *     <code>*</code> selects every connected session.</li>
+     * </ul>
+     * Only sessions that are connected to a database are selected.
+     *
+     * @param sqshContext The context holding the sessions.
+     * @param spec The session specification.
+     * @return The sessions, ordered by session number.
+     * @throws IllegalArgumentException If a session that is explicitly
+     *   named does not exist or is not connected to a database, or if
+     *   nothing matches at all.
+     */
+    public static List<Session> select(SqshContext sqshContext, String spec) {
+
+        TreeMap<Integer, Session> selected = new TreeMap<Integer, Session>();
+
+        for (String token : spec.split(",")) {
+
+            token = token.trim();
+            if (token.length() == 0) {
+
+                continue;
+            }
+
+            if (token.matches("\\d+")) {
+
+                Session target = sqshContext.getSession(Integer.parseInt(token));
+                if (target == null) {
+
+                    throw new IllegalArgumentException("No such session: "
+                        + token);
+                }
+
+                if (!(target.getConnectionContext() instanceof SQLConnectionContext)) {
+
+                    throw new IllegalArgumentException("Session " + token
+                        + " is not connected to a database");
+                }
+
+                selected.put(target.getId(), target);
+            }
+            else if (token.matches("\\d+-\\d+")) {
+
+                int dash = token.indexOf('-');
+                int from = Integer.parseInt(token.substring(0, dash));
+                int to = Integer.parseInt(token.substring(dash + 1));
+
+                for (Session target : sqshContext.getSessions()) {
+
+                    if (target.getId() >= from && target.getId() <= to
+                        && target.getConnectionContext() instanceof SQLConnectionContext) {
+
+                        selected.put(target.getId(), target);
+                    }
+                }
+            }
+            else {
+
+                Pattern pattern = toPattern(token);
+                for (Session target : sqshContext.getSessions()) {
+
+                    ConnectionContext conn = target.getConnectionContext();
+                    if (!(conn instanceof SQLConnectionContext)) {
+
+                        continue;
+                    }
+
+                    String name = ((SQLConnectionContext) conn).getLogicalName();
+                    if ((name != null && pattern.matcher(name).matches())
+                        || pattern.matcher(conn.toString()).matches()) {
+
+                        selected.put(target.getId(), target);
+                    }
+                }
+            }
+        }
+
+        if (selected.isEmpty()) {
+
+            throw new IllegalArgumentException("No connected sessions match '"
+                + spec + "'");
+        }
+
+        return new ArrayList<Session>(selected.values());
+    }
+
+    /**
+     * Turns a wildcard pattern into a regular expression.
+     */
+    private static Pattern toPattern(String wildcard) {
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < wildcard.length(); i++) {
+
+            char ch = wildcard.charAt(i);
+            if (ch == '*') {
+
+                sb.append(".*");
+            }
+            else if (ch == '?') {
+
+                sb.append('.');
+            }
+            else {
+
+                sb.append(Pattern.quote(String.valueOf(ch)));
+            }
+        }
+
+        return Pattern.compile(sb.toString(), Pattern.CASE_INSENSITIVE);
+    }
+
+    /**
+     * Executes the SQL on all of the sessions and displays the results.
+     *
+     * @param sql The SQL to execute.
+     * @return The number of sessions on which the SQL failed.
+     */
+    public int execute(String sql) {
+
+        RendererManager renderMan = session.getRendererManager();
+        String displayStyle = (style != null ? style : renderMan.getDefaultRenderer());
+        final Task []tasks = new Task[targets.size()];
+        int []origTimeouts = new int[tasks.length];
+        RendererFactory factory = null;
+
+        for (int i = 0; i < tasks.length; i++) {
+
+            tasks[i] = new Task(targets.get(i), sql, displayStyle);
+            sourceWidth = Math.max(sourceWidth, tasks[i].label.length());
+
+            ConnectionContext conn = tasks[i].target.getConnectionContext();
+            origTimeouts[i] = conn.getQueryTimeout();
+            if (queryTimeout > 0) {
+
+                conn.setQueryTimeout(queryTimeout);
+            }
+        }
+
+        /*
+         * When merging, each session's SQLRenderer is pointed at a style
+         * that is only known to the factory, which hands back a renderer
+         * that feeds the rows into the one shared renderer.
+         */
+        if (merge) {
+
+            merged = renderMan.getRenderer(session, displayStyle);
+            factory = new RendererFactory() {
+
+                @Override
+                public Renderer get(String name) {
+
+                    for (Task task : tasks) {
+
+                        if (name.equals(task.rendererName)) {
+
+                            return task.renderer;
+                        }
+                    }
+
+                    return null;
+                }
+            };
+
+            renderMan.addFactory(factory);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+            Math.max(1, Math.min(parallel, tasks.length)),
+            new ThreadFactory() {
+
+                private int count = 0;
+
+                @Override
+                public synchronized Thread newThread(Runnable r) {
+
+                    Thread thread = new Thread(r, "jsqsh-fanout-" + (++count));
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+        SignalManager sigMan = SignalManager.getInstance();
+        sigMan.push(new SigHandler() {
+
+            @Override
+            public void signal(Sig sig) {
+
+                cancel(tasks);
+            }
+        });
+
+        long startTime = System.currentTimeMillis();
+
+        try {
+
+            for (Task task : tasks) {
+
+                executor.execute(task);
+            }
+
+            executor.shutdown();
+
+            boolean done = false;
+            while (!done) {
+
+                try {
+
+                    done = executor.awaitTermination(1, TimeUnit.DAYS);
+                }
+                catch (InterruptedException e) {
+
+                    cancel(tasks);
+                }
+            }
+        }
+        finally {
+
+            sigMan.pop();
+
+            if (factory != null) {
+
+                renderMan.removeFactory(factory);
+            }
+
+            for (int i = 0; i < tasks.length; i++) {
+
+                tasks[i].target.getConnectionContext().setQueryTimeout(
+                    origTimeouts[i]);
+            }
+        }
+
+        long elapsed = System.currentTimeMillis() - startTime;
+        int failed = 0;
+        long rows = 0;
+
+        if (merge && mergedColumns != null) {
+
+            merged.flush();
+        }
+
+        for (Task task : tasks) {
+
+            if (task.failed) {
+
+                ++failed;
+            }
+
+            rows += task.sqlRenderer.getRowsFetched();
+
+            byte []output = task.buffer.toByteArray();
+            if (merge) {
+
+                /*
+                 * The rows went to the merged results, so all that is
+                 * left over are errors and warnings, which are tagged
+                 * with the session they came from.
+                 */
+                if (output.length > 0) {
+
+                    for (String line : new String(output).split("\n")) {
+
+                        session.err.println("[" + task.label + "] " + line);
+                    }
+                }
+            }
+            else {
+
+                session.out.println("[Session " + task.target.getId()
+                    + (task.label.equals(Integer.toString(task.target.getId()))
+                        ? "" : ": " + task.label) + "]");
+                session.out.write(output, 0, output.length);
+            }
+        }
+
+        session.out.flush();
+
+        if (renderMan.isShowFooters()) {
+
+            session.err.println("(" + rows + " row" + (rows == 1 ? "" : "s")
+                + " from " + tasks.length + " session"
+                + (tasks.length == 1 ? "" : "s")
+                + (failed > 0 ? ", " + failed + " failed" : "")
+                + "; total: " + TimeUtils.millisToDurationString(elapsed) + ")");
+        }
+
+        return failed;
+    }
+
+    /**
+     * Cancels whatever the sessions are currently executing.
+     */
+    private void cancel(Task []tasks) {
+
+        for (Task task : tasks) {
+
+            try {
+
+                task.target.getConnectionContext().cancel();
+            }
+            catch (Exception e) {
+
+                LOG.fine("Session " + task.target.getId() + ": cancel failed: "
+                    + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Execution of the SQL on one of the sessions. The work is done
+     * through a private session that shares the target session's
+     * connection but has output, and a {@link SQLRenderer}, of its own.
+     */
+    private class Task
+        implements Runnable {
+
+        private Session target;
+        private String sql;
+        private String label;
+        private Session session;
+        private SQLRenderer sqlRenderer;
+        private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private String rendererName = null;
+        private SourceRenderer renderer = null;
+        private volatile boolean failed = false;
+
+        public Task(Session target, String sql, String style) {
+
+            SQLConnectionContext conn =
+                (SQLConnectionContext) target.getConnectionContext();
+            Session owner = FanOut.this.session;
+
+            this.target = target;
+            this.label = conn.getLogicalName() != null
+                ? conn.getLogicalName() : Integer.toString(target.getId());
+
+            sqlRenderer = new SQLRenderer(owner.getSQLRenderer());
+
+            /*
+             * The private session doesn't see the caller's session
+             * variables, so references to them are filled in, or bound,
+             * now.
+             */
+            List<CallParameter> params = null;
+            if (conn.getExecutionMode() == SQLConnectionContext.EXEC_BIND) {
+
+                params = new ArrayList<CallParameter>();
+                sql = sqlRenderer.bind(owner, sql, params);
+            }
+            else if (sqlRenderer.isExpand()) {
+
+                sql = owner.expand(sql);
+            }
+
+            this.sql = sql;
+
+            PrintStream out = new PrintStream(buffer, true);
+            session = new Session(target,
+                new ByteArrayInputStream(new byte[0]), out, out);
+            session.setInteractive(false);
+            session.setConnectionContext(conn, false);
+
+            if (merge) {
+
+                rendererName = UUID.randomUUID().toString();
+                renderer = new SourceRenderer(session, label);
+                style = rendererName;
+            }
+
+            sqlRenderer.setExpand(false);
+            sqlRenderer.setBoundParameters(params);
+            sqlRenderer.setInterruptible(false);
+            sqlRenderer.setStyle(style);
+            session.setSQLRenderer(sqlRenderer);
+        }
+
+        @Override
+        public void run() {
+
+            try {
+
+                target.getConnectionContext().eval(sql, session, sqlRenderer);
+
+                if (renderer != null && renderer.mismatch != null) {
+
+                    session.err.println("Results do not have the same columns "
+                        + "as those of the other sessions: "
+                        + renderer.mismatch);
+                    failed = true;
+                }
+            }
+            catch (SQLException e) {
+
+                SQLTools.printException(session, e);
+                failed = true;
+            }
+            catch (Throwable e) {
+
+                session.printException(e);
+                failed = true;
+            }
+            finally {
+
+                session.out.flush();
+            }
+        }
+    }
+
+    /**
+     * Used when merging, this passes the rows from one session on to the
+     * shared renderer, with the session's label in front of them.
+     */
+    private class SourceRenderer
+        extends Renderer {
+
+        private String source;
+
+        /*
+         * How the columns of the results differ from those of the merged
+         * results, or null if they don't.
+         */
+        private volatile String mismatch = null;
+
+        public SourceRenderer(Session session, String source) {
+
+            super(session, session.getRendererManager());
+            this.source = source;
+        }
+
+        @Override
+        public void header(ColumnDescription []columns) {
+
+            synchronized (lock) {
+
+                if (mergedColumns == null) {
+
+                    mergedColumns = new ColumnDescription[columns.length + 1];
+                    mergedColumns[0] = new ColumnDescription("Source", sourceWidth);
+                    System.arraycopy(columns, 0, mergedColumns, 1, columns.length);
+                    merged.header(mergedColumns);
+                }
+                else {
+
+                    mismatch = compare(columns);
+                }
+            }
+        }
+
+        /**
+         * Checks that the columns of a result set match those of the
+         * merged results, by number, name and type.
+         *
+         * @param columns The columns of the result set.
+         * @return A description of the first difference, or null if there
+         *   is none.
+         */
+        private String compare(ColumnDescription []columns) {
+
+            if (mergedColumns.length != columns.length + 1) {
+
+                return columns.length + " columns instead of "
+                    + (mergedColumns.length - 1);
+            }
+
+            for (int i = 0; i < columns.length; i++) {
+
+                ColumnDescription expected = mergedColumns[i + 1];
+                if (!columns[i].getName().equalsIgnoreCase(expected.getName())
+                    || columns[i].getNativeType() != expected.getNativeType()) {
+
+                    return "column " + (i + 1) + " is " + describe(columns[i])
+                        + " instead of " + describe(expected);
+                }
+            }
+
+            return null;
+        }
+
+        private String describe(ColumnDescription column) {
+
+            return column.getName() + " ("
+                + SQLTools.getTypeName(column.getNativeType()) + ")";
+        }
+
+        @Override
+        public boolean row(String []row) {
+
+            if (mismatch != null) {
+
+                return false;
+            }
+
+            String []sourceRow = new String[row.length + 1];
+            sourceRow[0] = source;
+            System.arraycopy(row, 0, sourceRow, 1, row.length);
+
+            synchronized (lock) {
+
+                return merged.row(sourceRow);
+            }
+        }
+
+        @Override
+        public boolean flush() {
+
+            /*
+             * The shared renderer is flushed once everyone is done.
+             */
+            return true;
+        }
+
+        @Override
+        public void footer(String footer) {
+
+            /*
+             * Row counts and timings of the individual sessions are
+             * summed up at the end instead.
+             */
+        }
+    }
+}
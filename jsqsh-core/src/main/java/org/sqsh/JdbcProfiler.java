@@ -0,0 +1,363 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts and times the calls that jsqsh makes into a JDBC driver. The
+ * connection is wrapped in a proxy (see {@link #wrap(Connection)}) and so
+ * are the statements, result sets and metadata that come from it, and
+ * every call made through them is timed. This shows whether the time spent
+ * running a query goes to the driver (and in which calls) or to jsqsh
+ * itself.
+ */
+public class JdbcProfiler {
+
+    /*
+     * The JDBC interfaces whose objects are wrapped when they are returned
+     * from a call. Anything else (such as a ResultSet's getStatement()) is
+     * handed back as it is.
+     */
+    private static final Class<?> []WRAPPED = {
+        Statement.class, PreparedStatement.class, CallableStatement.class,
+        ResultSet.class, DatabaseMetaData.class
+    };
+
+    /**
+     * The calls made to one JDBC method.
+     */
+    public static class Counter {
+
+        private final String name;
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong nanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        public Counter (String name) {
+
+            this.name = name;
+        }
+
+        private void add(long elapsed) {
+
+            calls.incrementAndGet();
+            nanos.addAndGet(elapsed);
+
+            long max = maxNanos.get();
+            while (elapsed > max && !maxNanos.compareAndSet(max, elapsed)) {
+
+                max = maxNanos.get();
+            }
+        }
+
+        private void reset() {
+
+            calls.set(0L);
+            nanos.set(0L);
+            maxNanos.set(0L);
+        }
+
+        /**
+         * @return The name of the method, such as "ResultSet.next".
+         */
+        public String getName() {
+
+            return name;
+        }
+
+        /**
+         * @return The number of calls made.
+         */
+        public long getCalls() {
+
+            return calls.get();
+        }
+
+        /**
+         * @return The total time spent in the calls, in nanoseconds.
+         */
+        public long getNanos() {
+
+            return nanos.get();
+        }
+
+        /**
+         * @return The longest single call, in nanoseconds.
+         */
+        public long getMaxNanos() {
+
+            return maxNanos.get();
+        }
+    }
+
+    /*
+     * Each proxied interface keeps its own counters, keyed by method, so
+     * that the same method called through a Statement and through a
+     * PreparedStatement are counted separately.
+     */
+    private final ConcurrentHashMap<Class<?>, ConcurrentHashMap<Method, Counter>>
+        counters = new ConcurrentHashMap<Class<?>, ConcurrentHashMap<Method, Counter>>();
+
+    private volatile long resetTime = System.nanoTime();
+
+    /**
+     * Wraps a connection so that the calls made through it are counted.
+     *
+     * @param conn The connection.
+     * @return The wrapped connection.
+     */
+    public Connection wrap(Connection conn) {
+
+        return (Connection) wrap(Connection.class, conn);
+    }
+
+    /**
+     * @return The counters of all of the methods that have been called,
+     *   in order of the total time spent in them, longest first.
+     */
+    public List<Counter> getCounters() {
+
+        List<Counter> list = new ArrayList<Counter>();
+        for (ConcurrentHashMap<Method, Counter> map : counters.values()) {
+
+            for (Counter counter : map.values()) {
+
+                if (counter.getCalls() > 0) {
+
+                    list.add(counter);
+                }
+            }
+        }
+
+        Collections.sort(list, new Comparator<Counter>() {
+
+            @Override
+            public int compare(Counter c1, Counter c2) {
+
+                long diff = c2.getNanos() - c1.getNanos();
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+
+        return list;
+    }
+
+    /**
+     * @return The total time spent in the driver, in nanoseconds.
+     */
+    public long getTotalNanos() {
+
+        long total = 0L;
+        for (ConcurrentHashMap<Method, Counter> map : counters.values()) {
+
+            for (Counter counter : map.values()) {
+
+                total += counter.getNanos();
+            }
+        }
+
+        return total;
+    }
+
+    /**
+     * @return The time, in nanoseconds, since the profiler was created or
+     *   last reset.
+     */
+    public long getElapsedNanos() {
+
+        return System.nanoTime() - resetTime;
+    }
+
+    /**
+     * Zeroes all of the counters.
+     */
+    public void reset() {
+
+        for (ConcurrentHashMap<Method, Counter> map : counters.values()) {
+
+            for (Counter counter : map.values()) {
+
+                counter.reset();
+            }
+        }
+
+        resetTime = System.nanoTime();
+    }
+
+    /**
+     * Displays the counters.
+     *
+     * @param session The session to display them to.
+     * @param elapsedNanos The time to compare the time spent in the driver
+     *   to, such as the time taken to run a batch, in nanoseconds.
+     */
+    public void display(Session session, long elapsedNanos) {
+
+        ColumnDescription []columns = new ColumnDescription[6];
+        columns[0] = new ColumnDescription("Method", -1);
+        columns[1] = number("Calls");
+        columns[2] = number("Total ms");
+        columns[3] = number("Avg us");
+        columns[4] = number("Max us");
+        columns[5] = number("%");
+
+        Renderer renderer =
+            session.getRendererManager().getCommandRenderer(session);
+        renderer.header(columns);
+
+        long total = getTotalNanos();
+        for (Counter counter : getCounters()) {
+
+            String []row = new String[6];
+            row[0] = counter.getName();
+            row[1] = Long.toString(counter.getCalls());
+            row[2] = String.format("%.3f", counter.getNanos() / 1000000.0);
+            row[3] = String.format("%.1f",
+                counter.getNanos() / 1000.0 / counter.getCalls());
+            row[4] = String.format("%.1f", counter.getMaxNanos() / 1000.0);
+            row[5] = String.format("%.1f", total == 0L
+                ? 0.0 : (counter.getNanos() * 100.0) / total);
+            renderer.row(row);
+        }
+
+        renderer.flush();
+
+        long outside = Math.max(0L, elapsedNanos - total);
+        session.out.println(String.format(
+            "Driver: %.3f ms, outside the driver: %.3f ms, elapsed: %.3f ms",
+            total / 1000000.0, outside / 1000000.0, elapsedNanos / 1000000.0));
+    }
+
+    private static ColumnDescription number(String name) {
+
+        return new ColumnDescription(name, -1,
+            ColumnDescription.Alignment.RIGHT,
+            ColumnDescription.OverflowBehavior.TRUNCATE);
+    }
+
+    private Object wrap(Class<?> iface, Object target) {
+
+        ConcurrentHashMap<Method, Counter> map = counters.get(iface);
+        if (map == null) {
+
+            map = new ConcurrentHashMap<Method, Counter>();
+            ConcurrentHashMap<Method, Counter> existing =
+                counters.putIfAbsent(iface, map);
+            if (existing != null) {
+
+                map = existing;
+            }
+        }
+
+        return Proxy.newProxyInstance(JdbcProfiler.class.getClassLoader(),
+            new Class<?>[] { iface }, new Handler(iface, target, map));
+    }
+
+    /**
+     * Times the calls made through one proxied object.
+     */
+    private class Handler
+        implements InvocationHandler {
+
+        private final Class<?> iface;
+        private final Object target;
+        private final ConcurrentHashMap<Method, Counter> methods;
+
+        public Handler (Class<?> iface, Object target,
+                ConcurrentHashMap<Method, Counter> methods) {
+
+            this.iface = iface;
+            this.target = target;
+            this.methods = methods;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args)
+            throws Throwable {
+
+            /*
+             * Object's methods aren't JDBC calls, and equals() needs to
+             * see through the proxy on the other side too.
+             */
+            if (method.getDeclaringClass() == Object.class) {
+
+                if (method.getName().equals("equals")) {
+
+                    return proxy == args[0];
+                }
+
+                return method.invoke(target, args);
+            }
+
+            Counter counter = methods.get(method);
+            if (counter == null) {
+
+                counter = new Counter(iface.getSimpleName() + "."
+                    + method.getName());
+                Counter existing = methods.putIfAbsent(method, counter);
+                if (existing != null) {
+
+                    counter = existing;
+                }
+            }
+
+            Object result;
+            long start = System.nanoTime();
+            try {
+
+                result = method.invoke(target, args);
+            }
+            catch (InvocationTargetException e) {
+
+                throw e.getTargetException();
+            }
+            finally {
+
+                counter.add(System.nanoTime() - start);
+            }
+
+            if (result != null) {
+
+                Class<?> type = method.getReturnType();
+                for (Class<?> wrapped : WRAPPED) {
+
+                    if (type == wrapped) {
+
+                        return wrap(type, result);
+                    }
+                }
+            }
+
+            return result;
+        }
+    }
+}
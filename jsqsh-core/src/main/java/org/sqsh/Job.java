@@ -0,0 +1,264 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.util.logging.Logger;
+
+/**
+ * A job is a batch of SQL that is executed in the background, on a
+ * connection of its own, with its results written to a file. Jobs are
+ * started and kept track of by the {@link JobManager}.
+ */
+public class Job
+    implements Runnable {
+
+    private static final Logger LOG = Logger.getLogger(Job.class.getName());
+
+    /**
+     * The states a job goes through.
+     */
+    public static enum State {
+
+        RUNNING,
+        DONE,
+        FAILED,
+        CANCELLED
+    }
+
+    private int id;
+    private int ownerId;
+    private String sql;
+    private Session session;
+    private File output;
+    private boolean spooled;
+
+    private long startTime = System.currentTimeMillis();
+    private volatile long endTime = 0L;
+    private volatile State state = State.RUNNING;
+    private volatile boolean cancelled = false;
+    private boolean reported = false;
+    private Thread thread = null;
+
+    /**
+     * Creates a job.
+     *
+     * @param id The job number.
+     * @param ownerId The id of the session that started the job.
+     * @param sql The SQL to be executed.
+     * @param session The session that the job runs in. This session is
+     *   expected to have its own connection, its own {@link SQLRenderer},
+     *   and to have its output going to the output file.
+     * @param output The file that results are written to.
+     * @param spooled True if the output file is a temporary file that
+     *   belongs to the job.
+     */
+    public Job(int id, int ownerId, String sql, Session session,
+            File output, boolean spooled) {
+
+        this.id = id;
+        this.ownerId = ownerId;
+        this.sql = sql;
+        this.session = session;
+        this.output = output;
+        this.spooled = spooled;
+    }
+
+    /**
+     * @return The job number.
+     */
+    public int getId() {
+
+        return id;
+    }
+
+    /**
+     * @return The id of the session that started the job.
+     */
+    public int getOwnerId() {
+
+        return ownerId;
+    }
+
+    /**
+     * @return The SQL that the job is executing.
+     */
+    public String getSQL() {
+
+        return sql;
+    }
+
+    /**
+     * @return The file that the results are written to.
+     */
+    public File getOutput() {
+
+        return output;
+    }
+
+    /**
+     * @return true if the output file is a temporary file that goes away
+     *   with the job.
+     */
+    public boolean isSpooled() {
+
+        return spooled;
+    }
+
+    /**
+     * @return The current state of the job.
+     */
+    public State getState() {
+
+        return state;
+    }
+
+    /**
+     * @return true if the job is still running.
+     */
+    public boolean isRunning() {
+
+        return state == State.RUNNING;
+    }
+
+    /**
+     * @return The number of rows that the job has fetched so far.
+     */
+    public long getRowsFetched() {
+
+        return session.getSQLRenderer().getRowsFetched();
+    }
+
+    /**
+     * @return The number of milliseconds that the job has been running,
+     *   or ran for if it has finished.
+     */
+    public long getElapsed() {
+
+        long end = endTime;
+        return (end == 0L ? System.currentTimeMillis() : end) - startTime;
+    }
+
+    /**
+     * Starts the job running in a thread of its own.
+     */
+    synchronized void start() {
+
+        thread = new Thread(this, "jsqsh-job-" + id);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Asks the job to stop by cancelling the statement it is executing.
+     * The job may take a moment to notice.
+     */
+    public void cancel() {
+
+        cancelled = true;
+
+        try {
+
+            session.getConnectionContext().cancel();
+        }
+        catch (Exception e) {
+
+            LOG.fine("Job #" + id + ": cancel failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Waits for the job to finish.
+     *
+     * @throws InterruptedException If the wait was interrupted.
+     */
+    public void waitFor()
+        throws InterruptedException {
+
+        Thread t;
+        synchronized (this) {
+
+            t = thread;
+        }
+
+        if (t != null) {
+
+            t.join();
+        }
+    }
+
+    /**
+     * Marks that the owner of the job has been told that it finished.
+     *
+     * @return true if the job is finished and this is the first time
+     *   this has been called since it finished.
+     */
+    synchronized boolean report() {
+
+        if (state == State.RUNNING || reported) {
+
+            return false;
+        }
+
+        reported = true;
+        return true;
+    }
+
+    /**
+     * Discards the output of the job, if it belongs to the job.
+     */
+    void discard() {
+
+        if (spooled) {
+
+            output.delete();
+        }
+    }
+
+    @Override
+    public void run() {
+
+        ConnectionContext conn = session.getConnectionContext();
+        State finalState = State.DONE;
+
+        try {
+
+            if (!cancelled) {
+
+                conn.eval(sql, session, session.getSQLRenderer());
+            }
+        }
+        catch (SQLException e) {
+
+            SQLTools.printException(session, e);
+            finalState = State.FAILED;
+        }
+        catch (Throwable e) {
+
+            session.printException(e);
+            finalState = State.FAILED;
+        }
+        finally {
+
+            session.out.close();
+            conn.close();
+
+            endTime = System.currentTimeMillis();
+            state = (cancelled ? State.CANCELLED : finalState);
+        }
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps track of the SQL batches that are running in the background
+ * (see {@link Job}). Each job gets a connection of its own, established
+ * from the same {@link ConnectionDescriptor} as the session that started
+ * it, so that the session is free to carry on while the job runs.
+ */
+public class JobManager {
+
+    private SqshContext sqshContext;
+    private List<Job> jobs = new ArrayList<Job>();
+    private int nextId = 1;
+
+    /**
+     * Creates a job manager.
+     *
+     * @param sqshContext The owning context.
+     */
+    public JobManager(SqshContext sqshContext) {
+
+        this.sqshContext = sqshContext;
+    }
+
+    /**
+     * Starts a batch of SQL running in the background. The connection for
+     * the job is established before this method returns, so problems
+     * connecting are reported right away.
+     *
+     * @param owner The session starting the job. The job connects using
+     *   the same settings as this session's connection and starts out in
+     *   its current database.
+     * @param sql The SQL to execute.
+     * @param output The file to write the results to. If null, then the
+     *   results are spooled to a temporary file that is removed when the
+     *   job is removed.
+     * @param style The display style used for the results, or null to
+     *   use the current default style.
+     * @return The newly started job.
+     * @throws SQLException If the connection cannot be established.
+     * @throws IOException If the output file cannot be opened.
+     */
+    public Job start(Session owner, String sql, File output, String style)
+        throws SQLException, IOException {
+
+        ConnectionContext ownerConn = owner.getConnectionContext();
+        if (!(ownerConn instanceof SQLConnectionContext)
+                || ((SQLConnectionContext) ownerConn).getConnectionDescriptor() == null) {
+
+            throw new SQLException("Background jobs can only be run on a "
+                + "JDBC connection");
+        }
+
+        SQLConnectionContext ownerSqlConn = (SQLConnectionContext) ownerConn;
+        SQLRenderer sqlRenderer = new SQLRenderer(owner.getSQLRenderer());
+        int execMode = ownerSqlConn.getExecutionMode();
+
+        /*
+         * The job doesn't get to see the owner's session variables, so
+         * references to them are filled in, or bound, now.
+         */
+        List<CallParameter> params = null;
+        if (execMode == SQLConnectionContext.EXEC_BIND) {
+
+            params = new ArrayList<CallParameter>();
+            sql = sqlRenderer.bind(owner, sql, params);
+        }
+        else if (sqlRenderer.isExpand()) {
+
+            sql = owner.expand(sql);
+        }
+
+        boolean spooled = false;
+        if (output == null) {
+
+            output = File.createTempFile("jsqsh-job", ".out");
+            output.deleteOnExit();
+            spooled = true;
+        }
+
+        PrintStream out = new PrintStream(
+            new FileOutputStream(output), true);
+
+        Session session = new Session(owner,
+            new ByteArrayInputStream(new byte[0]), out, out);
+        session.setInteractive(false);
+
+        sqlRenderer.setExpand(false);
+        sqlRenderer.setBoundParameters(params);
+        sqlRenderer.setInterruptible(false);
+        sqlRenderer.setStyle(style != null
+            ? style : sqshContext.getRendererManager().getDefaultRenderer());
+        session.setSQLRenderer(sqlRenderer);
+
+        SQLConnectionContext conn;
+        try {
+
+            ConnectionDescriptor connDesc = (ConnectionDescriptor)
+                ownerSqlConn.getConnectionDescriptor().clone();
+            conn = owner.getDriverManager().connect(session, connDesc);
+        }
+        catch (SQLException e) {
+
+            out.close();
+            if (spooled) {
+
+                output.delete();
+            }
+
+            throw e;
+        }
+
+        conn.setExecutionMode(execMode);
+        copyState(owner, ownerSqlConn, conn);
+        session.setConnectionContext(conn, false);
+
+        Job job;
+        synchronized (this) {
+
+            job = new Job(nextId++, owner.getId(), sql, session, output,
+                spooled);
+            jobs.add(job);
+        }
+
+        job.start();
+        return job;
+    }
+
+    /**
+     * Carries the database and transaction mode that the user is working
+     * in over to a new connection (a job's, or one used by a
+     * {@link ParallelBlock}).
+     */
+    static void copyState(Session owner, SQLConnectionContext fromCtx,
+            SQLConnectionContext toCtx) {
+
+        try {
+
+            String catalog = fromCtx.getCurrentCatalog();
+            if (catalog != null && !catalog.equals(toCtx.getCurrentCatalog())) {
+
+                toCtx.setCurrentCatalog(catalog);
+            }
+
+            Connection from = fromCtx.getConnection();
+            Connection to = toCtx.getConnection();
+            if (from.getAutoCommit() != to.getAutoCommit()) {
+
+                to.setAutoCommit(from.getAutoCommit());
+            }
+        }
+        catch (SQLException e) {
+
+            owner.err.println("WARNING: New connection may not be in the "
+                + "current database: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return All of the jobs, in the order they were started.
+     */
+    public synchronized Job[] getJobs() {
+
+        return jobs.toArray(new Job[0]);
+    }
+
+    /**
+     * Looks up a job.
+     *
+     * @param id The job number.
+     * @return The job or null if there is no such job.
+     */
+    public synchronized Job getJob(int id) {
+
+        for (Job job : jobs) {
+
+            if (job.getId() == id) {
+
+                return job;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the most recently started job of a session.
+     *
+     * @param sessionId The session id.
+     * @return The job or null if the session has no jobs.
+     */
+    public synchronized Job getLastJob(int sessionId) {
+
+        for (int i = jobs.size() - 1; i >= 0; i--) {
+
+            if (jobs.get(i).getOwnerId() == sessionId) {
+
+                return jobs.get(i);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the jobs of a session that have finished since the last
+     * time this was called, so that the user can be told about them.
+     *
+     * @param sessionId The session id.
+     * @return The newly finished jobs.
+     */
+    public synchronized List<Job> getFinished(int sessionId) {
+
+        List<Job> finished = new ArrayList<Job>();
+        for (Job job : jobs) {
+
+            if (job.getOwnerId() == sessionId && job.report()) {
+
+                finished.add(job);
+            }
+        }
+
+        return finished;
+    }
+
+    /**
+     * Forgets about a job that has finished, removing its output if the
+     * output belongs to the job.
+     *
+     * @param job The job.
+     * @return false if the job is still running and was not removed.
+     */
+    public synchronized boolean remove(Job job) {
+
+        if (job.isRunning()) {
+
+            return false;
+        }
+
+        jobs.remove(job);
+        job.discard();
+        return true;
+    }
+
+    /**
+     * Cancels all running jobs.
+     */
+    public synchronized void cancelAll() {
+
+        for (Job job : jobs) {
+
+            if (job.isRunning()) {
+
+                job.cancel();
+            }
+        }
+    }
+}
@@ -0,0 +1,452 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import org.sqsh.signals.Sig;
+import org.sqsh.signals.SigHandler;
+import org.sqsh.signals.SignalManager;
+import org.sqsh.util.TimeUtils;
+
+/**
+ * Runs the batches of a block of a script at the same time. Between
+ * \parallel and \parallel end, each batch handed to \go is passed to
+ * {@link #submit(String, String, int)} and starts running right away on
+ * one of a pool of connections, established with the same settings as
+ * the session's connection, while the script carries on to the next
+ * batch. At most a given number of batches run at once, so the pool
+ * never holds more connections than that.
+ *
+ * <p>The output of each batch is collected separately and displayed in
+ * the order that the batches appear in the script, as soon as the batch
+ * and all of those before it are done, so the output reads just as it
+ * would have if the batches had been run one after another. A batch that
+ * fails is reported, along with the line of the script that it started
+ * on, and does not stop the others. {@link #end()} waits for every batch
+ * of the block to finish before the script goes on.
+ */
+public class ParallelBlock {
+
+    private static final Logger LOG =
+        Logger.getLogger(ParallelBlock.class.getName());
+
+    private Session owner;
+    private SQLConnectionContext ownerConn;
+    private int parallel;
+    private int execMode;
+    private ExecutorService executor;
+
+    /*
+     * The connections of the pool, and the private sessions, one per
+     * connection, of those that are not in use. A batch borrows a session
+     * for as long as it runs rather than setting up one of its own.
+     */
+    private List<SQLConnectionContext> connections =
+        new ArrayList<SQLConnectionContext>();
+    private LinkedBlockingQueue<Session> idle =
+        new LinkedBlockingQueue<Session>();
+    private boolean connectFailed = false;
+
+    /*
+     * The number of batches that have been submitted and haven't finished.
+     */
+    private AtomicInteger unfinished = new AtomicInteger();
+
+    /*
+     * Every batch of the block, in order, and the first one whose output
+     * hasn't been displayed yet.
+     */
+    private List<Task> tasks = new ArrayList<Task>();
+    private int nextOutput = 0;
+    private int failed = 0;
+    private volatile boolean cancelled = false;
+    private long startTime = System.currentTimeMillis();
+
+    /**
+     * Creates a block.
+     *
+     * @param owner The session running the script.
+     * @param parallel The most batches to run at once.
+     * @throws SQLException If the session isn't connected in a way that
+     *   can be repeated.
+     */
+    public ParallelBlock(Session owner, int parallel)
+        throws SQLException {
+
+        ConnectionContext conn = owner.getConnectionContext();
+        if (!(conn instanceof SQLConnectionContext)
+                || ((SQLConnectionContext) conn).getConnectionDescriptor() == null) {
+
+            throw new SQLException("Parallel blocks can only be run on a "
+                + "JDBC connection");
+        }
+
+        this.owner = owner;
+        this.ownerConn = (SQLConnectionContext) conn;
+        this.parallel = Math.max(1, parallel);
+
+        execMode = ownerConn.getExecutionMode();
+
+        executor = Executors.newFixedThreadPool(this.parallel,
+            new ThreadFactory() {
+
+                private int count = 0;
+
+                @Override
+                public synchronized Thread newThread(Runnable r) {
+
+                    Thread thread = new Thread(r, "jsqsh-parallel-" + (++count));
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+    }
+
+    /**
+     * @return The most batches that run at once.
+     */
+    public int getParallel() {
+
+        return parallel;
+    }
+
+    /**
+     * @return The number of batches handed to the block so far.
+     */
+    public int getBatchCount() {
+
+        return tasks.size();
+    }
+
+    /**
+     * Starts a batch running, first displaying the output of any batches
+     * that have finished since the last time.
+     *
+     * @param sql The SQL of the batch.
+     * @param style The display style for its results, or null to use the
+     *   current default style.
+     * @param line The line of the script that the batch starts on.
+     * @return false if there is no connection that the batch can run on,
+     *   in which case the error has been displayed.
+     */
+    public boolean submit(String sql, String style, int line) {
+
+        /*
+         * The batches run on sessions of their own, which don't see the
+         * owner's variables, so references to them are filled in, or
+         * bound, now.
+         */
+        SQLRenderer sqlRenderer = new SQLRenderer(owner.getSQLRenderer());
+        List<CallParameter> params = null;
+        if (execMode == SQLConnectionContext.EXEC_BIND) {
+
+            params = new ArrayList<CallParameter>();
+            sql = sqlRenderer.bind(owner, sql, params);
+        }
+        else if (sqlRenderer.isExpand()) {
+
+            sql = owner.expand(sql);
+        }
+
+        /*
+         * Connections are only established as they are needed, so a block
+         * of a few batches doesn't pay for the whole pool. A connection
+         * may still be sitting idle for a batch that hasn't started yet,
+         * so it is the unfinished batches that count, not idle connections.
+         */
+        if (unfinished.get() >= connections.size()
+                && connections.size() < parallel && !connectFailed) {
+
+            try {
+
+                Session session = connect();
+                connections.add((SQLConnectionContext)
+                    session.getConnectionContext());
+                idle.add(session);
+            }
+            catch (SQLException e) {
+
+                if (connections.isEmpty()) {
+
+                    SQLTools.printException(owner, e);
+                    return false;
+                }
+
+                /*
+                 * Make do with the connections there are rather than
+                 * trying again for every batch.
+                 */
+                connectFailed = true;
+                owner.err.println("WARNING: Running at most "
+                    + connections.size() + " batches at once: "
+                    + e.getMessage());
+            }
+        }
+
+        sqlRenderer.setExpand(false);
+        sqlRenderer.setBoundParameters(params);
+        sqlRenderer.setInterruptible(false);
+        sqlRenderer.setStyle(style != null
+            ? style : owner.getRendererManager().getDefaultRenderer());
+
+        Task task = new Task(tasks.size() + 1, line, sql, sqlRenderer);
+        tasks.add(task);
+        unfinished.incrementAndGet();
+        executor.execute(task);
+
+        display(false);
+        return true;
+    }
+
+    /**
+     * Waits for every batch of the block to finish, displaying their
+     * output, and closes the connections of the pool. Hitting ^C cancels
+     * the batches that are running.
+     *
+     * @return The number of batches that failed.
+     */
+    public int end() {
+
+        SignalManager sigMan = SignalManager.getInstance();
+        sigMan.push(new SigHandler() {
+
+            @Override
+            public void signal(Sig sig) {
+
+                cancel();
+            }
+        });
+
+        try {
+
+            executor.shutdown();
+
+            boolean done = false;
+            while (!done) {
+
+                try {
+
+                    done = executor.awaitTermination(1, TimeUnit.DAYS);
+                }
+                catch (InterruptedException e) {
+
+                    cancel();
+                }
+            }
+        }
+        finally {
+
+            sigMan.pop();
+            Thread.interrupted();
+        }
+
+        display(true);
+
+        for (SQLConnectionContext conn : connections) {
+
+            conn.close();
+        }
+
+        connections.clear();
+        idle.clear();
+
+        if (owner.getRendererManager().isShowFooters()) {
+
+            int n = tasks.size();
+            owner.err.println("(" + n + " batch" + (n == 1 ? "" : "es")
+                + " run in parallel"
+                + (failed > 0 ? ", " + failed + " failed" : "")
+                + "; total: " + TimeUtils.millisToDurationString(
+                    System.currentTimeMillis() - startTime) + ")");
+        }
+
+        return failed;
+    }
+
+    /**
+     * Displays the output of the batches that are done, in order, stopping
+     * at the first one that is still running.
+     *
+     * @param all If true, every batch is known to be done.
+     */
+    private void display(boolean all) {
+
+        while (nextOutput < tasks.size()) {
+
+            Task task = tasks.get(nextOutput);
+            if (!all && !task.done) {
+
+                break;
+            }
+
+            if (task.failed) {
+
+                ++failed;
+                owner.err.println("Batch " + task.id + ", starting at line "
+                    + task.line + ", failed:");
+            }
+
+            byte []output = task.buffer.toByteArray();
+            owner.out.write(output, 0, output.length);
+            owner.out.flush();
+
+            /*
+             * Let go of the output, which may be large, as soon as it has
+             * been displayed.
+             */
+            tasks.set(nextOutput, null);
+            ++nextOutput;
+        }
+    }
+
+    /**
+     * Establishes a connection for the pool with the settings of the
+     * session's connection, in its current database.
+     *
+     * @return The private session that batches run on the connection
+     *   through.
+     */
+    private Session connect()
+        throws SQLException {
+
+        Session session = new Session(owner,
+            new ByteArrayInputStream(new byte[0]), owner.out, owner.err);
+        session.setInteractive(false);
+
+        ConnectionDescriptor connDesc = (ConnectionDescriptor)
+            ownerConn.getConnectionDescriptor().clone();
+        SQLConnectionContext conn =
+            owner.getDriverManager().connect(session, connDesc);
+
+        conn.setExecutionMode(execMode);
+        JobManager.copyState(owner, ownerConn, conn);
+        session.setConnectionContext(conn, false);
+        return session;
+    }
+
+    /**
+     * Cancels whatever the connections are currently executing.
+     */
+    private void cancel() {
+
+        cancelled = true;
+        for (SQLConnectionContext conn : connections) {
+
+            try {
+
+                conn.cancel();
+            }
+            catch (Exception e) {
+
+                LOG.fine("Cancel failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * The execution of one batch. The work is done through the private
+     * session of whichever connection of the pool is free, which is given
+     * the output, and the {@link SQLRenderer}, of the batch for as long as
+     * it runs.
+     */
+    private class Task
+        implements Runnable {
+
+        private int id;
+        private int line;
+        private String sql;
+        private SQLRenderer sqlRenderer;
+        private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private PrintStream out = new PrintStream(buffer, true);
+        private volatile boolean done = false;
+        private volatile boolean failed = false;
+
+        public Task(int id, int line, String sql, SQLRenderer sqlRenderer) {
+
+            this.id = id;
+            this.line = line;
+            this.sql = sql;
+            this.sqlRenderer = sqlRenderer;
+        }
+
+        @Override
+        public void run() {
+
+            Session session = null;
+
+            try {
+
+                if (cancelled) {
+
+                    out.println("Batch was not run");
+                    failed = true;
+                    return;
+                }
+
+                session = idle.take();
+                session.setOut(out, false);
+                session.setErr(out, false);
+                session.setSQLRenderer(sqlRenderer);
+
+                ((SQLConnectionContext) session.getConnectionContext()).eval(
+                    sql, session, sqlRenderer);
+            }
+            catch (SQLException e) {
+
+                SQLTools.printException(session, e);
+                failed = true;
+            }
+            catch (InterruptedException e) {
+
+                out.println("Batch was not run");
+                failed = true;
+            }
+            catch (Throwable e) {
+
+                /*
+                 * This may have happened before the batch had a session,
+                 * so it is reported straight to the batch's own output.
+                 */
+                owner.getContext().printException(out, e);
+                failed = true;
+            }
+            finally {
+
+                out.flush();
+                if (session != null) {
+
+                    idle.add(session);
+                }
+
+                unfinished.decrementAndGet();
+                done = true;
+            }
+        }
+    }
+}
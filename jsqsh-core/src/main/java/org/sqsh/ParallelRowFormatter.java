@@ -0,0 +1,238 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Used by {@link SQLRenderer#displayResults} to format the values of very
+ * wide result sets on more than one core. Rows are decoded from the result
+ * set on the fetching thread and handed to this object, which gathers them
+ * into blocks that are formatted on a fork-join pool. Formatted blocks are
+ * handed to the {@link Renderer} on the fetching thread in the order in
+ * which the rows were fetched.
+ *
+ * <p>Formatters are not thread safe, so the caller provides a separate
+ * set of formatters for each thread that may be formatting at the same
+ * time. A block borrows a set for the duration of its formatting.
+ */
+class ParallelRowFormatter {
+
+    /**
+     * Approximate number of cells that will be formatted as one unit
+     * of work.
+     */
+    private static final int CELLS_PER_BLOCK = 16384;
+
+    private ForkJoinPool pool;
+    private Renderer renderer;
+    private BlockingQueue<Formatter[]> formatterSets;
+    private int blockSize;
+    private int maxPending;
+    private LinkedList<Block> pending = new LinkedList<Block>();
+    private Block current = null;
+
+    /**
+     * Creates a new formatter.
+     *
+     * @param pool The pool to do the formatting
+     * @param renderer The renderer that will receive the formatted rows
+     * @param formatterSets Formatters for each column of the result set.
+     *   There should be at least one set for each thread in the pool.
+     */
+    public ParallelRowFormatter(ForkJoinPool pool, Renderer renderer,
+            List<Formatter[]> formatterSets) {
+
+        this.pool = pool;
+        this.renderer = renderer;
+        this.formatterSets =
+            new ArrayBlockingQueue<Formatter[]>(formatterSets.size(), false,
+                formatterSets);
+
+        int nCols = formatterSets.get(0).length;
+        this.blockSize = Math.max(1, CELLS_PER_BLOCK / Math.max(1, nCols));
+
+        /*
+         * Limits how far ahead of the renderer the fetching thread can
+         * get, which bounds the amount of memory that is consumed.
+         */
+        this.maxPending = pool.getParallelism() * 2;
+    }
+
+    /**
+     * Adds a row.
+     *
+     * @param row The row. Any column that has already been formatted
+     *   (such as NULL values or LOBs, that have to be read on the fetching
+     *   thread) should be non-null. All other columns will be formatted
+     *   from values.
+     * @param values The values to be formatted for those columns in row
+     *   that are null.
+     * @return false if the renderer has indicated that it is no longer
+     *   interested in rows.
+     */
+    public boolean row(String []row, Object []values) {
+
+        if (current == null) {
+
+            current = new Block(blockSize);
+        }
+
+        current.add(row, values);
+        if (current.count == blockSize) {
+
+            submit();
+        }
+
+        return drain(maxPending);
+    }
+
+    /**
+     * Called once all rows have been added. Waits for all formatting to
+     * complete and hands the remaining rows to the renderer.
+     *
+     * @return false if the renderer has indicated that it is no longer
+     *   interested in rows.
+     */
+    public boolean finish() {
+
+        if (current != null && current.count > 0) {
+
+            submit();
+        }
+
+        return drain(0);
+    }
+
+    /**
+     * Abandons any formatting that is still outstanding.
+     */
+    public void cancel() {
+
+        for (Block block : pending) {
+
+            block.cancel(true);
+        }
+
+        pending.clear();
+        current = null;
+    }
+
+    private void submit() {
+
+        pool.execute(current);
+        pending.addLast(current);
+        current = null;
+    }
+
+    /**
+     * Hands completed blocks to the renderer.
+     *
+     * @param limit The number of blocks that may be left pending. Blocks
+     *   beyond this limit are waited for. Blocks at the head of the queue
+     *   that are already complete are always rendered.
+     * @return false if the renderer does not want any more rows.
+     */
+    private boolean drain(int limit) {
+
+        while (!pending.isEmpty()
+            && (pending.size() > limit || pending.getFirst().isDone())) {
+
+            Block block = pending.removeFirst();
+            block.join();
+
+            for (int i = 0; i < block.count; i++) {
+
+                if (renderer.row(block.rows[i]) == false) {
+
+                    cancel();
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * A block of rows to be formatted.
+     */
+    private class Block
+        extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        String [][]rows;
+        Object [][]values;
+        int count = 0;
+
+        Block(int size) {
+
+            rows = new String[size][];
+            values = new Object[size][];
+        }
+
+        void add(String []row, Object []vals) {
+
+            rows[count] = row;
+            values[count] = vals;
+            ++count;
+        }
+
+        @Override
+        protected void compute() {
+
+            Formatter []formatters;
+            try {
+
+                formatters = formatterSets.take();
+            }
+            catch (InterruptedException e) {
+
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+
+            try {
+
+                for (int r = 0; r < count; r++) {
+
+                    String []row = rows[r];
+                    Object []vals = values[r];
+
+                    for (int c = 0; c < row.length; c++) {
+
+                        if (row[c] == null) {
+
+                            row[c] = formatters[c].format(vals[c]);
+                        }
+                    }
+
+                    values[r] = null;
+                }
+            }
+            finally {
+
+                formatterSets.add(formatters);
+            }
+        }
+    }
+}
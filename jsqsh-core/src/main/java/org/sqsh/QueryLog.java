@@ -0,0 +1,585 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.sql.SQLException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import org.sqsh.util.HashUtils;
+
+/**
+ * An optional log of every query that is executed, written as one JSON
+ * object per line. Entries are handed to a background thread through a
+ * bounded queue, so writing the log never holds up the query that is
+ * being logged; if the writer can't keep up and the queue is full, the
+ * entry is thrown away and counted (see {@link #getDropped()}). When the
+ * log file grows past {@link #getMaxSize()} it is renamed to
+ * <i>file</i>.1 (the previous <i>file</i>.1 becomes <i>file</i>.2 and so
+ * on, up to {@link #KEEP_FILES}) and a new file is started.
+ */
+public class QueryLog {
+
+    private static final Logger LOG = Logger.getLogger(QueryLog.class.getName());
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * The number of rotated log files that are kept.
+     */
+    public static final int KEEP_FILES = 5;
+
+    /**
+     * A logged query.
+     */
+    public static class Entry {
+
+        private long timestamp;
+        private int sessionId;
+        private String connection;
+        private String sql;
+        private long prepareNanos = 0L;
+        private long executeNanos = 0L;
+        private long fetchNanos = 0L;
+        private long rows = 0L;
+        private long updates = 0L;
+        private boolean ok = true;
+        private int errorCode = 0;
+        private String sqlState = null;
+        private String error = null;
+
+        /**
+         * Creates an entry.
+         *
+         * @param timestamp When the query was started.
+         * @param sessionId The session that ran the query.
+         * @param connection The logical name of the connection the query
+         *   ran on, or null if the connection doesn't have one.
+         * @param sql The SQL that was executed.
+         */
+        public Entry (long timestamp, int sessionId, String connection,
+                String sql) {
+
+            this.timestamp = timestamp;
+            this.sessionId = sessionId;
+            this.connection = connection;
+            this.sql = sql;
+        }
+
+        /**
+         * Records how long each phase of the query took.
+         *
+         * @param prepareNanos Time spent getting the statement ready
+         *   (preparing it, binding parameters, etc.).
+         * @param executeNanos Time spent in the driver's execute call.
+         * @param fetchNanos Time spent fetching and displaying results.
+         */
+        public void setTimings(long prepareNanos, long executeNanos,
+                long fetchNanos) {
+
+            this.prepareNanos = prepareNanos;
+            this.executeNanos = executeNanos;
+            this.fetchNanos = fetchNanos;
+        }
+
+        /**
+         * Records what the query produced.
+         *
+         * @param rows The number of rows fetched.
+         * @param updates The total of the update counts returned.
+         */
+        public void setCounts(long rows, long updates) {
+
+            this.rows = rows;
+            this.updates = updates;
+        }
+
+        /**
+         * Marks the query as having failed.
+         *
+         * @param e The exception that it failed with, or null if it failed
+         *   without one.
+         */
+        public void setFailed(SQLException e) {
+
+            this.ok = false;
+            if (e != null) {
+
+                this.errorCode = e.getErrorCode();
+                this.sqlState = e.getSQLState();
+                this.error = e.getMessage();
+            }
+        }
+
+        /**
+         * @return The SQL that was executed.
+         */
+        public String getSQL() {
+
+            return sql;
+        }
+
+        /**
+         * @return The number of rows fetched.
+         */
+        public long getRows() {
+
+            return rows;
+        }
+
+        /**
+         * @return The total of the update counts returned.
+         */
+        public long getUpdates() {
+
+            return updates;
+        }
+
+        /**
+         * @return Whether the query succeeded.
+         */
+        public boolean isOk() {
+
+            return ok;
+        }
+
+        /**
+         * @return The vendor error code that the query failed with.
+         */
+        public int getErrorCode() {
+
+            return errorCode;
+        }
+    }
+
+    /**
+     * The thread that writes the entries to the file.
+     */
+    private class Writer
+        extends Thread {
+
+        private final File file;
+        private final ArrayBlockingQueue<Entry> queue;
+        private volatile boolean closing = false;
+        private final SimpleDateFormat dateFormat =
+            new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+        private BufferedWriter out = null;
+        private long size = 0L;
+
+        public Writer (File file, int queueSize) {
+
+            super("jsqsh-query-log");
+            setDaemon(true);
+
+            this.file = file;
+            this.queue = new ArrayBlockingQueue<Entry>(queueSize);
+        }
+
+        /**
+         * Asks the writer to write out what is queued and then stop.
+         */
+        public void close() {
+
+            closing = true;
+            try {
+
+                join(5000L);
+            }
+            catch (InterruptedException e) {
+
+                /* IGNORED */
+            }
+        }
+
+        @Override
+        public void run() {
+
+            try {
+
+                while (true) {
+
+                    Entry entry = queue.poll(250L, TimeUnit.MILLISECONDS);
+                    if (entry == null) {
+
+                        if (closing) {
+
+                            break;
+                        }
+
+                        continue;
+                    }
+
+                    write(entry);
+
+                    /*
+                     * Flush whenever the writer catches up, so the file
+                     * is never far behind.
+                     */
+                    if (out != null && queue.isEmpty()) {
+
+                        try {
+
+                            out.flush();
+                        }
+                        catch (IOException e) {
+
+                            failed(e);
+                        }
+                    }
+                }
+            }
+            catch (InterruptedException e) {
+
+                /* Time to go */
+            }
+            finally {
+
+                closeFile();
+            }
+        }
+
+        private void write(Entry entry) {
+
+            String line = toJSON(entry);
+            int bytes = line.getBytes(UTF8).length + 1;
+
+            try {
+
+                if (out == null) {
+
+                    open();
+                }
+
+                if (size > 0L && size + bytes > maxSize) {
+
+                    closeFile();
+                    rotate();
+                    open();
+                }
+
+                out.write(line);
+                out.write('\n');
+                size += bytes;
+                written.incrementAndGet();
+            }
+            catch (IOException e) {
+
+                dropped.incrementAndGet();
+                failed(e);
+            }
+        }
+
+        private void open()
+            throws IOException {
+
+            size = file.length();
+            out = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(file, true), UTF8));
+        }
+
+        private void rotate() {
+
+            new File(file.getPath() + "." + KEEP_FILES).delete();
+            for (int i = KEEP_FILES - 1; i >= 1; i--) {
+
+                File from = new File(file.getPath() + "." + i);
+                if (from.exists()) {
+
+                    from.renameTo(new File(file.getPath() + "." + (i + 1)));
+                }
+            }
+
+            file.renameTo(new File(file.getPath() + ".1"));
+        }
+
+        private void failed(IOException e) {
+
+            LOG.warning("Unable to write query log \"" + file + "\": "
+                + e.getMessage());
+            closeFile();
+        }
+
+        private void closeFile() {
+
+            if (out != null) {
+
+                try {
+
+                    out.close();
+                }
+                catch (IOException e) {
+
+                    /* IGNORED */
+                }
+
+                out = null;
+            }
+        }
+
+        private String toJSON(Entry entry) {
+
+            StringBuilder sb = new StringBuilder(256 + entry.sql.length());
+            sb.append("{\"time\":\"")
+              .append(dateFormat.format(new Date(entry.timestamp)))
+              .append("\",\"session\":").append(entry.sessionId)
+              .append(",\"connection\":");
+            quote(sb, entry.connection);
+            sb.append(",\"hash\":\"").append(hash(entry.sql))
+              .append("\",\"sql\":");
+            quote(sb, entry.sql);
+            sb.append(",\"prepare_us\":").append(entry.prepareNanos / 1000L)
+              .append(",\"execute_us\":").append(entry.executeNanos / 1000L)
+              .append(",\"fetch_us\":").append(entry.fetchNanos / 1000L)
+              .append(",\"total_us\":").append((entry.prepareNanos
+                  + entry.executeNanos + entry.fetchNanos) / 1000L)
+              .append(",\"rows\":").append(entry.rows)
+              .append(",\"updates\":").append(entry.updates)
+              .append(",\"ok\":").append(entry.ok);
+
+            if (!entry.ok) {
+
+                sb.append(",\"error_code\":").append(entry.errorCode)
+                  .append(",\"sql_state\":");
+                quote(sb, entry.sqlState);
+                sb.append(",\"error\":");
+                quote(sb, entry.error);
+            }
+
+            sb.append('}');
+            return sb.toString();
+        }
+    }
+
+    private String file = null;
+    private long maxSize = 10L * 1024L * 1024L;
+    private int queueSize = 1024;
+    private volatile Writer writer = null;
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+
+    /**
+     * @return The file that queries are logged to, or null if queries
+     *   aren't being logged.
+     */
+    public String getFile() {
+
+        return file;
+    }
+
+    /**
+     * Starts logging queries to a file, or stops logging them.
+     *
+     * @param file The file to log to. Entries are added to the end of
+     *   the file if it already exists. A null or empty name turns the log
+     *   off.
+     */
+    public synchronized void setFile(String file) {
+
+        if (file != null && file.length() == 0) {
+
+            file = null;
+        }
+
+        this.file = file;
+        restart();
+    }
+
+    /**
+     * @return The size, in bytes, that the log file may grow to before
+     *   it is rotated.
+     */
+    public long getMaxSize() {
+
+        return maxSize;
+    }
+
+    /**
+     * @param maxSize The size, in bytes, that the log file may grow to
+     *   before it is rotated. A value of zero or less means that the
+     *   file is never rotated.
+     */
+    public void setMaxSize(long maxSize) {
+
+        this.maxSize = (maxSize <= 0L ? Long.MAX_VALUE : maxSize);
+    }
+
+    /**
+     * @return The number of entries that may be waiting to be written
+     *   before new entries are dropped.
+     */
+    public int getQueueSize() {
+
+        return queueSize;
+    }
+
+    /**
+     * @param queueSize The number of entries that may be waiting to be
+     *   written before new entries are dropped.
+     */
+    public synchronized void setQueueSize(int queueSize) {
+
+        if (queueSize < 1) {
+
+            throw new IllegalArgumentException("The query log queue size "
+                + "must be at least 1");
+        }
+
+        this.queueSize = queueSize;
+        restart();
+    }
+
+    /**
+     * @return The number of entries that were thrown away because the
+     *   queue was full or they couldn't be written.
+     */
+    public long getDropped() {
+
+        return dropped.get();
+    }
+
+    /**
+     * @return The number of entries that have been written.
+     */
+    public long getWritten() {
+
+        return written.get();
+    }
+
+    /**
+     * @return true if queries are being logged.
+     */
+    public boolean isEnabled() {
+
+        return writer != null;
+    }
+
+    /**
+     * Queues an entry to be written. This never waits: if the queue is
+     * full the entry is dropped.
+     *
+     * @param entry The entry.
+     * @return true if the entry was queued.
+     */
+    public boolean log(Entry entry) {
+
+        Writer w = writer;
+        if (w == null) {
+
+            return false;
+        }
+
+        if (!w.queue.offer(entry)) {
+
+            dropped.incrementAndGet();
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Writes out any queued entries and stops logging.
+     */
+    public synchronized void close() {
+
+        Writer w = writer;
+        writer = null;
+        file = null;
+
+        if (w != null) {
+
+            w.close();
+        }
+    }
+
+    /*
+     * Replaces the writer with one that reflects the current settings,
+     * after letting the old one finish what it has queued.
+     */
+    private void restart() {
+
+        Writer old = writer;
+        writer = null;
+        if (old != null) {
+
+            old.close();
+        }
+
+        if (file != null) {
+
+            Writer w = new Writer(new File(file), queueSize);
+            w.start();
+            writer = w;
+        }
+    }
+
+    /**
+     * Computes the hash of the SQL text that is recorded with each entry,
+     * so that executions of the same statement can be grouped together.
+     * This is the 64-bit FNV-1a hash of the text, in hex.
+     *
+     * @param sql The SQL.
+     * @return The hash.
+     */
+    public static String hash(String sql) {
+
+        return HashUtils.toHex(HashUtils.fnv1a(0L, sql));
+    }
+
+    private static void quote(StringBuilder sb, String str) {
+
+        if (str == null) {
+
+            sb.append("null");
+            return;
+        }
+
+        sb.append('"');
+        int len = str.length();
+        for (int i = 0; i < len; i++) {
+
+            char ch = str.charAt(i);
+            switch (ch) {
+
+                case '"':  sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (ch < 0x20) {
+
+                        sb.append(String.format("\\u%04x", (int) ch));
+                    }
+                    else {
+
+                        sb.append(ch);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+}
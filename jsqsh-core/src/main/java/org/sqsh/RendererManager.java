@@ -38,6 +38,7 @@ public class RendererManager {
     private boolean showFooters = true;
     private int maxColumnWidth = 35;
     private int perfectSampleSize = 500;
+    private int crosstabMaxMemory = 64;
     private String defaultRenderer = "perfect";
     
     private Map<String, Class<? extends Renderer>> renderers = 
@@ -74,6 +75,10 @@ public class RendererManager {
             org.sqsh.renderers.GraphicalTreeRenderer.class);
         renderers.put("discard",
             org.sqsh.renderers.DiscardRenderer.class);
+        renderers.put("checksum",
+            org.sqsh.renderers.ChecksumRenderer.class);
+        renderers.put("stats",
+            org.sqsh.renderers.StatsRenderer.class);
         renderers.put("isql",
             org.sqsh.renderers.ISQLRenderer.class);
         renderers.put("vert",
@@ -168,17 +173,8 @@ public class RendererManager {
      */
     public void setDefaultRenderer(String renderer) {
 
-        for (RendererFactory factory : factories) {
-
-            if (factory.get(renderer) != null) {
+        if (isRenderer(renderer)) {
 
-                defaultRenderer = renderer;
-                return;
-            }
-        }
-
-        if (renderers.containsKey(renderer)) {
-            
             defaultRenderer = renderer;
             return;
         }
@@ -187,6 +183,25 @@ public class RendererManager {
             + "' is not a valid SQL display style. See \"help \\style\"");
     }
     
+    /**
+     * Checks whether a display style exists.
+     * 
+     * @param name The name of the display style.
+     * @return true if a renderer is available by that name.
+     */
+    public boolean isRenderer(String name) {
+
+        for (RendererFactory factory : factories) {
+
+            if (factory.get(name) != null) {
+
+                return true;
+            }
+        }
+
+        return renderers.containsKey(name);
+    }
+    
     /**
      * Returns the name of the default renderer.
      * @return the name of the default renderer.
@@ -268,4 +283,23 @@ public class RendererManager {
     
         this.perfectSampleSize = perfectSampleSize;
     }
+    
+    /**
+     * @return The number of megabytes of memory a crosstab may consume
+     *    before it is spilled to disk. A value <= 0 indicates no limit.
+     */
+    public int getCrosstabMaxMemory() {
+        
+        return crosstabMaxMemory;
+    }
+    
+    /**
+     * @param crosstabMaxMemory The number of megabytes of memory a crosstab
+     *    may consume before it is spilled to disk. A value <= 0 indicates
+     *    no limit.
+     */
+    public void setCrosstabMaxMemory(int crosstabMaxMemory) {
+        
+        this.crosstabMaxMemory = crosstabMaxMemory;
+    }
 }
@@ -0,0 +1,370 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh;
+
+import static org.sqsh.util.HashUtils.fnv1a;
+import static org.sqsh.util.HashUtils.mix;
+import static org.sqsh.util.HashUtils.toHex;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * Computes a fingerprint of a result set that doesn't depend upon the
+ * order of its rows, so that the same query run against two copies of a
+ * table (or the same table at two points in time) can be compared without
+ * exporting the data.
+ *
+ * <p>Each value is normalized before it is hashed, so that differences in
+ * how the same data is represented don't change the fingerprint: numbers
+ * are hashed by their value (so 1, 1.0 and 1.00 are the same, whether they
+ * came from an INTEGER, a DECIMAL or a DOUBLE), trailing blanks are removed
+ * from fixed width character values, and NULL has a hash of its own. The
+ * values of a row are combined, in column order, into a 64-bit hash of the
+ * row, and the row hashes are added together to give the digest of the
+ * result, so the digest is the same regardless of the order the rows
+ * arrive in (but does count duplicate rows). A digest is also kept for each
+ * column, to help narrow down where two results differ.
+ */
+public class ResultChecksum {
+
+    /*
+     * How each column's values are read and normalized.
+     */
+    private static final int GET_STRING  = 0;
+    private static final int GET_CHAR    = 1;
+    private static final int GET_LONG    = 2;
+    private static final int GET_DECIMAL = 3;
+    private static final int GET_DOUBLE  = 4;
+    private static final int GET_BOOLEAN = 5;
+    private static final int GET_BYTES   = 6;
+    private static final int GET_DATE    = 7;
+    private static final int GET_TIME    = 8;
+    private static final int GET_TIMESTAMP = 9;
+
+    /*
+     * Tags mixed into the hash of each kind of value, so that, for
+     * example, the number 1 and the string "1" hash differently.
+     */
+    private static final long TAG_NULL   = 0x6e756c6cL;
+    private static final long TAG_NUMBER = 0x6e756dL;
+    private static final long TAG_STRING = 0x737472L;
+    private static final long TAG_BYTES  = 0x627974L;
+    private static final long TAG_BOOL   = 0x626f6fL;
+    private static final long TAG_TIME   = 0x74696dL;
+
+    private static final BigDecimal MIN_LONG = BigDecimal.valueOf(Long.MIN_VALUE);
+    private static final BigDecimal MAX_LONG = BigDecimal.valueOf(Long.MAX_VALUE);
+
+    private final String []names;
+    private final String []types;
+    private final int []getters;
+    private final long []columnDigests;
+    private final long []nulls;
+    private long digest = 0L;
+    private long rows = 0L;
+
+    /**
+     * Creates a checksum for a result set.
+     *
+     * @param meta The description of the result set.
+     * @throws SQLException If the description can't be read.
+     */
+    public ResultChecksum (ResultSetMetaData meta)
+        throws SQLException {
+
+        int nCols = meta.getColumnCount();
+        names = new String[nCols];
+        types = new String[nCols];
+        getters = new int[nCols];
+        columnDigests = new long[nCols];
+        nulls = new long[nCols];
+
+        for (int i = 0; i < nCols; i++) {
+
+            names[i] = meta.getColumnLabel(i + 1);
+            types[i] = meta.getColumnTypeName(i + 1);
+            getters[i] = getGetter(meta.getColumnType(i + 1));
+        }
+    }
+
+    /**
+     * Adds the current row of a result set to the checksum.
+     *
+     * @param resultSet The result set, positioned on the row.
+     * @throws SQLException If the row can't be read.
+     */
+    public void add(ResultSet resultSet)
+        throws SQLException {
+
+        long rowHash = 0x9e3779b97f4a7c15L;
+        for (int i = 0; i < getters.length; i++) {
+
+            long h = hash(resultSet, i + 1, getters[i]);
+            if (h == TAG_NULL) {
+
+                ++nulls[i];
+            }
+
+            columnDigests[i] += mix(h + i);
+            rowHash = mix(rowHash ^ h) + i;
+        }
+
+        digest += mix(rowHash);
+        ++rows;
+    }
+
+    /**
+     * @return The number of rows added.
+     */
+    public long getRows() {
+
+        return rows;
+    }
+
+    /**
+     * @return The digest of the whole result, as 16 hex digits.
+     */
+    public String getDigest() {
+
+        return toHex(mix(digest ^ rows));
+    }
+
+    /**
+     * @return The number of columns.
+     */
+    public int getColumnCount() {
+
+        return names.length;
+    }
+
+    /**
+     * @param col The column, starting at 0.
+     * @return The name of the column.
+     */
+    public String getColumnName(int col) {
+
+        return names[col];
+    }
+
+    /**
+     * @param col The column, starting at 0.
+     * @return The database's name for the type of the column.
+     */
+    public String getColumnType(int col) {
+
+        return types[col];
+    }
+
+    /**
+     * @param col The column, starting at 0.
+     * @return The number of NULLs seen in the column.
+     */
+    public long getNulls(int col) {
+
+        return nulls[col];
+    }
+
+    /**
+     * @param col The column, starting at 0.
+     * @return The digest of the values of the column, regardless of the
+     *   rows they were in, as 16 hex digits.
+     */
+    public String getColumnDigest(int col) {
+
+        return toHex(mix(columnDigests[col] ^ rows));
+    }
+
+    private static int getGetter(int type) {
+
+        switch (type) {
+
+            case Types.CHAR:
+            case Types.NCHAR:
+                return GET_CHAR;
+
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.BIGINT:
+                return GET_LONG;
+
+            case Types.DECIMAL:
+            case Types.NUMERIC:
+                return GET_DECIMAL;
+
+            case Types.REAL:
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                return GET_DOUBLE;
+
+            case Types.BIT:
+            case Types.BOOLEAN:
+                return GET_BOOLEAN;
+
+            case Types.BINARY:
+            case Types.VARBINARY:
+            case Types.LONGVARBINARY:
+            case Types.BLOB:
+                return GET_BYTES;
+
+            case Types.DATE:
+                return GET_DATE;
+
+            case Types.TIME:
+                return GET_TIME;
+
+            case Types.TIMESTAMP:
+                return GET_TIMESTAMP;
+
+            default:
+                return GET_STRING;
+        }
+    }
+
+    /**
+     * Reads and hashes one value.
+     *
+     * @return The hash, or TAG_NULL if the value is NULL.
+     */
+    private static long hash(ResultSet resultSet, int idx, int getter)
+        throws SQLException {
+
+        switch (getter) {
+
+            case GET_LONG: {
+
+                long val = resultSet.getLong(idx);
+                return resultSet.wasNull() ? TAG_NULL : hashLong(val);
+            }
+
+            case GET_DECIMAL: {
+
+                BigDecimal val = resultSet.getBigDecimal(idx);
+                return val == null ? TAG_NULL : hashDecimal(val);
+            }
+
+            case GET_DOUBLE: {
+
+                double val = resultSet.getDouble(idx);
+                if (resultSet.wasNull()) {
+
+                    return TAG_NULL;
+                }
+
+                if (Double.isNaN(val) || Double.isInfinite(val)) {
+
+                    return hashString(TAG_NUMBER, Double.toString(val));
+                }
+
+                return hashDecimal(BigDecimal.valueOf(val));
+            }
+
+            case GET_BOOLEAN: {
+
+                boolean val = resultSet.getBoolean(idx);
+                return resultSet.wasNull() ? TAG_NULL : mix(TAG_BOOL + (val ? 1 : 0));
+            }
+
+            case GET_BYTES: {
+
+                byte []val = resultSet.getBytes(idx);
+                if (val == null) {
+
+                    return TAG_NULL;
+                }
+
+                return mix(fnv1a(TAG_BYTES, val));
+            }
+
+            case GET_DATE: {
+
+                Object val = resultSet.getDate(idx);
+                return val == null ? TAG_NULL : hashString(TAG_TIME, val.toString());
+            }
+
+            case GET_TIME: {
+
+                Object val = resultSet.getTime(idx);
+                return val == null ? TAG_NULL : hashString(TAG_TIME, val.toString());
+            }
+
+            case GET_TIMESTAMP: {
+
+                Object val = resultSet.getTimestamp(idx);
+                return val == null ? TAG_NULL : hashString(TAG_TIME, val.toString());
+            }
+
+            case GET_CHAR: {
+
+                String val = resultSet.getString(idx);
+                if (val == null) {
+
+                    return TAG_NULL;
+                }
+
+                int end = val.length();
+                while (end > 0 && val.charAt(end - 1) == ' ') {
+
+                    --end;
+                }
+
+                return hashString(TAG_STRING, val.substring(0, end));
+            }
+
+            default: {
+
+                String val = resultSet.getString(idx);
+                return val == null ? TAG_NULL : hashString(TAG_STRING, val);
+            }
+        }
+    }
+
+    private static long hashLong(long val) {
+
+        return mix(TAG_NUMBER ^ mix(val));
+    }
+
+    /*
+     * Whole numbers that fit in a long hash the same as they would coming
+     * from an integer column; anything else is hashed by its canonical
+     * decimal text.
+     */
+    private static long hashDecimal(BigDecimal val) {
+
+        if (val.signum() == 0) {
+
+            return hashLong(0L);
+        }
+
+        val = val.stripTrailingZeros();
+        if (val.scale() <= 0
+            && val.compareTo(MIN_LONG) >= 0 && val.compareTo(MAX_LONG) <= 0) {
+
+            return hashLong(val.longValue());
+        }
+
+        return hashString(TAG_NUMBER, val.toPlainString());
+    }
+
+    private static long hashString(long tag, String val) {
+
+        return mix(fnv1a(tag, val));
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.sqsh.input.ConsoleException;
+import org.sqsh.input.ConsoleLineReader;
+
+/**
+ * A pager that lives inside of jsqsh, as opposed to piping output to an
+ * external program such as "more". Output is passed straight through to
+ * the console until a screen's worth of lines have been written, at which
+ * point the writer is blocked until the user asks for more. Because the
+ * thread writing the output is the same thread that is fetching the rows
+ * of a query, rows are only pulled from the server as fast as the user
+ * pages through them.
+ *
+ * <p>Once the user quits, all further output is discarded and every write
+ * fails with an IOException, which {@link java.io.PrintStream} turns into
+ * its error flag. Callers that are producing a lot of output should check
+ * {@link #isQuit()} and stop doing work when it is set.
+ */
+public class ResultPager
+    extends OutputStream {
+
+    /**
+     * The prompt that is displayed at the bottom of each screen.
+     */
+    public static final String PROMPT = "--More--";
+
+    private OutputStream out;
+    private ConsoleLineReader console;
+    private int pageLines;
+    private int width;
+
+    private int lines = 0;
+    private int column = 0;
+    private volatile boolean quit = false;
+
+    /**
+     * Creates a pager.
+     *
+     * @param out The stream that output is written to.
+     * @param console The console that is used to ask the user to continue.
+     * @param height The number of lines on the screen.
+     * @param width The number of columns on the screen, used to account for
+     *   lines that wrap. A value <= 0 indicates that lines never wrap.
+     */
+    public ResultPager(OutputStream out, ConsoleLineReader console,
+            int height, int width) {
+
+        this.out = out;
+        this.console = console;
+        this.width = width;
+
+        /*
+         * The last line of the screen is taken up by the prompt.
+         */
+        this.pageLines = Math.max(1, height - 1);
+    }
+
+    /**
+     * @return The number of lines of output displayed between prompts.
+     */
+    public int getPageLines() {
+
+        return pageLines;
+    }
+
+    /**
+     * @return true if the user has asked to stop seeing output.
+     */
+    public boolean isQuit() {
+
+        return quit;
+    }
+
+    @Override
+    public void write(int b)
+        throws IOException {
+
+        if (quit) {
+
+            throw new IOException("Output discarded by pager");
+        }
+
+        out.write(b);
+        if (endOfLine(b)) {
+
+            more();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len)
+        throws IOException {
+
+        int end = off + len;
+        int start = off;
+        for (int i = off; i < end; i++) {
+
+            if (quit) {
+
+                throw new IOException("Output discarded by pager");
+            }
+
+            if (endOfLine(b[i])) {
+
+                out.write(b, start, (i - start) + 1);
+                start = i + 1;
+                more();
+            }
+        }
+
+        if (quit) {
+
+            throw new IOException("Output discarded by pager");
+        }
+
+        if (start < end) {
+
+            out.write(b, start, end - start);
+        }
+    }
+
+    @Override
+    public void flush()
+        throws IOException {
+
+        out.flush();
+    }
+
+    /**
+     * Flushes the output. The underlying stream is left open as it
+     * normally belongs to the console.
+     */
+    @Override
+    public void close()
+        throws IOException {
+
+        out.flush();
+    }
+
+    /**
+     * Keeps track of where the cursor is on the screen.
+     *
+     * @param b The byte that was just written.
+     * @return true if the byte finished off a line.
+     */
+    private boolean endOfLine(int b) {
+
+        if (b == '\n') {
+
+            column = 0;
+            return true;
+        }
+
+        /*
+         * Only count the first byte of multi-byte characters.
+         */
+        if ((b & 0xC0) != 0x80 && b != '\r') {
+
+            ++column;
+            if (width > 0 && column > width) {
+
+                column = 1;
+                ++lines;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Called at the end of each line to determine if the screen is full
+     * and, if so, waits for the user.
+     */
+    private void more()
+        throws IOException {
+
+        ++lines;
+        if (lines < pageLines) {
+
+            return;
+        }
+
+        out.flush();
+
+        int key;
+        try {
+
+            key = console.readKey(PROMPT);
+        }
+        catch (ConsoleException e) {
+
+            key = 'q';
+        }
+
+        switch (key) {
+
+            case 'q':
+            case 'Q':
+                quit = true;
+                break;
+
+            /*
+             * Enter scrolls by a single line.
+             */
+            case '\r':
+            case '\n':
+            case 'j':
+                lines = pageLines - 1;
+                break;
+
+            default:
+                lines = 0;
+        }
+    }
+}
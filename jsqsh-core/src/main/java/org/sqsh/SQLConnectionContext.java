@@ -20,6 +20,9 @@ import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.logging.Logger;
 
 import org.sqsh.ConnectionDescriptor;
@@ -35,6 +38,35 @@ public class SQLConnectionContext
     
     private static final Logger LOG = Logger.getLogger(SQLConnectionContext.class.getName());
     
+    /*
+     * Words that, if they show up in SQL that isn't a simple USE or 
+     * SET SCHEMA, mean that the SQL may have changed the current catalog
+     * or schema in a way that we can't follow.
+     */
+    private static final HashSet<String> NAME_CHANGING = new HashSet<String>();
+    static {
+        
+        NAME_CHANGING.add("USE");
+        NAME_CHANGING.add("SCHEMA");
+        NAME_CHANGING.add("CURRENT_SCHEMA");
+        NAME_CHANGING.add("SEARCH_PATH");
+        NAME_CHANGING.add("CURRENT_SQLID");
+    }
+    
+    /*
+     * Special registers that may appear in SET SCHEMA. Their values are
+     * only known to the server.
+     */
+    private static final HashSet<String> REGISTERS = new HashSet<String>();
+    static {
+        
+        REGISTERS.add("USER");
+        REGISTERS.add("SESSION_USER");
+        REGISTERS.add("SYSTEM_USER");
+        REGISTERS.add("CURRENT_USER");
+        REGISTERS.add("DEFAULT");
+    }
+    
     /**
      * Value to be passed to setExecutionMode() to indicate that SQL should
      * be executed directory.
@@ -47,6 +79,13 @@ public class SQLConnectionContext
      */
     public static final int EXEC_PREPARE = 2;
 
+    /**
+     * Value to be passed to setExecutionMode() to indicate that SQL should
+     * be executed via a prepare, with references to variables in the SQL
+     * turned into parameter markers and bound to the variable's value.
+     */
+    public static final int EXEC_BIND = 3;
+
     /**
      * The mode in which SQL is to be executed by default.
      */
@@ -90,6 +129,32 @@ public class SQLConnectionContext
      */
     private String currentSchemaQuery;
     
+    /**
+     * Prepared statements that are kept around for reuse.
+     */
+    private StatementCache statementCache;
+    
+    /**
+     * The kind of row limit clause the database understands, if any.
+     */
+    private String rowLimitStyle = null;
+    
+    /**
+     * Times the JDBC calls made on the connection, if it is being profiled.
+     */
+    private JdbcProfiler profiler = null;
+    
+    /**
+     * The current catalog and schema as last fetched from the server or
+     * as changed by SQL that was executed on the connection. They are
+     * only valid while the matching "known" flag is set.
+     */
+    private final Object nameLock = new Object();
+    private String currentCatalog = null;
+    private boolean catalogKnown = false;
+    private String currentSchema = null;
+    private boolean schemaKnown = false;
+    
     /**
      * Creates a ConnectionContext
      * 
@@ -119,6 +184,54 @@ public class SQLConnectionContext
         this.url = url;
         this.normalizer = normalizer;
         this.currentSchemaQuery = currentSchemaQuery;
+        this.statementCache = new StatementCache(session.getContext());
+    }
+    
+    /**
+     * @return The prepared statements that are kept for reuse on this
+     *   connection.
+     */
+    public StatementCache getStatementCache() {
+        
+        return statementCache;
+    }
+    
+    /**
+     * @return The kind of clause used to limit the rows returned by a query
+     *   on this connection (see {@link org.sqsh.parser.RowLimitRewriter}),
+     *   or null if the database doesn't support one.
+     */
+    public String getRowLimitStyle() {
+        
+        return rowLimitStyle;
+    }
+    
+    /**
+     * @param rowLimitStyle The kind of clause used to limit the rows 
+     *   returned by a query on this connection.
+     */
+    public void setRowLimitStyle(String rowLimitStyle) {
+        
+        this.rowLimitStyle = rowLimitStyle;
+    }
+    
+    /**
+     * @return The profiler timing the JDBC calls made on this connection,
+     *   or null if it isn't being profiled.
+     */
+    public JdbcProfiler getProfiler() {
+        
+        return profiler;
+    }
+    
+    /**
+     * @param profiler The profiler timing the JDBC calls made on this
+     *   connection. The connection given to the constructor must have
+     *   been wrapped by it.
+     */
+    public void setProfiler(JdbcProfiler profiler) {
+        
+        this.profiler = profiler;
     }
     
     
@@ -158,13 +271,16 @@ public class SQLConnectionContext
         int idx = 0;
         
         /*
-         * Do a "quick" check to see if this is a CALL statement with parameter markers
+         * Do a "quick" check to see if this is a CALL statement with parameter
+         * markers. Markers that are there because variables were bound ahead
+         * of time don't count.
          */
         idx = SQLParseUtil.skipWhitespace(sql, len, idx);
         if (sql.regionMatches(true, idx, "CALL", 0, 4)) {
             
             idx += 4;
             if (idx < len && Character.isWhitespace(sql.charAt(idx)) 
+                && !renderer.hasBoundParameters()
                 && SQLParseUtil.skipToParameterMarker(sql, len, idx) < len) {
                 
                 /*
@@ -286,8 +402,8 @@ public class SQLConnectionContext
 
     /**
      * Retrieves the method in which SQL should be executed by default.
-     * This can return a value of EXEC_IMMEDIATE (the default) or
-     * EXEC_PREPARE.
+     * This can return a value of EXEC_IMMEDIATE (the default),
+     * EXEC_PREPARE, or EXEC_BIND.
      *
      * @return the execution mode.
      */
@@ -299,15 +415,16 @@ public class SQLConnectionContext
     /**
      * Sets the mode in which SQL will be executed by default.
      *
-     * @param mode The mode of execution. This can be EXEC_IMMEDIATE
-     *    or EXEC_PREPARE.
+     * @param mode The mode of execution. This can be EXEC_IMMEDIATE,
+     *    EXEC_PREPARE, or EXEC_BIND.
      */
     public void setExecutionMode(int mode) {
 
-        if (mode != EXEC_IMMEDIATE && mode != EXEC_PREPARE) {
+        if (mode != EXEC_IMMEDIATE && mode != EXEC_PREPARE
+                && mode != EXEC_BIND) {
 
             throw new java.lang.IllegalArgumentException("Execution mode "
-                + "must be EXEC_IMMEDIATE or EXEC_PREPARE");
+                + "must be EXEC_IMMEDIATE, EXEC_PREPARE, or EXEC_BIND");
         }
 
         executionMode = mode;
@@ -317,7 +434,7 @@ public class SQLConnectionContext
      * Sets the mode in which SQL will be executed by default.
      *
      * @param mode The mode of execution. This can be the string
-     *    "immediate" or "prepare".
+     *    "immediate", "prepare", or "bind".
      */
     public void setExecutionModeName(String mode) {
 
@@ -329,10 +446,14 @@ public class SQLConnectionContext
 
             executionMode = EXEC_PREPARE;
         }
+        else if ("bind".equalsIgnoreCase(mode)) {
+
+            executionMode = EXEC_BIND;
+        }
         else {
 
             throw new java.lang.IllegalArgumentException("Execution mode "
-                + "must be 'immediate' or 'prepare'");
+                + "must be 'immediate', 'prepare', or 'bind'");
         }
     }
 
@@ -342,6 +463,10 @@ public class SQLConnectionContext
 
             return "prepare";
         }
+        else if (executionMode == EXEC_BIND) {
+
+            return "bind";
+        }
 
         return "immediate";
     }
@@ -515,6 +640,8 @@ public class SQLConnectionContext
     @Override
     public void close() {
         
+        statementCache.clear();
+        
         try {
             
             connection.close();
@@ -557,8 +684,329 @@ public class SQLConnectionContext
         return null;
     }
     
+    /**
+     * Returns the current catalog of the connection. This is only fetched
+     * from the server when the connection is established, when it is
+     * explicitly resynchronized or after SQL that could have changed it
+     * in an unrecognized way was executed, otherwise the value that is
+     * kept in the session is returned.
+     * 
+     * @return The current catalog or null if it is not known.
+     */
+    public String getCurrentCatalog() {
+        
+        synchronized (nameLock) {
+            
+            if (!catalogKnown) {
+                
+                currentCatalog = fetchCurrentCatalog();
+                catalogKnown = true;
+            }
+            
+            return currentCatalog;
+        }
+    }
+    
+    /**
+     * Changes the current catalog of the connection.
+     * 
+     * @param catalog The new catalog.
+     * @throws SQLException If the catalog could not be changed.
+     */
+    public void setCurrentCatalog(String catalog)
+        throws SQLException {
+        
+        connection.setCatalog(catalog);
+        statementCache.clear();
+        
+        synchronized (nameLock) {
+            
+            currentCatalog = catalog;
+            catalogKnown = true;
+            schemaKnown = false;
+        }
+    }
+    
+    /**
+     * Returns the current schema of the connection. Like 
+     * {@link #getCurrentCatalog()}, this is kept in the session rather
+     * than asked for each time.
+     * 
+     * @return The current schema or null if it is not known.
+     */
     public String getCurrentSchema() {
         
+        synchronized (nameLock) {
+            
+            if (!schemaKnown) {
+                
+                currentSchema = fetchCurrentSchema();
+                schemaKnown = true;
+            }
+            
+            return currentSchema;
+        }
+    }
+    
+    /**
+     * Fetches the current catalog and schema from the server.
+     */
+    public void resyncCurrentNames() {
+        
+        synchronized (nameLock) {
+            
+            catalogKnown = false;
+            schemaKnown = false;
+            getCurrentCatalog();
+            getCurrentSchema();
+        }
+    }
+    
+    /**
+     * Forgets the current catalog and schema, so that they will be fetched
+     * from the server the next time they are needed.
+     */
+    public void invalidateCurrentNames() {
+        
+        synchronized (nameLock) {
+            
+            catalogKnown = false;
+            schemaKnown = false;
+        }
+    }
+    
+    /**
+     * Called by the SQLRenderer after it has executed SQL on the 
+     * connection, to keep track of the current catalog and schema. A
+     * lone <code>USE</code>, <code>SET [CURRENT] SCHEMA</code> or 
+     * <code>SET CURRENT_SCHEMA</code> that succeeded changes the names 
+     * directly. Any other SQL that looks like it could have changed them
+     * causes them to be fetched again the next time they are needed.
+     * 
+     * @param sql The SQL that was executed.
+     * @param succeeded True if it executed without error.
+     */
+    public void trackCurrentNames(String sql, boolean succeeded) {
+        
+        List<String> words = getWords(sql);
+        if (succeeded && applyNameChange(words)) {
+            
+            return;
+        }
+        
+        for (String word : words) {
+            
+            if (NAME_CHANGING.contains(word.toUpperCase())) {
+                
+                invalidateCurrentNames();
+                return;
+            }
+        }
+    }
+    
+    /*
+     * Recognizes a statement that changes the current catalog or schema
+     * to a specific name.
+     */
+    private boolean applyNameChange(List<String> words) {
+        
+        int n = words.size();
+        if (n > 0 && words.get(n - 1).equals(";")) {
+            
+            --n;
+        }
+        
+        if (n < 2) {
+            
+            return false;
+        }
+        
+        String first = words.get(0).toUpperCase();
+        if (first.equals("USE")) {
+            
+            String catalog = (n == 2 ? toName(words.get(1)) : null);
+            if (catalog == null) {
+                
+                return false;
+            }
+            
+            synchronized (nameLock) {
+                
+                currentCatalog = catalog;
+                catalogKnown = true;
+                schemaKnown = false;
+            }
+            
+            return true;
+        }
+        
+        /*
+         * Oracle does it with ALTER SESSION SET CURRENT_SCHEMA.
+         */
+        int idx;
+        if (first.equals("SET")) {
+            
+            idx = 1;
+        }
+        else if (first.equals("ALTER") && n > 3
+                && words.get(1).equalsIgnoreCase("SESSION")
+                && words.get(2).equalsIgnoreCase("SET")) {
+            
+            idx = 3;
+        }
+        else {
+            
+            return false;
+        }
+        
+        String word = words.get(idx).toUpperCase();
+        if (word.equals("CURRENT") && idx + 1 < n
+                && words.get(idx + 1).equalsIgnoreCase("SCHEMA")) {
+            
+            idx += 2;
+        }
+        else if (word.equals("SCHEMA") || word.equals("CURRENT_SCHEMA")) {
+            
+            ++idx;
+        }
+        else {
+            
+            return false;
+        }
+        
+        if (idx < n && words.get(idx).equals("=")) {
+            
+            ++idx;
+        }
+        
+        if (idx != n - 1) {
+            
+            return false;
+        }
+        
+        /*
+         * DB2 allows the schema to be given as a string.
+         */
+        String value = words.get(idx);
+        String schema;
+        if (value.length() >= 2 && value.charAt(0) == '\''
+                && value.charAt(value.length() - 1) == '\'') {
+            
+            schema = value.substring(1, value.length() - 1).replace("''", "'");
+        }
+        else if (REGISTERS.contains(value.toUpperCase())) {
+            
+            return false;
+        }
+        else {
+            
+            schema = toName(value);
+        }
+        
+        if (schema == null) {
+            
+            return false;
+        }
+        
+        synchronized (nameLock) {
+            
+            currentSchema = schema;
+            schemaKnown = true;
+        }
+        
+        return true;
+    }
+    
+    /*
+     * Turns an identifier, that may be quoted, into the name that the
+     * server will know it by. Returns null if the word isn't an identifier.
+     */
+    private String toName(String word) {
+        
+        int len = word.length();
+        char ch = word.charAt(0);
+        if (len >= 2 && (ch == '"' || ch == '`')
+                && word.charAt(len - 1) == ch) {
+            
+            String doubled = new String(new char[] { ch, ch });
+            return word.substring(1, len - 1).replace(doubled,
+                String.valueOf(ch));
+        }
+        
+        if (len >= 2 && ch == '[' && word.charAt(len - 1) == ']') {
+            
+            return word.substring(1, len - 1);
+        }
+        
+        if (!Character.isLetter(ch) && ch != '_') {
+            
+            return null;
+        }
+        
+        return normalizer == null ? word : normalizer.normalize(word);
+    }
+    
+    /*
+     * Breaks SQL into words, quoted strings and identifiers (with their
+     * quotes) and punctuation, skipping white space and comments.
+     */
+    private static List<String> getWords(String sql) {
+        
+        List<String> words = new ArrayList<String>();
+        int len = sql.length();
+        int idx = SQLParseUtil.skipWhitespace(sql, len, 0);
+        
+        while (idx < len) {
+            
+            char ch = sql.charAt(idx);
+            int end;
+            if (ch == '\'' || ch == '"' || ch == '`') {
+                
+                end = SQLParseUtil.skipQuotedString(sql, len, idx);
+            }
+            else if (ch == '[') {
+                
+                end = SQLParseUtil.skipBrackets(sql, len, idx);
+            }
+            else if (Character.isLetterOrDigit(ch) || ch == '_') {
+                
+                end = idx + 1;
+                while (end < len
+                    && (Character.isLetterOrDigit(sql.charAt(end))
+                        || sql.charAt(end) == '_'
+                        || sql.charAt(end) == '$')) {
+                    
+                    ++end;
+                }
+            }
+            else {
+                
+                end = idx + 1;
+            }
+            
+            words.add(sql.substring(idx, end));
+            idx = SQLParseUtil.skipWhitespace(sql, len, end);
+        }
+        
+        return words;
+    }
+    
+    private String fetchCurrentCatalog() {
+        
+        try {
+            
+            return connection.getCatalog();
+        }
+        catch (SQLException e) {
+            
+            LOG.fine("Failure while invoking connection.getCatalog(): " + e.getMessage());
+        }
+        
+        return null;
+    }
+    
+    private String fetchCurrentSchema() {
+        
         /*
          * Connection.getSchema() is only available in 1.7 drivers. We will
          * try that first, then fall back to running a query if that doesn't work.
@@ -585,13 +1033,14 @@ public class SQLConnectionContext
             return null;
         }
         
+        Statement query = null;
         ResultSet results = null;
         String schema = null;
         
         try {
             
-            statement = connection.createStatement();
-            results = statement.executeQuery(currentSchemaQuery);
+            query = connection.createStatement();
+            results = query.executeQuery(currentSchemaQuery);
             while (results.next()) {
                 
                 schema = results.getString(1);
@@ -601,6 +1050,11 @@ public class SQLConnectionContext
             
             LOG.fine("Failed executing '" + currentSchemaQuery + "': " + e.getMessage());
         }
+        finally {
+            
+            SQLTools.close(results);
+            SQLTools.close(query);
+        }
         
         return schema;
     }
@@ -110,6 +110,7 @@ public class SQLDriver
     private SQLAnalyzer analyzer = new NullAnalyzer();
     private SQLNormalizer normalizer = DEFAULT_NORMALIZER;
     private String currentSchemaQuery = null;
+    private String rowLimitStyle = null;
     private List<String> classpath = null;
     
     public SQLDriver() {
@@ -142,6 +143,7 @@ public class SQLDriver
         n.sessionVariables.putAll(sessionVariables);
         n.analyzer = analyzer;
         n.currentSchemaQuery = currentSchemaQuery;
+        n.rowLimitStyle = rowLimitStyle;
         n.normalizer = normalizer;
         if (classpath != null) {
             
@@ -314,6 +316,33 @@ public class SQLDriver
         return this.currentSchemaQuery;
     }
     
+    /**
+     * Sets the kind of clause that is used to limit the number of rows a
+     * query returns when ${maxrows_method} is "rewrite".
+     * 
+     * @param style One of "fetch" (FETCH FIRST n ROWS ONLY), "limit" 
+     *   (LIMIT n) or "top" (SELECT TOP n), or null if the database 
+     *   doesn't support any of them.
+     */
+    public void setRowLimitStyle(String style) {
+        
+        if (style != null) {
+            
+            style = style.trim().toLowerCase();
+        }
+        
+        this.rowLimitStyle = style;
+    }
+    
+    /**
+     * @return The kind of clause that is used to limit the number of rows a
+     *   query returns, or null if there is none.
+     */
+    public String getRowLimitStyle() {
+        
+        return this.rowLimitStyle;
+    }
+    
     /**
      * Adds a file or classpath onto the end of the existing classpath
      * @param classpath The new classpath to add. This classpath may contain
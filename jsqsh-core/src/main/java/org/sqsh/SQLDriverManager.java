@@ -594,6 +594,7 @@ public class SQLDriverManager {
         url = getUrl(session, properties, variables, url);
         
         Connection conn = null;
+        JdbcProfiler profiler = null;
         try {
             
             Driver jdbcDriver = DriverManager.getDriver(url);
@@ -659,6 +660,13 @@ public class SQLDriverManager {
             }
 
             conn = DriverManager.getConnection(url, props);
+            
+            if (!"off".equals(session.getContext().getJdbcProfile())) {
+                
+                profiler = new JdbcProfiler();
+                conn = profiler.wrap(conn);
+            }
+            
             SQLTools.printWarnings(session, conn);
         }
         catch (SQLException e) {
@@ -718,6 +726,8 @@ public class SQLDriverManager {
                 sqlDriver.getAnalyzer(),
                 sqlDriver.getNormalizer(),
                 sqlDriver.getCurrentSchemaQuery());
+        newContext.setRowLimitStyle(sqlDriver.getRowLimitStyle());
+        newContext.setProfiler(profiler);
         session.setConnectionContext(newContext, false);
 
         try {
@@ -738,6 +748,22 @@ public class SQLDriverManager {
 
             session.setConnectionContext(oldContext, false);
         }
+        
+        /*
+         * Pick up where the connection (and the driver's session variables)
+         * left us, so that object names can be filled in without going
+         * back to the server.
+         */
+        newContext.resyncCurrentNames();
+        
+        /*
+         * The profile starts with the first thing the user runs, not with
+         * the work of connecting.
+         */
+        if (profiler != null) {
+            
+            profiler.reset();
+        }
 
         return newContext;
     }
@@ -959,6 +985,11 @@ public class SQLDriverManager {
             driver.setCurrentSchemaQuery(orig.getCurrentSchemaQuery());
         }
         
+        if (orig != null && driver.getRowLimitStyle() == null) {
+            
+            driver.setRowLimitStyle(orig.getRowLimitStyle());
+        }
+        
         driver.setInternal(isLoadingInternal);
         driver.setDriverManager(this);
         checkDriverAvailability(driver.getName());
@@ -1073,6 +1104,11 @@ public class SQLDriverManager {
             "setCurrentSchemaQuery", 1, new Class[] { java.lang.String.class });
             digester.addCallParam(path, 0);
             
+        path = "Drivers/Driver/RowLimitStyle";
+        digester.addCallMethod(path, 
+            "setRowLimitStyle", 1, new Class[] { java.lang.String.class });
+            digester.addCallParam(path, 0);
+            
         digester.push(this); 
         InputStream in = null;
         disabledDriverVerification = true;
@@ -1144,6 +1180,12 @@ public class SQLDriverManager {
                         out.println("]]></CurrentSchemaQuery>");
                     }
                     
+                    if (driver.getRowLimitStyle() != null) {
+                        
+                        out.println("      <RowLimitStyle>"
+                            + driver.getRowLimitStyle() + "</RowLimitStyle>");
+                    }
+                    
                     Map<String, String> vars = driver.getVariables();
                     for (Entry<String, String> e : vars.entrySet()) {
                         
@@ -15,13 +15,12 @@
  */
 package org.sqsh;
 
-import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
 
 /**
  * Used to parse object names like database.schema.table.   Missing pieces of
- * the name will attempt to be filled by querying the underlying JDBC driver, 
+ * the name are filled in with the connection's current catalog and schema,
  * and names will be normalized according to the database specific name normalization
  * rules (if they are installed).
  */
@@ -47,18 +46,13 @@ public class SQLObjectName {
         this.maxParts = maxParts;
         parse(str);
         
-        boolean hasExplicitCatalog = false;
+        /*
+         * The current catalog and schema are kept by the connection, so
+         * filling them in doesn't cost a trip to the server.
+         */
         if (catalog == null || catalog.length() == 0) {
             
-            try {
-                
-                catalog = conn.getConnection().getCatalog();
-            }
-            catch (SQLException e) {
-                
-                catalog = null;
-                hasExplicitCatalog = true;
-            }
+            catalog = conn.getCurrentCatalog();
         }
         else {
             
@@ -67,14 +61,7 @@ public class SQLObjectName {
         
         if (schema == null || schema.length() == 0) {
             
-            if (hasExplicitCatalog) {
-                
-                schema = null;
-            }
-            else {
-                
-                schema = conn.getCurrentSchema();
-            }
+            schema = conn.getCurrentSchema();
         }
         else {
             
@@ -15,12 +15,39 @@
  */
 package org.sqsh;
 
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.sqsh.variables.IntegerVariable;
+import org.sqsh.variables.PropertyVariable;
 
 /**
  * Simple static methods for doing general SQL parsing
  */
 public class SQLParseUtil {
     
+    /*
+     * The Velocity directives whose arguments are left alone when binding
+     * variables, so that they can still be evaluated by expansion.
+     */
+    private static final Set<String> DIRECTIVES = new HashSet<String>(
+        Arrays.asList("if", "elseif", "foreach", "set", "macro", "define",
+            "evaluate", "parse", "include"));
+    
+    /*
+     * Variable references that are waiting to be bound are replaced with
+     * these (around the number of the reference) while the SQL is being
+     * expanded. They are in the private use area, so they don't clash with
+     * the SQL and mean nothing to Velocity.
+     */
+    private static final char MARK_START = '\uE000';
+    private static final char MARK_END = '\uE001';
+    
     /**
      * Searches through a string to look for parameter markers ("?"). Care is
      * taken to ignore parameter marker characters embedded in string literals
@@ -273,4 +300,315 @@ public class SQLParseUtil {
         
         return idx;
     }
+    
+    /**
+     * Replaces references to variables (<code>$name</code> or
+     * <code>${name}</code>) in a SQL statement with parameter markers. Care
+     * is taken to ignore references embedded in string literals, quoted
+     * identifiers and comments. References to variables that are not
+     * defined, or that have been escaped with a backslash, are left
+     * untouched.
+     * 
+     * @param sql The SQL statement
+     * @param variables The variables that may be referenced
+     * @param params A parameter is appended to this list for each 
+     *   reference that was replaced. The parameter index of each will
+     *   follow on from any parameters already in the list.
+     * @return The SQL with the variable references replaced.
+     */
+    public static String bindVariables(CharSequence sql, 
+            Map<String, String> variables, List<CallParameter> params) {
+        
+        List<CallParameter> refs = new ArrayList<CallParameter>();
+        return bindMarkers(markVariables(sql, variables, false, refs),
+            refs, params);
+    }
+    
+    /**
+     * The first half of {@link #bindVariables(CharSequence, Map, List)},
+     * for SQL that is to be expanded before it is bound. The references
+     * that would be bound are replaced with markers that expansion leaves
+     * alone, and {@link #bindMarkers(CharSequence, List, List)} then turns
+     * whatever markers are left after expansion into parameter markers.
+     * References in the arguments of Velocity directives (such as 
+     * <code>#if ($debug)</code>) are left for the directive to use.
+     * 
+     * @param sql The SQL statement
+     * @param variables The variables that may be referenced
+     * @param directives If true, the arguments of directives are skipped
+     * @param refs A parameter is appended to this list for each 
+     *   reference that was replaced, holding the value of the variable and,
+     *   if it is known, its type (otherwise VARCHAR).
+     * @return The SQL with the variable references replaced.
+     */
+    public static String markVariables(CharSequence sql, 
+            Map<String, String> variables, boolean directives,
+            List<CallParameter> refs) {
+        
+        final int len = sql.length();
+        StringBuilder sb = new StringBuilder(len);
+        int idx = 0;
+        
+        while (idx < len) {
+            
+            char ch = sql.charAt(idx);
+            int start = idx;
+            
+            if (ch == '/') {
+                
+                idx = skipComment(sql, len, idx);
+            }
+            else if (ch == '-') {
+                
+                idx = skipDashComment(sql, len, idx);
+            }
+            else if (ch == '\'' || ch == '"') {
+                
+                idx = skipQuotedString(sql, len, idx);
+            }
+            else if (ch == '#' && directives) {
+                
+                idx = skipDirective(sql, len, idx);
+            }
+            else if (ch == '\\' && idx + 1 < len && sql.charAt(idx + 1) == '$') {
+                
+                idx += 2;
+            }
+            else if (ch == '$') {
+                
+                int nameStart = idx + 1;
+                
+                /*
+                 * Velocity allows $!name to indicate a "quiet" reference.
+                 */
+                if (nameStart < len && sql.charAt(nameStart) == '!') {
+                    
+                    ++nameStart;
+                }
+                
+                boolean braced = (nameStart < len && sql.charAt(nameStart) == '{');
+                if (braced) {
+                    
+                    ++nameStart;
+                }
+                
+                int nameEnd = nameStart;
+                while (nameEnd < len) {
+                    
+                    char nch = sql.charAt(nameEnd);
+                    if (Character.isLetter(nch) || nch == '_' 
+                        || (nameEnd > nameStart && Character.isDigit(nch))) {
+                        
+                        ++nameEnd;
+                    }
+                    else {
+                        
+                        break;
+                    }
+                }
+                
+                String name = null;
+                String value = null;
+                if (nameEnd > nameStart
+                    && (!braced || (nameEnd < len && sql.charAt(nameEnd) == '}'))) {
+                    
+                    name = sql.subSequence(nameStart, nameEnd).toString();
+                    value = variables.get(name);
+                }
+                
+                if (value != null) {
+                    
+                    refs.add(new CallParameter(refs.size() + 1,
+                        typeOf(variables, name), CallParameter.INPUT, value));
+                    sb.append(MARK_START).append(refs.size()).append(MARK_END);
+                    idx = braced ? nameEnd + 1 : nameEnd;
+                    continue;
+                }
+                
+                ++idx;
+            }
+            else {
+                
+                ++idx;
+            }
+            
+            sb.append(sql, start, idx);
+        }
+        
+        return sb.toString();
+    }
+    
+    /**
+     * The second half of {@link #markVariables(CharSequence, Map, boolean, List)},
+     * replacing the markers it left with parameter markers. A marker that
+     * was dropped by expansion (inside an <code>#if</code> that was false)
+     * isn't bound, and one that was repeated (by a <code>#foreach</code>)
+     * is bound once for each time it appears.
+     * 
+     * @param sql The SQL statement
+     * @param refs The references returned by markVariables()
+     * @param params A parameter is appended to this list for each marker
+     *   that was replaced. The parameter index of each will follow on from
+     *   any parameters already in the list.
+     * @return The SQL with the markers replaced.
+     */
+    public static String bindMarkers(CharSequence sql,
+            List<CallParameter> refs, List<CallParameter> params) {
+        
+        final int len = sql.length();
+        StringBuilder sb = new StringBuilder(len);
+        int idx = 0;
+        
+        while (idx < len) {
+            
+            char ch = sql.charAt(idx);
+            if (ch == MARK_START) {
+                
+                int end = idx + 1;
+                int ref = 0;
+                while (end < len && Character.isDigit(sql.charAt(end))) {
+                    
+                    ref = (ref * 10) + (sql.charAt(end) - '0');
+                    ++end;
+                }
+                
+                if (end < len && sql.charAt(end) == MARK_END
+                    && ref > 0 && ref <= refs.size()) {
+                    
+                    CallParameter param = refs.get(ref - 1);
+                    params.add(new CallParameter(params.size() + 1,
+                        param.getType(), CallParameter.INPUT,
+                        param.getValue()));
+                    sb.append('?');
+                    idx = end + 1;
+                    continue;
+                }
+            }
+            
+            sb.append(ch);
+            ++idx;
+        }
+        
+        return sb.toString();
+    }
+    
+    /**
+     * Skips a Velocity directive, along with its arguments if it is one
+     * that takes them.
+     * 
+     * @param str The string being parsed
+     * @param len The length of the string being parsed
+     * @param idx The index at which a '#' occurs
+     * @return The index immediately following the directive, or the one
+     *   following the '#' if it isn't a directive.
+     */
+    private static int skipDirective(CharSequence str, int len, int idx) {
+        
+        int i = idx + 1;
+        boolean braced = (i < len && str.charAt(i) == '{');
+        if (braced) {
+            
+            ++i;
+        }
+        
+        int nameStart = i;
+        while (i < len && Character.isLetter(str.charAt(i))) {
+            
+            ++i;
+        }
+        
+        String name = str.subSequence(nameStart, i).toString();
+        if (braced) {
+            
+            if (i >= len || str.charAt(i) != '}') {
+                
+                return idx + 1;
+            }
+            
+            ++i;
+        }
+        
+        if (!DIRECTIVES.contains(name)) {
+            
+            return idx + 1;
+        }
+        
+        i = skipWhitespace(str, len, i);
+        if (i >= len || str.charAt(i) != '(') {
+            
+            return i;
+        }
+        
+        int depth = 0;
+        while (i < len) {
+            
+            char ch = str.charAt(i);
+            if (ch == '\'' || ch == '"') {
+                
+                i = skipQuotedString(str, len, i);
+                continue;
+            }
+            
+            if (ch == '(') {
+                
+                ++depth;
+            }
+            else if (ch == ')' && --depth == 0) {
+                
+                return i + 1;
+            }
+            
+            ++i;
+        }
+        
+        return i;
+    }
+    
+    /**
+     * Works out the type of a variable, for binding its value.
+     * 
+     * @param variables The variables
+     * @param name The name of the variable
+     * @return The JDBC type, or VARCHAR if the variable is just text (as
+     *   most are) or its type isn't known.
+     */
+    private static int typeOf(Map<String, String> variables, String name) {
+        
+        if (!(variables instanceof VariableManager)) {
+            
+            return Types.VARCHAR;
+        }
+        
+        Variable var = ((VariableManager) variables).getVariable(name);
+        if (var instanceof IntegerVariable) {
+            
+            return Types.INTEGER;
+        }
+        
+        Object value = (var instanceof PropertyVariable
+            ? ((PropertyVariable) var).getValue() : null);
+        if (value instanceof Integer || value instanceof Short
+                || value instanceof Byte) {
+            
+            return Types.INTEGER;
+        }
+        if (value instanceof Long) {
+            
+            return Types.BIGINT;
+        }
+        if (value instanceof Double) {
+            
+            return Types.DOUBLE;
+        }
+        if (value instanceof Float) {
+            
+            return Types.FLOAT;
+        }
+        if (value instanceof Boolean) {
+            
+            return Types.BOOLEAN;
+        }
+        
+        return Types.VARCHAR;
+    }
 }
@@ -15,6 +15,7 @@
  */
 package org.sqsh;
 
+import java.math.BigDecimal;
 import java.sql.CallableStatement;
 import java.sql.Connection;
 import java.sql.ParameterMetaData;
@@ -28,11 +29,15 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 import java.util.logging.Logger;
 
 import org.sqsh.signals.CancelingSignalHandler;
 import org.sqsh.signals.SignalManager;
 import org.sqsh.SqshTypes;
+import org.sqsh.format.NumberFormatter;
+import org.sqsh.parser.RowLimitRewriter;
+import org.sqsh.renderers.ChecksumRenderer;
 import org.sqsh.util.TimeUtils;
 
 public class SQLRenderer {
@@ -66,6 +71,15 @@ public class SQLRenderer {
      */
     public static final int LIMIT_DISCARD = 3;
     
+    /**
+     * Used by setRowLimitMethod() to indicate that result set size should
+     * be limited by adding a limit clause to the query, in the style that
+     * the connection's driver definition calls for (see
+     * {@link SQLConnectionContext#getRowLimitStyle()}). Queries that cannot
+     * be rewritten have their rows discarded as with {@link #LIMIT_DISCARD}.
+     */
+    public static final int LIMIT_REWRITE = 4;
+    
     
     /**
      * If set to true, then result set metadata 
@@ -77,6 +91,13 @@ public class SQLRenderer {
      */
     private boolean expand = false;
     
+    /**
+     * Parameters for SQL whose variable references were already bound
+     * (see {@link #bind(Session, String, List)}) on behalf of another
+     * session. They are used the next time SQL is executed in bind mode.
+     */
+    private List<CallParameter> boundParameters = null;
+    
     /**
      * The maximum number of rows that will be rendered. A value <= 0
      * will provide unlimited output.
@@ -110,10 +131,75 @@ public class SQLRenderer {
      */
     private int maxUpdateCount = 0;
     
+    /**
+     * Result sets with at least this many displayed columns will have
+     * their values formatted in parallel. A value <= 0 disables this.
+     */
+    private int parallelFormatColumns = 256;
+    
+    /**
+     * Result sets whose rows are arriving faster than this many rows per
+     * second will switch to having their values formatted in parallel.
+     * A value <= 0 disables this.
+     */
+    private int parallelFormatRate = 0;
+    
+    /**
+     * The number of threads used to format values in parallel.
+     */
+    private int parallelFormatThreads =
+        Runtime.getRuntime().availableProcessors();
+    
+    /**
+     * Pool used to format values in parallel, created upon first use.
+     */
+    private ForkJoinPool formatPool = null;
+    
+    /**
+     * Number of rows between checks of the row arrival rate.
+     */
+    private static final int RATE_CHECK_ROWS = 1000;
+    
+    /**
+     * If non-null, the display style used to render results rather than
+     * the default style of the {@link RendererManager}.
+     */
+    private String style = null;
+    
+    /**
+     * Whether or not an interrupt (^C) cancels the statement that is
+     * being executed. Work that runs in the background must leave the
+     * interrupt to the user's foreground session.
+     */
+    private boolean interruptible = true;
+    
+    /**
+     * The total number of rows that have been fetched through this
+     * renderer, for the benefit of threads watching its progress.
+     */
+    private volatile long rowsFetched = 0L;
+    
+    /**
+     * While a cached prepared statement is being executed, the cache entry
+     * that the descriptions of its results are saved in, and the number of
+     * result sets described so far.
+     */
+    private StatementCache.Entry cachedStatement = null;
+    private int resultCount = 0;
+    
     private long startTime;
     private long firstRowTime;
     private long endTime;
     
+    /*
+     * For the query log: when the driver's execute call started and
+     * returned (zero if it hasn't), and the running total of the update
+     * counts seen.
+     */
+    private long executeStartNanos = 0L;
+    private long executeEndNanos = 0L;
+    private long updatesSeen = 0L;
+    
     /**
      * Creates a renderer.
      */
@@ -121,6 +207,76 @@ public class SQLRenderer {
         
         this.sqshContext = context;
     }
+    
+    /**
+     * Creates a renderer with the same settings as another renderer. 
+     * Since a renderer keeps track of the timing of the statement it is
+     * executing, this is used to give work that runs alongside of the
+     * user's session a renderer of its own.
+     * 
+     * @param other The renderer to copy settings from.
+     */
+    public SQLRenderer (SQLRenderer other) {
+        
+        this.sqshContext = other.sqshContext;
+        this.showMetadata = other.showMetadata;
+        this.expand = other.expand;
+        this.maxRows = other.maxRows;
+        this.rowLimitMethod = other.rowLimitMethod;
+        this.noCount = other.noCount;
+        this.showTimings = other.showTimings;
+        this.maxUpdateCount = other.maxUpdateCount;
+        this.parallelFormatColumns = other.parallelFormatColumns;
+        this.parallelFormatRate = other.parallelFormatRate;
+        this.parallelFormatThreads = other.parallelFormatThreads;
+        this.style = other.style;
+        this.interruptible = other.interruptible;
+    }
+    
+    /**
+     * @return The display style that results are rendered with, or null
+     *   if the current default style is used.
+     */
+    public String getStyle() {
+    
+        return style;
+    }
+    
+    /**
+     * @param style The display style that results are to be rendered with.
+     *   A value of null causes the current default style to be used.
+     */
+    public void setStyle(String style) {
+    
+        this.style = style;
+    }
+    
+    /**
+     * @return Whether or not an interrupt cancels the statement that is
+     *   being executed.
+     */
+    public boolean isInterruptible() {
+    
+        return interruptible;
+    }
+    
+    /**
+     * @param interruptible Whether or not an interrupt cancels the 
+     *   statement that is being executed.
+     */
+    public void setInterruptible(boolean interruptible) {
+    
+        this.interruptible = interruptible;
+    }
+    
+    /**
+     * @return The total number of rows that have been fetched by this 
+     *   renderer. This may be called from any thread.
+     */
+    public long getRowsFetched() {
+    
+        return rowsFetched;
+    }
 
     /**
      * @return whether or not the SQL will have variable expansion
@@ -140,6 +296,57 @@ public class SQLRenderer {
         this.expand = expand;
     }
     
+    /**
+     * Binds the variable references of SQL that is to be executed in bind
+     * mode, expanding it first if expansion is enabled. Only references
+     * that end up in the SQL that is sent to the server are bound; those
+     * in the arguments of directives such as <code>#if</code> are left for
+     * expansion to evaluate.
+     * 
+     * @param session The session whose variables are referenced.
+     * @param sql The SQL.
+     * @param params A parameter is appended for each reference that was
+     *   bound.
+     * @return The SQL with the bound references replaced by parameter
+     *   markers.
+     */
+    public String bind (Session session, String sql,
+            List<CallParameter> params) {
+        
+        VariableManager variables = session.getVariableManager();
+        if (!expand) {
+            
+            return SQLParseUtil.bindVariables(sql, variables, params);
+        }
+        
+        List<CallParameter> refs = new ArrayList<CallParameter>();
+        sql = SQLParseUtil.markVariables(sql, variables, true, refs);
+        return SQLParseUtil.bindMarkers(session.expand(sql), refs, params);
+    }
+    
+    /**
+     * Hands over the parameters of SQL that has already been bound with
+     * {@link #bind(Session, String, List)}, on behalf of a session whose
+     * variables aren't visible to the one that will execute it (such as a
+     * background job). They are used, instead of binding variables again,
+     * the next time SQL is executed in bind mode.
+     * 
+     * @param params The parameters.
+     */
+    public void setBoundParameters (List<CallParameter> params) {
+        
+        this.boundParameters = params;
+    }
+    
+    /**
+     * @return true if parameters have been handed over with
+     *   {@link #setBoundParameters(List)} and not yet used.
+     */
+    public boolean hasBoundParameters () {
+        
+        return boundParameters != null;
+    }
+    
     /**
      * This is to support buggy drivers (umm, the Apache Hive driver. Wow
      * does it have a lot of boogs) that do not return a proper -1 updateCount()
@@ -263,6 +470,7 @@ public class SQLRenderer {
             
             case LIMIT_DRIVER: return "driver";
             case LIMIT_CANCEL: return "cancel";
+            case LIMIT_REWRITE: return "rewrite";
             default:
                 return "discard";
         }
@@ -271,13 +479,15 @@ public class SQLRenderer {
     /**
      * @param rowLimitMethod Sets the mechanism to be used to limit 
      * rows specified by {@link #setMaxRows(int)}. Valid values are
-     * {@link #LIMIT_CANCEL}, {@link #LIMIT_DISCARD}, or {@link #LIMIT_DRIVER}.
+     * {@link #LIMIT_CANCEL}, {@link #LIMIT_DISCARD}, {@link #LIMIT_DRIVER},
+     * or {@link #LIMIT_REWRITE}.
      */
     public void setRowLimitMethod (int rowLimitMethod) {
     
         if (rowLimitMethod != LIMIT_CANCEL
                 && rowLimitMethod != LIMIT_DRIVER
-                && rowLimitMethod != LIMIT_DISCARD) {
+                && rowLimitMethod != LIMIT_DISCARD
+                && rowLimitMethod != LIMIT_REWRITE) {
             
             throw new IllegalArgumentException("Invalid method ("
                 + rowLimitMethod + ")");
@@ -289,7 +499,7 @@ public class SQLRenderer {
     /**
      * Sets the row limiting method.
      * @param name The name of the method. Valid values are "cancel",
-     * "discard", or "driver".
+     * "discard", "driver", or "rewrite".
      */
     public void setRowLimitMethodName (String name) {
         
@@ -306,14 +516,111 @@ public class SQLRenderer {
             
             setRowLimitMethod(LIMIT_DRIVER);
         }
+        else if ("rewrite".equals(name)) {
+            
+            setRowLimitMethod(LIMIT_REWRITE);
+        }
         else {
             
             throw new IllegalArgumentException("Invalid method ("
                 + name + "): Valid values are 'cancel', 'discard', "
-                + "or 'driver'");
+                + "'driver', or 'rewrite'");
         }
     }
 
+    /**
+     * @return The number of displayed columns at which result set values
+     *   are formatted in parallel, or <= 0 if this is disabled.
+     */
+    public int getParallelFormatColumns() {
+        
+        return parallelFormatColumns;
+    }
+    
+    /**
+     * @param parallelFormatColumns The number of displayed columns at
+     *   which result set values are formatted in parallel. A value <= 0
+     *   disables parallel formatting based upon column count.
+     */
+    public void setParallelFormatColumns(int parallelFormatColumns) {
+        
+        this.parallelFormatColumns = parallelFormatColumns;
+    }
+    
+    /**
+     * @return The rate, in rows per second, at which result set values
+     *   are formatted in parallel, or <= 0 if this is disabled.
+     */
+    public int getParallelFormatRate() {
+        
+        return parallelFormatRate;
+    }
+    
+    /**
+     * @param parallelFormatRate The rate, in rows per second, at which
+     *   result set values will switch to being formatted in parallel. A
+     *   value <= 0 disables parallel formatting based upon row rate.
+     */
+    public void setParallelFormatRate(int parallelFormatRate) {
+        
+        this.parallelFormatRate = parallelFormatRate;
+    }
+    
+    /**
+     * @return The number of threads used to format values in parallel.
+     */
+    public int getParallelFormatThreads() {
+        
+        return parallelFormatThreads;
+    }
+    
+    /**
+     * @param parallelFormatThreads The number of threads used to format
+     *   values in parallel. A value less than 2 disables parallel
+     *   formatting entirely.
+     */
+    public synchronized void setParallelFormatThreads(int parallelFormatThreads) {
+        
+        if (parallelFormatThreads != this.parallelFormatThreads
+                && formatPool != null) {
+            
+            formatPool.shutdown();
+            formatPool = null;
+        }
+        
+        this.parallelFormatThreads = parallelFormatThreads;
+    }
+    
+    /**
+     * @return The pool used for parallel formatting.
+     */
+    private synchronized ForkJoinPool getFormatPool() {
+        
+        if (formatPool == null) {
+            
+            formatPool = new ForkJoinPool(parallelFormatThreads);
+        }
+        
+        return formatPool;
+    }
+    
+    /**
+     * Creates the renderer that results are to be displayed with.
+     * 
+     * @param session The session that the results are for.
+     * @return The renderer.
+     */
+    private Renderer newRenderer(Session session) {
+        
+        RendererManager renderMan = session.getContext().getRendererManager();
+        if (style != null) {
+            
+            return renderMan.getRenderer(session, style);
+        }
+        
+        return renderMan.getRenderer(session);
+    }
+    
     /**
      * Executes a SQL statement using the default renderer.
      * @param session The session to be used as an output handle
@@ -329,8 +636,7 @@ public class SQLRenderer {
     public boolean execute (Session session, String sql)
         throws SQLException {
         
-        Renderer renderer = session.getContext().getRendererManager()
-            .getRenderer(session);
+        Renderer renderer = newRenderer(session);
         
         return execute(renderer, session, sql);
     }
@@ -353,8 +659,7 @@ public class SQLRenderer {
         throws SQLException {
         
         boolean ok = true;
-        Renderer renderer = session.getContext().getRendererManager()
-            .getRenderer(session);
+        Renderer renderer = newRenderer(session);
         
         CallableStatement statement = null;
         
@@ -371,6 +676,10 @@ public class SQLRenderer {
         SQLConnectionContext sqlContext = 
             (SQLConnectionContext) session.getConnectionContext();
         
+        boolean completed = false;
+        SQLException error = null;
+        long logStart = startQueryLog();
+        
         try {
             
             /*
@@ -487,10 +796,14 @@ public class SQLRenderer {
                 }
             }
             
-            sigHandler = new CancelingSignalHandler(statement);
-            sigMan.push(sigHandler);
+            if (interruptible) {
+                
+                sigHandler = new CancelingSignalHandler(statement);
+                sigMan.push(sigHandler);
+            }
             
             startTime = System.currentTimeMillis();
+            executeStartNanos = System.nanoTime();
             
             boolean hasResults = statement.execute();
             
@@ -567,6 +880,13 @@ public class SQLRenderer {
                 renderer.row(row);
                 renderer.flush();
             }
+            
+            completed = true;
+        }
+        catch (SQLException e) {
+            
+            error = e;
+            throw e;
         }
         finally {
             
@@ -578,6 +898,7 @@ public class SQLRenderer {
             }
             
             SQLTools.close(statement);
+            logQuery(session, sql, logStart, completed && ok, error);
         }
         
         return ok;
@@ -756,8 +1077,7 @@ public class SQLRenderer {
         throws SQLException {
         
         boolean ok = true;
-        Renderer renderer = session.getContext().getRendererManager()
-            .getRenderer(session);
+        Renderer renderer = newRenderer(session);
         
         CallableStatement statement = null;
         Connection conn = session.getConnection();
@@ -769,6 +1089,10 @@ public class SQLRenderer {
             throw new SQLException("No database connection has been established");
         }
         
+        boolean completed = false;
+        SQLException error = null;
+        long logStart = startQueryLog();
+        
         try {
             
             /*
@@ -781,10 +1105,14 @@ public class SQLRenderer {
             statement = conn.prepareCall(sql);
             bindParameters(statement, params);
             
-            sigHandler = new CancelingSignalHandler(statement);
-            sigMan.push(sigHandler);
+            if (interruptible) {
+                
+                sigHandler = new CancelingSignalHandler(statement);
+                sigMan.push(sigHandler);
+            }
             
             startTime = System.currentTimeMillis();
+            executeStartNanos = System.nanoTime();
             
             boolean hasResults = statement.execute();
             
@@ -818,6 +1146,13 @@ public class SQLRenderer {
                     }
                 }
             }
+            
+            completed = true;
+        }
+        catch (SQLException e) {
+            
+            error = e;
+            throw e;
         }
         finally {
             
@@ -829,6 +1164,7 @@ public class SQLRenderer {
             }
             
             SQLTools.close(statement);
+            logQuery(session, sql, logStart, completed && ok, error);
         }
         
         return ok;
@@ -852,8 +1188,7 @@ public class SQLRenderer {
         throws SQLException {
         
         boolean ok = true;
-        Renderer renderer = session.getContext().getRendererManager()
-            .getRenderer(session);
+        Renderer renderer = newRenderer(session);
         
         PreparedStatement statement = null;
         Connection conn = session.getConnection();
@@ -865,6 +1200,10 @@ public class SQLRenderer {
             throw new SQLException("No database connection has been established");
         }
         
+        boolean completed = false;
+        SQLException error = null;
+        long logStart = startQueryLog();
+        
         try {
             
             session.startVisualTimer();
@@ -872,16 +1211,26 @@ public class SQLRenderer {
             statement = conn.prepareStatement(sql);
             bindParameters(statement, params);
             
-            sigHandler = new CancelingSignalHandler(statement);
-            sigMan.push(sigHandler);
+            if (interruptible) {
+                
+                sigHandler = new CancelingSignalHandler(statement);
+                sigMan.push(sigHandler);
+            }
             
             startTime = System.currentTimeMillis();
+            executeStartNanos = System.nanoTime();
             
             boolean hasResults = statement.execute();
             
             session.stopVisualTimer();
             
             ok = execute(renderer, session, statement, hasResults);
+            completed = true;
+        }
+        catch (SQLException e) {
+            
+            error = e;
+            throw e;
         }
         finally {
             
@@ -893,6 +1242,7 @@ public class SQLRenderer {
             }
             
             SQLTools.close(statement);
+            logQuery(session, sql, logStart, completed && ok, error);
         }
         
         return ok;
@@ -917,17 +1267,7 @@ public class SQLRenderer {
     public boolean execute (Renderer renderer, Session session, String sql)
         throws SQLException {
         
-        boolean ok = true;
-
-        if (expand) {
-            
-            sql = session.expand(sql);
-        }
-        
-        Statement statement = null;
         Connection conn = session.getConnection();
-        CancelingSignalHandler sigHandler = null;
-        SignalManager sigMan = SignalManager.getInstance();
         
         if (conn == null) {
             
@@ -940,27 +1280,143 @@ public class SQLRenderer {
          */
         SQLConnectionContext ctx = 
             (SQLConnectionContext) session.getConnectionContext();
+        int execMode = ctx.getExecutionMode();
+        
+        /*
+         * In bind mode variable references become parameter markers, so
+         * the SQL text stays the same from one execution to the next
+         * regardless of the values of the variables.
+         */
+        List<CallParameter> params = null;
+        if (execMode == SQLConnectionContext.EXEC_BIND) {
+            
+            if (boundParameters != null) {
+                
+                params = boundParameters;
+                boundParameters = null;
+            }
+            else {
+                
+                params = new ArrayList<CallParameter>();
+                sql = bind(session, sql, params);
+            }
+        }
+        else if (expand) {
+            
+            sql = session.expand(sql);
+        }
+        
+        /*
+         * Let the server do the limiting if it can be asked to. One more
+         * row than the limit is asked for so that we can still tell the 
+         * user when the results were cut short.
+         */
+        String limited = null;
+        if (rowLimitMethod == LIMIT_REWRITE && getRowLimit(renderer) > 0) {
+            
+            limited = RowLimitRewriter.rewrite(sql, ctx.getRowLimitStyle(),
+                maxRows + 1);
+        }
+        
+        if (limited != null) {
+            
+            long fetched = rowsFetched;
+            try {
+                
+                return execute(renderer, session, ctx, limited, params);
+            }
+            catch (SQLException e) {
+                
+                /*
+                 * If the rewritten query was rejected outright, then the 
+                 * query is run as the user wrote it.
+                 */
+                if (rowsFetched != fetched) {
+                    
+                    throw e;
+                }
+                
+                LOG.fine("Rewritten query failed, running it as written: "
+                    + e.getMessage());
+            }
+        }
+        
+        return execute(renderer, session, ctx, sql, params);
+    }
+    
+    /**
+     * Executes and displays the results from a block of sql that has had
+     * its variables expanded or bound.
+     * 
+     * @param renderer The renderer that is to be used to display the output
+     *   of the statement.
+     * @param session The session that will be used for output.
+     * @param ctx The connection to execute on.
+     * @param sql The SQL to execute.
+     * @param params Parameters to bind to the statement (bind mode only).
+     * @return true if the SQL executed without error.
+     * @throws SQLException Thrown if there is an issue.
+     */
+    private boolean execute (Renderer renderer, Session session,
+            SQLConnectionContext ctx, String sql, List<CallParameter> params)
+        throws SQLException {
+        
+        boolean ok = true;
+        boolean completed = false;
+        Statement statement = null;
+        StatementCache.Entry cached = null;
+        Connection conn = ctx.getConnection();
+        CancelingSignalHandler sigHandler = null;
+        SignalManager sigMan = SignalManager.getInstance();
+        int execMode = ctx.getExecutionMode();
+        SQLException error = null;
+        long logStart = startQueryLog();
         
         try {
             
             session.startVisualTimer();
             
-            if (ctx.getExecutionMode() == SQLConnectionContext.EXEC_PREPARE) {
+            if (execMode == SQLConnectionContext.EXEC_PREPARE
+                    || execMode == SQLConnectionContext.EXEC_BIND) {
 
-                statement = conn.prepareStatement(sql);
+                cached = ctx.getStatementCache().take(sql);
+                if (cached == null) {
+                    
+                    cached = new StatementCache.Entry(sql,
+                        conn.prepareStatement(sql));
+                }
+                
+                statement = cached.getStatement();
+                cachedStatement = cached;
+                resultCount = 0;
+                
+                if (params != null && params.size() > 0) {
+                    
+                    bindVariables(cached, params);
+                }
                 
                 initStatement(ctx, session, statement);
                 
-                sigHandler = new CancelingSignalHandler(statement);
-                sigMan.push(sigHandler);
+                if (interruptible) {
+                    
+                    sigHandler = new CancelingSignalHandler(statement);
+                    sigMan.push(sigHandler);
+                }
                 
                 startTime = System.currentTimeMillis();
+                executeStartNanos = System.nanoTime();
                 
                 boolean hasResults = ((PreparedStatement) statement).execute();
                 
                 session.stopVisualTimer();
                 
                 ok = execute(renderer, session, statement, hasResults);
+                
+                /*
+                 * The statement made it through, so it can be used again.
+                 */
+                ctx.getStatementCache().put(cached);
+                statement = null;
             }
             else  {
 
@@ -968,10 +1424,14 @@ public class SQLRenderer {
                 
                 initStatement(ctx, session, statement);
                 
-                sigHandler = new CancelingSignalHandler(statement);
-                sigMan.push(sigHandler);
+                if (interruptible) {
+                    
+                    sigHandler = new CancelingSignalHandler(statement);
+                    sigMan.push(sigHandler);
+                }
                 
                 startTime = System.currentTimeMillis();
+                executeStartNanos = System.nanoTime();
                 
                 boolean hasResults = statement.execute(sql);
                 
@@ -979,6 +1439,13 @@ public class SQLRenderer {
                 
                 ok = execute(renderer, session, statement, hasResults);
             }
+            
+            completed = true;
+        }
+        catch (SQLException e) {
+            
+            error = e;
+            throw e;
         }
         finally {
             
@@ -988,6 +1455,7 @@ public class SQLRenderer {
              * Take the statement away from the SQLConnectionContext.
              */
             ctx.clearStatement();
+            cachedStatement = null;
             
             if (sigHandler != null) {
                 
@@ -995,27 +1463,136 @@ public class SQLRenderer {
             }
             
             SQLTools.close(statement);
+            ctx.getStatementCache().invalidate(sql);
+            ctx.trackCurrentNames(sql, completed && ok);
+            logQuery(session, sql, logStart, completed && ok, error);
         }
         
         return ok;
     }
     
+    /*
+     * Query log state that is captured as a query begins. The counters are
+     * cumulative, so the entry records the difference.
+     */
+    private long logRowsStart;
+    private long logUpdatesStart;
+    private long logTimestamp;
+    
     /**
-     * Called for each newly created statement to initialize it based upon session
-     * settings.
-     * @param ctx The connection
-     * @param session The session
-     * @param statement The statement
+     * Called as a query begins, to note what is needed to log it.
+     * 
+     * @return The time the query began, in nanoseconds, or 0 if the query
+     *   log is off.
      */
-    private void initStatement(SQLConnectionContext ctx, Session session, Statement statement) {
+    private long startQueryLog() {
         
-        /*
-         * Registers the statement handle back with the context, which
-         * allows the ctx.cancel() to do its work to cancel the statement
-         */
-        ctx.setStatement(statement);
+        executeStartNanos = 0L;
+        executeEndNanos = 0L;
+        
+        if (!sqshContext.getQueryLog().isEnabled()) {
+            
+            return 0L;
+        }
+        
+        logRowsStart = rowsFetched;
+        logUpdatesStart = updatesSeen;
+        logTimestamp = System.currentTimeMillis();
+        
+        long now = System.nanoTime();
+        return (now == 0L ? 1L : now);
+    }
+    
+    /**
+     * Hands a query that has finished to the query log. 
+     * 
+     * @param session The session that ran the query.
+     * @param sql The SQL.
+     * @param logStart What {@link #startQueryLog()} returned.
+     * @param ok Whether the query succeeded.
+     * @param error The exception it failed with, if any.
+     */
+    private void logQuery(Session session, String sql, long logStart,
+            boolean ok, SQLException error) {
+        
+        if (logStart == 0L) {
+            
+            return;
+        }
+        
+        long end = System.nanoTime();
+        long prepare;
+        long execute = 0L;
+        long fetch = 0L;
+        
+        if (executeStartNanos == 0L) {
+            
+            prepare = end - logStart;
+        }
+        else {
+            
+            prepare = executeStartNanos - logStart;
+            if (executeEndNanos == 0L) {
+                
+                execute = end - executeStartNanos;
+            }
+            else {
+                
+                execute = executeEndNanos - executeStartNanos;
+                fetch = end - executeEndNanos;
+            }
+        }
+        
+        String connName = null;
+        ConnectionContext conn = session.getConnectionContext();
+        if (conn instanceof SQLConnectionContext
+                && ((SQLConnectionContext) conn).getConnectionDescriptor() != null) {
+            
+            connName = ((SQLConnectionContext) conn)
+                .getConnectionDescriptor().getName();
+        }
+        
+        QueryLog.Entry entry = new QueryLog.Entry(logTimestamp,
+            session.getId(), connName, sql);
+        entry.setTimings(prepare, execute, fetch);
+        entry.setCounts(rowsFetched - logRowsStart,
+            updatesSeen - logUpdatesStart);
+        if (!ok) {
+            
+            entry.setFailed(error);
+        }
+        
+        sqshContext.getQueryLog().log(entry);
+    }
+    
+    /**
+     * Called for each newly created statement to initialize it based upon session
+     * settings.
+     * @param ctx The connection
+     * @param session The session
+     * @param statement The statement
+     */
+    private void initStatement(SQLConnectionContext ctx, Session session, Statement statement) {
+        
+        /*
+         * Registers the statement handle back with the context, which
+         * allows the ctx.cancel() to do its work to cancel the statement
+         */
+        ctx.setStatement(statement);
+        
+        int fetchSize = session.getFetchSize();
+        
+        /*
+         * When the output is being paged there is no sense in pulling
+         * back more than a screen's worth of rows at a time, since the
+         * user may never ask to see the rest.
+         */
+        ResultPager pager = session.getResultPager();
+        if (fetchSize <= 0 && pager != null) {
+            
+            fetchSize = pager.getPageLines();
+        }
         
-        int fetchSize = session.getFetchSize();
         if (fetchSize > 0) {
             
             try {
@@ -1024,10 +1601,18 @@ public class SQLRenderer {
             }
             catch (SQLException e) {
                 
-                session.err.println("WARNING: Requested fetch size "
-                   + fetchSize + " is invalid: " + e.getMessage()
-                   + ". Resetting to -1");
-                session.setFetchSize(-1);
+                if (session.getFetchSize() > 0) {
+                    
+                    session.err.println("WARNING: Requested fetch size "
+                       + fetchSize + " is invalid: " + e.getMessage()
+                       + ". Resetting to -1");
+                    session.setFetchSize(-1);
+                }
+                else {
+                    
+                    LOG.fine("Driver rejected paging fetch size "
+                        + fetchSize + ": " + e.getMessage());
+                }
             }
         }
     }
@@ -1138,6 +1723,113 @@ public class SQLRenderer {
         }
     }
     
+    /**
+     * Binds the values of variables referenced by a statement in bind
+     * mode. Values whose type is known are bound as that type. The rest
+     * are text, which is converted to the type the driver says the
+     * parameter is, so that strict drivers can compare them with numbers
+     * and dates; if it can't say, or the text doesn't convert, the value is
+     * bound as a string.
+     * 
+     * @param cached The statement.
+     * @param params The values.
+     * @throws SQLException If a value cannot be bound.
+     */
+    private void bindVariables (StatementCache.Entry cached,
+            List<CallParameter> params)
+        throws SQLException {
+        
+        PreparedStatement statement = cached.getStatement();
+        int []types = null;
+        
+        for (CallParameter param : params) {
+            
+            if (param.getType() != Types.VARCHAR) {
+                
+                bindParameters(statement, new CallParameter[] { param });
+                continue;
+            }
+            
+            if (types == null) {
+                
+                types = cached.getParameterTypes();
+            }
+            
+            int idx = param.getIdx();
+            int type = (idx <= types.length ? types[idx - 1] : Types.VARCHAR);
+            Object value = toType(param.getValue(), type);
+            if (value != null) {
+                
+                statement.setObject(idx, value, type);
+            }
+            else {
+                
+                statement.setString(idx, param.getValue());
+            }
+        }
+    }
+    
+    /**
+     * Converts the text of a variable to a parameter type.
+     * 
+     * @param value The text.
+     * @param type The type of the parameter.
+     * @return The converted value, or null if it should be bound as a
+     *   string.
+     */
+    private static Object toType (String value, int type) {
+        
+        try {
+            
+            switch (type) {
+                
+                case Types.TINYINT:
+                case Types.SMALLINT:
+                case Types.INTEGER:
+                case Types.BIGINT:
+                case Types.REAL:
+                case Types.FLOAT:
+                case Types.DOUBLE:
+                case Types.NUMERIC:
+                case Types.DECIMAL:
+                    return new BigDecimal(value.trim());
+                    
+                case Types.BIT:
+                case Types.BOOLEAN:
+                    value = value.trim();
+                    if (value.equalsIgnoreCase("true") || value.equals("1")) {
+                        
+                        return Boolean.TRUE;
+                    }
+                    if (value.equalsIgnoreCase("false") || value.equals("0")) {
+                        
+                        return Boolean.FALSE;
+                    }
+                    return null;
+                    
+                case Types.DATE:
+                    return java.sql.Date.valueOf(value.trim());
+                    
+                case Types.TIME:
+                    return java.sql.Time.valueOf(value.trim());
+                    
+                case Types.TIMESTAMP:
+                    return java.sql.Timestamp.valueOf(value.trim());
+                    
+                default:
+                    return null;
+            }
+        }
+        catch (IllegalArgumentException e) {
+            
+            /*
+             * Includes NumberFormatException. Leave it to the server to
+             * make sense of it.
+             */
+            return null;
+        }
+    }
+    
     /**
      * Executes SQL or a prepared statement.
      * 
@@ -1170,6 +1862,7 @@ public class SQLRenderer {
         
         firstRowTime = 0L;
         endTime = 0L;
+        executeEndNanos = System.nanoTime();
         
         try {
             
@@ -1179,7 +1872,7 @@ public class SQLRenderer {
              * If we have a row limit and it is to be driver enforced, then
              * set it on the statement.
              */
-            if (rowLimitMethod == LIMIT_DRIVER && maxRows > 0) {
+            if (rowLimitMethod == LIMIT_DRIVER && getRowLimit(renderer) > 0) {
                 
                 statement.setMaxRows(maxRows);
             }
@@ -1195,6 +1888,7 @@ public class SQLRenderer {
                 if (updateCount >= 0) {
                     
                     ++updateCountCount;
+                    updatesSeen += updateCount;
                 }
             }
             
@@ -1217,9 +1911,16 @@ public class SQLRenderer {
                         displayMetadata(session, resultSet.getMetaData());
                     }
                     
-                    if (renderer.isDiscard()) {
+                    if (renderer instanceof ChecksumRenderer) {
                         
-                        nRows = discardResults(session, resultSet);
+                        ResultChecksum checksum =
+                            new ResultChecksum(resultSet.getMetaData());
+                        nRows = discardResults(session, resultSet, checksum);
+                        ((ChecksumRenderer) renderer).display(checksum);
+                    }
+                    else if (renderer.isDiscard()) {
+                        
+                        nRows = discardResults(session, resultSet, null);
                     }
                     else {
                         
@@ -1249,7 +1950,7 @@ public class SQLRenderer {
                      * query results were limited in some fashion, so we
                      * let the user know.
                      */
-                    if (maxRows > 0 && nRows > maxRows) {
+                    if (getRowLimit(renderer) > 0 && nRows > maxRows) {
                         
                         if (rowLimitMethod == LIMIT_CANCEL) {
                             
@@ -1330,6 +2031,7 @@ public class SQLRenderer {
                     if (updateCount >= 0) {
                         
                         ++updateCountCount;
+                        updatesSeen += updateCount;
                     }
                 }
                 
@@ -1384,25 +2086,46 @@ public class SQLRenderer {
         return ok;
     }
     
+    /**
+     * Returns the limit on the number of rows of results displayed by a
+     * renderer. A checksum covers every row of the results, so it is
+     * never limited.
+     * 
+     * @param renderer The renderer
+     * @return The limit, or 0 if there is none
+     */
+    private int getRowLimit(Renderer renderer) {
+        
+        return (renderer instanceof ChecksumRenderer ? 0 : maxRows);
+    }
+    
     /**
      * Used when collecting timing information to fetch all rows, but never
      * look at them (discard)
      * 
      * @param session The session discarding
      * @param resultSet The result to discard
+     * @param checksum If not null, the rows are added to this checksum
+     *   as they are discarded
      * @return the number of rows discarded
      * @throws SQLException You know...
      */
-    private int discardResults(Session session, ResultSet resultSet)
+    private int discardResults(Session session, ResultSet resultSet,
+            ResultChecksum checksum)
         throws SQLException {
         
         SQLTools.printWarnings(session, resultSet);
         
+        /*
+         * A checksum has to see every row to mean anything.
+         */
+        int limit = (checksum != null ? 0 : maxRows);
         int rowCount = 0;
         while (resultSet.next()) {
             
             SQLTools.printWarnings(session, resultSet);
             ++rowCount;
+            ++rowsFetched;
             if (firstRowTime == 0L && rowCount == 1) {
                 
                 
@@ -1413,23 +2136,104 @@ public class SQLRenderer {
              * Check to see if we have hit the limit on the number of
              * rows we are to process.
              */
-            if (maxRows > 0 && rowCount > maxRows) {
+            if (limit > 0 && rowCount > limit) {
                 
                 if (rowLimitMethod == LIMIT_CANCEL) {
                     
                     resultSet.getStatement().cancel();
                     break;
                 }
-                else if (rowLimitMethod == LIMIT_DISCARD) {
+                else if (rowLimitMethod == LIMIT_DISCARD
+                    || rowLimitMethod == LIMIT_REWRITE) {
                     
                     continue;
                 }
             }
+            
+            if (checksum != null) {
+                
+                checksum.add(resultSet);
+            }
         }
         
         return rowCount;
     }
     
+    /*
+     * The following indicate how the value of a column is to be read from
+     * the result set by displayResults().  The primitive getters allow
+     * numeric values to be fetched and formatted without creating a boxed
+     * object for every cell.
+     */
+    private static final int GET_OBJECT     = 0;
+    private static final int GET_TIMESTAMP  = 1;
+    private static final int GET_STRING     = 2;
+    private static final int GET_LONG       = 3;
+    private static final int GET_DOUBLE     = 4;
+    private static final int GET_FLOAT      = 5;
+    private static final int GET_BIGDECIMAL = 6;
+    
+    /**
+     * Determines the mechanism that should be used to read the value of 
+     * a column from a result set.
+     * 
+     * @param column The column
+     * @return One of the GET_ constants
+     */
+    private static int getGetter(ColumnDescription column) {
+        
+        /*
+         * With certain drivers I've had problems with resultSet.getObject()
+         * so for those data types that I run into this issue I am
+         * calling the "correct" getter method.
+         */
+        switch (column.getNativeType()) {
+            
+            case Types.TIMESTAMP:
+                return GET_TIMESTAMP;
+                
+            case Types.VARCHAR:
+            case Types.CHAR:
+            case Types.LONGVARCHAR:
+                return GET_STRING;
+            
+            default:
+                break;
+        }
+        
+        /*
+         * The primitive getters are only useful if the column is going to
+         * be formatted by a formatter that understands primitive values.
+         */
+        if (!(column.getFormatter() instanceof NumberFormatter)) {
+            
+            return GET_OBJECT;
+        }
+        
+        switch (column.getNativeType()) {
+            
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.BIGINT:
+                return GET_LONG;
+                
+            case Types.DOUBLE:
+            case Types.FLOAT:
+                return GET_DOUBLE;
+                
+            case Types.REAL:
+                return GET_FLOAT;
+                
+            case Types.DECIMAL:
+            case Types.NUMERIC:
+                return GET_BIGDECIMAL;
+                
+            default:
+                return GET_OBJECT;
+        }
+    }
+    
     /**
      * Displays a result set.
      * @param session The session used for output.
@@ -1446,25 +2250,77 @@ public class SQLRenderer {
         SQLTools.printWarnings(session, resultSet);
         
         DataFormatter formatter = sqshContext.getDataFormatter();
-        ColumnDescription []columns = getDescription(resultSet, displayCols);
+        ColumnDescription []columns = getCachedDescription(resultSet, displayCols);
         int nCols = resultSet.getMetaData().getColumnCount();
         int rowCount = 0;
         
+        /*
+         * Figure out up front how each column is to be fetched.
+         */
+        int []getters = new int[columns.length];
+        NumberFormatter []numberFormatters = new NumberFormatter[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            
+            getters[i] = getGetter(columns[i]);
+            if (getters[i] >= GET_LONG) {
+                
+                numberFormatters[i] = (NumberFormatter) columns[i].getFormatter();
+            }
+        }
+        
         /*
          * Display the header
          */
         renderer.header(columns);
         
-        while (resultSet.next()) {
+        /*
+         * When formatting in parallel, deferred[] indicates which columns
+         * are handed off to the pool to be formatted. 
+         */
+        ParallelRowFormatter parallel = null;
+        boolean []deferred = null;
+        boolean checkRate = (parallelFormatRate > 0 && parallelFormatThreads > 1);
+        long fetchStart = System.currentTimeMillis();
+        
+        if (parallelFormatThreads > 1 && parallelFormatColumns > 0
+                && columns.length >= parallelFormatColumns) {
+            
+            deferred = new boolean[columns.length];
+            parallel = startParallelFormat(renderer, resultSet, displayCols,
+                columns, getters, deferred);
+            checkRate = false;
+        }
+        
+        ResultPager pager = session.getResultPager();
+        
+        while ((pager == null || !pager.isQuit()) && resultSet.next()) {
             
             SQLTools.printWarnings(session, resultSet);
             
             ++rowCount;
+            ++rowsFetched;
             if (firstRowTime == 0L && rowCount == 1) {
                 
                 firstRowTime = System.currentTimeMillis();
             }
             
+            /*
+             * If rows are arriving faster than we can keep up with, 
+             * then switch over to formatting in parallel. 
+             */
+            if (checkRate && (rowCount % RATE_CHECK_ROWS) == 0) {
+                
+                long elapsed = System.currentTimeMillis() - fetchStart;
+                if (elapsed <= 0L 
+                    || ((rowCount * 1000L) / elapsed) >= parallelFormatRate) {
+                    
+                    deferred = new boolean[columns.length];
+                    parallel = startParallelFormat(renderer, resultSet,
+                        displayCols, columns, getters, deferred);
+                    checkRate = false;
+                }
+            }
+            
             /*
              * Check to see if we have hit the limit on the number of
              * rows we are to process.
@@ -1476,40 +2332,85 @@ public class SQLRenderer {
                     resultSet.getStatement().cancel();
                     break;
                 }
-                else if (rowLimitMethod == LIMIT_DISCARD) {
+                else if (rowLimitMethod == LIMIT_DISCARD
+                    || rowLimitMethod == LIMIT_REWRITE) {
                     
                     continue;
                 }
             }
             
             String row[] = new String[columns.length];
+            Object values[] = (parallel != null ? new Object[columns.length] : null);
             int idx = 0;
             for (int i = 1; i <= nCols; i++) {
                 
                 if (displayCols == null || displayCols.contains(i)) {
                     
                     Object value = null;
+                    String str = null;
                     boolean wasNull = false;
                     boolean wasError = false;
                     
-                    /*
-                     * With certain drivers I've had problems with resultSet.getObject()
-                     * so for those data types that I run into this issue I am
-                     * calling the "correct" getter method.
-                     */
                     try {
                         
-                        switch (columns[idx].getNativeType()) {
-                    
-                        case Types.TIMESTAMP:
-                            value = resultSet.getTimestamp(i);
-                            break;
-                        case Types.VARCHAR:
-                        case Types.CHAR:
-                        case Types.LONGVARCHAR:
-                            value = resultSet.getString(i);
-                            break;
-                        default:
+                        try {
+                            
+                            switch (getters[idx]) {
+                                
+                                case GET_TIMESTAMP:
+                                    value = resultSet.getTimestamp(i);
+                                    break;
+                                case GET_STRING:
+                                    value = resultSet.getString(i);
+                                    break;
+                                case GET_LONG:
+                                    long lval = resultSet.getLong(i);
+                                    if (!resultSet.wasNull()) {
+                                        
+                                        str = numberFormatters[idx].format(lval);
+                                    }
+                                    break;
+                                case GET_DOUBLE:
+                                    double dval = resultSet.getDouble(i);
+                                    if (!resultSet.wasNull()) {
+                                        
+                                        str = numberFormatters[idx].format(dval);
+                                    }
+                                    break;
+                                case GET_FLOAT:
+                                    float fval = resultSet.getFloat(i);
+                                    if (!resultSet.wasNull()) {
+                                        
+                                        str = numberFormatters[idx].format(fval);
+                                    }
+                                    break;
+                                case GET_BIGDECIMAL:
+                                    BigDecimal bdval = resultSet.getBigDecimal(i);
+                                    if (bdval != null) {
+                                        
+                                        str = numberFormatters[idx].format(bdval);
+                                    }
+                                    break;
+                                default:
+                                    value = resultSet.getObject(i);
+                            }
+                        }
+                        catch (SQLException e) {
+                            
+                            /*
+                             * Some drivers cannot represent a column with the
+                             * primitive getter (e.g. an unsigned BIGINT that 
+                             * won't fit in a long), in which case we fall back
+                             * to getObject() for the rest of the result set.
+                             */
+                            if (getters[idx] < GET_LONG) {
+                                
+                                throw e;
+                            }
+                            
+                            LOG.fine("Column " + i + ", falling back to getObject(): "
+                                + e.getMessage());
+                            getters[idx] = GET_OBJECT;
                             value = resultSet.getObject(i);
                         }
                         
@@ -1535,6 +2436,10 @@ public class SQLRenderer {
                             
                             row[idx] = "*ERROR*";
                         }
+                        else if (str != null) {
+                            
+                            row[idx] = str;
+                        }
                         else if (value == null) {
                             
                             session.err.println("WARNING: Row #" 
@@ -1542,6 +2447,10 @@ public class SQLRenderer {
                                 + "a value present, but returned NULL");
                             row[idx] = formatter.getNull();
                         }
+                        else if (parallel != null && deferred[idx]) {
+                            
+                            values[idx] = value;
+                        }
                         else {
                             
                             row[idx] = columns[idx].getFormatter().format(value);
@@ -1552,12 +2461,42 @@ public class SQLRenderer {
                 }
             }
             
-            if (renderer.row(row) == false) {
+            if (parallel != null) {
+                
+                if (parallel.row(row, values) == false) {
+                    
+                    cancel(resultSet);
+                    return -1;
+                }
+            }
+            else if (renderer.row(row) == false) {
                 
+                cancel(resultSet);
                 return -1;
             }
         }
         
+        /*
+         * If the user quit out of the pager, then there is nobody left to
+         * look at the rows, so stop the query rather than letting the
+         * driver drain the rest of the results.
+         */
+        if (pager != null && pager.isQuit()) {
+            
+            if (parallel != null) {
+                
+                parallel.finish();
+            }
+            
+            cancel(resultSet);
+            return -1;
+        }
+        
+        if (parallel != null && parallel.finish() == false) {
+            
+            return -1;
+        }
+        
         if (renderer.flush() == false) {
             
             return -1;
@@ -1566,6 +2505,120 @@ public class SQLRenderer {
         return rowCount;
     }
     
+    /**
+     * Called when the rows of a result set are no longer wanted, because
+     * whatever was receiving them has gone away, to stop the server from
+     * sending the rest. Closing the statement alone is not enough, as a
+     * number of drivers will read through the remaining results on close.
+     * 
+     * @param resultSet The result set being abandoned.
+     */
+    private void cancel(ResultSet resultSet) {
+        
+        try {
+            
+            Statement statement = resultSet.getStatement();
+            if (statement != null) {
+                
+                statement.cancel();
+            }
+        }
+        catch (SQLException e) {
+            
+            LOG.fine("Unable to cancel abandoned results: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Sets up for the values of a result set to be formatted in parallel.
+     * 
+     * @param renderer The renderer that will receive the rows
+     * @param resultSet The result set
+     * @param displayCols The columns being displayed
+     * @param columns Description of the columns being displayed
+     * @param getters How each column is read from the result set. Columns
+     *   that are to be formatted in parallel are switched to fetching
+     *   objects.
+     * @param deferred Populated with an indicator of which columns are to
+     *   be formatted in parallel.
+     * @return The object that will do the formatting.
+     * @throws SQLException
+     */
+    private ParallelRowFormatter startParallelFormat(Renderer renderer,
+            ResultSet resultSet, Set<Integer> displayCols, 
+            ColumnDescription []columns, int []getters, boolean []deferred)
+        throws SQLException {
+        
+        ForkJoinPool pool = getFormatPool();
+        
+        /*
+         * Formatters aren't thread safe, so each thread gets its own
+         * copy. There is one extra in case the fetching thread ends up
+         * helping out.
+         */
+        List<Formatter[]> formatterSets = new ArrayList<Formatter[]>();
+        for (int i = 0; i <= pool.getParallelism(); i++) {
+            
+            ColumnDescription []copy = getDescription(resultSet, displayCols);
+            Formatter []formatters = new Formatter[copy.length];
+            for (int c = 0; c < copy.length; c++) {
+                
+                formatters[c] = copy[c].getFormatter();
+            }
+            
+            formatterSets.add(formatters);
+        }
+        
+        /*
+         * Only values that are fully materialized once they are fetched
+         * can be formatted off of the fetching thread. LOBs and the like
+         * may need to go back to the driver.
+         */
+        for (int i = 0; i < columns.length; i++) {
+            
+            switch (columns[i].getNativeType()) {
+                
+                case Types.BIGINT:
+                case Types.BINARY:
+                case Types.BIT:
+                case Types.BOOLEAN:
+                case Types.CHAR:
+                case Types.DATE:
+                case Types.DECIMAL:
+                case Types.DOUBLE:
+                case Types.FLOAT:
+                case Types.INTEGER:
+                case Types.LONGNVARCHAR:
+                case Types.LONGVARBINARY:
+                case Types.LONGVARCHAR:
+                case Types.NCHAR:
+                case Types.NUMERIC:
+                case Types.NVARCHAR:
+                case Types.REAL:
+                case Types.SMALLINT:
+                case Types.TIME:
+                case Types.TIMESTAMP:
+                case Types.TINYINT:
+                case Types.VARBINARY:
+                case Types.VARCHAR:
+                    deferred[i] = true;
+                    break;
+                default:
+                    deferred[i] = false;
+            }
+            
+            if (deferred[i] && getters[i] >= GET_LONG) {
+                
+                getters[i] = GET_OBJECT;
+            }
+        }
+        
+        LOG.fine("Formatting " + columns.length + " columns using "
+            + pool.getParallelism() + " threads");
+        
+        return new ParallelRowFormatter(pool, renderer, formatterSets);
+    }
+    
     /**
      * Called to render the result set metadata as a table. This is
      * primarily for debugging purposes.
@@ -1692,6 +2745,64 @@ public class SQLRenderer {
         }
     }
     
+    /**
+     * Returns a description of the provided result set. If the result set
+     * belongs to a cached prepared statement, the description is saved
+     * with the statement, since its results have the same shape every
+     * time it is executed.
+     * 
+     * @param resultSet The result set
+     * @param displayCols If non-null, can contains a set of column
+     *     numbers that are to be displayed.
+     * @return A description of the result set.
+     * @throws SQLException Thrown if there is a problem.
+     */
+    private ColumnDescription[] getCachedDescription(ResultSet resultSet,
+            Set<Integer>displayCols)
+        throws SQLException {
+        
+        StatementCache.Entry cached = cachedStatement;
+        if (cached == null || displayCols != null) {
+            
+            return getDescription(resultSet, displayCols);
+        }
+        
+        int version = sqshContext.getDataFormatter().getVersion();
+        int result = resultCount++;
+        ColumnDescription []colDesc = cached.getDescription(result, version);
+        if (colDesc != null && isSameShape(colDesc, resultSet.getMetaData())) {
+            
+            return colDesc;
+        }
+        
+        colDesc = getDescription(resultSet, null);
+        cached.setDescription(result, version, colDesc);
+        return colDesc;
+    }
+    
+    /**
+     * Checks that saved column descriptions still match a result set.
+     */
+    private boolean isSameShape(ColumnDescription []colDesc,
+            ResultSetMetaData meta)
+        throws SQLException {
+        
+        if (colDesc.length != meta.getColumnCount()) {
+            
+            return false;
+        }
+        
+        for (int i = 0; i < colDesc.length; i++) {
+            
+            if (colDesc[i].getNativeType() != meta.getColumnType(i + 1)) {
+                
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
     /**
      * Returns a description of the provided result set.
      * 
@@ -33,11 +33,14 @@ import java.util.logging.Logger;
 import org.sqsh.input.ConsoleEOFException;
 import org.sqsh.input.ConsoleException;
 import org.sqsh.input.ConsoleInterruptedException;
+import org.sqsh.input.completion.MetadataIndex;
 import org.sqsh.jni.Shell;
 import org.sqsh.jni.ShellException;
 import org.sqsh.jni.ShellManager;
 import org.sqsh.signals.FlaggingSignalHandler;
+import org.sqsh.signals.InterruptingSignalHandler;
 import org.sqsh.signals.SignalManager;
+import org.sqsh.util.TimeUtils;
 
 /**
  * Represents an active session in sqsh. A session is the complete
@@ -56,12 +59,23 @@ public class Session
     private static final String SESSION_VARS
         = "org/sqsh/variables/SessionVariables.xml";
 
+    /**
+     * Milliseconds that a command waits for a tab completion that was
+     * given up on to let go of the connection.
+     */
+    private static final long COMPLETION_RELEASE_TIMEOUT = 5000L;
+
     /**
      * This ID is assigned by the SqshContext and is used to reference
      * which session is which.
      */
     private int sessionId;
     
+    /**
+     * Set for a private session, to the session it does work for.
+     */
+    private Session owner = null;
+    
     /**
      * Last value returned from a command execution.
      */
@@ -131,6 +145,49 @@ public class Session
      */
     private boolean autoPager = true;
     
+    /**
+     * If true, then the output of commands run interactively is paged
+     * by jsqsh itself, see {@link ResultPager}.
+     */
+    private boolean builtinPager = false;
+    
+    /**
+     * A SQL renderer that belongs to this session alone, or null if the
+     * session uses the renderer shared by the context.
+     */
+    private SQLRenderer sqlRenderer = null;
+    
+    /**
+     * The built-in pager that the current command's output is passing
+     * through, or null if the output is not being paged.
+     */
+    private ResultPager resultPager = null;
+    
+    /**
+     * The transaction group that the batches of the script being run
+     * belong to, or null if they aren't grouped.
+     */
+    private TransactionGroup transactionGroup = null;
+    
+    /**
+     * Simple DML statements of the script being run that are held back to
+     * be sent in a JDBC batch, or null if they aren't being batched.
+     */
+    private DmlBatch dmlBatch = null;
+    
+    /**
+     * The block of batches being run in parallel, between \parallel and
+     * \parallel end, or null if there isn't one.
+     */
+    private ParallelBlock parallelBlock = null;
+    
+    /**
+     * The number of lines read so far from the current input, and the line
+     * on which the batch in the current buffer started.
+     */
+    private int inputLine = 0;
+    private int batchStartLine = 0;
+    
     /**
      * The database connection used by the session and the URL that was
      * used to create it. This will never be null, but will contain a 
@@ -205,7 +262,27 @@ public class Session
     }
     
     /**
-     * Returns the id number of this session.
+     * Creates a private session, through which a background job, fan-out
+     * or parallel block runs work on behalf of another session. It has
+     * the id of the session it works for, but isn't one of the context's
+     * sessions and is only equal to itself.
+     * 
+     * @param owner The session the work is done for.
+     * @param in The input handle.
+     * @param out The output handle.
+     * @param err The error handle.
+     */
+    protected Session(Session owner, InputStream in, PrintStream out,
+            PrintStream err) {
+        
+        this(owner.getContext(), owner.getId(), in, out, err);
+        this.owner = owner;
+    }
+    
+    /**
+     * Returns the id number of this session. A private session (see
+     * {@link #getOwner()}) has the id of the session it works for.
+     *
      * @return The id number of this session.
      */
     public int getId() {
@@ -213,6 +290,15 @@ public class Session
         return sessionId;
     }
     
+    /**
+     * @return The session that this private session does work for, or
+     *   null if this is one of the context's sessions.
+     */
+    public Session getOwner() {
+        
+        return owner;
+    }
+    
     /**
      * Returns a handle to the parent context.
      * @return A handle to the parent context.
@@ -272,9 +358,26 @@ public class Session
      */
     public SQLRenderer getSQLRenderer() {
         
+        if (sqlRenderer != null) {
+            
+            return sqlRenderer;
+        }
+        
         return sqshContext.getSQLRenderer();
     }
     
+    /**
+     * Gives the session a SQL renderer of its own, rather than the one that
+     * is shared by all sessions.
+     * 
+     * @param sqlRenderer The renderer to use or null to go back to using
+     *   the shared renderer.
+     */
+    protected void setSQLRenderer(SQLRenderer sqlRenderer) {
+        
+        this.sqlRenderer = sqlRenderer;
+    }
+    
     /**
      * Returns the driver manager used by this session.
      * @return The driver manager used by this session
@@ -322,6 +425,16 @@ public class Session
         
         if (doClose) {
             
+            /*
+             * Work done by a transaction group on the old connection is
+             * committed before the connection goes away.
+             */
+            if (transactionGroup != null
+                && !transactionGroup.finish(this)) {
+                
+                ++commandFailCount;
+            }
+            
             connection.close();
         }
         
@@ -419,6 +532,117 @@ public class Session
     
         this.autoPager = autoPager;
     }
+    
+    /**
+     * @return whether or not the output of commands is paged by jsqsh's
+     *   own pager when running interactively.
+     */
+    public boolean isBuiltinPager() {
+    
+        return builtinPager;
+    }
+    
+    /**
+     * Enables or disables the built-in pager. When enabled, it is used in
+     * place of the external pager for commands that are tagged for
+     * auto-paging, as well as for every other command, including queries.
+     * 
+     * @param builtinPager If true, the built-in pager is used.
+     */
+    public void setBuiltinPager(boolean builtinPager) {
+    
+        this.builtinPager = builtinPager;
+    }
+    
+    /**
+     * @return The built-in pager that the output of the currently executing
+     *   command is passing through, or null if it is not being paged.
+     */
+    public ResultPager getResultPager() {
+    
+        return resultPager;
+    }
+
+    /**
+     * @return The transaction group that batches run by the session belong
+     *   to, or null if they aren't being grouped into transactions.
+     */
+    public TransactionGroup getTransactionGroup() {
+    
+        return transactionGroup;
+    }
+    
+    /**
+     * @param transactionGroup The transaction group that batches run by
+     *   the session belong to, or null to stop grouping them.
+     */
+    public void setTransactionGroup(TransactionGroup transactionGroup) {
+    
+        this.transactionGroup = transactionGroup;
+    }
+    
+    /**
+     * Ends the transaction group that batches run by the session belong
+     * to, if there is one, committing what it hasn't committed yet. This
+     * has to happen while the session's connection is still open.
+     */
+    public void endTransactionGroup() {
+        
+        if (transactionGroup != null) {
+            
+            if (!transactionGroup.finish(this)) {
+                
+                ++commandFailCount;
+            }
+            
+            transactionGroup = null;
+        }
+    }
+    
+    /**
+     * @return The DML statements held back to be sent in a JDBC batch, or
+     *   null if statements aren't being batched.
+     */
+    public DmlBatch getDmlBatch() {
+    
+        return dmlBatch;
+    }
+    
+    /**
+     * @param dmlBatch Where DML statements are to be held back to be sent
+     *   in a JDBC batch, or null to stop batching them.
+     */
+    public void setDmlBatch(DmlBatch dmlBatch) {
+    
+        this.dmlBatch = dmlBatch;
+    }
+    
+    /**
+     * @return The block whose batches \go is running in parallel, or null
+     *   if batches are being run one at a time.
+     */
+    public ParallelBlock getParallelBlock() {
+    
+        return parallelBlock;
+    }
+    
+    /**
+     * @param parallelBlock The block whose batches \go is to run in
+     *   parallel, or null to go back to running them one at a time.
+     */
+    public void setParallelBlock(ParallelBlock parallelBlock) {
+    
+        this.parallelBlock = parallelBlock;
+    }
+    
+    /**
+     * @return The line of the current input on which the batch in the
+     *   current buffer started, counting from 1.
+     */
+    public int getBatchStartLine() {
+    
+        return batchStartLine;
+    }
 
     /**
      * @return The number of rows-per-fetch that will be requested of the driver
@@ -561,6 +785,8 @@ public class Session
      */
     public void close() {
         
+        endTransactionGroup();
+        
         if (!(connection instanceof DisconnectedConnectionContext)) {
             
             connection.close();
@@ -793,6 +1019,8 @@ public class Session
         
         String line;
         boolean done = false;
+        int origInputLine = inputLine;
+        ParallelBlock origParallelBlock = parallelBlock;
         
         /*
          * Ensure that we are working on a clean buffer when we start.
@@ -826,6 +1054,7 @@ public class Session
                     }
                     else {
                     
+                        ++inputLine;
                         if (sigHandler.isTriggered() == false) {
                                 
                             evaluate(line);
@@ -858,10 +1087,35 @@ public class Session
                     done = true;
                 }
             }
+            
+            /*
+             * Send any statements still held back to be batched.
+             */
+            if (dmlBatch != null && dmlBatch.flush(this) > 0) {
+                
+                ++commandFailCount;
+            }
         }
         finally {
             
             sigMan.pop();
+            inputLine = origInputLine;
+            
+            /*
+             * A parallel block opened by this input and never ended is
+             * ended here, so that its batches finish and its connections
+             * are closed.
+             */
+            if (parallelBlock != null && parallelBlock != origParallelBlock) {
+                
+                err.println("\\parallel block was not ended; waiting for "
+                    + "its batches to finish");
+                if (parallelBlock.end() > 0) {
+                    
+                    ++commandFailCount;
+                }
+                parallelBlock = null;
+            }
         }
     }
                 
@@ -904,6 +1158,14 @@ public class Session
              * Add the current line to the buffer.
              */
             Buffer curBuf = getBufferManager().getCurrent();
+            if (curBuf.length() == 0) {
+                
+                batchStartLine = 0;
+            }
+            if (batchStartLine == 0 && line.trim().length() > 0) {
+                
+                batchStartLine = inputLine;
+            }
             curBuf.addLine(line);
             
             /*
@@ -978,7 +1240,9 @@ public class Session
     }
     
     /**
-     * Compares two sessions to see if they are the same.
+     * Compares two sessions to see if they are the same. The context's
+     * sessions are compared by id; a private session is only the same as
+     * itself.
      */
     public boolean equals(Object o) {
         
@@ -987,7 +1251,33 @@ public class Session
             return false;
         }
         
-        return (((Session) o).getId() == this.getId());
+        Session session = (Session) o;
+        if (owner != null || session.owner != null) {
+            
+            return session == this;
+        }
+        
+        return (session.getId() == this.getId());
+    }
+    
+    public int hashCode() {
+        
+        return sessionId;
+    }
+    
+    /**
+     * Lets the user know about any background jobs started from this
+     * session that have finished since the last prompt.
+     */
+    private void reportFinishedJobs() {
+        
+        for (Job job : sqshContext.getJobManager().getFinished(sessionId)) {
+            
+            err.println("Job #" + job.getId() + " "
+                + job.getState().name().toLowerCase() + " ("
+                + job.getRowsFetched() + " rows, "
+                + TimeUtils.millisToDurationString(job.getElapsed()) + ")");
+        }
     }
     
     /**
@@ -1005,6 +1295,8 @@ public class Session
         try {
                 
             if (ioManager.isInteractive()) {
+                
+                reportFinishedJobs();
                                 
                 String prompt = getVariableManager().get("prompt");
                 prompt =  (prompt == null)  
@@ -1274,6 +1566,30 @@ public class Session
      */
     private Command getCommand(String str) {
         
+        /*
+         * Unless the line begins like a command name, or with something
+         * that the tokenizer could turn into one (a quote or a variable),
+         * there is no point in tokenizing it.
+         */
+        int len = str.length();
+        int idx = 0;
+        while (idx < len && Character.isWhitespace(str.charAt(idx))) {
+            
+            ++idx;
+        }
+        
+        if (idx == len) {
+            
+            return null;
+        }
+        
+        char ch = str.charAt(idx);
+        if (ch != '$' && ch != '"' && ch != '\''
+                && !sqshContext.getCommandManager().isCommandStart(ch)) {
+            
+            return null;
+        }
+        
         /*
          * Next we will attempt to parse the line.
          */
@@ -1349,6 +1665,35 @@ public class Session
         return null;
     }
     
+    /**
+     * Waits for a tab completion to stop using the connection. The wait
+     * can be interrupted with ^C.
+     * 
+     * @param conn The connection.
+     * @return false if the completion is still using the connection.
+     */
+    private boolean awaitCompletion(Connection conn) {
+        
+        SignalManager sigMan = SignalManager.getInstance();
+        sigMan.push(new InterruptingSignalHandler());
+        
+        try {
+            
+            return MetadataIndex.awaitRelease(conn,
+                COMPLETION_RELEASE_TIMEOUT);
+        }
+        finally {
+            
+            sigMan.pop();
+            
+            /*
+             * Don't leave an interrupt that arrived after the wait lying
+             * around for the command.
+             */
+            Thread.interrupted();
+        }
+    }
+    
     /**
      * Used internally to execute a command.
      * 
@@ -1361,9 +1706,46 @@ public class Session
         
         Token token = null;
         Shell pipeShell = null;
+        boolean pagerStarted = false;
            
         SessionRedirectToken sessionRedirect = null;
         File sessionOutput = null;
+        
+        /*
+         * A tab completion that was given up on may still be fetching
+         * names over the connection. The fetch is canceled, and has to
+         * stop before anything else is run on the connection; if it
+         * doesn't stop in time (or the wait is interrupted with ^C) the
+         * command isn't run.
+         */
+        Connection conn = getConnection();
+        if (conn != null && !awaitCompletion(conn)) {
+            
+            err.println("The connection is still being used to look up "
+                + "names for tab completion; " + command.getName()
+                + " was not run");
+            ++commandFailCount;
+            return;
+        }
+        
+        /*
+         * Statements held back to be batched are sent before any command
+         * other than \go, so that they run in the order they were written.
+         */
+        if (dmlBatch != null && dmlBatch.size() > 0
+            && !command.getName().equals("\\go")) {
+            
+            if (dmlBatch.flush(this) > 0) {
+                
+                ++commandFailCount;
+                if (sqshContext.shouldExitOnFailure("\\go")
+                    || (transactionGroup != null
+                        && transactionGroup.isStopped())) {
+                    
+                    throw new SqshContextExitMessage(this);
+                }
+            }
+        }
            
         /*
          * Because our commandline may redirect I/O via >file, 1>&2,
@@ -1450,11 +1832,30 @@ public class Session
                 sessionOutput = doSessionRedirect(sessionRedirect, pipeShell);
             }
             
+            /*
+             * The built-in pager takes over the console for any command
+             * whose output isn't already headed somewhere else.
+             */
+            if (builtinPager
+                && pipeShell == null
+                && sessionOutput == null
+                && out == System.out
+                && isInteractive()
+                && sqshContext.getConsole() != null
+                && sqshContext.getConsole().isTerminal()) {
+                
+                resultPager = new ResultPager(System.out,
+                    sqshContext.getConsole(), sqshContext.getScreenHeight(),
+                    sqshContext.getScreenWidth());
+                setOut(new PrintStream(resultPager), false);
+                pagerStarted = true;
+            }
+            
             /*
              * If the command requested that its output be paged, then lets 
              * attempt to do so.
              */
-            if (autoPager 
+            else if (autoPager 
                 && command instanceof PagedCommand 
                 && pipeShell == null
                 && out == System.out) {
@@ -1474,9 +1875,12 @@ public class Session
                 
                 /*
                  * Was the "exit_on" variable used to register this command to
-                 * cause an exit if it fails?
+                 * cause an exit if it fails? Or did it fail a transaction
+                 * group that stops the script on failure?
                  */
-                if (sqshContext.shouldExitOnFailure(command.getName())) {
+                if (sqshContext.shouldExitOnFailure(command.getName())
+                    || (transactionGroup != null
+                        && transactionGroup.isStopped())) {
                     
                     throw new SqshContextExitMessage(this);
                 }
@@ -1512,6 +1916,12 @@ public class Session
         }
         finally {
             
+            if (pagerStarted) {
+                
+                out.flush();
+                resultPager = null;
+            }
+            
             restoreInputOutput();
             if (pipeShell != null) {
                 
@@ -144,6 +144,16 @@ public class SqshContext {
      */
     private SQLRenderer sqlRenderer = new SQLRenderer(this);
     
+    /**
+     * Keeps track of SQL that is running in the background.
+     */
+    private JobManager jobManager = new JobManager(this);
+    
+    /**
+     * Records the queries that are executed, when turned on.
+     */
+    private QueryLog queryLog = new QueryLog();
+    
     /**
      * The shell manager is responsible for executing command in a sub-shell
      * (such as during pipes and back-ticks).
@@ -244,6 +254,58 @@ public class SqshContext {
      */
     private int queryTimeout = 0;
     
+    /**
+     * Number of seconds that object names looked up for tab completion
+     * are remembered.
+     */
+    private int completionCacheTime = 300;
+    
+    /**
+     * Number of prepared statements that are kept for reuse on each
+     * connection.
+     */
+    private int statementCacheSize = 20;
+    
+    /**
+     * Whether new connections have their JDBC calls profiled ("off", "on"
+     * or "batch").
+     */
+    private String jdbcProfile = "off";
+    
+    /**
+     * Number of batches of a script that are committed together, or 0 to
+     * leave commits to autocommit.
+     */
+    private int txGroupSize = 0;
+    
+    /**
+     * Number of milliseconds after which the batches of a script that
+     * haven't been committed yet are committed, or 0 for no limit.
+     */
+    private int txGroupTime = 0;
+    
+    /**
+     * What to do when a batch in a transaction group fails.
+     */
+    private String txGroupOnError = TransactionGroup.ON_ERROR_ROLLBACK;
+    
+    /**
+     * Number of simple DML statements of a script that are sent to the
+     * server in a single JDBC batch, or 0 to send them one at a time.
+     */
+    private int dmlBatchSize = 0;
+    
+    /**
+     * Whether tab completion falls back to matching names that merely
+     * contain the typed characters in order.
+     */
+    private boolean completionSubsequence = false;
+    
+    /**
+     * Number of milliseconds that tab completion waits for the database.
+     */
+    private int completionTimeout = 300;
+    
     /**
      * Controls how much detail is displayed in exceptions.
      */
@@ -394,6 +456,203 @@ public class SqshContext {
         return queryTimeout;
     }
     
+    /**
+     * @return The number of seconds that object names that are looked
+     *   up for tab completion are remembered before being fetched again.
+     */
+    public int getCompletionCacheTime() {
+        
+        return completionCacheTime;
+    }
+    
+    /**
+     * @param secs The number of seconds that object names that are looked
+     *   up for tab completion are remembered before being fetched again.
+     *   A value of zero fetches them for every completion.
+     */
+    public void setCompletionCacheTime(int secs) {
+        
+        this.completionCacheTime = secs;
+    }
+    
+    /**
+     * @return The number of prepared statements that are kept on each
+     *   connection for reuse (see {@link StatementCache}).
+     */
+    public int getStatementCacheSize() {
+        
+        return statementCacheSize;
+    }
+    
+    /**
+     * @param size The number of prepared statements that are kept on each
+     *   connection for reuse. A value of zero disables the cache and closes
+     *   any statements that are currently cached.
+     */
+    public void setStatementCacheSize(int size) {
+        
+        this.statementCacheSize = size;
+        
+        if (size <= 0) {
+            
+            for (Session session : getSessions()) {
+                
+                ConnectionContext conn = session.getConnectionContext();
+                if (conn instanceof SQLConnectionContext) {
+                    
+                    ((SQLConnectionContext) conn).getStatementCache().clear();
+                }
+            }
+        }
+    }
+    
+    /**
+     * @return Whether the JDBC calls of new connections are profiled: "off",
+     *   "on", or "batch" to also display the profile after each batch.
+     */
+    public String getJdbcProfile() {
+        
+        return jdbcProfile;
+    }
+    
+    /**
+     * @param mode Whether the JDBC calls of new connections are profiled
+     *   (see {@link JdbcProfiler}): "off", "on", or "batch" to also
+     *   display the profile after each batch.
+     */
+    public void setJdbcProfile(String mode) {
+        
+        mode = mode.toLowerCase();
+        if (!"off".equals(mode) && !"on".equals(mode) && !"batch".equals(mode)) {
+            
+            throw new IllegalArgumentException("Invalid profiling mode \""
+                + mode + "\": valid modes are off, on and batch");
+        }
+        
+        this.jdbcProfile = mode;
+    }
+    
+    /**
+     * @return The number of batches of a script that are committed
+     *   together (see {@link TransactionGroup}), or 0 if they aren't
+     *   grouped by count.
+     */
+    public int getTxGroupSize() {
+        
+        return txGroupSize;
+    }
+    
+    /**
+     * @param size The number of batches of a script that are committed
+     *   together, or 0 to not group them by count.
+     */
+    public void setTxGroupSize(int size) {
+        
+        this.txGroupSize = Math.max(0, size);
+    }
+    
+    /**
+     * @return The number of milliseconds after which the batches of a
+     *   script are committed, or 0 if they aren't grouped by time.
+     */
+    public int getTxGroupTime() {
+        
+        return txGroupTime;
+    }
+    
+    /**
+     * @param millis The number of milliseconds after which the batches of
+     *   a script are committed, or 0 to not group them by time.
+     */
+    public void setTxGroupTime(int millis) {
+        
+        this.txGroupTime = Math.max(0, millis);
+    }
+    
+    /**
+     * @return What happens when a batch in a transaction group fails:
+     *   "rollback" or "stop".
+     */
+    public String getTxGroupOnError() {
+        
+        return txGroupOnError;
+    }
+    
+    /**
+     * @param onError What happens when a batch in a transaction group
+     *   fails: "rollback" to roll back the group and carry on, or "stop"
+     *   to roll back the group and stop the script.
+     */
+    public void setTxGroupOnError(String onError) {
+        
+        onError = onError.toLowerCase();
+        if (!TransactionGroup.ON_ERROR_ROLLBACK.equals(onError)
+            && !TransactionGroup.ON_ERROR_STOP.equals(onError)) {
+            
+            throw new IllegalArgumentException("Invalid failure policy \""
+                + onError + "\": valid policies are rollback and stop");
+        }
+        
+        this.txGroupOnError = onError;
+    }
+    
+    /**
+     * @return The number of simple DML statements of a script that are
+     *   sent together in a JDBC batch (see {@link DmlBatch}), or 0 if they
+     *   are sent one at a time.
+     */
+    public int getDmlBatchSize() {
+        
+        return dmlBatchSize;
+    }
+    
+    /**
+     * @param size The number of simple DML statements of a script that are
+     *   sent together in a JDBC batch, or 0 to send them one at a time.
+     */
+    public void setDmlBatchSize(int size) {
+        
+        this.dmlBatchSize = Math.max(0, size);
+    }
+    
+    /**
+     * @return The number of milliseconds that tab completion will wait
+     *   for object names to be looked up before giving up.
+     */
+    public int getCompletionTimeout() {
+        
+        return completionTimeout;
+    }
+    
+    /**
+     * @param millis The number of milliseconds that tab completion will
+     *   wait for object names to be looked up before giving up. A value
+     *   of zero or less waits for as long as it takes.
+     */
+    public void setCompletionTimeout(int millis) {
+        
+        this.completionTimeout = millis;
+    }
+    
+    /**
+     * @return Whether tab completion offers names that contain the
+     *   characters typed, in order, when no name begins with them.
+     */
+    public boolean isCompletionSubsequence() {
+        
+        return completionSubsequence;
+    }
+    
+    /**
+     * @param completionSubsequence Whether tab completion offers names that
+     *   contain the characters typed, in order, when no name begins with
+     *   them.
+     */
+    public void setCompletionSubsequence(boolean completionSubsequence) {
+        
+        this.completionSubsequence = completionSubsequence;
+    }
+    
     /**
      * Given a comma delimited list of command names, registers the commands to cause
      * the invoking session to exit in the event the command returns an error. The special
@@ -643,6 +902,16 @@ public class SqshContext {
         this.screenWidth = screenWidth;
     }
 
+    /**
+     * @return The number of lines that fit on the screen. If this cannot
+     *   be determined, then a traditional 24 line terminal is assumed.
+     */
+    public int getScreenHeight() {
+
+        int height = (console == null ? -1 : console.getScreenHeight());
+        return (height > 0 ? height : 24);
+    }
+
     /**
      * @return whether or not exceptions that are printed out via
      * the sessions printException() method will show the stack trace.
@@ -877,6 +1146,22 @@ public class SqshContext {
         return variableManager;
     }
     
+    /**
+     * @return The manager of the jobs running in the background.
+     */
+    public JobManager getJobManager() {
+        
+        return jobManager;
+    }
+    
+    /**
+     * @return The log of executed queries.
+     */
+    public QueryLog getQueryLog() {
+        
+        return queryLog;
+    }
+    
     /**
      * Get the follow responsible for installing pluggable renderers and
      * managing which one is the default.
@@ -1097,7 +1382,9 @@ public class SqshContext {
      */
     public void close() {
 
+        jobManager.cancelAll();
         removeSession(-1);
+        queryLog.close();
     }
     
     /**
@@ -1256,6 +1543,32 @@ public class SqshContext {
             doWelcome(session);
         }
         
+        /*
+         * A script run on its own may have its batches grouped into
+         * transactions. A script run from within another script (\eval)
+         * joins the group of the outer one.
+         */
+        TransactionGroup txGroup = null;
+        if (session != null && !session.isInteractive()
+            && session.getTransactionGroup() == null
+            && (txGroupSize > 0 || txGroupTime > 0)) {
+            
+            txGroup = new TransactionGroup(txGroupSize, txGroupTime,
+                txGroupOnError);
+            session.setTransactionGroup(txGroup);
+        }
+        
+        /*
+         * Likewise its DML statements may be sent in JDBC batches.
+         */
+        DmlBatch dmlBatch = null;
+        if (session != null && !session.isInteractive()
+            && session.getDmlBatch() == null && dmlBatchSize > 0) {
+            
+            dmlBatch = new DmlBatch(dmlBatchSize);
+            session.setDmlBatch(dmlBatch);
+        }
+        
         /*
          * Stick in a loop until we are out of sessions or until
          * the session we are being asked to execute has finished.
@@ -1278,6 +1591,16 @@ public class SqshContext {
                      */
                     currentSession.readEvalPrint();
                     
+                    /*
+                     * The script's transaction group is ended (and its
+                     * last batches committed) while the connection is
+                     * still open, so a failed commit counts as a failure.
+                     */
+                    if (currentSession == session && txGroup != null) {
+                        
+                        session.endTransactionGroup();
+                    }
+                    
                     /*
                      * If any commands failed during the session, 
                      * accumulate them into our failure count.
@@ -1299,6 +1622,16 @@ public class SqshContext {
                 }
                 catch (SqshContextExitMessage e) {
                     
+                    /*
+                     * Likewise if the script is ended by \quit or a
+                     * failure, before the session and its connection are
+                     * closed.
+                     */
+                    if (currentSession == session && txGroup != null) {
+                        
+                        session.endTransactionGroup();
+                    }
+                    
                     if (exitStatus == ExitStatus.LAST_FAILURE) {
                         
                         failCount = currentSession.getLastCommandResult();
@@ -1367,6 +1700,16 @@ public class SqshContext {
             }
         }
         
+        if (dmlBatch != null) {
+            
+            session.setDmlBatch(null);
+        }
+        
+        if (txGroup != null && session.getTransactionGroup() == txGroup) {
+            
+            session.endTransactionGroup();
+        }
+        
         saveConfigDirectory();
         
         /*
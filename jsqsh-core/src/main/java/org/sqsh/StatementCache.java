@@ -0,0 +1,357 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh;
+
+import java.sql.ParameterMetaData;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * A least-recently-used cache of the prepared statements of a connection,
+ * keyed by their SQL text, so that SQL that is executed over and over in
+ * prepare or bind mode (see {@link SQLConnectionContext#EXEC_PREPARE}) is
+ * only prepared once. Along with each statement are kept the descriptions
+ * of the columns of its results, so that the formatting of those columns
+ * doesn't need to be worked out again either.
+ *
+ * <p>A statement is taken out of the cache while it is being executed and
+ * is put back when it is done, so a statement is never in use twice at
+ * the same time. The size of the cache is controlled by
+ * {@link SqshContext#getStatementCacheSize()} and statements that no
+ * longer fit are closed.
+ */
+public class StatementCache {
+
+    private static final Logger LOG = Logger.getLogger(StatementCache.class.getName());
+
+    /*
+     * The first words of statements that can change what the SQL text of
+     * other statements refers to, such as by switching databases or
+     * changing the definition of a table.
+     */
+    private static final String []INVALIDATING = {
+        "USE", "SET", "CREATE", "ALTER", "DROP", "RENAME", "TRUNCATE",
+        "GRANT", "REVOKE", "CONNECT"
+    };
+
+    /**
+     * A cached statement.
+     */
+    public static class Entry {
+
+        private String sql;
+        private PreparedStatement statement;
+        private List<ColumnDescription[]> descriptions =
+            new ArrayList<ColumnDescription[]>();
+        private int version;
+        private int []parameterTypes = null;
+
+        /**
+         * Creates an entry for a newly prepared statement.
+         *
+         * @param sql The SQL text of the statement.
+         * @param statement The statement.
+         */
+        public Entry(String sql, PreparedStatement statement) {
+
+            this.sql = sql;
+            this.statement = statement;
+        }
+
+        /**
+         * @return The SQL text of the statement.
+         */
+        public String getSQL() {
+
+            return sql;
+        }
+
+        /**
+         * @return The statement.
+         */
+        public PreparedStatement getStatement() {
+
+            return statement;
+        }
+
+        /**
+         * Returns the types of the parameters of the statement, as
+         * described by the driver. They are only asked for once.
+         *
+         * @return The types (see {@link java.sql.Types}), by parameter
+         *   index starting at 0. This is empty if the driver can't
+         *   describe the parameters.
+         */
+        public int[] getParameterTypes() {
+
+            if (parameterTypes != null) {
+
+                return parameterTypes;
+            }
+
+            try {
+
+                ParameterMetaData meta = statement.getParameterMetaData();
+                int []types = new int[meta.getParameterCount()];
+                for (int i = 0; i < types.length; i++) {
+
+                    types[i] = meta.getParameterType(i + 1);
+                }
+
+                parameterTypes = types;
+            }
+            catch (Exception e) {
+
+                LOG.fine("Unable to describe the parameters of: " + sql
+                    + ": " + e.getMessage());
+                parameterTypes = new int[0];
+            }
+
+            return parameterTypes;
+        }
+
+        /**
+         * Returns a copy of the column descriptions that were saved for
+         * one of the result sets of the statement.
+         *
+         * @param result The number of the result set, starting at 0.
+         * @param version The current {@link DataFormatter#getVersion()}.
+         *   If the descriptions were saved under a different version, they
+         *   are thrown away.
+         * @return The descriptions, or null if there are none.
+         */
+        public ColumnDescription[] getDescription(int result, int version) {
+
+            if (version != this.version) {
+
+                descriptions.clear();
+                this.version = version;
+            }
+
+            if (result >= descriptions.size() || descriptions.get(result) == null) {
+
+                return null;
+            }
+
+            ColumnDescription []saved = descriptions.get(result);
+            ColumnDescription []copy = new ColumnDescription[saved.length];
+            for (int i = 0; i < saved.length; i++) {
+
+                copy[i] = new ColumnDescription(saved[i]);
+            }
+
+            return copy;
+        }
+
+        /**
+         * Saves the column descriptions of one of the result sets of the
+         * statement. This should be called before the descriptions are
+         * handed to a renderer.
+         *
+         * @param result The number of the result set, starting at 0.
+         * @param version The current {@link DataFormatter#getVersion()}.
+         * @param columns The descriptions.
+         */
+        public void setDescription(int result, int version,
+                ColumnDescription []columns) {
+
+            if (version != this.version) {
+
+                descriptions.clear();
+                this.version = version;
+            }
+
+            while (descriptions.size() <= result) {
+
+                descriptions.add(null);
+            }
+
+            ColumnDescription []saved = new ColumnDescription[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+
+                saved[i] = new ColumnDescription(columns[i]);
+            }
+
+            descriptions.set(result, saved);
+        }
+    }
+
+    private SqshContext sqshContext;
+    private LinkedHashMap<String, Entry> entries =
+        new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private int hits = 0;
+    private int misses = 0;
+
+    /**
+     * Creates a cache.
+     *
+     * @param sqshContext The context, which determines the size of the cache.
+     */
+    public StatementCache(SqshContext sqshContext) {
+
+        this.sqshContext = sqshContext;
+    }
+
+    /**
+     * Takes a statement out of the cache for use. It should be handed
+     * back with {@link #put(Entry)} once it has been executed and its
+     * results have been processed.
+     *
+     * @param sql The SQL text.
+     * @return The statement or null if the SQL isn't in the cache.
+     */
+    public synchronized Entry take(String sql) {
+
+        Entry entry = entries.remove(sql);
+        if (entry == null) {
+
+            ++misses;
+        }
+        else {
+
+            ++hits;
+        }
+
+        return entry;
+    }
+
+    /**
+     * Returns a statement to the cache after it has been executed. The
+     * parameters, warnings and limits that were set on the statement are
+     * reset. If this cannot be done, or there is no room in the cache,
+     * the statement is closed instead.
+     *
+     * @param entry The statement.
+     */
+    public void put(Entry entry) {
+
+        int size = sqshContext.getStatementCacheSize();
+        PreparedStatement statement = entry.getStatement();
+
+        if (size <= 0) {
+
+            SQLTools.close(statement);
+            return;
+        }
+
+        try {
+
+            statement.clearParameters();
+            statement.clearWarnings();
+            statement.setMaxRows(0);
+            statement.setFetchSize(0);
+            statement.setQueryTimeout(0);
+        }
+        catch (SQLException e) {
+
+            LOG.fine("Unable to reset statement for reuse: " + e.getMessage());
+            SQLTools.close(statement);
+            return;
+        }
+
+        List<Entry> evicted = new ArrayList<Entry>();
+        synchronized (this) {
+
+            Entry previous = entries.put(entry.getSQL(), entry);
+            if (previous != null) {
+
+                evicted.add(previous);
+            }
+
+            Iterator<Entry> iter = entries.values().iterator();
+            while (entries.size() > size && iter.hasNext()) {
+
+                evicted.add(iter.next());
+                iter.remove();
+            }
+        }
+
+        for (Entry e : evicted) {
+
+            SQLTools.close(e.getStatement());
+        }
+    }
+
+    /**
+     * Discards the whole cache if the SQL is a statement that could
+     * change what other, already prepared, statements refer to.
+     *
+     * @param sql The SQL that was just executed.
+     */
+    public void invalidate(String sql) {
+
+        int len = sql.length();
+        int idx = SQLParseUtil.skipWhitespace(sql, len, 0);
+
+        for (String word : INVALIDATING) {
+
+            int end = idx + word.length();
+            if (sql.regionMatches(true, idx, word, 0, word.length())
+                && (end == len || !Character.isLetterOrDigit(sql.charAt(end)))) {
+
+                clear();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Closes and discards all of the statements in the cache.
+     */
+    public void clear() {
+
+        List<Entry> evicted;
+        synchronized (this) {
+
+            evicted = new ArrayList<Entry>(entries.values());
+            entries.clear();
+        }
+
+        for (Entry entry : evicted) {
+
+            SQLTools.close(entry.getStatement());
+        }
+    }
+
+    /**
+     * @return The number of statements in the cache.
+     */
+    public synchronized int size() {
+
+        return entries.size();
+    }
+
+    /**
+     * @return The number of times a statement was found in the cache.
+     */
+    public synchronized int getHits() {
+
+        return hits;
+    }
+
+    /**
+     * @return The number of times a statement was not found in the cache.
+     */
+    public synchronized int getMisses() {
+
+        return misses;
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Groups the batches of a script into transactions. Rather than each
+ * batch being committed on its own (autocommit), autocommit is turned off
+ * and the batches are committed together every so many batches or every
+ * so many milliseconds, whichever comes first. If a batch fails, the
+ * batches of the group that haven't been committed yet are rolled back,
+ * and the script either carries on with a new group or stops.
+ *
+ * <p>A group is created by {@link SqshContext#run(Session)} for the
+ * duration of a non-interactive session (a script) when the tx_group_size
+ * or tx_group_time variables are set, and each batch run by \go is
+ * bracketed by calls to {@link #begin(Session, Connection)} and
+ * {@link #end(Session, boolean)}. When the script is to stop, the session
+ * ends it once \go returns, just as it does for a command named in the
+ * exit_on variable.
+ */
+public class TransactionGroup {
+
+    private static final Logger LOG =
+        Logger.getLogger(TransactionGroup.class.getName());
+
+    /**
+     * On failure, roll back the group and carry on with the script.
+     */
+    public static final String ON_ERROR_ROLLBACK = "rollback";
+
+    /**
+     * On failure, roll back the group and stop the script.
+     */
+    public static final String ON_ERROR_STOP = "stop";
+
+    private final int size;
+    private final long millis;
+    private final boolean stopOnError;
+
+    private Connection conn = null;
+    private boolean origAutoCommit = true;
+    private int batches = 0;
+    private long groupStart = 0L;
+    private long committed = 0L;
+    private long rolledBack = 0L;
+    private boolean stopped = false;
+
+    /**
+     * Creates a group.
+     *
+     * @param size The number of batches per transaction, or 0 for no limit.
+     * @param millis The number of milliseconds after which a transaction is
+     *   committed, or 0 for no limit.
+     * @param onError What to do when a batch fails, either
+     *   {@link #ON_ERROR_ROLLBACK} or {@link #ON_ERROR_STOP}.
+     */
+    public TransactionGroup (int size, long millis, String onError) {
+
+        this.size = size;
+        this.millis = millis;
+        this.stopOnError = ON_ERROR_STOP.equals(onError);
+    }
+
+    /**
+     * Called before a batch is run.
+     *
+     * @param session The session running the batch.
+     * @param connection The connection that the batch is run on.
+     * @throws SQLException If autocommit can't be turned off.
+     */
+    public void begin(Session session, Connection connection)
+        throws SQLException {
+
+        /*
+         * If the script has switched connections then whatever was done on
+         * the old one is committed before starting on the new one.
+         */
+        if (connection != conn) {
+
+            finish(session);
+
+            boolean autoCommit = connection.getAutoCommit();
+            if (autoCommit) {
+
+                connection.setAutoCommit(false);
+            }
+
+            conn = connection;
+            origAutoCommit = autoCommit;
+        }
+
+        if (batches == 0) {
+
+            groupStart = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Called after a batch has run, to commit the group if it is full or
+     * to roll it back if the batch failed. Whether the script should then
+     * stop is up to the failure policy (see {@link #isStopped()}).
+     *
+     * @param session The session running the batch.
+     * @param ok Whether the batch succeeded.
+     * @return false if the batch failed or if the group that it completed
+     *   couldn't be committed.
+     */
+    public boolean end(Session session, boolean ok) {
+
+        if (conn == null) {
+
+            return true;
+        }
+
+        if (ok) {
+
+            ++batches;
+            if ((size > 0 && batches >= size)
+                || (millis > 0
+                    && System.currentTimeMillis() - groupStart >= millis)) {
+
+                return commit(session);
+            }
+
+            return true;
+        }
+
+        session.err.println("Rolling back " + batches + " batch"
+            + (batches == 1 ? "" : "es") + " preceding the failed batch"
+            + (stopOnError ? " and stopping" : ""));
+
+        try {
+
+            conn.rollback();
+            rolledBack += batches + 1;
+        }
+        catch (SQLException e) {
+
+            SQLTools.printException(session, e);
+        }
+
+        batches = 0;
+        stopped = stopOnError;
+        return false;
+    }
+
+    /**
+     * Counts batches that have succeeded without checking whether the
+     * group is full, for when several batches are run at once and the
+     * last of them is reported with {@link #end(Session, boolean)}.
+     *
+     * @param count The number of batches.
+     */
+    public void succeeded(int count) {
+
+        if (conn != null) {
+
+            batches += count;
+        }
+    }
+
+    /**
+     * @return The number of batches that can be run before the group is
+     *   full.
+     */
+    public int getRemaining() {
+
+        return size > 0 ? Math.max(1, size - batches) : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Commits any batches that haven't been committed yet and puts the
+     * connection's autocommit setting back the way it was. This must be
+     * called before the connection is closed: if the connection has
+     * already gone, the batches that haven't been committed are reported
+     * as lost.
+     *
+     * @param session The session that ran the batches.
+     * @return false if the batches couldn't be committed.
+     */
+    public boolean finish(Session session) {
+
+        if (conn == null) {
+
+            return true;
+        }
+
+        boolean ok = true;
+        try {
+
+            if (conn.isClosed()) {
+
+                if (batches > 0) {
+
+                    session.err.println("The connection was closed before "
+                        + batches + " batch" + (batches == 1 ? "" : "es")
+                        + " could be committed");
+                    rolledBack += batches;
+                    batches = 0;
+                    ok = false;
+                }
+            }
+            else {
+
+                ok = commit(session);
+                if (origAutoCommit) {
+
+                    conn.setAutoCommit(true);
+                }
+            }
+        }
+        catch (SQLException e) {
+
+            SQLTools.printException(session, e);
+            ok = false;
+        }
+
+        if (LOG.isLoggable(Level.FINE)) {
+
+            LOG.fine("Transaction group finished: " + committed
+                + " batches committed, " + rolledBack + " rolled back");
+        }
+
+        conn = null;
+        return ok;
+    }
+
+    /**
+     * @return true if a batch or a commit has failed and the failure
+     *   policy says that the script should stop.
+     */
+    public boolean isStopped() {
+
+        return stopped;
+    }
+
+    /**
+     * @return The number of batches committed.
+     */
+    public long getCommitted() {
+
+        return committed;
+    }
+
+    /**
+     * @return The number of batches rolled back, including the batches
+     *   that failed.
+     */
+    public long getRolledBack() {
+
+        return rolledBack;
+    }
+
+    private boolean commit(Session session) {
+
+        if (batches == 0) {
+
+            return true;
+        }
+
+        boolean ok = true;
+        try {
+
+            conn.commit();
+            committed += batches;
+        }
+        catch (SQLException e) {
+
+            session.err.println("Failed to commit " + batches + " batch"
+                + (batches == 1 ? "" : "es")
+                + (stopOnError ? ", stopping" : "") + ":");
+            SQLTools.printException(session, e);
+            rolledBack += batches;
+            stopped = stopOnError;
+            ok = false;
+        }
+
+        batches = 0;
+        return ok;
+    }
+}
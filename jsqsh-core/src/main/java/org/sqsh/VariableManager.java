@@ -45,6 +45,32 @@ public class VariableManager
     private Map<String, Variable>variables = 
         new HashMap<String, Variable>();
     
+    /*
+     * Bumped whenever a variable is added to or removed from this manager
+     * (but not when the value of one changes), so that a flattened view of
+     * this manager and its parent can tell when it is out of date.
+     */
+    private volatile int version = 0;
+    
+    /**
+     * A snapshot of the variables of this manager and its parent in a
+     * single map, so that looking up a variable that lives in the parent
+     * doesn't mean missing in each manager along the way.
+     */
+    private static class View {
+        
+        public final int version;
+        public final Map<String, Variable> variables;
+        
+        public View (int version, Map<String, Variable> variables) {
+            
+            this.version = version;
+            this.variables = variables;
+        }
+    }
+    
+    private volatile View view = null;
+    
     /**
      * Map of named beans that the PropertyVariable can refer to.
      */
@@ -172,6 +198,7 @@ public class VariableManager
     public void clear() {
         
         variables.clear();
+        ++version;
     }
     
     /**
@@ -242,6 +269,7 @@ public class VariableManager
         
         var.setManager(this);
         variables.put(var.getName(), var);
+        ++version;
     }
     
     /**
@@ -253,6 +281,7 @@ public class VariableManager
     	var.setRemoveable(false);
         var.setManager(this);
         variables.put(var.getName(), var);
+        ++version;
     }
     
     /**
@@ -263,13 +292,7 @@ public class VariableManager
     @Override
     public boolean containsKey(Object key) {
         
-        boolean ok = variables.containsKey(key);
-        if (ok == false && parent != null) {
-            
-            ok = parent.containsKey(key);
-        }
-        
-        return ok;
+        return getVisibleVariables().containsKey(key);
     }
     
     /**
@@ -351,12 +374,7 @@ public class VariableManager
     @Override
     public String get(Object name) {
         
-        Variable var = variables.get(name);
-        if (var == null && parent != null) {
-            
-            return parent.get(name);
-        }
-        
+        Variable var = getVisibleVariables().get(name);
         if (var != null) {
             
             return var.toString();
@@ -373,13 +391,48 @@ public class VariableManager
      */
     public Variable getVariable(String name) {
         
-        Variable var = variables.get(name);
-        if (var == null && parent != null) {
+        return getVisibleVariables().get(name);
+    }
+    
+    /**
+     * @return A number that changes whenever a variable is added to or
+     *   removed from this manager or one of its parents.
+     */
+    private int getStructureVersion() {
+        
+        int v = version;
+        if (parent != null) {
+            
+            v += parent.getStructureVersion();
+        }
+        
+        return v;
+    }
+    
+    /**
+     * Returns all of the variables that can be seen from this manager,
+     * keyed by name, with the variables of this manager hiding those of
+     * the same name in the parent. The map must not be modified.
+     */
+    private Map<String, Variable> getVisibleVariables() {
+        
+        if (parent == null) {
+            
+            return variables;
+        }
+        
+        int v = getStructureVersion();
+        View current = view;
+        if (current == null || current.version != v) {
             
-            return parent.getVariable(name);
+            Map<String, Variable> map = 
+                new HashMap<String, Variable>(parent.getVisibleVariables());
+            map.putAll(variables);
+            current = new View(v, map);
+            view = current;
         }
         
-        return var;
+        return current.variables;
     }
     
     /**
@@ -437,6 +490,7 @@ public class VariableManager
         }
         
         variables.remove(name);
+        ++version;
         return var.toString();
     }
     
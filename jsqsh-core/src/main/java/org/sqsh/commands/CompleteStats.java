@@ -0,0 +1,127 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh.commands;
+
+import static org.sqsh.options.ArgumentRequired.NONE;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.sqsh.ColumnDescription;
+import org.sqsh.Command;
+import org.sqsh.DatabaseCommand;
+import org.sqsh.Renderer;
+import org.sqsh.Session;
+import org.sqsh.SqshOptions;
+import org.sqsh.input.completion.MetadataIndex;
+import org.sqsh.options.Argv;
+import org.sqsh.options.OptionProperty;
+
+/**
+ * Implements the \complete-stats command, which displays how long it has
+ * taken to look up object names for tab completion on the current
+ * connection.
+ */
+public class CompleteStats
+    extends Command
+    implements DatabaseCommand {
+
+    private static class Options
+        extends SqshOptions {
+
+        @OptionProperty(
+            option='r', longOption="reset", arg=NONE,
+            description="Resets the statistics after displaying them")
+        public boolean reset = false;
+
+        @OptionProperty(
+            option='c', longOption="clear", arg=NONE,
+            description="Discards the object names that have been looked up")
+        public boolean clear = false;
+
+        @Argv(program="\\complete-stats", min=0, max=0)
+        public List<String> arguments = new ArrayList<String>();
+    }
+
+    @Override
+    public SqshOptions getOptions() {
+
+        return new Options();
+    }
+
+    @Override
+    public int execute(Session session, SqshOptions opts)
+        throws Exception {
+
+        Options options = (Options) opts;
+        MetadataIndex index =
+            MetadataIndex.getInstance(session.getConnection());
+
+        ColumnDescription []columns = new ColumnDescription[6];
+        columns[0] = new ColumnDescription("Catalog", -1);
+        columns[1] = new ColumnDescription("Lookups", -1,
+            ColumnDescription.Alignment.RIGHT,
+            ColumnDescription.OverflowBehavior.TRUNCATE);
+        columns[2] = new ColumnDescription("Failed", -1,
+            ColumnDescription.Alignment.RIGHT,
+            ColumnDescription.OverflowBehavior.TRUNCATE);
+        columns[3] = new ColumnDescription("Slow", -1,
+            ColumnDescription.Alignment.RIGHT,
+            ColumnDescription.OverflowBehavior.TRUNCATE);
+        columns[4] = new ColumnDescription("Avg ms", -1,
+            ColumnDescription.Alignment.RIGHT,
+            ColumnDescription.OverflowBehavior.TRUNCATE);
+        columns[5] = new ColumnDescription("Max ms", -1,
+            ColumnDescription.Alignment.RIGHT,
+            ColumnDescription.OverflowBehavior.TRUNCATE);
+
+        Renderer renderer =
+            session.getRendererManager().getCommandRenderer(session);
+        renderer.header(columns);
+
+        for (MetadataIndex.Stats stats : index.getStats()) {
+
+            String []row = new String[6];
+            row[0] = stats.getCatalog().length() == 0
+                ? "(catalogs)" : stats.getCatalog();
+            row[1] = Integer.toString(stats.getFetches());
+            row[2] = Integer.toString(stats.getFailures());
+            row[3] = Integer.toString(stats.getSlow());
+            row[4] = Long.toString(stats.getFetches() == 0
+                ? 0 : stats.getTotalMillis() / stats.getFetches());
+            row[5] = Long.toString(stats.getMaxMillis());
+            renderer.row(row);
+        }
+
+        renderer.flush();
+
+        session.out.println(index.getDeadlinesExpired()
+            + " completion(s) gave up waiting after "
+            + session.getContext().getCompletionTimeout() + "ms");
+
+        if (options.reset) {
+
+            index.clearStats();
+        }
+
+        if (options.clear) {
+
+            index.clear();
+        }
+
+        return 0;
+    }
+}
@@ -27,6 +27,7 @@ import java.util.List;
 
 import org.sqsh.Command;
 import org.sqsh.DatabaseCommand;
+import org.sqsh.SQLConnectionContext;
 import org.sqsh.SQLTools;
 import org.sqsh.SessionRedrawBufferMessage;
 import org.sqsh.SqshOptions;
@@ -90,7 +91,9 @@ public class Create
             DatabaseMetaData meta = conn.getMetaData();
             
             String catalog = 
-                (obj.getCatalog() == null ? SQLTools.getCatalog(conn) 
+                (obj.getCatalog() == null 
+                        ? ((SQLConnectionContext) session.getConnectionContext())
+                            .getCurrentCatalog()
                         : obj.getCatalog());
             
             /*
@@ -15,6 +15,13 @@
  */
 package org.sqsh.commands;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Blob;
+import java.sql.Clob;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
@@ -30,9 +37,7 @@ import org.sqsh.SQLTools;
 import org.sqsh.Session;
 import org.sqsh.SqshContext;
 import org.sqsh.SqshOptions;
-import org.sqsh.format.BlobFormatter;
 import org.sqsh.format.ByteFormatter;
-import org.sqsh.format.ClobFormatter;
 import org.sqsh.options.Argv;
 import org.sqsh.options.OptionProperty;
 
@@ -618,13 +623,11 @@ public class Diff
                     break;
                     
                 case Types.BLOB:
-                    BlobFormatter b = new BlobFormatter();
-                    values[c - 1] = b.format(set.getObject(c));
+                    values[c - 1] = getLobDigest(set.getBlob(c));
                     break;
                     
                 case Types.CLOB:
-                    ClobFormatter cf= new ClobFormatter();
-                    values[c - 1] = cf.format(set.getObject(c));
+                    values[c - 1] = getLobDigest(set.getClob(c));
                     break;
                     
                 case Types.BOOLEAN:
@@ -678,6 +681,127 @@ public class Diff
         return values;
     }
     
+    /**
+     * Computes a digest of a BLOB value by streaming it from the driver,
+     * so that arbitrarily large values may be compared without holding
+     * them in memory.
+     * 
+     * @param blob The blob (may be null)
+     * @return A string describing the length and digest of the value
+     * @throws SQLException If the value cannot be read
+     */
+    private String getLobDigest(Blob blob)
+        throws SQLException {
+        
+        if (blob == null) {
+            
+            return "NULL";
+        }
+        
+        MessageDigest digest = newDigest();
+        InputStream in = blob.getBinaryStream();
+        byte []chunk = new byte[8192];
+        long length = 0;
+        
+        try {
+            
+            try {
+                
+                int count;
+                while ((count = in.read(chunk)) >= 0) {
+                    
+                    digest.update(chunk, 0, count);
+                    length += count;
+                }
+            }
+            finally {
+                
+                in.close();
+            }
+        }
+        catch (IOException e) {
+            
+            throw new SQLException("Error reading BLOB: " + e.getMessage(), e);
+        }
+        
+        return "BLOB(" + length + " bytes, SHA-1 " + toHex(digest.digest()) + ")";
+    }
+    
+    /**
+     * Computes a digest of a CLOB value by streaming it from the driver.
+     * 
+     * @param clob The clob (may be null)
+     * @return A string describing the length and digest of the value
+     * @throws SQLException If the value cannot be read
+     */
+    private String getLobDigest(Clob clob)
+        throws SQLException {
+        
+        if (clob == null) {
+            
+            return "NULL";
+        }
+        
+        MessageDigest digest = newDigest();
+        Reader in = clob.getCharacterStream();
+        char []chunk = new char[4096];
+        byte []bytes = new byte[chunk.length * 2];
+        long length = 0;
+        
+        try {
+            
+            try {
+                
+                int count;
+                while ((count = in.read(chunk)) >= 0) {
+                    
+                    for (int i = 0; i < count; i++) {
+                        
+                        bytes[i * 2]     = (byte) (chunk[i] >>> 8);
+                        bytes[i * 2 + 1] = (byte) chunk[i];
+                    }
+                    
+                    digest.update(bytes, 0, count * 2);
+                    length += count;
+                }
+            }
+            finally {
+                
+                in.close();
+            }
+        }
+        catch (IOException e) {
+            
+            throw new SQLException("Error reading CLOB: " + e.getMessage(), e);
+        }
+        
+        return "CLOB(" + length + " chars, SHA-1 " + toHex(digest.digest()) + ")";
+    }
+    
+    private static MessageDigest newDigest() {
+        
+        try {
+            
+            return MessageDigest.getInstance("SHA-1");
+        }
+        catch (NoSuchAlgorithmException e) {
+            
+            /* Every JVM is required to provide SHA-1 */
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    private static String toHex(byte []bytes) {
+        
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            
+            sb.append(Character.forDigit((b >>> 4) & 0x0F, 16));
+            sb.append(Character.forDigit(b & 0x0F, 16));
+        }
+        
+        return sb.toString();
+    }
     
     /**
      * Compares metadata from result sets of multiple sessions.
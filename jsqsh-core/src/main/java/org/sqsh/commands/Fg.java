@@ -0,0 +1,123 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh.commands;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.sqsh.Job;
+import org.sqsh.JobManager;
+import org.sqsh.Session;
+import org.sqsh.SqshOptions;
+import org.sqsh.options.Argv;
+
+/**
+ * Implements the \fg command, which waits for a query that is running in
+ * the background to finish and then displays its results.
+ */
+public class Fg
+    extends JobCommand {
+
+    private static class Options
+        extends SqshOptions {
+
+        @Argv(program="\\fg", min=0, max=1, usage="[job]")
+        public List<String> arguments = new ArrayList<String>();
+    }
+
+    @Override
+    public SqshOptions getOptions() {
+
+        return new Options();
+    }
+
+    @Override
+    public int execute(Session session, SqshOptions opts)
+        throws Exception {
+
+        Options options = (Options) opts;
+        JobManager jobMan = session.getContext().getJobManager();
+        Job job;
+
+        if (options.arguments.size() == 0) {
+
+            job = jobMan.getLastJob(session.getId());
+            if (job == null) {
+
+                session.err.println("There are no background jobs");
+                return 1;
+            }
+        }
+        else {
+
+            List<Job> jobs = getJobs(session, options.arguments);
+            if (jobs == null) {
+
+                return 1;
+            }
+
+            job = jobs.get(0);
+        }
+
+        if (!waitFor(session, job)) {
+
+            return 1;
+        }
+
+        InputStream in = null;
+        try {
+
+            in = new FileInputStream(job.getOutput());
+
+            byte []buffer = new byte[8192];
+            int len;
+            while ((len = in.read(buffer)) > 0
+                && !session.out.checkError()) {
+
+                session.out.write(buffer, 0, len);
+            }
+
+            session.out.flush();
+        }
+        catch (IOException e) {
+
+            session.err.println("Unable to read the output of job #"
+                + job.getId() + ": " + e.getMessage());
+            return 1;
+        }
+        finally {
+
+            if (in != null) {
+
+                in.close();
+            }
+        }
+
+        /*
+         * Once its results have been seen, a job whose output was spooled
+         * has nothing more to offer.
+         */
+        if (job.isSpooled()) {
+
+            jobMan.remove(job);
+        }
+
+        return (job.getState() == Job.State.DONE ? 0 : 1);
+    }
+}
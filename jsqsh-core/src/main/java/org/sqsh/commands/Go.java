@@ -18,6 +18,8 @@ package org.sqsh.commands;
 import static org.sqsh.options.ArgumentRequired.NONE;
 import static org.sqsh.options.ArgumentRequired.REQUIRED;
 
+import java.io.File;
+import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
@@ -27,6 +29,7 @@ import org.sqsh.*;
 import org.sqsh.options.Argv;
 import org.sqsh.options.OptionProperty;
 import org.sqsh.renderers.PivotRenderer;
+import org.sqsh.renderers.PivotTable;
 import org.sqsh.util.TimeUtils;
 
 /**
@@ -69,12 +72,37 @@ public class Go
         public int queryTimeout = 0;
 
         @OptionProperty(
-                option='c', longOption="crosstab", arg=REQUIRED, argName="vcol,hval,dcol",
+                option='c', longOption="crosstab", arg=REQUIRED, argName="vcol,hcol,dcol[,agg]",
                 description="Produces a crosstab of the final results")
         public String crosstab = null;
 
+        @OptionProperty(
+            option='b', longOption="background", arg=NONE,
+            description="Runs the query in the background on its own connection")
+        public boolean background = false;
+
+        @OptionProperty(
+            option='o', longOption="output", arg=REQUIRED, argName="file",
+            description="Writes the results of a background query to a file")
+        public String output = null;
+
+        @OptionProperty(
+            option='s', longOption="sessions", arg=REQUIRED, argName="sessions",
+            description="Runs the query on a list or pattern of sessions at once")
+        public String sessions = null;
+
+        @OptionProperty(
+            option='P', longOption="parallel", arg=REQUIRED, argName="count",
+            description="Maximum number of sessions running the query at once")
+        public int parallel = 0;
+
+        @OptionProperty(
+            option='S', longOption="separate", arg=NONE,
+            description="Displays the results of each session separately")
+        public boolean separate = false;
+
         @Argv(program="\\go", min=0, max=0,
-            usage="[-m style] [-i table] [-H] [-F]")
+            usage="[-m style] [-i table] [-H] [-F] [-b [-o file]] [-s sessions [-P count] [-S]]")
         public List<String> arguments = new ArrayList<String>();
     }
     
@@ -101,6 +129,72 @@ public class Go
             return 1;
         }
         
+        if (options.output != null && !options.background) {
+            
+            session.err.println("--output (-o) may only be used with "
+                + "--background (-b)");
+            return 1;
+        }
+        
+        if (options.sessions == null
+            && (options.parallel != 0 || options.separate)) {
+            
+            session.err.println("--parallel (-P) and --separate (-S) may only "
+                + "be used with --sessions (-s)");
+            return 1;
+        }
+        
+        if (options.background) {
+            
+            return background(session, options);
+        }
+        
+        if (options.sessions != null) {
+            
+            return fanOut(session, options);
+        }
+        
+        ParallelBlock parallelBlock = session.getParallelBlock();
+        if (parallelBlock != null) {
+            
+            return parallel(session, options, parallelBlock);
+        }
+        
+        /*
+         * While a script is running, simple DML may be held back to be sent
+         * to the server in a JDBC batch. Anything else has to wait until the
+         * statements held back so far have been sent.
+         */
+        DmlBatch dmlBatch = session.getDmlBatch();
+        if (dmlBatch != null) {
+            
+            String sql = batchable(session, options);
+            if (sql != null) {
+                
+                int failed = dmlBatch.add(session, (SQLConnectionContext) conn,
+                    sql, session.getBatchStartLine());
+                session.getBufferManager().getCurrent().clear();
+                return (failed > 0 ? 1 : 0);
+            }
+            
+            if (dmlBatch.flush(session) > 0) {
+                
+                returnCode = 1;
+                
+                /*
+                 * If the failure ends the script then this batch must not
+                 * run.
+                 */
+                TransactionGroup txGroup = session.getTransactionGroup();
+                if ((txGroup != null && txGroup.isStopped())
+                    || session.getContext().shouldExitOnFailure(getName())) {
+                    
+                    session.getBufferManager().getCurrent().clear();
+                    return returnCode;
+                }
+            }
+        }
+        
         /*
          * If we are being asked to generate INSERT statements then we need to
          * switch the NULL display to be a form of NULL that works in SQL.
@@ -135,6 +229,7 @@ public class Go
         BufferManager bufferMan = session.getBufferManager();
         SQLRenderer sqlRenderer = session.getSQLRenderer();
         String sql = bufferMan.getCurrent().toString();
+
         RendererFactory rendererFactory = null;
 
 
@@ -175,18 +270,32 @@ public class Go
             if (options.crosstab != null) {
 
                 String[] parts = options.crosstab.split(",");
-                if (parts.length != 3) {
+                if (parts.length != 3 && parts.length != 4) {
 
                     session.err.println("--crosstab (-c) requires three values vcol,hcol,dcol "
-                            + "(vertical column, horizontal column, data column");
+                            + "(vertical column, horizontal column, data column), optionally "
+                            + "followed by an aggregate (last, sum, count, min, max, avg)");
                     return 1;
                 }
 
+                PivotTable.Aggregate aggregate = PivotTable.Aggregate.LAST;
+                if (parts.length == 4) {
+
+                    aggregate = PivotTable.Aggregate.forName(parts[3].trim());
+                    if (aggregate == null) {
+
+                        session.err.println("--crosstab (-c): Invalid aggregate \""
+                            + parts[3] + "\". Valid aggregates are last, sum, count, "
+                            + "min, max, and avg");
+                        return 1;
+                    }
+                }
+
                 Renderer currentRenderer = renderMan.getRenderer(session);
 
                 // Create the renderer and give it a random name
                 final PivotRenderer pivot = new PivotRenderer(session, renderMan, currentRenderer,
-                        parts[0], parts[1], parts[2]);
+                        parts[0], parts[1], parts[2], aggregate);
                 final String rendererName = UUID.randomUUID().toString();
 
                 // Register a factory with the renderer manager that will serve up our renderer
@@ -217,6 +326,15 @@ public class Go
                 conn.setStyle(rendererName);
             }
 
+            /*
+             * When a script's batches are being grouped into transactions
+             * each batch is reported to the group, which takes care of
+             * committing or rolling back.
+             */
+            TransactionGroup txGroup = (conn instanceof SQLConnectionContext
+                ? session.getTransactionGroup() : null);
+
+            long batchStart = System.nanoTime();
             for (int i = 0; i < options.repeat; i++) {
 
                 if (options.repeat > 1) {
@@ -224,9 +342,17 @@ public class Go
                     session.setVariable("iteration", Integer.toString(i));
                 }
 
+                boolean ok = false;
                 try {
                     
+                    if (txGroup != null) {
+                        
+                        txGroup.begin(session,
+                            ((SQLConnectionContext) conn).getConnection());
+                    }
+                    
                     conn.eval(sql, session, sqlRenderer);
+                    ok = true;
                 }
                 catch (SQLException e) {
                     
@@ -238,6 +364,31 @@ public class Go
                     session.printException(e);
                     returnCode = 1;
                 }
+                
+                if (txGroup != null) {
+                    
+                    if (!txGroup.end(session, ok)) {
+                        
+                        returnCode = 1;
+                    }
+                    if (txGroup.isStopped()) {
+                        
+                        break;
+                    }
+                }
+            }
+            
+            /*
+             * In "batch" mode the JDBC profile of the connection is shown
+             * (and started over) after every batch.
+             */
+            JdbcProfiler profiler = (conn instanceof SQLConnectionContext
+                ? ((SQLConnectionContext) conn).getProfiler() : null);
+            if (profiler != null
+                && "batch".equals(session.getContext().getJdbcProfile())) {
+                
+                profiler.display(session, System.nanoTime() - batchStart);
+                profiler.reset();
             }
         }
         finally {
@@ -295,4 +446,239 @@ public class Go
         
         return returnCode;
     }
+    
+    /**
+     * Checks whether the current buffer can be held back to be sent in a
+     * JDBC batch: it must be a single simple DML statement, run with none
+     * of the options that change how its results are handled, on a SQL
+     * connection that runs statements directly.
+     * 
+     * @param session The session.
+     * @param options The command line options.
+     * @return The SQL, with its variables expanded, or null if it can't be
+     *   batched.
+     */
+    private String batchable(Session session, Options options) {
+        
+        ConnectionContext conn = session.getConnectionContext();
+        if (!(conn instanceof SQLConnectionContext)
+            || ((SQLConnectionContext) conn).getExecutionMode()
+                != SQLConnectionContext.EXEC_IMMEDIATE
+            || conn.getQueryTimeout() > 0
+            || options.style != null || options.insertTable != null
+            || options.crosstab != null || options.repeat != 1
+            || options.queryTimeout > 0
+            || options.toggleHeaders || options.toggleFooters) {
+            
+            return null;
+        }
+        
+        String sql = session.getBufferManager().getCurrent().toString();
+        if (session.getSQLRenderer().isExpand()) {
+            
+            sql = session.expand(sql);
+        }
+        
+        return DmlBatch.isSimpleDml(sql) ? sql : null;
+    }
+    
+    /**
+     * Executes the current buffer on several sessions at once.
+     * 
+     * @param session The session.
+     * @param options The command line options.
+     * @return The return code of the command.
+     */
+    private int fanOut(Session session, Options options) {
+        
+        if (options.insertTable != null || options.crosstab != null
+            || options.repeat > 1) {
+            
+            session.err.println("--sessions (-s) cannot be combined with "
+                + "--insert, --crosstab or --repeat");
+            return 1;
+        }
+        
+        if (options.parallel < 0) {
+            
+            session.err.println("--parallel (-P) must be at least 1");
+            return 1;
+        }
+        
+        if (options.style != null
+            && !session.getRendererManager().isRenderer(options.style)) {
+            
+            session.err.println("Display style '" + options.style
+                + "' is not a valid SQL display style. See \"help \\style\"");
+            return 1;
+        }
+        
+        List<Session> targets;
+        try {
+            
+            targets = FanOut.select(session.getContext(), options.sessions);
+        }
+        catch (IllegalArgumentException e) {
+            
+            session.err.println(e.getMessage());
+            return 1;
+        }
+        
+        RendererManager renderMan = session.getRendererManager();
+        BufferManager bufferMan = session.getBufferManager();
+        String sql = bufferMan.getCurrent().toString();
+        boolean origHeaders = renderMan.isShowHeaders();
+        boolean origFooters = renderMan.isShowFooters();
+        
+        if (options.toggleFooters) {
+            
+            renderMan.setShowFooters(!origFooters);
+        }
+        if (options.toggleHeaders) {
+            
+            renderMan.setShowHeaders(!origHeaders);
+        }
+        
+        try {
+            
+            FanOut fanOut = new FanOut(session, targets);
+            fanOut.setStyle(options.style);
+            fanOut.setMerge(!options.separate);
+            fanOut.setQueryTimeout(options.queryTimeout);
+            if (options.parallel > 0) {
+                
+                fanOut.setParallel(options.parallel);
+            }
+            
+            return (fanOut.execute(sql) > 0 ? 1 : 0);
+        }
+        finally {
+            
+            if (session.isInteractive()) {
+                
+                bufferMan.newBuffer();
+            }
+            else {
+                
+                bufferMan.getCurrent().clear();
+            }
+            
+            renderMan.setShowHeaders(origHeaders);
+            renderMan.setShowFooters(origFooters);
+        }
+    }
+    
+    /**
+     * Hands the current buffer to the parallel block that the session is
+     * in, to run alongside the other batches of the block.
+     * 
+     * @param session The session.
+     * @param options The command line options.
+     * @param parallelBlock The block.
+     * @return The return code.
+     */
+    private int parallel(Session session, Options options,
+            ParallelBlock parallelBlock) {
+        
+        if (options.insertTable != null || options.crosstab != null
+            || options.repeat > 1 || options.queryTimeout > 0
+            || options.toggleHeaders || options.toggleFooters) {
+            
+            session.err.println("Within a \\parallel block, \\go cannot be "
+                + "used with --insert, --crosstab, --repeat, --timeout, "
+                + "--no-headers or --no-footers");
+            return 1;
+        }
+        
+        if (options.style != null
+            && !session.getRendererManager().isRenderer(options.style)) {
+            
+            session.err.println("Display style '" + options.style
+                + "' is not a valid SQL display style. See \"help \\style\"");
+            return 1;
+        }
+        
+        BufferManager bufferMan = session.getBufferManager();
+        boolean ok = parallelBlock.submit(bufferMan.getCurrent().toString(),
+            options.style, session.getBatchStartLine());
+        
+        if (session.isInteractive()) {
+            
+            bufferMan.newBuffer();
+        }
+        else {
+            
+            bufferMan.getCurrent().clear();
+        }
+        
+        return (ok ? 0 : 1);
+    }
+    
+    /**
+     * Hands the current buffer off to the {@link JobManager} to be
+     * executed in the background.
+     * 
+     * @param session The session.
+     * @param options The command line options.
+     * @return The return code of the command.
+     */
+    private int background(Session session, Options options) {
+        
+        if (options.insertTable != null || options.crosstab != null
+            || options.repeat > 1 || options.queryTimeout > 0
+            || options.toggleHeaders || options.toggleFooters
+            || options.sessions != null) {
+            
+            session.err.println("--background (-b) cannot be combined with "
+                + "--insert, --crosstab, --repeat, --timeout, --no-headers, "
+                + "--no-footers or --sessions");
+            return 1;
+        }
+        
+        if (options.style != null
+            && !session.getRendererManager().isRenderer(options.style)) {
+            
+            session.err.println("Display style '" + options.style
+                + "' is not a valid SQL display style. See \"help \\style\"");
+            return 1;
+        }
+        
+        BufferManager bufferMan = session.getBufferManager();
+        String sql = bufferMan.getCurrent().toString();
+        File output = (options.output == null ? null : new File(options.output));
+        int returnCode = 0;
+        
+        try {
+            
+            Job job = session.getContext().getJobManager().start(
+                session, sql, output, options.style);
+            
+            session.out.println("Job #" + job.getId() + " started"
+                + (job.isSpooled() ? "" : ", writing to " + job.getOutput()));
+        }
+        catch (SQLException e) {
+            
+            SQLTools.printException(session, e);
+            returnCode = 1;
+        }
+        catch (IOException e) {
+            
+            session.err.println("Unable to write to " + output + ": "
+                + e.getMessage());
+            returnCode = 1;
+        }
+        finally {
+            
+            if (session.isInteractive()) {
+                
+                bufferMan.newBuffer();
+            }
+            else {
+                
+                bufferMan.getCurrent().clear();
+            }
+        }
+        
+        return returnCode;
+    }
 }
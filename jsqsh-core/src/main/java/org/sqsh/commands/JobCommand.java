@@ -0,0 +1,104 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh.commands;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.sqsh.Command;
+import org.sqsh.Job;
+import org.sqsh.JobManager;
+import org.sqsh.Session;
+import org.sqsh.signals.InterruptingSignalHandler;
+import org.sqsh.signals.SignalManager;
+
+/**
+ * Base class for the commands that act upon background jobs.
+ */
+public abstract class JobCommand
+    extends Command {
+
+    /**
+     * Looks up the jobs named on the command line.
+     *
+     * @param session The session.
+     * @param ids The job numbers.
+     * @return The jobs, or null if any of the job numbers are not valid,
+     *   in which case an error has been displayed.
+     */
+    protected List<Job> getJobs(Session session, List<String> ids) {
+
+        JobManager jobMan = session.getContext().getJobManager();
+        List<Job> jobs = new ArrayList<Job>();
+
+        for (String id : ids) {
+
+            Job job = null;
+            try {
+
+                job = jobMan.getJob(Integer.parseInt(id));
+            }
+            catch (NumberFormatException e) {
+
+                /* Handled below */
+            }
+
+            if (job == null) {
+
+                session.err.println("No such job: " + id);
+                return null;
+            }
+
+            jobs.add(job);
+        }
+
+        return jobs;
+    }
+
+    /**
+     * Waits for a job to finish. The wait can be interrupted with ^C.
+     *
+     * @param session The session.
+     * @param job The job to wait for.
+     * @return false if the wait was interrupted.
+     */
+    protected boolean waitFor(Session session, Job job) {
+
+        SignalManager sigMan = SignalManager.getInstance();
+        sigMan.push(new InterruptingSignalHandler());
+
+        try {
+
+            job.waitFor();
+            return true;
+        }
+        catch (InterruptedException e) {
+
+            session.err.println("Job #" + job.getId() + " is still running");
+            return false;
+        }
+        finally {
+
+            sigMan.pop();
+
+            /*
+             * Don't leave an interrupt that arrived after the job finished
+             * lying around for the next command.
+             */
+            Thread.interrupted();
+        }
+    }
+}
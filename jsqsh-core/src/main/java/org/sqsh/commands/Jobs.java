@@ -0,0 +1,111 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh.commands;
+
+import static org.sqsh.options.ArgumentRequired.NONE;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.sqsh.ColumnDescription;
+import org.sqsh.Command;
+import org.sqsh.Job;
+import org.sqsh.JobManager;
+import org.sqsh.Renderer;
+import org.sqsh.Session;
+import org.sqsh.SqshOptions;
+import org.sqsh.options.Argv;
+import org.sqsh.options.OptionProperty;
+import org.sqsh.util.TimeUtils;
+
+/**
+ * Implements the \jobs command, which lists the queries that are running
+ * in the background.
+ */
+public class Jobs
+    extends Command {
+
+    private static class Options
+        extends SqshOptions {
+
+        @OptionProperty(
+            option='c', longOption="clear", arg=NONE,
+            description="Forgets about jobs that have finished")
+        public boolean clear = false;
+
+        @Argv(program="\\jobs", min=0, max=0)
+        public List<String> arguments = new ArrayList<String>();
+    }
+
+    @Override
+    public SqshOptions getOptions() {
+
+        return new Options();
+    }
+
+    @Override
+    public int execute(Session session, SqshOptions opts)
+        throws Exception {
+
+        Options options = (Options) opts;
+        JobManager jobMan = session.getContext().getJobManager();
+
+        ColumnDescription []columns = new ColumnDescription[7];
+        columns[0] = new ColumnDescription("Job", -1,
+            ColumnDescription.Alignment.RIGHT,
+            ColumnDescription.OverflowBehavior.TRUNCATE);
+        columns[1] = new ColumnDescription("Session", -1,
+            ColumnDescription.Alignment.RIGHT,
+            ColumnDescription.OverflowBehavior.TRUNCATE);
+        columns[2] = new ColumnDescription("State", -1);
+        columns[3] = new ColumnDescription("Rows", -1,
+            ColumnDescription.Alignment.RIGHT,
+            ColumnDescription.OverflowBehavior.TRUNCATE);
+        columns[4] = new ColumnDescription("Elapsed", -1);
+        columns[5] = new ColumnDescription("Output", -1);
+        columns[6] = new ColumnDescription("SQL", -1);
+
+        Renderer renderer =
+            session.getRendererManager().getCommandRenderer(session);
+        renderer.header(columns);
+
+        for (Job job : jobMan.getJobs()) {
+
+            String []row = new String[7];
+            row[0] = Integer.toString(job.getId());
+            row[1] = Integer.toString(job.getOwnerId());
+            row[2] = job.getState().name().toLowerCase();
+            row[3] = Long.toString(job.getRowsFetched());
+            row[4] = TimeUtils.millisToDurationString(job.getElapsed());
+            row[5] = job.isSpooled() ? "(\\fg " + job.getId() + ")"
+                : job.getOutput().toString();
+            row[6] = job.getSQL().trim();
+            renderer.row(row);
+        }
+
+        renderer.flush();
+
+        if (options.clear) {
+
+            for (Job job : jobMan.getJobs()) {
+
+                jobMan.remove(job);
+            }
+        }
+
+        return 0;
+    }
+}
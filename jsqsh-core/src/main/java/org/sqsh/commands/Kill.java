@@ -0,0 +1,67 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh.commands;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.sqsh.Job;
+import org.sqsh.Session;
+import org.sqsh.SqshOptions;
+import org.sqsh.options.Argv;
+
+/**
+ * Implements the \kill command, which cancels queries that are running in
+ * the background.
+ */
+public class Kill
+    extends JobCommand {
+
+    private static class Options
+        extends SqshOptions {
+
+        @Argv(program="\\kill", min=1, usage="job [job ...]")
+        public List<String> arguments = new ArrayList<String>();
+    }
+
+    @Override
+    public SqshOptions getOptions() {
+
+        return new Options();
+    }
+
+    @Override
+    public int execute(Session session, SqshOptions opts)
+        throws Exception {
+
+        Options options = (Options) opts;
+        List<Job> jobs = getJobs(session, options.arguments);
+        if (jobs == null) {
+
+            return 1;
+        }
+
+        for (Job job : jobs) {
+
+            if (job.isRunning()) {
+
+                job.cancel();
+            }
+        }
+
+        return 0;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh.commands;
+
+import static org.sqsh.options.ArgumentRequired.REQUIRED;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.sqsh.Command;
+import org.sqsh.ParallelBlock;
+import org.sqsh.SQLTools;
+import org.sqsh.Session;
+import org.sqsh.SqshOptions;
+import org.sqsh.options.Argv;
+import org.sqsh.options.OptionProperty;
+
+/**
+ * Implements the \parallel command, which starts and ends a block of
+ * batches that are run at the same time (see {@link ParallelBlock}).
+ */
+public class Parallel
+    extends Command {
+
+    private static class Options
+        extends SqshOptions {
+
+        @OptionProperty(
+            option='P', longOption="parallel", arg=REQUIRED, argName="count",
+            description="Maximum number of batches running at once")
+        public int parallel = 4;
+
+        @Argv(program="\\parallel", min=0, max=1, usage="[-P count] [end]")
+        public List<String> arguments = new ArrayList<String>();
+    }
+
+    @Override
+    public SqshOptions getOptions() {
+
+        return new Options();
+    }
+
+    @Override
+    public int execute(Session session, SqshOptions opts)
+        throws Exception {
+
+        Options options = (Options) opts;
+        ParallelBlock block = session.getParallelBlock();
+
+        if (options.arguments.size() == 1) {
+
+            if (!options.arguments.get(0).equals("end")) {
+
+                session.err.println("Use: \\parallel [-P count] [end]");
+                return 1;
+            }
+
+            if (block == null) {
+
+                session.err.println("There is no \\parallel block to end");
+                return 1;
+            }
+
+            session.setParallelBlock(null);
+            return (block.end() > 0 ? 1 : 0);
+        }
+
+        if (block != null) {
+
+            session.err.println("A \\parallel block is already running; use "
+                + "\\parallel end to end it");
+            return 1;
+        }
+
+        if (options.parallel < 1) {
+
+            session.err.println("--parallel (-P) must be at least 1");
+            return 1;
+        }
+
+        try {
+
+            session.setParallelBlock(
+                new ParallelBlock(session, options.parallel));
+        }
+        catch (SQLException e) {
+
+            SQLTools.printException(session, e);
+            return 1;
+        }
+
+        return 0;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh.commands;
+
+import static org.sqsh.options.ArgumentRequired.NONE;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.sqsh.Command;
+import org.sqsh.DatabaseCommand;
+import org.sqsh.JdbcProfiler;
+import org.sqsh.SQLConnectionContext;
+import org.sqsh.Session;
+import org.sqsh.SqshOptions;
+import org.sqsh.options.Argv;
+import org.sqsh.options.OptionProperty;
+
+/**
+ * Implements the \profile command, which displays the number of calls
+ * made to, and time spent in, each JDBC method on the current connection.
+ */
+public class Profile
+    extends Command
+    implements DatabaseCommand {
+
+    private static class Options
+        extends SqshOptions {
+
+        @OptionProperty(
+            option='r', longOption="reset", arg=NONE,
+            description="Resets the profile after displaying it")
+        public boolean reset = false;
+
+        @Argv(program="\\profile", min=0, max=0)
+        public List<String> arguments = new ArrayList<String>();
+    }
+
+    @Override
+    public SqshOptions getOptions() {
+
+        return new Options();
+    }
+
+    @Override
+    public int execute(Session session, SqshOptions opts)
+        throws Exception {
+
+        Options options = (Options) opts;
+        if (!(session.getConnectionContext() instanceof SQLConnectionContext)) {
+
+            session.err.println("The current connection is not a JDBC connection");
+            return 1;
+        }
+
+        JdbcProfiler profiler = ((SQLConnectionContext)
+            session.getConnectionContext()).getProfiler();
+        if (profiler == null) {
+
+            session.err.println("The current connection is not being "
+                + "profiled. Set ${jdbc_profile} to \"on\" before connecting "
+                + "to profile it");
+            return 1;
+        }
+
+        profiler.display(session, profiler.getElapsedNanos());
+
+        if (options.reset) {
+
+            profiler.reset();
+        }
+
+        return 0;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh.commands;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.sqsh.Command;
+import org.sqsh.DatabaseCommand;
+import org.sqsh.SQLConnectionContext;
+import org.sqsh.Session;
+import org.sqsh.SqshOptions;
+import org.sqsh.options.Argv;
+
+/**
+ * Implements the \resync command, which fetches the current catalog and
+ * schema of the connection from the server, for when they have been 
+ * changed in a way that jsqsh didn't notice.
+ */
+public class Resync
+    extends Command
+    implements DatabaseCommand {
+    
+    private static class Options
+        extends SqshOptions {
+        
+        @Argv(program="\\resync", min=0, max=0)
+        public List<String> arguments = new ArrayList<String>();
+    }
+    
+    @Override
+    public SqshOptions getOptions() {
+        
+        return new Options();
+    }
+
+    @Override
+    public int execute (Session session, SqshOptions opts)
+        throws Exception {
+        
+        SQLConnectionContext ctx =
+            (SQLConnectionContext) session.getConnectionContext();
+        
+        ctx.resyncCurrentNames();
+        
+        String catalog = ctx.getCurrentCatalog();
+        String schema = ctx.getCurrentSchema();
+        session.out.println("Catalog: " + (catalog == null ? "(none)" : catalog));
+        session.out.println("Schema:  " + (schema == null ? "(none)" : schema));
+        
+        return 0;
+    }
+}
@@ -40,6 +40,7 @@ import javax.swing.tree.TreePath;
 import org.sqsh.Command;
 import org.sqsh.DatabaseCommand;
 import org.sqsh.Renderer;
+import org.sqsh.SQLConnectionContext;
 import org.sqsh.SQLRenderer;
 import org.sqsh.Session;
 import org.sqsh.SqshOptions;
@@ -131,7 +132,9 @@ public class Tree extends Command implements DatabaseCommand,
 
             final DatabaseMetaData meta = con.getMetaData();
 
-            result = meta.getTables(con.getCatalog(), options.schemaPattern,
+            String catalog = ((SQLConnectionContext)
+                session.getConnectionContext()).getCurrentCatalog();
+            result = meta.getTables(catalog, options.schemaPattern,
                     options.tablePattern, types);
 
             final SQLRenderer sqlRenderer = session.getSQLRenderer();
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh.commands;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.sqsh.Job;
+import org.sqsh.Session;
+import org.sqsh.SqshOptions;
+import org.sqsh.options.Argv;
+
+/**
+ * Implements the \wait command, which waits for queries that are running
+ * in the background to finish.
+ */
+public class Wait
+    extends JobCommand {
+
+    private static class Options
+        extends SqshOptions {
+
+        @Argv(program="\\wait", min=0, usage="[job ...]")
+        public List<String> arguments = new ArrayList<String>();
+    }
+
+    @Override
+    public SqshOptions getOptions() {
+
+        return new Options();
+    }
+
+    @Override
+    public int execute(Session session, SqshOptions opts)
+        throws Exception {
+
+        Options options = (Options) opts;
+        List<Job> jobs;
+
+        if (options.arguments.size() == 0) {
+
+            jobs = Arrays.asList(session.getContext().getJobManager().getJobs());
+        }
+        else {
+
+            jobs = getJobs(session, options.arguments);
+            if (jobs == null) {
+
+                return 1;
+            }
+        }
+
+        int rc = 0;
+        for (Job job : jobs) {
+
+            if (!waitFor(session, job)) {
+
+                return 1;
+            }
+
+            if (job.getState() != Job.State.DONE) {
+
+                rc = 1;
+            }
+        }
+
+        return rc;
+    }
+}
@@ -17,28 +17,79 @@ package org.sqsh.format;
 
 import java.sql.Blob;
 
+/**
+ * Formats a BLOB as hex. Only the first <code>maxBytes</code> bytes of the
+ * value are fetched from the driver, with "..." indicating that there was
+ * more to be seen. If an {@link LobExporter} is provided, the value is
+ * instead streamed to a file and the name of the file is displayed.
+ */
 public class BlobFormatter
     extends ByteFormatter {
-    
+
+    private int maxBytes;
+    private LobExporter exporter;
+
+    /**
+     * Creates a formatter that will display the entire BLOB.
+     */
     public BlobFormatter() {
-        
-        super(Integer.MAX_VALUE);
+
+        this(0, null);
+    }
+
+    /**
+     * Creates a formatter.
+     *
+     * @param maxBytes The maximum number of bytes to display. A value
+     *   <= 0 indicates that the whole value is to be displayed.
+     * @param exporter If non-null, values will be written to files
+     *   rather than displayed.
+     */
+    public BlobFormatter(int maxBytes, LobExporter exporter) {
+
+        super(maxBytes > 0 ? maxBytes : Integer.MAX_VALUE);
+
+        this.maxBytes = maxBytes;
+        this.exporter = exporter;
     }
 
     public String format (Object value) {
 
         Blob blob = (Blob) value;
-        
+
         try {
-            
-            byte bytes[] = blob.getBytes(1, (int) blob.length());
+
+            if (exporter != null) {
+
+                return exporter.export(blob);
+            }
+
+            long len = blob.length();
+            int nBytes = (maxBytes > 0 && len > maxBytes) ? maxBytes : (int) len;
+
+            byte bytes[] = blob.getBytes(1, nBytes);
+            if (nBytes < len) {
+
+                return super.format(bytes) + "...";
+            }
+
             return super.format(bytes);
         }
         catch (Exception e) {
-            
+
             /* IGNORED */
         }
-        
+
         return "*ERROR*";
     }
+
+    public int getMaxWidth () {
+
+        if (maxBytes > 0 && exporter == null) {
+
+            return super.getMaxWidth() + 3;
+        }
+
+        return Integer.MAX_VALUE;
+    }
 }
@@ -20,35 +20,102 @@ import java.sql.Clob;
 
 import org.sqsh.Formatter;
 
+/**
+ * Formats a CLOB. Only the first <code>maxChars</code> characters of the
+ * value are ever read from the driver; anything beyond that is replaced
+ * with "...". If an {@link LobExporter} is provided, the value is instead
+ * streamed to a file and the name of the file is displayed.
+ */
 public class ClobFormatter
     implements Formatter {
-    
+
+    private int maxChars;
+    private LobExporter exporter;
+
+    /**
+     * Creates a formatter that will read the entire CLOB.
+     */
+    public ClobFormatter() {
+
+        this(0, null);
+    }
+
+    /**
+     * Creates a formatter.
+     *
+     * @param maxChars The maximum number of characters to display. A
+     *   value <= 0 indicates that the whole value is to be displayed.
+     * @param exporter If non-null, values will be written to files
+     *   rather than displayed.
+     */
+    public ClobFormatter(int maxChars, LobExporter exporter) {
+
+        this.maxChars = maxChars;
+        this.exporter = exporter;
+    }
+
     public String format (Object value) {
-        
+
         Clob clob = (Clob) value;
+
+        if (exporter != null) {
+
+            try {
+
+                return exporter.export(clob);
+            }
+            catch (Exception e) {
+
+                return "*ERROR* (" + e.getMessage() + ")";
+            }
+        }
+
         StringBuilder sb = new StringBuilder();
         char []chars = new char[512];
-        
+        boolean truncated = false;
+
         try {
-            
+
             Reader in = clob.getCharacterStream();
-            while (in.read(chars) >= 0) {
-                
-                sb.append(chars);
+            int count;
+            while ((count = in.read(chars)) >= 0) {
+
+                /*
+                 * Stop reading from the driver as soon as we have seen
+                 * more than we are allowed to display.
+                 */
+                if (maxChars > 0 && sb.length() + count > maxChars) {
+
+                    sb.append(chars, 0, maxChars - sb.length());
+                    truncated = true;
+                    break;
+                }
+
+                sb.append(chars, 0, count);
             }
-            
+
             in.close();
         }
         catch (Exception e) {
-            
+
             /* IGNORED */
         }
-        
+
+        if (truncated) {
+
+            sb.append("...");
+        }
+
         return sb.toString();
     }
 
     public int getMaxWidth () {
 
+        if (maxChars > 0 && exporter == null) {
+
+            return maxChars + 3;
+        }
+
         return Integer.MAX_VALUE;
     }
 }
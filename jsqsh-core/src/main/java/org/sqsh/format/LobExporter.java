@@ -0,0 +1,172 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh.format;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.SQLException;
+
+/**
+ * Used by the {@link ClobFormatter} and {@link BlobFormatter} to stream
+ * the full contents of a LOB value into its own file rather than pulling
+ * it into memory for display. Each value is copied from the driver in
+ * fixed sized chunks, so the size of the LOB never matters, and the name
+ * of the file that was written becomes the value that is displayed.
+ */
+public class LobExporter {
+
+    /**
+     * Size of the chunks that are read from the driver and written to disk.
+     */
+    private static final int CHUNK_SIZE = 8192;
+
+    private File directory;
+    private long fileCount = 0;
+
+    /**
+     * Creates an exporter.
+     *
+     * @param directory The directory in which LOB files will be written.
+     *   If the directory does not exist, it will be created upon the first
+     *   value that is exported.
+     */
+    public LobExporter (File directory) {
+
+        this.directory = directory;
+    }
+
+    /**
+     * @return The directory to which LOB values are written.
+     */
+    public File getDirectory() {
+
+        return directory;
+    }
+
+    /**
+     * Streams the contents of a CLOB to a file. The file is written using
+     * the UTF-8 encoding.
+     *
+     * @param clob The CLOB to export
+     * @return The path of the file that was written
+     * @throws IOException If the file cannot be written
+     * @throws SQLException If the driver fails to provide the value
+     */
+    public String export (Clob clob)
+        throws IOException, SQLException {
+
+        File file = nextFile("txt");
+        Reader in = clob.getCharacterStream();
+        Writer out = null;
+
+        try {
+
+            out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+
+            char []chunk = new char[CHUNK_SIZE];
+            int count;
+            while ((count = in.read(chunk)) >= 0) {
+
+                out.write(chunk, 0, count);
+            }
+        }
+        finally {
+
+            in.close();
+            if (out != null) {
+
+                out.close();
+            }
+        }
+
+        return file.getPath();
+    }
+
+    /**
+     * Streams the contents of a BLOB to a file.
+     *
+     * @param blob The BLOB to export
+     * @return The path of the file that was written
+     * @throws IOException If the file cannot be written
+     * @throws SQLException If the driver fails to provide the value
+     */
+    public String export (Blob blob)
+        throws IOException, SQLException {
+
+        File file = nextFile("bin");
+        InputStream in = blob.getBinaryStream();
+        OutputStream out = null;
+
+        try {
+
+            out = new FileOutputStream(file);
+
+            byte []chunk = new byte[CHUNK_SIZE];
+            int count;
+            while ((count = in.read(chunk)) >= 0) {
+
+                out.write(chunk, 0, count);
+            }
+        }
+        finally {
+
+            in.close();
+            if (out != null) {
+
+                out.close();
+            }
+        }
+
+        return file.getPath();
+    }
+
+    /**
+     * Picks the name of the next file to be written, skipping over any
+     * files that were left behind by a previous export.
+     *
+     * @param extension The file extension
+     * @return The file
+     * @throws IOException If the target directory cannot be created
+     */
+    private synchronized File nextFile(String extension)
+        throws IOException {
+
+        if (!directory.exists() && !directory.mkdirs()) {
+
+            throw new IOException("Unable to create LOB export directory '"
+                + directory + "'");
+        }
+
+        File file;
+        do {
+
+            ++fileCount;
+            file = new File(directory,
+                String.format("lob_%06d.%s", fileCount, extension));
+        }
+        while (file.exists());
+
+        return file;
+    }
+}
@@ -16,8 +16,22 @@
 package org.sqsh.format;
 
 import org.sqsh.Formatter;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
 import java.text.DecimalFormat;
 
+/**
+ * Formats numeric values. In addition to the generic {@link #format(Object)},
+ * this formatter provides methods that accept primitive values directly, 
+ * which allow the caller to fetch values with <code>getLong()</code>, 
+ * <code>getDouble()</code>, etc. and avoid creating a boxed value for
+ * each cell. When the column has a scale, values whose digits fit in a long
+ * are written out directly rather than going through {@link DecimalFormat},
+ * with exactly the same result. Like DecimalFormat, an instance must not be
+ * used by more than one thread at a time.
+ */
 public class NumberFormatter
     implements Formatter {
     
@@ -77,6 +91,157 @@ public class NumberFormatter
         return value.toString();
     }
 
+    /**
+     * Formats an integer value.
+     * 
+     * @param value The value to format
+     * @return The formatted value.
+     */
+    public String format (long value) {
+        
+        if (format != null) {
+            
+            return format(BigDecimal.valueOf(value));
+        }
+        
+        return Long.toString(value);
+    }
+    
+    /**
+     * Formats a double value.
+     * 
+     * @param value The value to format
+     * @return The formatted value.
+     */
+    public String format (double value) {
+        
+        if (format == null) {
+            
+            return Double.toString(value);
+        }
+        
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            
+            return format.format(value);
+        }
+        
+        /*
+         * DecimalFormat rounds the shortest decimal that represents the
+         * double (the digits of Double.toString()), except that a tie is
+         * decided by the exact binary value, which may be just above or
+         * below it.
+         */
+        BigDecimal digits = BigDecimal.valueOf(value);
+        if (digits.scale() == scale + 1
+            && digits.unscaledValue().mod(BigInteger.TEN).intValue() == 5) {
+            
+            digits = new BigDecimal(value);
+        }
+        
+        /*
+         * The digits of -0.0 have no sign, so the sign is passed along
+         * separately.
+         */
+        String str = format(digits, value < 0 
+            || (value == 0.0 && 1.0 / value < 0));
+        return (str != null ? str : format.format(value));
+    }
+    
+    /**
+     * Formats a float (REAL) value.
+     * 
+     * @param value The value to format
+     * @return The formatted value.
+     */
+    public String format (float value) {
+        
+        if (format != null) {
+            
+            /*
+             * DecimalFormat formats a float as the double it widens to.
+             */
+            return format((double) value);
+        }
+        
+        return Float.toString(value);
+    }
+    
+    /**
+     * Formats a decimal value. The output is identical to that produced
+     * by {@link #format(Object)}, but values whose digits fit in a long
+     * are written directly rather than going through {@link DecimalFormat}.
+     * 
+     * @param value The value to format
+     * @return The formatted value.
+     */
+    public String format (BigDecimal value) {
+        
+        if (format == null) {
+            
+            return value.toString();
+        }
+        
+        String str = format(value, value.signum() < 0);
+        return (str != null ? str : format.format(value));
+    }
+    
+    /**
+     * Writes out a value with the scale of the column, as DecimalFormat
+     * would.
+     * 
+     * @param value The value
+     * @param isNegative Whether the value is negative, in which case
+     *   the sign is written even if it rounds to zero
+     * @return The formatted value, or null if its digits don't fit in
+     *   a long.
+     */
+    private String format (BigDecimal value, boolean isNegative) {
+        
+        BigInteger unscaled =
+            value.setScale(scale, RoundingMode.HALF_EVEN).unscaledValue();
+        if (unscaled.bitLength() > 62) {
+            
+            return null;
+        }
+        
+        /*
+         * Room for the 19 digits of a long, the sign, the decimal point,
+         * and any leading zeros required by the scale.
+         */
+        char []buffer = new char[Math.max(scale, 19) + 3];
+        long digits = Math.abs(unscaled.longValue());
+        int idx = buffer.length;
+        
+        for (int i = 0; i < scale; i++) {
+            
+            buffer[--idx] = (char) ('0' + (digits % 10));
+            digits /= 10;
+        }
+        
+        buffer[--idx] = '.';
+        
+        /*
+         * Following DecimalFormat, there is no leading zero when the
+         * integer portion of the value is zero.
+         */
+        while (digits > 0) {
+            
+            buffer[--idx] = (char) ('0' + (digits % 10));
+            digits /= 10;
+        }
+        
+        /*
+         * Also following DecimalFormat, a negative value that rounds to
+         * zero retains its sign.
+         */
+        if (isNegative) {
+            
+            buffer[--idx] = '-';
+        }
+        
+        return new String(buffer, idx, buffer.length - idx);
+    }
+
     @Override
     public int getMaxWidth () {
 
@@ -283,7 +283,39 @@ public abstract class ConsoleLineReader {
         
         return readlineSafe(prompt, true);
     }
-    
+
+    /**
+     * Reads a single keystroke from the user. Readers that cannot read
+     * a single character at a time read a whole line and return the first
+     * character of it, or a space if the line was empty.
+     *
+     * @param prompt Prompt to present to the user.
+     * @return The key that was pressed.
+     * @throws ConsoleException Thrown if an issue is encountered while
+     *   reading user input.  Common subclasses you should look out for are
+     *   {@link ConsoleEOFException} and {@link ConsoleInterruptedException}
+     */
+    public int readKey(String prompt)
+        throws ConsoleException {
+
+        String line = readline(prompt, false);
+        if (line == null) {
+
+            throw new ConsoleEOFException();
+        }
+
+        return (line.length() == 0 ? ' ' : line.charAt(0));
+    }
+
+    /**
+     * @return The number of lines that fit on the screen or -1 if the
+     *   reader cannot determine it.
+     */
+    public int getScreenHeight() {
+
+        return -1;
+    }
+
     /**
      * Reads a masked password (of up to 128 characters in length)
      * 
@@ -134,7 +134,51 @@ public class JLineLineReader
     
 
     @Override
-    public String readPassword(String prompt) 
+    public int readKey(String prompt)
+        throws ConsoleException {
+
+        try {
+
+            reader.print(prompt);
+            reader.flush();
+
+            int ch = reader.readCharacter();
+
+            /*
+             * Wipe out the prompt so that the output that follows picks
+             * up where it left off.
+             */
+            StringBuilder sb = new StringBuilder(prompt.length() + 2);
+            sb.append('\r');
+            for (int i = 0; i < prompt.length(); i++) {
+
+                sb.append(' ');
+            }
+            sb.append('\r');
+            reader.print(sb);
+            reader.flush();
+
+            if (ch < 0) {
+
+                throw new ConsoleEOFException();
+            }
+
+            return ch;
+        }
+        catch (IOException e) {
+
+            throw new ConsoleException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public int getScreenHeight() {
+
+        return reader.getTerminal().getHeight();
+    }
+
+    @Override
+    public String readPassword(String prompt)
         throws ConsoleException {
         
         try {
@@ -15,16 +15,27 @@
  */
 package org.sqsh.input.completion;
 
+import java.sql.Connection;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.sqsh.Buffer;
+import org.sqsh.SQLConnectionContext;
 import org.sqsh.Session;
-import org.sqsh.parser.SQLParser;
 import org.sqsh.parser.DatabaseObject;
 
 /**
@@ -43,6 +54,23 @@ public class DatabaseObjectCompleter
     private static final Logger LOG = 
         Logger.getLogger("org.sqsh.completion.DatabaseObjectCompleter");
     
+    /**
+     * Threads used to look up completions so that the prompt isn't held
+     * up by a slow driver. A thread may be stuck in a driver call that has
+     * been given up on, so the pool grows as needed.
+     */
+    private static final ExecutorService EXECUTOR =
+        Executors.newCachedThreadPool(new ThreadFactory() {
+            
+            @Override
+            public Thread newThread(Runnable r) {
+                
+                Thread t = new Thread(r, "jsqsh-completion");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    
     /**
      * This is a list of available completers. Each completer can identify
      * a statement and (optionally) a clause for which it applies. The first
@@ -71,10 +99,6 @@ public class DatabaseObjectCompleter
      */
     private enum QuoteType { NONE, BRACKET, QUOTES };
     
-    /**
-     * The SQL statement that the user was building.
-     */
-    private String sql;
     private QuoteType quote = QuoteType.NONE;
     private Iterator<String> iter = null;
     
@@ -137,17 +161,14 @@ public class DatabaseObjectCompleter
         
         /*
          * Our total SQL statement is what the user has entered to date
-         * plus the line of input that the user is working on.
-         */
-        sql = session.getBufferManager().getCurrent().toString() + line;
-        
-        /*
-         * Now, we will parse the SQL and accumulate information about the
-         * statement that the user is currently working on.
+         * plus the line of input that the user is working on. We parse it
+         * to accumulate information about the statement that the user is
+         * currently working on. The cache takes care of only parsing what
+         * has changed since the last time we were here.
          */
-        SQLParseState info = new SQLParseState();
-        SQLParser parser = new SQLParser(info);
-        parser.parse(sql);
+        Buffer buffer = session.getBufferManager().getCurrent();
+        SQLParseState info =
+            ParseStateCache.getInstance(buffer).parse(buffer, line);
         
         if (LOG.isLoggable(Level.FINE)) {
 
@@ -175,7 +196,7 @@ public class DatabaseObjectCompleter
          * current SQL statement.
          */
         DatabaseObject []tableRefs = info.getObjectReferences();
-        Set<String> completions = new TreeSet<String>();
+        Set<String> completions = new ConcurrentSkipListSet<String>();
         
         /*
          * Now that we have everything we need we will begin searching
@@ -183,14 +204,30 @@ public class DatabaseObjectCompleter
          */
         if (info.getStatement() != null) {
             
+            /*
+             * Object names are looked up through the connection's index
+             * which needs to pick up the current settings.
+             */
+            MetadataIndex index =
+                MetadataIndex.getInstance(session.getConnection());
+            index.setTimeToLive(
+                session.getContext().getCompletionCacheTime() * 1000L);
+            index.setSubsequence(
+                session.getContext().isCompletionSubsequence());
+            index.setSlowThreshold(session.getContext().getCompletionTimeout());
+            SQLConnectionContext sqlContext =
+                (SQLConnectionContext) session.getConnectionContext();
+            index.setCurrentCatalog(sqlContext.getCurrentCatalog());
+            index.setCurrentSchema(sqlContext.getCurrentSchema());
+            
             for (SQLStatementCompleter completer : STATEMENT_COMPLETERS) {
                 
                 if (completer.getStatement().equals(info.getStatement())
                     && (completer.getClause() == null
                        || completer.getClause().equals(info.getCurrentClause()))) {
                     
-                    completer.getCompletions(completions, 
-                        session.getConnection(), nameParts, info);
+                    completions = getCompletions(completer, completions,
+                        nameParts, info, index);
                     break;
                 }
             }
@@ -207,6 +244,110 @@ public class DatabaseObjectCompleter
         }
     }
     
+    /**
+     * Runs a statement completer on a worker thread, waiting no longer
+     * than the completion timeout for it. If the timeout expires, the
+     * worker is abandoned: a metadata query that it is in the middle of
+     * is left to finish so that its names end up in the metadata index
+     * for the next completion, but it won't start any more. The worker
+     * holds the index until it is done, so that the session doesn't run
+     * anything else on the connection while it is still using it; if the
+     * session needs the connection first, the query is canceled.
+     * 
+     * @param completer The completer to run
+     * @param completions The set the completer adds to
+     * @param nameParts The parts of the name being completed
+     * @param info The parse state
+     * @param index The metadata index being used
+     * @return The completions found. If the timeout expired, this is
+     *   a copy of those found at the time.
+     */
+    private Set<String> getCompletions(final SQLStatementCompleter completer,
+            final Set<String> completions, final String []nameParts,
+            final SQLParseState info, final MetadataIndex index) {
+        
+        final Connection conn = session.getConnection();
+        int timeout = session.getContext().getCompletionTimeout();
+        if (timeout <= 0) {
+            
+            index.acquire(0);
+            try {
+                
+                completer.getCompletions(completions, conn, nameParts, info);
+            }
+            finally {
+                
+                index.release();
+            }
+            
+            return completions;
+        }
+        
+        /*
+         * An earlier completion that was given up on may still be using
+         * the connection, in which case this one has to wait its turn
+         * within the same timeout.
+         */
+        long start = System.currentTimeMillis();
+        if (!index.acquire(timeout)) {
+            
+            LOG.fine("Completion timed out waiting for an earlier one");
+            return completions;
+        }
+        
+        final AtomicBoolean abandoned = new AtomicBoolean(false);
+        Future<?> future = EXECUTOR.submit(new Runnable() {
+            
+            @Override
+            public void run() {
+                
+                MetadataIndex.setAbandonedFlag(abandoned);
+                try {
+                    
+                    completer.getCompletions(completions, conn, nameParts,
+                        info);
+                }
+                finally {
+                    
+                    MetadataIndex.setAbandonedFlag(null);
+                    index.release();
+                }
+            }
+        });
+        
+        try {
+            
+            future.get(Math.max(1L,
+                timeout - (System.currentTimeMillis() - start)),
+                TimeUnit.MILLISECONDS);
+        }
+        catch (TimeoutException e) {
+            
+            abandoned.set(true);
+            index.deadlineExpired();
+            
+            if (LOG.isLoggable(Level.FINE)) {
+                
+                LOG.fine("Completion timed out after " + timeout
+                    + "ms with " + completions.size() + " completions");
+            }
+            
+            return new TreeSet<String>(completions);
+        }
+        catch (InterruptedException e) {
+            
+            abandoned.set(true);
+            Thread.currentThread().interrupt();
+            return new TreeSet<String>(completions);
+        }
+        catch (ExecutionException e) {
+            
+            LOG.log(Level.FINE, "Completion failed", e.getCause());
+        }
+        
+        return completions;
+    }
+    
     /**
      * Returns the next string available in the completion list.
      * @return The next string in the completion list or null if no
@@ -224,14 +365,49 @@ public class DatabaseObjectCompleter
                 
             return "[" + s + "]";
         }
-        else if (quote == QuoteType.QUOTES) {
+        else if (quote == QuoteType.QUOTES || needsQuotes(s)) {
                 
-            return '"' + s + '"';
+            return '"' + s.replace("\"", "\"\"") + '"';
         }
             
         return s;
     }
     
+    /**
+     * Checks whether an object name has to be quoted to be used in
+     * a SQL statement; that is, it contains characters that may not
+     * appear in a regular identifier, such as spaces.
+     * 
+     * @param name The name to check
+     * @return true if the name needs quotes
+     */
+    private static boolean needsQuotes(String name) {
+        
+        int len = name.length();
+        if (len == 0) {
+            
+            return false;
+        }
+        
+        char ch = name.charAt(0);
+        if (!Character.isLetter(ch) && ch != '_' && ch != '@' && ch != '#') {
+            
+            return true;
+        }
+        
+        for (int i = 1; i < len; i++) {
+            
+            ch = name.charAt(i);
+            if (!Character.isLetterOrDigit(ch)
+                    && ch != '_' && ch != '$' && ch != '@' && ch != '#') {
+                
+                return true;
+            }
+        }
+        
+        return false;
+    }
+    
     /**
      * This method walks a line of input from the user up to the point
      * where their cursor is sitting and tries to figure out if the cursor
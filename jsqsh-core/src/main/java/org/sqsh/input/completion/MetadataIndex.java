@@ -0,0 +1,1147 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh.input.completion;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Holds the names of the objects in a database that have been looked up
+ * for tab completion. The first time that the tables of a schema (or the
+ * columns of a table, etc.) are needed, all of them are fetched from the
+ * driver and placed in a {@link NameIndex}; after that, completions are
+ * looked up in the index rather than asking the driver again, until the
+ * entry is older than the configured time to live.
+ *
+ * <p>Fetches are kept to what a completion could offer. When the user
+ * doesn't name a schema, tables and procedures are looked for in the
+ * connection's current schema, and columns are only fetched for a named
+ * table. Once the user has typed the start of a name, only names that
+ * begin with its first character (in either case) are fetched, and they
+ * are kept for completing any name that starts with that character. A
+ * list that has already been fetched in full is used for any prefix.
+ *
+ * <p>There is one index per connection. Names are fetched without holding
+ * the index's lock, so a driver call that takes a long time (and that a
+ * completion may have given up waiting for) doesn't hold up lookups of
+ * other names. The time taken by each fetch is recorded against the catalog
+ * it was for, so that slow catalogs can be found with {@link #getStats()}.
+ *
+ * <p>A completion that gives up waiting leaves the driver call it is in
+ * the middle of to finish, but a JDBC connection can't be used by two
+ * threads at once. While a completion holds the index, with
+ * {@link #acquire(long)}, anything else that wants to use the connection
+ * first waits for it with {@link #awaitRelease(Connection, long)}, which
+ * cancels the fetch rather than waiting for it to finish on its own.
+ */
+public class MetadataIndex {
+
+    private static final Logger LOG =
+        Logger.getLogger("org.sqsh.completion.MetadataIndex");
+
+    private static final Map<Connection, MetadataIndex> INDEXES =
+        new WeakHashMap<Connection, MetadataIndex>();
+
+    /**
+     * Set by a completion that has stopped waiting on the current thread.
+     */
+    private static final ThreadLocal<AtomicBoolean> ABANDONED =
+        new ThreadLocal<AtomicBoolean>();
+
+    /**
+     * Pieces of a key are separated by a character that won't show up
+     * in an object name.
+     */
+    private static final char SEP = '\u0000';
+
+    private Map<String, Entry> entries = new HashMap<String, Entry>();
+    private long timeToLive = 300000L;
+    private boolean subsequence = false;
+    private long slowThreshold = 300L;
+    private String currentCatalog = null;
+    private boolean catalogKnown = false;
+    private String currentSchema = null;
+    private boolean schemaKnown = false;
+    
+    /*
+     * Fetches that are currently running, and the statistics for fetches
+     * that have been made, by catalog.
+     */
+    private Map<String, Fetch> fetching = new HashMap<String, Fetch>();
+    private Map<String, Stats> stats = new TreeMap<String, Stats>();
+    private int deadlinesExpired = 0;
+
+    /*
+     * Set while a completion, which may have been given up on, is still
+     * using the connection.
+     */
+    private boolean inUse = false;
+
+    /**
+     * Returns the index for a connection, creating it if necessary.
+     *
+     * @param conn The connection
+     * @return The index for the connection
+     */
+    public static MetadataIndex getInstance(Connection conn) {
+
+        synchronized (INDEXES) {
+
+            MetadataIndex index = INDEXES.get(conn);
+            if (index == null) {
+
+                index = new MetadataIndex();
+                INDEXES.put(conn, index);
+            }
+
+            return index;
+        }
+    }
+
+    /**
+     * Waits until no completion is using a connection, so that the
+     * connection can be used by the caller. Names that a completion that
+     * was given up on is still fetching are no longer wanted, so the fetch
+     * is canceled first. This returns right away if the connection isn't
+     * being used for completion.
+     *
+     * @param conn The connection
+     * @param timeout The number of milliseconds to wait, or 0 to wait
+     *   for as long as it takes.
+     * @return true if the connection is free, or false if the time ran
+     *   out or the thread was interrupted while waiting.
+     */
+    public static boolean awaitRelease(Connection conn, long timeout) {
+
+        MetadataIndex index;
+        synchronized (INDEXES) {
+
+            index = INDEXES.get(conn);
+        }
+
+        if (index == null) {
+
+            return true;
+        }
+
+        synchronized (index) {
+
+            if (!index.inUse) {
+
+                return true;
+            }
+        }
+
+        index.cancelFetches();
+
+        long end = System.currentTimeMillis() + timeout;
+        synchronized (index) {
+
+            while (index.inUse) {
+
+                long remaining = end - System.currentTimeMillis();
+                if (timeout > 0 && remaining <= 0) {
+
+                    return false;
+                }
+
+                try {
+
+                    index.wait(timeout > 0 ? remaining : 0);
+                }
+                catch (InterruptedException e) {
+
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Provides a flag for the current thread that, when set, indicates
+     * that whoever wanted the names being looked up on this thread no
+     * longer cares about them. Any fetch that is already running is allowed
+     * to finish, so that its names are there for next time, but no new
+     * fetches are started.
+     *
+     * @param abandoned The flag, or null to remove it.
+     */
+    public static void setAbandonedFlag(AtomicBoolean abandoned) {
+
+        if (abandoned == null) {
+
+            ABANDONED.remove();
+        }
+        else {
+
+            ABANDONED.set(abandoned);
+        }
+    }
+
+    /**
+     * @return The number of milliseconds that names are kept before
+     *   they are fetched from the driver again.
+     */
+    public synchronized long getTimeToLive() {
+
+        return timeToLive;
+    }
+
+    /**
+     * @param timeToLive The number of milliseconds that names are kept
+     *   before they are fetched from the driver again. A value of zero
+     *   or less causes them to be fetched every time.
+     */
+    public synchronized void setTimeToLive(long timeToLive) {
+
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * @return Whether or not names that contain the characters that the
+     *   user typed, in order, are offered when no name begins with them.
+     */
+    public synchronized boolean isSubsequence() {
+
+        return subsequence;
+    }
+
+    /**
+     * @param subsequence Whether or not names that contain the characters
+     *   that the user typed, in order, are offered when no name begins
+     *   with them.
+     */
+    public synchronized void setSubsequence(boolean subsequence) {
+
+        this.subsequence = subsequence;
+    }
+
+    /**
+     * @return The number of milliseconds after which a fetch of names
+     *   is counted as being slow.
+     */
+    public synchronized long getSlowThreshold() {
+
+        return slowThreshold;
+    }
+
+    /**
+     * @param slowThreshold The number of milliseconds after which a fetch
+     *   of names is counted as being slow.
+     */
+    public synchronized void setSlowThreshold(long slowThreshold) {
+
+        this.slowThreshold = slowThreshold;
+    }
+
+    /**
+     * @param currentCatalog The current catalog of the connection, as
+     *   kept by the session, used when the user doesn't name a catalog.
+     */
+    public synchronized void setCurrentCatalog(String currentCatalog) {
+
+        this.currentCatalog = currentCatalog;
+        this.catalogKnown = true;
+    }
+
+    /**
+     * Returns the current catalog of the connection. If the session
+     * hasn't provided it with {@link #setCurrentCatalog(String)}, it is
+     * asked of the connection.
+     *
+     * @param conn The connection.
+     * @return The current catalog or null if there is none.
+     */
+    public String getCurrentCatalog(Connection conn) {
+
+        synchronized (this) {
+
+            if (catalogKnown) {
+
+                return currentCatalog;
+            }
+        }
+
+        try {
+
+            return conn.getCatalog();
+        }
+        catch (SQLException e) {
+
+            /* IGNORED */
+        }
+
+        return null;
+    }
+
+    /**
+     * @param currentSchema The current schema of the connection, as
+     *   kept by the session, used when the user doesn't name a schema.
+     */
+    public synchronized void setCurrentSchema(String currentSchema) {
+
+        this.currentSchema = currentSchema;
+        this.schemaKnown = true;
+    }
+
+    /**
+     * Returns the current schema of the connection. If the session
+     * hasn't provided it with {@link #setCurrentSchema(String)}, it is
+     * asked of the connection.
+     *
+     * @param conn The connection.
+     * @return The current schema, or null if there is none or the driver
+     *   can't say.
+     */
+    public String getCurrentSchema(Connection conn) {
+
+        synchronized (this) {
+
+            if (schemaKnown) {
+
+                return currentSchema;
+            }
+        }
+
+        try {
+
+            return conn.getSchema();
+        }
+        catch (SQLException e) {
+
+            /* IGNORED */
+        }
+        catch (AbstractMethodError e) {
+
+            /*
+             * Drivers written before JDBC 4.1 don't have getSchema().
+             */
+        }
+
+        return null;
+    }
+
+    /**
+     * Discards all names that have been fetched.
+     */
+    public synchronized void clear() {
+
+        entries.clear();
+    }
+
+    /**
+     * Claims the connection for a completion, waiting for an earlier
+     * completion that is still using it to finish.
+     *
+     * @param timeout The number of milliseconds to wait, or 0 to wait
+     *   for as long as it takes.
+     * @return true if the connection was claimed, in which case
+     *   {@link #release()} must be called when the completion is done with
+     *   it, or false if the time ran out.
+     */
+    public synchronized boolean acquire(long timeout) {
+
+        long end = System.currentTimeMillis() + timeout;
+        while (inUse) {
+
+            long remaining = end - System.currentTimeMillis();
+            if (timeout > 0 && remaining <= 0) {
+
+                return false;
+            }
+
+            try {
+
+                wait(timeout > 0 ? remaining : 0);
+            }
+            catch (InterruptedException e) {
+
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        inUse = true;
+        return true;
+    }
+
+    /**
+     * Hands back the connection claimed by {@link #acquire(long)}.
+     */
+    public synchronized void release() {
+
+        inUse = false;
+        notifyAll();
+    }
+
+    /**
+     * Called when a completion has given up waiting for names to be
+     * fetched. Any fetch that is still running is counted as slow right
+     * away, rather than when (or if) it finishes.
+     */
+    public synchronized void deadlineExpired() {
+
+        ++deadlinesExpired;
+        for (Fetch fetch : fetching.values()) {
+
+            if (!fetch.countedSlow) {
+
+                fetch.countedSlow = true;
+                getStats(fetch.catalog).slow++;
+            }
+        }
+    }
+
+    /**
+     * Cancels the fetches that are running. Reading of the names stops at
+     * the next row and, if the driver handed back the statement behind the
+     * metadata query, the statement is canceled so that a query that is
+     * still running on the server stops too. Names from a canceled fetch
+     * aren't kept.
+     */
+    public void cancelFetches() {
+
+        List<Statement> statements = new ArrayList<Statement>();
+        synchronized (this) {
+
+            for (Fetch fetch : fetching.values()) {
+
+                fetch.cancelled = true;
+                if (fetch.statement != null) {
+
+                    statements.add(fetch.statement);
+                }
+            }
+        }
+
+        /*
+         * Statement.cancel() is meant to be called from another thread,
+         * but may still have to talk to the server, so it isn't done
+         * while holding the lock.
+         */
+        for (Statement statement : statements) {
+
+            try {
+
+                statement.cancel();
+            }
+            catch (SQLException e) {
+
+                /* IGNORED */
+            }
+        }
+    }
+
+    /**
+     * Returns the statistics gathered on fetching names, by catalog.
+     *
+     * @return A copy of the statistics.
+     */
+    public synchronized List<Stats> getStats() {
+
+        List<Stats> copy = new ArrayList<Stats>();
+        for (Stats s : stats.values()) {
+
+            copy.add(new Stats(s));
+        }
+
+        return copy;
+    }
+
+    /**
+     * @return The number of times that a completion gave up waiting
+     *   for names to be fetched.
+     */
+    public synchronized int getDeadlinesExpired() {
+
+        return deadlinesExpired;
+    }
+
+    /**
+     * Discards the statistics gathered on fetching names.
+     */
+    public synchronized void clearStats() {
+
+        stats.clear();
+        deadlinesExpired = 0;
+    }
+
+    /**
+     * Finds catalogs.
+     *
+     * @param completions Matching names are added here.
+     * @param conn The connection.
+     * @param prefix The beginning of the name, or null for all names.
+     * @return The number of names found.
+     */
+    public int getCatalogs(Collection<String> completions, Connection conn,
+            String prefix) {
+
+        NameIndex index = getIndex("C", conn, null, new Loader() {
+
+            @Override
+            public ResultSet query(DatabaseMetaData meta, String pattern)
+                throws SQLException {
+
+                return meta.getCatalogs();
+            }
+        }, 1, null);
+
+        return find(index, prefix, completions);
+    }
+
+    /**
+     * Finds schemas.
+     *
+     * @param completions Matching names are added here.
+     * @param conn The connection.
+     * @param catalog The catalog containing the schemas, or null.
+     * @param prefix The beginning of the name, or null for all names.
+     * @return The number of names found.
+     */
+    public int getSchemas(Collection<String> completions, Connection conn,
+            final String catalog, String prefix) {
+
+        NameIndex index = getIndex(key("S", catalog), conn, null,
+            new Loader() {
+
+                @Override
+                public ResultSet query(DatabaseMetaData meta, String pattern)
+                    throws SQLException {
+
+                    return meta.getSchemas();
+                }
+            }, 1, catalog);
+
+        return find(index, prefix, completions);
+    }
+
+    /**
+     * Finds tables.
+     *
+     * @param completions Matching names are added here.
+     * @param conn The connection.
+     * @param catalog The catalog containing the tables, or null.
+     * @param schema The schema containing the tables, or null for the
+     *   current schema of the connection.
+     * @param prefix The beginning of the name, or null for all names.
+     * @return The number of names found.
+     */
+    public int getTables(Collection<String> completions, Connection conn,
+            final String catalog, String schema, String prefix) {
+
+        final String owner = (schema != null
+            ? schema : getCurrentSchema(conn));
+        if (catalog == null && owner == null && isEmpty(prefix)) {
+
+            /*
+             * That would be every table in the database.
+             */
+            return 0;
+        }
+
+        NameIndex index = getIndex(key("T", catalog, owner), conn, prefix,
+            new Loader() {
+
+                @Override
+                public ResultSet query(DatabaseMetaData meta, String pattern)
+                    throws SQLException {
+
+                    return meta.getTables(catalog,
+                        escape(meta, owner), pattern, null);
+                }
+            }, 3, null);
+
+        return find(index, prefix, completions);
+    }
+
+    /**
+     * Finds columns.
+     *
+     * @param completions Matching names are added here.
+     * @param conn The connection.
+     * @param catalog The catalog containing the table, or null.
+     * @param schema The schema containing the table, or null.
+     * @param table The table containing the columns. If it is null no
+     *   columns are found, rather than those of every table.
+     * @param prefix The beginning of the name, or null for all names.
+     * @return The number of names found.
+     */
+    public int getColumns(Collection<String> completions, Connection conn,
+            final String catalog, final String schema, final String table,
+            String prefix) {
+
+        if (table == null) {
+
+            return 0;
+        }
+
+        NameIndex index = getIndex(key("K", catalog, schema, table), conn,
+            null, new Loader() {
+
+                @Override
+                public ResultSet query(DatabaseMetaData meta, String pattern)
+                    throws SQLException {
+
+                    return meta.getColumns(catalog, escape(meta, schema),
+                        escape(meta, table), "%");
+                }
+            }, 4, null);
+
+        return find(index, prefix, completions);
+    }
+
+    /**
+     * Finds procedures.
+     *
+     * @param completions Matching names are added here.
+     * @param conn The connection.
+     * @param catalog The catalog containing the procedures, or null.
+     * @param schema The schema containing the procedures, or null for
+     *   the current schema of the connection.
+     * @param prefix The beginning of the name, or null for all names.
+     * @return The number of names found.
+     */
+    public int getProcedures(Collection<String> completions, Connection conn,
+            final String catalog, String schema, String prefix) {
+
+        final String owner = (schema != null
+            ? schema : getCurrentSchema(conn));
+        if (catalog == null && owner == null && isEmpty(prefix)) {
+
+            return 0;
+        }
+
+        NameIndex index = getIndex(key("P", catalog, owner), conn, prefix,
+            new Loader() {
+
+                @Override
+                public ResultSet query(DatabaseMetaData meta, String pattern)
+                    throws SQLException {
+
+                    return meta.getProcedures(catalog,
+                        escape(meta, owner), pattern);
+                }
+            }, 3, null);
+
+        return find(index, prefix, completions);
+    }
+
+    private int find(NameIndex index, String prefix,
+            Collection<String> completions) {
+
+        if (index == null) {
+
+            return 0;
+        }
+
+        int count = index.find(prefix, completions);
+        if (count == 0 && isSubsequence()) {
+
+            count = index.findSubsequence(prefix, completions);
+        }
+
+        return count;
+    }
+
+    /**
+     * Returns the index for a key, fetching the names from the driver if
+     * they have not been fetched yet or have expired.
+     *
+     * @param key The key
+     * @param conn The connection
+     * @param prefix If not null or empty, only the names that start with
+     *   its first character need to be fetched
+     * @param loader Fetches the names
+     * @param column The column of the loader's result set holding the name
+     * @param catalog If not null, only rows in which the column following
+     *   the name is null or matches this catalog are kept
+     * @return The index, or null if the names could not be fetched.
+     */
+    private NameIndex getIndex(String key, Connection conn, String prefix,
+            Loader loader, int column, String catalog) {
+
+        /*
+         * A list that was fetched in full does for any prefix. Otherwise
+         * the list of names that start with the first character is used.
+         */
+        String fullKey = key(key, "");
+        if (!isEmpty(prefix)) {
+
+            NameIndex index = getCached(fullKey);
+            if (index != null) {
+
+                return index;
+            }
+
+            key = key(key, prefix.substring(0, 1).toLowerCase());
+        }
+        else {
+
+            key = fullKey;
+        }
+
+        Fetch fetch;
+        synchronized (this) {
+
+            /*
+             * If another thread is already fetching these names, there's
+             * no sense in asking the driver for them twice.
+             */
+            while (fetching.containsKey(key)) {
+
+                try {
+
+                    wait();
+                }
+                catch (InterruptedException e) {
+
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+
+            NameIndex index = getCached(key);
+            if (index != null) {
+
+                return index;
+            }
+
+            /*
+             * If the completion we are working for has given up on us,
+             * then don't start another fetch.
+             */
+            AtomicBoolean abandoned = ABANDONED.get();
+            if (abandoned != null && abandoned.get()) {
+
+                return null;
+            }
+
+            fetch = new Fetch(key);
+            fetching.put(key, fetch);
+        }
+
+        List<String> names = new ArrayList<String>();
+        NameIndex index = null;
+        try {
+
+            DatabaseMetaData meta = conn.getMetaData();
+            for (String pattern : patterns(meta, prefix)) {
+
+                if (fetch.cancelled) {
+
+                    break;
+                }
+
+                fetch(fetch, loader.query(meta, pattern), column, catalog,
+                    names);
+            }
+
+            if (!fetch.cancelled) {
+
+                index = new NameIndex(names);
+            }
+        }
+        catch (SQLException e) {
+
+            if (!fetch.cancelled && LOG.isLoggable(Level.FINE)) {
+
+                LOG.fine("Unable to fetch names for "
+                    + key.replace(SEP, '.') + ": " + e.getMessage());
+            }
+        }
+        finally {
+
+            finished(fetch, index);
+        }
+
+        if (index != null && LOG.isLoggable(Level.FINE)) {
+
+            LOG.fine("Indexed " + index.size() + " names for "
+                + key.replace(SEP, '.') + " in "
+                + (System.currentTimeMillis() - fetch.start) + "ms");
+        }
+
+        return index;
+    }
+
+    /**
+     * Reads the names from the results of a metadata query.
+     *
+     * @param fetch The fetch the query is for
+     * @param results The results
+     * @param column The column holding the name
+     * @param catalog If not null, the catalog that the names must be in
+     * @param names The names are added here
+     * @throws SQLException If the names can't be read
+     */
+    private void fetch(Fetch fetch, ResultSet results, int column,
+            String catalog, List<String> names)
+        throws SQLException {
+
+        try {
+
+            /*
+             * Metadata result sets are allowed to have no statement,
+             * in which case the fetch can only be stopped between
+             * rows.
+             */
+            Statement statement = results.getStatement();
+            synchronized (this) {
+
+                fetch.statement = statement;
+            }
+
+            while (!fetch.cancelled && results.next()) {
+
+                if (catalog != null) {
+
+                    String cat = results.getString(column + 1);
+                    if (cat != null && !cat.equals(catalog)) {
+
+                        continue;
+                    }
+                }
+
+                names.add(results.getString(column));
+            }
+        }
+        finally {
+
+            results.close();
+        }
+    }
+
+    /**
+     * Returns the names saved for a key, if they haven't expired.
+     *
+     * @param key The key
+     * @return The names, or null if they have to be fetched.
+     */
+    private synchronized NameIndex getCached(String key) {
+
+        Entry entry = entries.get(key);
+        if (entry != null
+                && System.currentTimeMillis() - entry.loaded < timeToLive) {
+
+            return entry.index;
+        }
+
+        return null;
+    }
+
+    /**
+     * Works out the name patterns to fetch names with. If the user has
+     * typed the start of the name, the names beginning with its first
+     * character are fetched; if it is a letter, both its lower and upper
+     * case are asked for, because names are matched without regard to
+     * case and the driver's patterns generally aren't.
+     *
+     * @param meta The driver's metadata
+     * @param prefix The start of the name, or null
+     * @return The patterns.
+     * @throws SQLException If the driver can't be asked about patterns
+     */
+    private static List<String> patterns(DatabaseMetaData meta,
+            String prefix)
+        throws SQLException {
+
+        List<String> patterns = new ArrayList<String>(2);
+        if (isEmpty(prefix)) {
+
+            patterns.add("%");
+            return patterns;
+        }
+
+        String first = prefix.substring(0, 1);
+        String lower = first.toLowerCase();
+        String upper = first.toUpperCase();
+
+        patterns.add(escape(meta, lower) + "%");
+        if (!upper.equals(lower)) {
+
+            patterns.add(escape(meta, upper) + "%");
+        }
+
+        return patterns;
+    }
+
+    /**
+     * Escapes the pattern characters in a name that is passed as a
+     * metadata pattern, so that it only matches itself.
+     *
+     * @param meta The driver's metadata
+     * @param name The name, or null
+     * @return The escaped name, or null.
+     * @throws SQLException If the driver can't be asked about patterns
+     */
+    private static String escape(DatabaseMetaData meta, String name)
+        throws SQLException {
+
+        if (name == null
+                || (name.indexOf('%') < 0 && name.indexOf('_') < 0)) {
+
+            return name;
+        }
+
+        String esc = meta.getSearchStringEscape();
+        if (esc == null || esc.length() == 0) {
+
+            return name;
+        }
+
+        StringBuilder sb = new StringBuilder(name.length() + 4);
+        for (int i = 0; i < name.length(); i++) {
+
+            char ch = name.charAt(i);
+            if (ch == '%' || ch == '_' || esc.indexOf(ch) >= 0) {
+
+                sb.append(esc);
+            }
+
+            sb.append(ch);
+        }
+
+        return sb.toString();
+    }
+
+    private static boolean isEmpty(String str) {
+
+        return str == null || str.length() == 0;
+    }
+
+    /**
+     * Saves the result of a fetch that has finished and records its
+     * statistics.
+     *
+     * @param fetch The fetch
+     * @param index The names fetched, or null if the fetch failed
+     */
+    private synchronized void finished(Fetch fetch, NameIndex index) {
+
+        long elapsed = System.currentTimeMillis() - fetch.start;
+
+        if (index != null) {
+
+            entries.put(fetch.key, new Entry(index, fetch.start));
+        }
+
+        fetching.remove(fetch.key);
+        notifyAll();
+
+        Stats s = getStats(fetch.catalog);
+        ++s.fetches;
+        if (index == null && !fetch.cancelled) {
+
+            ++s.failures;
+        }
+
+        s.totalMillis += elapsed;
+        s.maxMillis = Math.max(s.maxMillis, elapsed);
+
+        if (elapsed >= slowThreshold && !fetch.countedSlow) {
+
+            fetch.countedSlow = true;
+            ++s.slow;
+        }
+    }
+
+    private Stats getStats(String catalog) {
+
+        Stats s = stats.get(catalog);
+        if (s == null) {
+
+            s = new Stats(catalog);
+            stats.put(catalog, s);
+        }
+
+        return s;
+    }
+
+    /**
+     * Pulls the catalog out of a key. The catalog list itself isn't in
+     * any catalog, so it is recorded under an empty name.
+     */
+    private static String getCatalog(String key) {
+
+        int start = key.indexOf(SEP);
+        if (start < 0) {
+
+            return "";
+        }
+
+        int end = key.indexOf(SEP, start + 1);
+        return key.substring(start + 1, end < 0 ? key.length() : end);
+    }
+
+    private static String key(String type, String...parts) {
+
+        StringBuilder sb = new StringBuilder(type);
+        for (String part : parts) {
+
+            sb.append(SEP);
+            if (part != null) {
+
+                sb.append(part);
+            }
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Runs the metadata query that fetches a set of names.
+     */
+    private static abstract class Loader {
+
+        /**
+         * @param meta The driver's metadata
+         * @param pattern The pattern for the names to fetch, if the query
+         *   takes one
+         * @return The results
+         * @throws SQLException If the query fails
+         */
+        public abstract ResultSet query(DatabaseMetaData meta,
+            String pattern)
+            throws SQLException;
+    }
+
+    /**
+     * Statistics on the fetches of names made for one catalog.
+     */
+    public static class Stats {
+
+        private String catalog;
+        private int fetches = 0;
+        private int failures = 0;
+        private int slow = 0;
+        private long totalMillis = 0;
+        private long maxMillis = 0;
+
+        private Stats(String catalog) {
+
+            this.catalog = catalog;
+        }
+
+        private Stats(Stats s) {
+
+            this.catalog = s.catalog;
+            this.fetches = s.fetches;
+            this.failures = s.failures;
+            this.slow = s.slow;
+            this.totalMillis = s.totalMillis;
+            this.maxMillis = s.maxMillis;
+        }
+
+        /**
+         * @return The catalog. An empty string is used for fetches that
+         *   aren't for a particular catalog.
+         */
+        public String getCatalog() {
+
+            return catalog;
+        }
+
+        /**
+         * @return The number of fetches that have finished.
+         */
+        public int getFetches() {
+
+            return fetches;
+        }
+
+        /**
+         * @return The number of fetches that failed, not counting those
+         *   that were canceled.
+         */
+        public int getFailures() {
+
+            return failures;
+        }
+
+        /**
+         * @return The number of fetches that took longer than the
+         *   slow threshold, including any that are still running.
+         */
+        public int getSlow() {
+
+            return slow;
+        }
+
+        /**
+         * @return The total time spent in finished fetches.
+         */
+        public long getTotalMillis() {
+
+            return totalMillis;
+        }
+
+        /**
+         * @return The longest time taken by a finished fetch.
+         */
+        public long getMaxMillis() {
+
+            return maxMillis;
+        }
+    }
+
+    /**
+     * A fetch that is underway.
+     */
+    private static class Fetch {
+
+        final String key;
+        final String catalog;
+        final long start = System.currentTimeMillis();
+        boolean countedSlow = false;
+        Statement statement = null;
+        volatile boolean cancelled = false;
+
+        Fetch(String key) {
+
+            this.key = key;
+            this.catalog = getCatalog(key);
+        }
+    }
+
+    private static class Entry {
+
+        final NameIndex index;
+        final long loaded;
+
+        Entry(NameIndex index, long loaded) {
+
+            this.index = index;
+            this.loaded = loaded;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh.input.completion;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Locale;
+
+/**
+ * An immutable, case insensitive index of object names that can quickly
+ * find all of the names that begin with a given prefix. The names are
+ * kept in a sorted array alongside a lower cased copy of each name, so
+ * a prefix lookup is a binary search followed by a scan of the names
+ * that match.
+ */
+public class NameIndex {
+
+    private final String []names;
+    private final String []keys;
+    private final int size;
+
+    /**
+     * Creates an index.
+     *
+     * @param names The names to be indexed. Nulls and duplicates are
+     *   discarded.
+     */
+    public NameIndex(Collection<String> names) {
+
+        Name []sorted = new Name[names.size()];
+        int count = 0;
+        for (String name : names) {
+
+            if (name != null) {
+
+                sorted[count++] = new Name(name);
+            }
+        }
+
+        Arrays.sort(sorted, 0, count);
+
+        String []uniqueNames = new String[count];
+        String []uniqueKeys = new String[count];
+
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+
+            if (n == 0 || !sorted[i].name.equals(uniqueNames[n - 1])) {
+
+                uniqueNames[n] = sorted[i].name;
+                uniqueKeys[n] = sorted[i].key;
+                ++n;
+            }
+        }
+
+        this.names = (n == count ? uniqueNames : Arrays.copyOf(uniqueNames, n));
+        this.keys = (n == count ? uniqueKeys : Arrays.copyOf(uniqueKeys, n));
+        this.size = n;
+    }
+
+    /**
+     * @return The number of names in the index.
+     */
+    public int size() {
+
+        return size;
+    }
+
+    /**
+     * Finds all names that begin with a prefix, ignoring case.
+     *
+     * @param prefix The prefix. If null, then all names match.
+     * @param matches The matching names are added to this collection.
+     * @return The number of names that matched.
+     */
+    public int find(String prefix, Collection<String> matches) {
+
+        if (prefix == null || prefix.length() == 0) {
+
+            for (int i = 0; i < size; i++) {
+
+                matches.add(names[i]);
+            }
+
+            return size;
+        }
+
+        String key = fold(prefix);
+        int count = 0;
+        for (int i = lowerBound(key); i < size && keys[i].startsWith(key);
+                i++) {
+
+            matches.add(names[i]);
+            ++count;
+        }
+
+        return count;
+    }
+
+    /**
+     * Finds all names that contain the characters of a pattern in the
+     * order in which they appear in the pattern, but not necessarily next
+     * to each other, ignoring case. For example "cstord" would find
+     * "CUSTOMER_ORDERS". Unlike {@link #find(String, Collection)}, this
+     * has to look at every name in the index.
+     *
+     * @param pattern The pattern.
+     * @param matches The matching names are added to this collection.
+     * @return The number of names that matched.
+     */
+    public int findSubsequence(String pattern, Collection<String> matches) {
+
+        if (pattern == null || pattern.length() == 0) {
+
+            return find(pattern, matches);
+        }
+
+        String key = fold(pattern);
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+
+            if (isSubsequence(key, keys[i])) {
+
+                matches.add(names[i]);
+                ++count;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Returns the position of the first key that is not less than the
+     * provided key.
+     */
+    private int lowerBound(String key) {
+
+        int low = 0;
+        int high = size;
+        while (low < high) {
+
+            int mid = (low + high) >>> 1;
+            if (keys[mid].compareTo(key) < 0) {
+
+                low = mid + 1;
+            }
+            else {
+
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+
+    private static boolean isSubsequence(String pattern, String key) {
+
+        int plen = pattern.length();
+        int klen = key.length();
+        int p = 0;
+        for (int k = 0; k < klen && p < plen && plen - p <= klen - k; k++) {
+
+            if (key.charAt(k) == pattern.charAt(p)) {
+
+                ++p;
+            }
+        }
+
+        return p == plen;
+    }
+
+    private static String fold(String name) {
+
+        return name.toLowerCase(Locale.ENGLISH);
+    }
+
+    private static class Name
+        implements Comparable<Name> {
+
+        final String name;
+        final String key;
+
+        Name(String name) {
+
+            this.name = name;
+
+            /*
+             * toLowerCase() hands back the same string if there was
+             * nothing to change, so names that are already in lower case
+             * don't cost a second copy.
+             */
+            this.key = fold(name);
+        }
+
+        @Override
+        public int compareTo(Name o) {
+
+            int rc = key.compareTo(o.key);
+            return rc != 0 ? rc : name.compareTo(o.name);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh.input.completion;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.sqsh.Buffer;
+import org.sqsh.parser.SQLParser;
+import org.sqsh.parser.SQLParser.ResumePoint;
+
+/**
+ * Remembers how far the SQL in a {@link Buffer} has been parsed so that
+ * tab completion doesn't have to parse the whole buffer every time it is
+ * asked for. As lines are appended to the buffer only the new lines are
+ * parsed, picking up from the last point in the previous lines at which
+ * the parser could be resumed. Each completion then only has to parse from
+ * that point through the line that is being edited.
+ *
+ * <p>If the buffer is changed in any way other than by appending to it,
+ * then the cache starts over from the beginning of the buffer.
+ */
+public class ParseStateCache
+    implements SQLParser.ResumeListener {
+
+    private static final Map<Buffer, ParseStateCache> CACHES =
+        new WeakHashMap<Buffer, ParseStateCache>();
+
+    /**
+     * The version of the buffer and the amount of it that has been parsed.
+     */
+    private int version = -1;
+    private int length = 0;
+
+    /**
+     * The offset in the buffer from which parsing is resumed, and the
+     * state of the parse at that offset.
+     */
+    private int base = 0;
+    private ResumePoint point = null;
+    private SQLParseState state = new SQLParseState();
+
+    /*
+     * Used while parsing newly appended text to hold on to the last
+     * resume point found.
+     */
+    private SQLParseState parsing = null;
+    private ResumePoint found = null;
+    private SQLParseState foundState = null;
+
+    /**
+     * Returns the cache for a buffer, creating it if necessary.
+     *
+     * @param buffer The buffer
+     * @return The cache for the buffer
+     */
+    public static ParseStateCache getInstance(Buffer buffer) {
+
+        synchronized (CACHES) {
+
+            ParseStateCache cache = CACHES.get(buffer);
+            if (cache == null) {
+
+                cache = new ParseStateCache();
+                CACHES.put(buffer, cache);
+            }
+
+            return cache;
+        }
+    }
+
+    /**
+     * Parses the contents of a buffer followed by the line of input that
+     * is currently being edited. This returns the same state as parsing
+     * all of the text with a fresh {@link SQLParser} would.
+     *
+     * @param buffer The buffer
+     * @param line The line that is being edited
+     * @return The state of the parse at the end of the line
+     */
+    public synchronized SQLParseState parse(Buffer buffer, String line) {
+
+        int len = buffer.length();
+        if (buffer.getVersion() != version || len < length) {
+
+            version = buffer.getVersion();
+            length = 0;
+            base = 0;
+            point = null;
+            state = new SQLParseState();
+        }
+
+        String text = buffer.substring(base, len);
+        if (len > length) {
+
+            extend(text);
+            text = buffer.substring(base, len);
+            length = len;
+        }
+
+        SQLParseState result = new SQLParseState(state);
+        SQLParser parser = new SQLParser(result);
+        parser.parse(text + line, point);
+
+        return result;
+    }
+
+    /**
+     * @return The offset in the buffer from which parsing currently
+     *   resumes.
+     */
+    public synchronized int getResumeOffset() {
+
+        return base;
+    }
+
+    /**
+     * Parses text that has been appended to the buffer, moving the resume
+     * point up as far as possible.
+     *
+     * @param text The text of the buffer from the current resume point
+     */
+    private void extend(String text) {
+
+        parsing = new SQLParseState(state);
+        found = null;
+        foundState = null;
+
+        SQLParser parser = new SQLParser(parsing);
+        parser.setResumeListener(this, text.length());
+        parser.parse(text, point);
+
+        if (found != null) {
+
+            base += found.getOffset();
+            point = found.atOffset(0);
+            state = foundState;
+        }
+
+        parsing = null;
+        found = null;
+        foundState = null;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void resumable(SQLParser parser, ResumePoint point) {
+
+        /*
+         * Most tokens don't change the state, so we only take a copy of
+         * it when it differs from the one we already have.
+         */
+        if (foundState == null
+                || foundState.getVersion() != parsing.getVersion()) {
+
+            foundState = new SQLParseState(parsing);
+        }
+
+        found = point;
+    }
+}
@@ -58,6 +58,11 @@ public class SQLParseState
      */
     private String clause = null;
     
+    /**
+     * Bumped each time the state changes.
+     */
+    private int version = 0;
+    
     /**
      * Creates the object.
      */
@@ -66,6 +71,36 @@ public class SQLParseState
         refStack.push(new ArrayList<DatabaseObject>());
     }
     
+    /**
+     * Creates a copy of another state.
+     * 
+     * @param state The state to copy
+     */
+    public SQLParseState(SQLParseState state) {
+        
+        for (List<DatabaseObject> refs : state.refStack) {
+            
+            refStack.push(new ArrayList<DatabaseObject>(refs));
+        }
+        
+        clauseStack.addAll(state.clauseStack);
+        statement = state.statement;
+        clause = state.clause;
+        version = state.version;
+    }
+    
+    /**
+     * Returns a number that changes every time the state changes. This
+     * allows a caller to avoid copying a state that is no different
+     * from the one it last copied.
+     * 
+     * @return The version of the state.
+     */
+    public int getVersion() {
+        
+        return version;
+    }
+    
     /**
      * Returns the name of the last SQL statement that was encountered. 
      * You can find the set of available statements by looking at the source
@@ -121,6 +156,8 @@ public class SQLParseState
     @Override
     public void enteredSubquery (SQLParser parser) {
 
+        ++version;
+        
         /*
          * As we enter the sub query we push a new "context" onto 
          * our stack.
@@ -133,6 +170,8 @@ public class SQLParseState
     @Override
     public void exitedSubquery (SQLParser parser) {
 
+        ++version;
+        
         /*
          * And it gets discarded as we leave the subquery.
          */
@@ -144,12 +183,15 @@ public class SQLParseState
     @Override
     public void foundClause (SQLParser parser, String clause) {
 
+        ++version;
         this.clause = clause;
     }
 
     /** {@inheritDoc} */
     @Override
     public void foundStatement (SQLParser parser, String statement) {
+
+        ++version;
         
         this.statement = statement;
         clause = null;
@@ -182,6 +224,8 @@ public class SQLParseState
     public void foundTableReference (SQLParser parser,
             DatabaseObject tableRef) {
 
+        ++version;
+        
         /*
          * Add table references to the current "stack".
          */
@@ -193,6 +237,7 @@ public class SQLParseState
     public void foundProcedureExecution (SQLParser parser,
             DatabaseObject procRef) {
 
+        ++version;
         refStack.peek().add(procRef);
     }
 }
@@ -327,7 +327,7 @@ public abstract class SQLStatementCompleter {
                 
                 getColumns(completions, conn, 
                     ref.getCatalog(), ref.getSchema(), ref.getName(),
-                    nameParts[3] + "%");
+                    nameParts[3]);
             }
         }
     }
@@ -343,25 +343,8 @@ public abstract class SQLStatementCompleter {
     protected void getCatalogs(Set<String> completions,
             Connection conn, String name) {
         
-        int count = 0;
-        
-        try {
-            
-            ResultSet results = conn.getMetaData().getCatalogs();
-            while (results.next()) {
-                
-                String catalog = results.getString(1);
-                if (name == null || catalog.startsWith(name)) {
-                    
-                    ++count;
-                    completions.add(catalog);
-                }
-            }
-        }
-        catch (SQLException e) {
-            
-            /* IGNORED */
-        }
+        int count = MetadataIndex.getInstance(conn).getCatalogs(
+            completions, conn, name);
         
         if (LOG.isLoggable(Level.FINE)) {
 
@@ -381,16 +364,21 @@ public abstract class SQLStatementCompleter {
     protected void getSchemas(Set<String> completions,
             Connection conn, String catalog, String name) {
         
-        /*
-         * Currently this method does nothing, but is here as a marker
-         * for future work. As of this writing only the JDBC with 
-         * Java 6 supports queries for schemas and since I don't
-         * want to mandate java 6 yet, I'm leaving this as a stub.
-         */
+        int count = MetadataIndex.getInstance(conn).getSchemas(
+            completions, conn, catalog, name);
+        
+        if (LOG.isLoggable(Level.FINE)) {
+
+            LOG.fine("Found " + count + " schemas matching "
+                + "catalog " + catalog
+                + ", schema " + name);
+        }
     }
     
     /**
-     * Gathers the set of tables that matches requested criteria
+     * Gathers the set of tables that matches requested criteria. Like
+     * the other lookups here, the names are fetched from the driver once
+     * and then kept in the connection's {@link MetadataIndex}.
      * @param completions The set that the table names will be added to.
      * @param conn The connection to use.
      * @param catalog The catalog to look in.
@@ -400,26 +388,8 @@ public abstract class SQLStatementCompleter {
     protected void getTables(Set<String> completions, Connection conn,
             String catalog, String schema, String tablePrefix) {
         
-        int count = 0;
-        
-        try {
-            
-            ResultSet results = conn.getMetaData().getTables(
-                (catalog == null ? "%" : catalog),
-                (schema == null ? "%" : schema),
-                (tablePrefix == null ? "%" : tablePrefix + "%"),
-                null);
-            
-            while (results.next()) {
-                
-                completions.add(results.getString(3));
-                ++count;
-            }
-        }
-        catch (SQLException e) {
-            
-            /* IGNORED */
-        }
+        int count = MetadataIndex.getInstance(conn).getTables(
+            completions, conn, catalog, schema, tablePrefix);
         
         if (LOG.isLoggable(Level.FINE)) {
 
@@ -442,26 +412,8 @@ public abstract class SQLStatementCompleter {
     protected void getColumns(Set<String> completions, Connection conn,
             String catalog, String schema, String table, String columnPrefix) {
         
-        int count = 0;
-        
-        try {
-            
-            ResultSet results = conn.getMetaData().getColumns(
-                (catalog == null ? "%" : catalog),
-                (schema == null ? "%" : schema),
-                (table == null ? "%" : table),
-                (columnPrefix == null ? "%" : columnPrefix + "%"));
-            
-            while (results.next()) {
-                
-                completions.add(results.getString(4));
-                ++count;
-            }
-        }
-        catch (SQLException e) {
-            
-            /* IGNORED */
-        }
+        int count = MetadataIndex.getInstance(conn).getColumns(
+            completions, conn, catalog, schema, table, columnPrefix);
         
         if (LOG.isLoggable(Level.FINE)) {
 
@@ -504,8 +456,7 @@ public abstract class SQLStatementCompleter {
                 
                 getColumns(completions, conn, 
                     (ref.getCatalog() == null ? catalog : ref.getCatalog()),
-                    (ref.getSchema() == null ? "%" : ref.getSchema()),
-                    ref.getName(),  columnPrefix);
+                    ref.getSchema(), ref.getName(),  columnPrefix);
             }
         }
     }
@@ -522,26 +473,8 @@ public abstract class SQLStatementCompleter {
     protected void getProcedures(Set<String> completions, Connection conn,
             String catalog, String schema, String procPrefix) {
         
-        int count = 0;
-        
-        try {
-            
-            ResultSet results = conn.getMetaData().getProcedures(
-                    (catalog == null ? "%" : catalog),
-                    (schema == null ? "%" : schema),
-                    (procPrefix == null ? "%" : procPrefix + "%"));
-            
-            while (results.next()) {
-                
-                String proc = results.getString(3);
-                completions.add(proc);
-                ++count;
-            }
-        }
-        catch (SQLException e) {
-            
-            /* IGNORED */
-        }
+        int count = MetadataIndex.getInstance(conn).getProcedures(
+            completions, conn, catalog, schema, procPrefix);
         
         if (LOG.isLoggable(Level.FINE)) {
 
@@ -607,23 +540,16 @@ public abstract class SQLStatementCompleter {
     }
     
     /**
-     * Helper method to return the current catalog for a connection.
+     * Helper method to return the current catalog for a connection. This
+     * is the catalog that the session is keeping track of, so it doesn't
+     * take a trip to the server.
      * 
      * @param conn  The connection
      * @return The current catalog or null if there is none.
      */
     protected String getCurrentCatalog(Connection conn) {
         
-        try {
-            
-            return conn.getCatalog();
-        }
-        catch (SQLException e) {
-            
-            /* IGNORED */
-        }
-        
-        return null;
+        return MetadataIndex.getInstance(conn).getCurrentCatalog(conn);
     }
     
     /**
@@ -15,6 +15,8 @@
  */
 package org.sqsh.options;
 
+import java.lang.reflect.Field;
+
 public class Option implements Comparable<Option> {
     
     /**
@@ -28,6 +30,11 @@ public class Option implements Comparable<Option> {
      */
     protected String fieldName;
     
+    /**
+     * The field itself, if it was provided.
+     */
+    protected Field field;
+    
     /**
      * Creates an option that is associated with a field of a java bean. 
      * @param option The option property that is associated with the field of
@@ -40,6 +47,18 @@ public class Option implements Comparable<Option> {
         this.fieldName   = fieldName;
     }
     
+    /**
+     * Creates an option that is associated with a field of a java bean. 
+     * @param option The option property that is associated with the field of
+     *   the java bean
+     * @param field The field the property is associated with
+     */
+    public Option (OptionProperty option, Field field) {
+        
+        this(option, field.getName());
+        this.field = field;
+    }
+    
     /**
      * @return true if the option is deprecated
      */
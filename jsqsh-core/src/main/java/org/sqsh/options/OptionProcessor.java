@@ -18,8 +18,10 @@ package org.sqsh.options;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -32,17 +34,24 @@ import java.util.Set;
  * is wrapped around the GNU Getopt processing library, which means it
  * follows more the style of command line arguments that most applications
  * take</p>
+ * 
+ * <p>The annotations of an option class are only looked at the first time
+ * that the class is seen. What they describe is kept (see {@link Schema})
+ * and shared by every processor created for an object of that class, since
+ * commands are run over and over with a new options object each time.</p>
  */
 public class OptionProcessor {
     
-    private Option[] options = null;
+    /**
+     * The compiled form of the annotations of each options class.
+     */
+    private static final Map<Class<?>, Schema> SCHEMAS =
+        new HashMap<Class<?>, Schema>();
+    
+    private Schema schema;
     private List<String> argList = null;
     private String program = null;
-    private String programUsage = "";
-    private int minArgs = 0;
-    private int maxArgs = -1;
     private Object optionBean;
-    private boolean isSorted = false;
     
     /**
      * Creates an option process for a provided bean. In this case,
@@ -52,10 +61,52 @@ public class OptionProcessor {
      * @param optionBean An object that has member fields annotated with
      *   the {@link OptionProperty} annotation.
      */
+    @SuppressWarnings("unchecked")
     public OptionProcessor (Object optionBean) {
         
         this.optionBean = optionBean;
-        doAnnotations();
+        this.schema = getSchema(optionBean.getClass());
+        this.program = schema.program;
+        
+        if (schema.argvField != null) {
+            
+            try {
+                
+                Object val = schema.argvField.get(optionBean);
+                if (val instanceof List) {
+                    
+                    argList = (List<String>) val;
+                }
+            }
+            catch (IllegalAccessException e) {
+                
+                System.err.println("WARNING: "
+                    + "Unable to access field '"
+                    + schema.argvField.getName() + "': " + e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Returns the compiled annotations of an options class, compiling
+     * them if this is the first time the class has been seen.
+     * 
+     * @param optionClass The class.
+     * @return Its schema.
+     */
+    private static Schema getSchema(Class<?> optionClass) {
+        
+        synchronized (SCHEMAS) {
+            
+            Schema schema = SCHEMAS.get(optionClass);
+            if (schema == null) {
+                
+                schema = new Schema(optionClass);
+                SCHEMAS.put(optionClass, schema);
+            }
+            
+            return schema;
+        }
     }
     
     /**
@@ -79,6 +130,16 @@ public class OptionProcessor {
             argList.clear();
         }
         
+        /*
+         * Most commands are run with no arguments at all, in which case
+         * there is nothing to do beyond checking that none were needed.
+         */
+        if (sz == 0) {
+            
+            checkArgCount();
+            return;
+        }
+        
         // Set to true when we hit a naked "--"
         boolean noMoreArgs = false;
         
@@ -200,9 +261,18 @@ public class OptionProcessor {
         }
         
         
-        /*
-         * Check if we have hit the minimum required arguments.
-         */
+        checkArgCount();
+    }
+    
+    /**
+     * Check if we have hit the minimum and maximum number of arguments.
+     */
+    private void checkArgCount()
+        throws OptionException {
+        
+        int minArgs = schema.minArgs;
+        int maxArgs = schema.maxArgs;
+        
         if (minArgs > 0 &&  argList.size() < minArgs) {
                     
             throw new OptionException(program
@@ -225,19 +295,29 @@ public class OptionProcessor {
      */
     public String getUsage() {
         
+        synchronized (schema) {
+            
+            if (schema.usage == null) {
+                
+                schema.usage = buildUsage();
+            }
+            
+            return schema.usage;
+        }
+    }
+    
+    private String buildUsage() {
+        
         StringBuilder sb = new StringBuilder();
         String linesep = System.getProperty("line.separator");
         
-        sb.append("Use: ").append(program).append(' ').append(programUsage)
+        sb.append("Use: ").append(program).append(' ').append(schema.programUsage)
             .append(linesep);
         
-        if (!isSorted) {
-            
-            Arrays.sort(options);
-            isSorted = true;
-        }
+        Option []sorted = schema.options.clone();
+        Arrays.sort(sorted);
         
-        for (Option option : options) {
+        for (Option option : sorted) {
             
             if (option.isDeprecated()) {
                 
@@ -313,14 +393,9 @@ public class OptionProcessor {
         
         try {
             
-            Field field = optionBean.getClass().getField(option.fieldName);
+            Field field = option.field;
             Class<?> type = field.getType();
             
-            if (field.isAccessible() == false) {
-                
-                field.setAccessible(true);
-            }
-            
             /*
               * This is a special case. If the option takes no arguments
               * then we have to assume that it is toggling a boolean 
@@ -410,14 +485,6 @@ public class OptionProcessor {
                 + option.fieldName + "' via option "
                 + option.toString() + ": " + e.getMessage());
         }
-        catch (NoSuchFieldException e) {
-            
-            /* Shouldn't happen, but.... */
-            throw new OptionException(program
-                + ": Error while attempting to set field '"
-                + option.fieldName + "' via option " 
-                + option.toString() + ": " + e.getMessage());
-        }
     }
     
     /**
@@ -444,121 +511,140 @@ public class OptionProcessor {
         }
     }
     
+    private Option findOption (String longOpt) throws OptionException {
+        
+        Option opt = schema.longOptions.get(longOpt);
+        if (opt != null) {
+            
+            return opt;
+        }
+        
+        throw new OptionException(program
+            + ": Unrecognized option \"--" + longOpt + "\"");
+    }
+    
+    private Option findOption (char shortOpt) throws OptionException {
+        
+        Option opt = (shortOpt < schema.shortOptions.length
+            ? schema.shortOptions[shortOpt] : null);
+        if (opt != null) {
+            
+            return opt;
+        }
+        
+        throw new OptionException(program
+            + ": Unrecognized option \"-" + shortOpt + "\"");
+    }
+    
     /**
-     * Traverses an object looking for annotations that are meaningful
-     * to the OptionProcessor.
-     * 
-     * @param opts The object to traverse.
+     * What the annotations of an options class describe, looked up so that
+     * parsing a command line doesn't involve any further reflection other
+     * than setting the fields.
      */
-    @SuppressWarnings("unchecked")
-    private void doAnnotations() {
+    private static class Schema {
         
-        Set<String> optStrings = new HashSet<String>();
+        Option []options;
+        Map<String, Option> longOptions = new HashMap<String, Option>();
+        Option []shortOptions = new Option[128];
+        Field argvField = null;
+        String program = null;
+        String programUsage = "";
+        int minArgs = 0;
+        int maxArgs = -1;
         
-        /*
-         * First, look for @Options.
+        /**
+         * The usage text, built the first time it is asked for.
+         */
+        String usage = null;
+        
+        /**
+         * Traverses a class looking for annotations that are meaningful
+         * to the OptionProcessor.
+         * 
+         * @param optionClass The class to traverse.
          */
-        ArrayList<Option> optionsList = new ArrayList<Option>();
-        Field []fields = optionBean.getClass().getFields();
-        for (int i = 0;i < fields.length; i++) {
+        Schema(Class<?> optionClass) {
             
-            OptionProperty option = (OptionProperty) fields[i].getAnnotation(OptionProperty.class);
+            Set<String> optStrings = new HashSet<String>();
             
-            if (option != null) {
-                
-                /*
-                 * Sanity check! There are times where I have screwed up and re-used
-                 * the same option multiple times.
-                 */
-                if (optStrings.contains(option.longOption())) {
-                    
-                    throw new RuntimeException("ERROR: Option --" 
-                        + option.longOption() + " is defined multiple times!");
-                }
-                else if (optStrings.contains(Character.toString(option.option()))) {
-                    
-                    throw new RuntimeException("ERROR: Option -" 
-                        + option.option() + " is defined multiple times!");
-                }
-            
-                optStrings.add(option.longOption());
-                optStrings.add(Character.toString(option.option()));
+            /*
+             * First, look for @Options.
+             */
+            ArrayList<Option> optionsList = new ArrayList<Option>();
+            Field []fields = optionClass.getFields();
+            for (int i = 0;i < fields.length; i++) {
                 
-                optionsList.add(new Option(option, fields[i].getName()));
-            }
-            
-            Argv argv = (Argv) fields[i].getAnnotation(Argv.class);
-            if (argv != null) {
+                OptionProperty option = (OptionProperty) fields[i].getAnnotation(OptionProperty.class);
                 
-                Object val = null;
+                if (option != null) {
+                    
+                    /*
+                     * Sanity check! There are times where I have screwed up and re-used
+                     * the same option multiple times.
+                     */
+                    if (optStrings.contains(option.longOption())) {
+                        
+                        throw new RuntimeException("ERROR: Option --" 
+                            + option.longOption() + " is defined multiple times!");
+                    }
+                    else if (optStrings.contains(Character.toString(option.option()))) {
+                        
+                        throw new RuntimeException("ERROR: Option -" 
+                            + option.option() + " is defined multiple times!");
+                    }
                 
-                try {
+                    optStrings.add(option.longOption());
+                    optStrings.add(Character.toString(option.option()));
                     
                     if (fields[i].isAccessible() == false) {
                         
                         fields[i].setAccessible(true);
                     }
                     
-                    val = fields[i].get(optionBean);
-                }
-                catch (IllegalAccessException e) {
+                    Option opt = new Option(option, fields[i]);
+                    optionsList.add(opt);
+                    longOptions.put(option.longOption(), opt);
                     
-                    System.err.println("WARNING: "
-                        + "Unable to access field '"
-                        + fields[i].getName() + "': " + e.getMessage());
+                    char ch = option.option();
+                    if (ch >= shortOptions.length) {
+                        
+                        shortOptions = Arrays.copyOf(shortOptions, ch + 1);
+                    }
+                    shortOptions[ch] = opt;
                 }
                 
-                if (!(val instanceof List)) {
+                Argv argv = (Argv) fields[i].getAnnotation(Argv.class);
+                if (argv != null) {
+                    
+                    if (!List.class.isAssignableFrom(fields[i].getType())) {
+                            
+                        System.err.println("WARNING: "
+                            + "Field '"
+                            + fields[i].getName()
+                            + "' is annotated with @Argv but "
+                            + "is not suitable for storing arguments. Fields "
+                            + "annotated in this way must implement java.util.List");
+                    }
+                    
+                    if (fields[i].isAccessible() == false) {
                         
-                    System.err.println("WARNING: "
-                        + "Field '"
-                        + fields[i].getName()
-                        + "' is annotated with @Argv but "
-                        + "is not suitable for storing arguments. Fields "
-                        + "annotated in this way must implement java.util.List");
+                        fields[i].setAccessible(true);
+                    }
+                    
+                    argvField    = fields[i];
+                    program      = argv.program();
+                    programUsage = argv.usage();
+                    minArgs      = argv.min();
+                    maxArgs      = argv.max();
                 }
-                
-                argList      = (List<String>) val;
-                program      = argv.program();
-                programUsage = argv.usage();
-                minArgs      = argv.min();
-                maxArgs      = argv.max();
-            }
-        }
-        
-        options = optionsList.toArray(new Option[0]);
-        if (argList == null) {
-            
-            System.err.println("WARNING: Option object must contain "
-                + "a field of type java.util.List annotated with @Argv");
-        }
-    }
-    
-    private Option findOption (String longOpt) throws OptionException {
-        
-        for (Option opt : options) {
-            
-            if (longOpt.equals(opt.getLongOpt())) {
-                
-                return opt;
             }
-        }
-        
-        throw new OptionException(program
-            + ": Unrecognized option \"--" + longOpt + "\"");
-    }
-    
-    private Option findOption (char shortOpt) throws OptionException {
-        
-        for (Option opt : options) {
             
-            if (shortOpt == opt.getShortOpt()) {
+            options = optionsList.toArray(new Option[0]);
+            if (argvField == null) {
                 
-                return opt;
+                System.err.println("WARNING: Option object must contain "
+                    + "a field of type java.util.List annotated with @Argv");
             }
         }
-        
-        throw new OptionException(program
-            + ": Unrecognized option \"-" + shortOpt + "\"");
     }
 }
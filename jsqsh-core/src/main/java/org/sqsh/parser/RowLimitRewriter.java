@@ -0,0 +1,247 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh.parser;
+
+import java.util.HashSet;
+
+/**
+ * Adds a row limit clause to a query, so that the server stops producing
+ * rows at the limit rather than the client having to throw the extra rows
+ * away. Only a single, plain, top-level SELECT is rewritten; anything that
+ * the rewriter isn't sure of (multiple statements, a limit that is already
+ * there, SELECT INTO, FOR UPDATE, etc.) is left alone.
+ */
+public class RowLimitRewriter {
+
+    /**
+     * Adds <code>FETCH FIRST n ROWS ONLY</code> to the end of the query
+     * (ANSI, DB2, Oracle 12c, Derby).
+     */
+    public static final String STYLE_FETCH = "fetch";
+
+    /**
+     * Adds <code>LIMIT n</code> to the end of the query (MySQL, PostgreSQL,
+     * H2, Hive, etc.).
+     */
+    public static final String STYLE_LIMIT = "limit";
+
+    /**
+     * Adds <code>TOP n</code> after the SELECT keyword (Sybase, SQL Server).
+     */
+    public static final String STYLE_TOP = "top";
+
+    /*
+     * Words that, found outside of parentheses, mean that the query
+     * either already limits its rows or is something that a limit clause
+     * can't be tacked onto.
+     */
+    private static HashSet<String> UNSAFE = new HashSet<String>();
+    static {
+
+        UNSAFE.add("LIMIT");
+        UNSAFE.add("FETCH");
+        UNSAFE.add("OFFSET");
+        UNSAFE.add("TOP");
+        UNSAFE.add("ROWS");
+        UNSAFE.add("INTO");
+        UNSAFE.add("FOR");
+        UNSAFE.add("COMPUTE");
+        UNSAFE.add("OPTION");
+        UNSAFE.add("WITH");
+        UNSAFE.add(";");
+    }
+
+    /*
+     * Words that begin a new statement. Finding one of these outside of
+     * parentheses (other than a SELECT that follows a set operator)
+     * means that there is more than one statement.
+     */
+    private static HashSet<String> STATEMENTS = new HashSet<String>();
+    static {
+
+        STATEMENTS.add("SELECT");
+        STATEMENTS.add("INSERT");
+        STATEMENTS.add("UPDATE");
+        STATEMENTS.add("DELETE");
+        STATEMENTS.add("MERGE");
+        STATEMENTS.add("CREATE");
+        STATEMENTS.add("ALTER");
+        STATEMENTS.add("DROP");
+        STATEMENTS.add("EXEC");
+        STATEMENTS.add("EXECUTE");
+        STATEMENTS.add("CALL");
+        STATEMENTS.add("DECLARE");
+        STATEMENTS.add("SET");
+        STATEMENTS.add("USE");
+        STATEMENTS.add("IF");
+        STATEMENTS.add("WHILE");
+        STATEMENTS.add("BEGIN");
+        STATEMENTS.add("PRINT");
+    }
+
+    private static HashSet<String> SET_OPERATORS = new HashSet<String>();
+    static {
+
+        SET_OPERATORS.add("UNION");
+        SET_OPERATORS.add("INTERSECT");
+        SET_OPERATORS.add("EXCEPT");
+        SET_OPERATORS.add("MINUS");
+    }
+
+    /**
+     * @param style A row limit style.
+     * @return true if the style is one of the styles understood by the
+     *   rewriter.
+     */
+    public static boolean isStyle(String style) {
+
+        return STYLE_FETCH.equals(style)
+            || STYLE_LIMIT.equals(style)
+            || STYLE_TOP.equals(style);
+    }
+
+    /**
+     * Adds a row limit to a query.
+     *
+     * @param sql The SQL.
+     * @param style The style of limit clause to use (one of the STYLE_
+     *   constants).
+     * @param rows The number of rows to limit the query to.
+     * @return The rewritten query, or null if the SQL is not something
+     *   that can safely be rewritten.
+     */
+    public static String rewrite(String sql, String style, int rows) {
+
+        if (!isStyle(style) || rows <= 0) {
+
+            return null;
+        }
+
+        SimpleSQLTokenizer tokenizer = new SimpleSQLTokenizer(sql);
+        String token = next(tokenizer);
+        if (!"SELECT".equals(token)) {
+
+            return null;
+        }
+
+        /*
+         * TOP goes after SELECT and any DISTINCT or ALL that follows it.
+         */
+        int topOffset = tokenizer.getOffset();
+        token = next(tokenizer);
+        if ("DISTINCT".equals(token) || "ALL".equals(token)) {
+
+            topOffset = tokenizer.getOffset();
+            token = next(tokenizer);
+        }
+
+        String prev = null;
+        boolean hasSetOperator = false;
+
+        while (token != null) {
+
+            /*
+             * The tokenizer has already counted a "(" that it returns,
+             * and uncounted a ")".
+             */
+            int depth = tokenizer.getParenCount();
+            if (token.equals("(")) {
+
+                --depth;
+            }
+
+            if (depth < 0) {
+
+                return null;
+            }
+
+            if (depth == 0) {
+
+                if (UNSAFE.contains(token)) {
+
+                    return null;
+                }
+
+                if (SET_OPERATORS.contains(token)) {
+
+                    hasSetOperator = true;
+                }
+                else if (STATEMENTS.contains(token)
+                    && !(token.equals("SELECT")
+                        && (SET_OPERATORS.contains(prev) || "ALL".equals(prev)
+                            || "DISTINCT".equals(prev)))) {
+
+                    return null;
+                }
+            }
+
+            prev = token;
+            token = next(tokenizer);
+        }
+
+        if (tokenizer.getParenCount() != 0) {
+
+            return null;
+        }
+
+        if (STYLE_TOP.equals(style)) {
+
+            /*
+             * TOP would only limit the first of the queries.
+             */
+            if (hasSetOperator) {
+
+                return null;
+            }
+
+            return sql.substring(0, topOffset) + " TOP " + rows
+                + sql.substring(topOffset);
+        }
+
+        /*
+         * The clause goes on a line of its own in case the query ends
+         * with a -- comment.
+         */
+        String trimmed = trimEnd(sql);
+        if (STYLE_LIMIT.equals(style)) {
+
+            return trimmed + "\nLIMIT " + rows;
+        }
+
+        return trimmed + "\nFETCH FIRST " + rows + " ROWS ONLY";
+    }
+
+    /*
+     * Despite what it says, the tokenizer hands back words in the case that
+     * they were written in.
+     */
+    private static String next(SimpleSQLTokenizer tokenizer) {
+
+        String token = tokenizer.next();
+        return token == null ? null : token.toUpperCase();
+    }
+
+    private static String trimEnd(String sql) {
+
+        int end = sql.length();
+        while (end > 0 && Character.isWhitespace(sql.charAt(end - 1))) {
+
+            --end;
+        }
+
+        return sql.substring(0, end);
+    }
+}
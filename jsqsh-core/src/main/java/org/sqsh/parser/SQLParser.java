@@ -20,6 +20,7 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Stack;
 
 
 /**
@@ -84,6 +85,23 @@ public class SQLParser {
     private SQLParserListener listener = null;
     private SimpleSQLTokenizer tokenizer = null;
     
+    /**
+     * Whether or not the top level statement is DML.
+     */
+    private boolean inDML = false;
+    
+    /**
+     * The parentheses depth at which each of the subqueries that we are
+     * currently within started, outermost first.
+     */
+    private Stack<Integer> subqueryDepths = new Stack<Integer>();
+    
+    /**
+     * If set, is told of points at which parsing could be resumed.
+     */
+    private ResumeListener resumeListener = null;
+    private int resumeLimit = 0;
+    
     /**
      * Creates a new parser.
      * 
@@ -108,6 +126,22 @@ public class SQLParser {
         return tokenizer;
     }
     
+    /**
+     * Registers an object to be told of the points in the SQL at which
+     * parsing could later be resumed with {@link #parse(String, ResumePoint)}.
+     * Only points that were reached without having to look at any text
+     * beyond <code>limit</code> are reported, so that the SQL up to
+     * <code>limit</code> may be extended without invalidating them.
+     * 
+     * @param resumeListener The listener, or null to stop reporting.
+     * @param limit Only points before this offset are reported.
+     */
+    public void setResumeListener(ResumeListener resumeListener, int limit) {
+        
+        this.resumeListener = resumeListener;
+        this.resumeLimit = limit;
+    }
+    
     /**
      * Performs a rudimentary parsing of a supplied block of SQL.
      * 
@@ -115,10 +149,45 @@ public class SQLParser {
      */
     public void parse (String sql) {
         
-        tokenizer = new SimpleSQLTokenizer(sql);
+        parse(sql, null);
+    }
+    
+    /**
+     * Parses a block of SQL, picking up from a point that was reported
+     * to a {@link ResumeListener} while parsing an earlier block of SQL.
+     * The text before the point must be the same as it was when the
+     * point was reported, and the listener is expected to be in the
+     * same state as it was at that time.
+     * 
+     * @param sql The sql being parsed.
+     * @param from The point to resume from, or null to parse from the
+     *   beginning of the SQL.
+     */
+    public void parse (String sql, ResumePoint from) {
+        
+        subqueryDepths.clear();
+        if (from == null) {
+            
+            tokenizer = new SimpleSQLTokenizer(sql);
+            inDML = false;
+        }
+        else {
+            
+            tokenizer = new SimpleSQLTokenizer(sql, from.offset,
+                from.parenCount);
+            inDML = from.inDML;
+            
+            /*
+             * If the point was within subqueries, then we step back
+             * into them. The listener already knows that it is in them.
+             */
+            if (from.subqueryDepths.length > 0) {
+                
+                doSubqueryBody(from.subqueryDepths, 0);
+            }
+        }
         
         String keyword = tokenizer.next();
-        boolean inDML = false;
         
         while (keyword != null) {
             
@@ -190,13 +259,41 @@ public class SQLParser {
                     }
                 }
             }
-                
+            
+            checkResumePoint();
             keyword = tokenizer.next();
         }
         
         tokenizer = null;
     }
     
+    /**
+     * Called between tokens to tell the resume listener, if any, that
+     * parsing could be resumed from the current position.
+     */
+    private void checkResumePoint() {
+        
+        /*
+         * If tokens have been pushed back, then the tokenizer's offset
+         * no longer says where we are.
+         */
+        if (resumeListener == null
+                || tokenizer.hasUngotTokens()
+                || tokenizer.getOffset() >= resumeLimit) {
+            
+            return;
+        }
+        
+        int []depths = new int[subqueryDepths.size()];
+        for (int i = 0; i < depths.length; i++) {
+            
+            depths[i] = subqueryDepths.get(i);
+        }
+        
+        resumeListener.resumable(this, new ResumePoint(tokenizer.getOffset(),
+            tokenizer.getParenCount(), inDML, depths));
+    }
+    
     /**
      * Called after the tokenizer hits a DELETE statement and attempts
      * to determine the table name that is being deleted.
@@ -235,6 +332,27 @@ public class SQLParser {
          */
         listener.enteredSubquery(this);
         
+        doSubqueryBody(new int[] { parenDepth }, 0);
+    }
+    
+    /**
+     * Processes the tokens of a subquery up to its closing parenthesis.
+     * 
+     * @param depths The parentheses depth at which the subquery started
+     *   is <code>depths[level]</code>. Any depths after that are for
+     *   subqueries within this one that we are resuming in the middle of.
+     * @param level The nesting level of this subquery in depths.
+     */
+    private void doSubqueryBody(int []depths, int level) {
+        
+        int parenDepth = depths[level];
+        subqueryDepths.push(parenDepth);
+        
+        if (level + 1 < depths.length) {
+            
+            doSubqueryBody(depths, level + 1);
+        }
+        
         String token = tokenizer.next();
         while (token != null) {
             
@@ -244,6 +362,7 @@ public class SQLParser {
              */
             if (token.equals(")") && tokenizer.getParenCount() <= parenDepth) {
                 
+                subqueryDepths.pop();
                 listener.exitedSubquery(this);
                 return;
             }
@@ -267,8 +386,11 @@ public class SQLParser {
                 doFrom();
             }
             
+            checkResumePoint();
             token = tokenizer.next();
         }
+        
+        subqueryDepths.pop();
     }
     
     /**
@@ -498,6 +620,65 @@ public class SQLParser {
         return new DatabaseObject(catalog, owner, table);
     }
     
+    /**
+     * Is told of the points at which parsing could be resumed. The
+     * state of the parser's {@link SQLParserListener} at the time of the
+     * call is the state that it must be in to resume from the point.
+     */
+    public interface ResumeListener {
+        
+        /**
+         * Called when the parser reaches a point that parsing could
+         * be resumed from.
+         * 
+         * @param parser The parser.
+         * @param point The point.
+         */
+        void resumable(SQLParser parser, ResumePoint point);
+    }
+    
+    /**
+     * A position in a block of SQL, along with the state that the parser
+     * was in when it reached that position.
+     */
+    public static final class ResumePoint {
+        
+        private final int offset;
+        private final int parenCount;
+        private final boolean inDML;
+        private final int []subqueryDepths;
+        
+        private ResumePoint (int offset, int parenCount, boolean inDML,
+                int []subqueryDepths) {
+            
+            this.offset = offset;
+            this.parenCount = parenCount;
+            this.inDML = inDML;
+            this.subqueryDepths = subqueryDepths;
+        }
+        
+        /**
+         * @return The offset in the SQL at which parsing would resume.
+         */
+        public int getOffset() {
+            
+            return offset;
+        }
+        
+        /**
+         * Returns the same point, but at a different offset. This is
+         * used when the text before the point is trimmed off before
+         * the parsing is resumed.
+         * 
+         * @param offset The new offset.
+         * @return The moved point.
+         */
+        public ResumePoint atOffset(int offset) {
+            
+            return new ResumePoint(offset, parenCount, inDML, subqueryDepths);
+        }
+    }
+    
     /**
      * A SQLStatement is a sequence of keywords (tokens) that, put
      * together, represent a logical SQL statement.
@@ -38,9 +38,22 @@ public class SimpleSQLTokenizer {
     
     public SimpleSQLTokenizer (String sql) {
         
+        this(sql, 0, 0);
+    }
+    
+    /**
+     * Creates a tokenizer that begins part way through a block of SQL.
+     * 
+     * @param sql The SQL to be tokenized
+     * @param start The offset within the SQL at which tokenizing begins
+     * @param parenCount The parentheses nesting level at that offset
+     */
+    public SimpleSQLTokenizer (String sql, int start, int parenCount) {
+        
         this.sql = sql;
         this.len = sql.length();
-        this.idx = 0;
+        this.idx = start;
+        this.parenCount = parenCount;
     }
     
     /**
@@ -153,6 +166,27 @@ public class SimpleSQLTokenizer {
         tokens.push(token);
     }
     
+    /**
+     * Returns the offset within the SQL of the next character that has
+     * yet to be tokenized. Tokens that have been handed back with
+     * {@link #unget(String)} lie before this offset.
+     * 
+     * @return The current offset.
+     */
+    public int getOffset() {
+        
+        return idx;
+    }
+    
+    /**
+     * @return true if tokens have been handed back with
+     *   {@link #unget(String)} and not yet re-read.
+     */
+    public boolean hasUngotTokens() {
+        
+        return !tokens.isEmpty();
+    }
+    
     /**
      * Returns how far nested inside of parentheses the parser is.
      * 
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh.renderers;
+
+import org.sqsh.ColumnDescription;
+import org.sqsh.Renderer;
+import org.sqsh.RendererManager;
+import org.sqsh.ResultChecksum;
+import org.sqsh.Session;
+
+/**
+ * Renderer that, rather than displaying rows, displays a fingerprint of
+ * them (see {@link ResultChecksum}). Like the {@link DiscardRenderer}, it
+ * is a marker telling jsqsh to fetch the rows without formatting them;
+ * jsqsh feeds each row to a checksum instead and hands the finished
+ * checksum to {@link #display(ResultChecksum)}.
+ */
+public class ChecksumRenderer
+    extends Renderer {
+
+    public ChecksumRenderer(Session session, RendererManager manager) {
+
+        super(session, manager);
+    }
+    
+    @Override
+    public boolean isDiscard() {
+
+        return true;
+    }
+    
+    /**
+     * Displays the digests of a result set.
+     * 
+     * @param checksum The checksum of the result set.
+     */
+    public void display(ResultChecksum checksum) {
+        
+        ColumnDescription []columns = new ColumnDescription[4];
+        columns[0] = new ColumnDescription("Column", -1);
+        columns[1] = new ColumnDescription("Type", -1);
+        columns[2] = new ColumnDescription("Nulls", -1,
+            ColumnDescription.Alignment.RIGHT,
+            ColumnDescription.OverflowBehavior.TRUNCATE);
+        columns[3] = new ColumnDescription("Digest", -1);
+        
+        Renderer renderer = 
+            session.getRendererManager().getCommandRenderer(session);
+        renderer.header(columns);
+        
+        for (int i = 0; i < checksum.getColumnCount(); i++) {
+            
+            renderer.row(new String[] {
+                checksum.getColumnName(i),
+                checksum.getColumnType(i),
+                Long.toString(checksum.getNulls(i)),
+                checksum.getColumnDigest(i)
+            });
+        }
+        
+        renderer.flush();
+        session.out.println("Result digest: " + checksum.getDigest()
+            + " (" + checksum.getRows() + " row"
+            + (checksum.getRows() == 1 ? "" : "s") + ")");
+    }
+
+    @Override
+    public boolean row (String[] row) {
+        
+        return true;
+    }
+
+    @Override
+    public boolean flush () {
+
+        return true;
+    }
+}
@@ -0,0 +1,554 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh.renderers;
+
+import java.math.BigDecimal;
+import java.text.DateFormat;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.sqsh.util.HashUtils;
+
+/**
+ * The statistics behind the {@link StatsRenderer}: a profile of the values
+ * of one column, gathered in a single pass and in a fixed amount of memory
+ * no matter how many rows are seen. Alongside exact counts of the values,
+ * NULLs, minimum, maximum and widest value, it keeps:
+ *
+ * <ul>
+ *   <li>A HyperLogLog sketch of the values, which estimates the number of
+ *       distinct values to within a couple of percent.</li>
+ *   <li>A uniform random sample of the values (reservoir sampling) of
+ *       numeric and temporal columns, from which quantiles are
+ *       estimated.</li>
+ *   <li>A Misra-Gries summary of the most frequent values, whose counts
+ *       are exact unless the column has more distinct values than the
+ *       summary can hold, in which case they are lower bounds.</li>
+ * </ul>
+ *
+ * <p>Values arrive as the strings that they are displayed as. Numbers are
+ * compared by value and dates and times by the instant that they
+ * represent (parsed back with the format they were displayed with); if a
+ * value of a column can't be parsed then the column is treated as text
+ * from then on.
+ */
+public class ColumnStats {
+
+    /**
+     * How the values of a column are compared.
+     */
+    public static enum Kind { TEXT, NUMBER, TEMPORAL };
+
+    /*
+     * 2^12 HyperLogLog registers, for a standard error of about 1.6%.
+     */
+    private static final int HLL_BITS = 12;
+    private static final int HLL_SIZE = 1 << HLL_BITS;
+
+    private static final int SAMPLE_SIZE = 1024;
+    private static final int TOP_SIZE = 256;
+
+    /*
+     * Values longer than this are cut short before being kept as a
+     * minimum, maximum or frequent value.
+     */
+    private static final int MAX_KEPT_WIDTH = 100;
+
+    private final String name;
+    private Kind kind;
+    private final DateFormat dateFormat;
+    private final boolean ordered;
+
+    private long count = 0L;
+    private long nulls = 0L;
+    private int maxWidth = 0;
+
+    private String minText = null;
+    private String maxText = null;
+    private double minValue = 0.0;
+    private double maxValue = 0.0;
+    private String minValueText = null;
+    private String maxValueText = null;
+    private boolean integral = true;
+
+    private final byte []registers = new byte[HLL_SIZE];
+
+    private double []sample;
+    private int sampleSize = 0;
+    private long sampled = 0L;
+    private final Random random = new Random(SAMPLE_SIZE);
+
+    private final HashMap<String, long[]> top = new HashMap<String, long[]>();
+    private long decrements = 0L;
+
+    /**
+     * Creates the statistics for a column.
+     *
+     * @param name The name of the column.
+     * @param kind How the values are compared.
+     * @param dateFormat For a {@link Kind#TEMPORAL} column, the format that
+     *   its values are displayed with.
+     */
+    public ColumnStats (String name, Kind kind, DateFormat dateFormat) {
+
+        this.name = name;
+        this.kind = (kind == Kind.TEMPORAL && dateFormat == null)
+            ? Kind.TEXT : kind;
+        this.dateFormat = dateFormat;
+        this.ordered = isOrdered(dateFormat);
+
+        if (this.kind != Kind.TEXT) {
+
+            sample = new double[SAMPLE_SIZE];
+        }
+    }
+
+    /**
+     * Adds a value.
+     *
+     * @param value The value, or null if it is NULL.
+     */
+    public void add(String value) {
+
+        ++count;
+        if (value == null) {
+
+            ++nulls;
+            return;
+        }
+
+        int width = value.length();
+        if (width > maxWidth) {
+
+            maxWidth = width;
+        }
+
+        long hash = hash(value);
+        int idx = (int) (hash >>> (64 - HLL_BITS));
+        int rank = Long.numberOfLeadingZeros(
+            (hash << HLL_BITS) | (1L << (HLL_BITS - 1))) + 1;
+        if (rank > registers[idx]) {
+
+            registers[idx] = (byte) rank;
+        }
+
+        String kept = width > MAX_KEPT_WIDTH
+            ? value.substring(0, MAX_KEPT_WIDTH) : value;
+
+        if (minText == null || kept.compareTo(minText) < 0) {
+
+            minText = kept;
+        }
+        if (maxText == null || kept.compareTo(maxText) > 0) {
+
+            maxText = kept;
+        }
+
+        if (kind != Kind.TEXT) {
+
+            addValue(kept, value);
+        }
+
+        addTop(kept);
+    }
+
+    /**
+     * @return The name of the column.
+     */
+    public String getName() {
+
+        return name;
+    }
+
+    /**
+     * @return How the values of the column were compared. This may be
+     *   {@link Kind#TEXT} even if it was created as something else, if one
+     *   of its values couldn't be parsed.
+     */
+    public Kind getKind() {
+
+        return kind;
+    }
+
+    /**
+     * @return The number of values seen, including NULLs.
+     */
+    public long getCount() {
+
+        return count;
+    }
+
+    /**
+     * @return The number of NULLs seen.
+     */
+    public long getNulls() {
+
+        return nulls;
+    }
+
+    /**
+     * @return The width of the widest value.
+     */
+    public int getMaxWidth() {
+
+        return maxWidth;
+    }
+
+    /**
+     * @return The smallest value, or null if no non-NULL values were seen.
+     */
+    public String getMin() {
+
+        return kind == Kind.TEXT ? minText : minValueText;
+    }
+
+    /**
+     * @return The largest value, or null if no non-NULL values were seen.
+     */
+    public String getMax() {
+
+        return kind == Kind.TEXT ? maxText : maxValueText;
+    }
+
+    /**
+     * @return The estimated number of distinct non-NULL values.
+     */
+    public long getDistinct() {
+
+        double sum = 0.0;
+        int zeros = 0;
+        for (int i = 0; i < HLL_SIZE; i++) {
+
+            sum += 1.0 / (1L << registers[i]);
+            if (registers[i] == 0) {
+
+                ++zeros;
+            }
+        }
+
+        double m = HLL_SIZE;
+        double estimate = (0.7213 / (1.0 + 1.079 / m)) * m * m / sum;
+
+        /*
+         * The raw estimate is biased for small numbers of values, which
+         * are better counted by how many registers are still empty.
+         */
+        if (estimate <= 2.5 * m && zeros > 0) {
+
+            estimate = m * Math.log(m / zeros);
+        }
+
+        return Math.min(Math.round(estimate), count - nulls);
+    }
+
+    /**
+     * Estimates a quantile of the values.
+     *
+     * @param q The quantile, between 0 and 1 (0.5 is the median).
+     * @return The value, displayed in the same way as the column's values,
+     *   or null if the column is text or has no non-NULL values.
+     */
+    public String getQuantile(double q) {
+
+        if (kind == Kind.TEXT || sampleSize == 0) {
+
+            return null;
+        }
+
+        double []sorted = Arrays.copyOf(sample, sampleSize);
+        Arrays.sort(sorted);
+        double value = sorted[(int) Math.round(q * (sampleSize - 1))];
+
+        if (kind == Kind.TEMPORAL) {
+
+            return dateFormat.format(new Date((long) value));
+        }
+
+        if (integral && Math.abs(value) < 1e15) {
+
+            return Long.toString((long) value);
+        }
+
+        return BigDecimal.valueOf(value).stripTrailingZeros().toPlainString();
+    }
+
+    /**
+     * Returns the most frequent values. If the column had more distinct
+     * values than could be tracked (see {@link #isTopExact()}) the counts
+     * are lower bounds and values seen only once aren't returned, as they
+     * can't be told apart from values that are merely recent.
+     *
+     * @param n The number of values to return.
+     * @return Up to n values, most frequent first, with their counts.
+     */
+    public List<Map.Entry<String, Long>> getTop(int n) {
+
+        List<Map.Entry<String, long[]>> entries =
+            new ArrayList<Map.Entry<String, long[]>>(top.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, long[]>>() {
+
+            @Override
+            public int compare(Map.Entry<String, long[]> e1,
+                    Map.Entry<String, long[]> e2) {
+
+                long diff = e2.getValue()[0] - e1.getValue()[0];
+                if (diff != 0L) {
+
+                    return diff < 0 ? -1 : 1;
+                }
+
+                return e1.getKey().compareTo(e2.getKey());
+            }
+        });
+
+        List<Map.Entry<String, Long>> result =
+            new ArrayList<Map.Entry<String, Long>>();
+        for (int i = 0; i < entries.size() && result.size() < n; i++) {
+
+            Map.Entry<String, long[]> e = entries.get(i);
+            if (isTopExact() || e.getValue()[0] > 1L) {
+
+                result.add(new AbstractMap.SimpleEntry<String, Long>(
+                    e.getKey(), e.getValue()[0]));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * @return true if the counts returned by {@link #getTop(int)} are
+     *   exact, false if they are lower bounds.
+     */
+    public boolean isTopExact() {
+
+        return decrements == 0L;
+    }
+
+    /*
+     * Tracks the value of a number or a date, falling back to treating the
+     * column as text if the value can't be parsed.
+     */
+    private void addValue(String kept, String value) {
+
+        if (kind == Kind.TEMPORAL && ordered) {
+
+            /*
+             * The text sorts in time order, so only the values that make
+             * it into the sample need to be parsed.
+             */
+            minValueText = minText;
+            maxValueText = maxText;
+
+            int slot = reserveSample();
+            if (slot >= 0) {
+
+                Date date = parseDate(value);
+                if (date == null) {
+
+                    toText();
+                    return;
+                }
+
+                sample[slot] = date.getTime();
+            }
+
+            return;
+        }
+
+        double val;
+        if (kind == Kind.NUMBER) {
+
+            try {
+
+                val = Double.parseDouble(value.trim());
+            }
+            catch (NumberFormatException e) {
+
+                toText();
+                return;
+            }
+
+            if (integral && (val != Math.rint(val)
+                || value.indexOf('.') >= 0 || value.indexOf('E') >= 0
+                || value.indexOf('e') >= 0)) {
+
+                integral = false;
+            }
+        }
+        else {
+
+            Date date = parseDate(value);
+            if (date == null) {
+
+                toText();
+                return;
+            }
+
+            val = date.getTime();
+        }
+
+        if (minValueText == null || val < minValue) {
+
+            minValue = val;
+            minValueText = kept;
+        }
+        if (maxValueText == null || val > maxValue) {
+
+            maxValue = val;
+            maxValueText = kept;
+        }
+
+        int slot = reserveSample();
+        if (slot >= 0) {
+
+            sample[slot] = val;
+        }
+    }
+
+    /*
+     * Algorithm R: the n'th value replaces a random member of a full
+     * sample with probability SAMPLE_SIZE/n. Returns the slot that the
+     * value goes in, or -1 if it isn't kept.
+     */
+    private int reserveSample() {
+
+        ++sampled;
+        if (sampleSize < SAMPLE_SIZE) {
+
+            return sampleSize++;
+        }
+
+        long slot = (long) (random.nextDouble() * sampled);
+        return slot < SAMPLE_SIZE ? (int) slot : -1;
+    }
+
+    private Date parseDate(String value) {
+
+        ParsePosition pos = new ParsePosition(0);
+        Date date = dateFormat.parse(value, pos);
+        return pos.getIndex() == value.length() ? date : null;
+    }
+
+    private void toText() {
+
+        kind = Kind.TEXT;
+        sample = null;
+        sampleSize = 0;
+    }
+
+    /*
+     * Misra-Gries: while there is room every value gets a counter; a new
+     * value arriving when there is no room instead takes one away from
+     * every counter, dropping those that reach zero. Any value occurring
+     * in more than 1/TOP_SIZE of the rows is sure to still be counted.
+     */
+    private void addTop(String value) {
+
+        long []counter = top.get(value);
+        if (counter != null) {
+
+            ++counter[0];
+            return;
+        }
+
+        if (top.size() < TOP_SIZE) {
+
+            top.put(value, new long[] { 1L });
+            return;
+        }
+
+        ++decrements;
+        Iterator<long[]> iter = top.values().iterator();
+        while (iter.hasNext()) {
+
+            if (--iter.next()[0] == 0L) {
+
+                iter.remove();
+            }
+        }
+    }
+
+    /*
+     * Whether a date format is made up only of fixed width fields running
+     * from the year down to the millisecond (such as yyyy-MM-dd HH:mm:ss),
+     * in which case its text sorts in the same order as the times.
+     */
+    private static boolean isOrdered(DateFormat format) {
+
+        if (!(format instanceof SimpleDateFormat)) {
+
+            return false;
+        }
+
+        String pattern = ((SimpleDateFormat) format).toPattern();
+        String fields = "yMdHmsS";
+        int last = -1;
+        int len = pattern.length();
+        int i = 0;
+
+        while (i < len) {
+
+            char ch = pattern.charAt(i);
+            if (ch == '\'') {
+
+                return false;
+            }
+
+            int end = i + 1;
+            while (end < len && pattern.charAt(end) == ch) {
+
+                ++end;
+            }
+
+            if (Character.isLetter(ch)) {
+
+                int field = fields.indexOf(ch);
+                int width = (ch == 'y' ? 4 : (ch == 'S' ? 3 : 2));
+                if (field <= last || end - i != width) {
+
+                    return false;
+                }
+
+                last = field;
+            }
+
+            i = end;
+        }
+
+        return last >= 0;
+    }
+
+    /*
+     * 64-bit FNV-1a followed by the MurmurHash3 finalizer, so that the
+     * leading bits used to pick a register are well mixed.
+     */
+    private static long hash(String value) {
+
+        return HashUtils.mix(HashUtils.fnv1a(0L, value));
+    }
+}
@@ -17,11 +17,9 @@ package org.sqsh.renderers;
 
 import java.awt.BorderLayout;
 import java.awt.Font;
-import java.awt.event.MouseAdapter;
-import java.awt.event.MouseEvent;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.Vector;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.IOException;
 
 import javax.swing.JFrame;
 import javax.swing.JLabel;
@@ -29,27 +27,26 @@ import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JTable;
 import javax.swing.ScrollPaneConstants;
-import javax.swing.event.TableModelEvent;
-import javax.swing.table.DefaultTableModel;
 import javax.swing.table.JTableHeader;
-import javax.swing.table.TableColumn;
-import javax.swing.table.TableColumnModel;
 
 import org.sqsh.ColumnDescription;
 import org.sqsh.Renderer;
 import org.sqsh.RendererManager;
 import org.sqsh.Session;
+import org.sqsh.util.RowSpool;
 import org.sqsh.variables.DimensionVariable;
 import org.sqsh.variables.FontVariable;
 
 /**
  * The GraphicalRenderer displays row results using a swing graphical
- * interface.
+ * interface. Rows are not held in memory, but are written to a 
+ * {@link RowSpool} as they arrive, and the table only reads back the rows
+ * that are actually being looked at (see {@link SpooledTableModel}).
  */
 public class GraphicalRenderer
     extends Renderer {
     
-    private SortableTableModel tableModel;
+    private SpooledTableModel tableModel;
     private JPanel topPanel;
     
     /**
@@ -90,10 +87,35 @@ public class GraphicalRenderer
             height = v.getHeight();
         }
 
+        RowSpool spool;
+        try {
+            
+            spool = new RowSpool();
+        }
+        catch (IOException e) {
+            
+            session.err.println("Unable to create spool file for results: "
+                + e.getMessage());
+            return;
+        }
+
+        tableModel = new SpooledTableModel(spool, columns,
+            session.getDataFormatter().getNull());
+        final SpooledTableModel model = tableModel;
+
         JFrame frame = new JFrame();
 
         // Set the frame characteristics
         frame.setTitle("Query Results");
+        frame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+        frame.addWindowListener(new WindowAdapter() {
+            
+            @Override
+            public void windowClosed(WindowEvent e) {
+                
+                model.close();
+            }
+        });
         frame.setSize(width, height);
         frame.setLocationByPlatform(true);
 
@@ -104,9 +126,6 @@ public class GraphicalRenderer
 
         // Create a new table instance
         JTable table = new JTable();
-
-        tableModel = new SortableTableModel(new String[0][], columns,
-                    session.getDataFormatter().getNull());   
         table.setModel(tableModel);
             
  
@@ -143,11 +162,32 @@ public class GraphicalRenderer
      * Adds a row to the panel.
      * 
      * @param row The row to add.
+     * @return false if the window has been closed, so the rest of the
+     *   results aren't wanted.
      */
     @Override
     public boolean row (String[] row) {
 
-        tableModel.addRow(row);
+        if (tableModel == null) {
+            
+            return false;
+        }
+        
+        try {
+            
+            if (!tableModel.addRow(row)) {
+                
+                tableModel = null;
+                return false;
+            }
+        }
+        catch (IOException e) {
+            
+            session.err.println("Unable to write to result spool: "
+                + e.getMessage());
+            tableModel = null;
+            return false;
+        }
         
         return true;
     }
@@ -175,156 +215,4 @@ public class GraphicalRenderer
 
         return true;
     }
-    
-    private static class SortableTableModel
-        extends DefaultTableModel {
-        
-        private static final long serialVersionUID = 1L;
-        private ColumnDescription []columns;
-        private int sortedColumn = -1;
-        private String nullRepresentation;
-        private boolean isAscending = false;
-        
-        public SortableTableModel(String [][]data,
-                ColumnDescription []columns,
-                String nullRepresentation) {
-            
-            super(data, columns);
-  
-            this.columns = columns;
-            
-            this.nullRepresentation = nullRepresentation;
-        }
- 
-        private class ColumnListener
-            extends MouseAdapter {
-
-            protected JTable table;
-
-            public ColumnListener(JTable t) {
-
-                table = t;
-            }
-
-            public void mouseClicked (MouseEvent e) {
-
-                TableColumnModel colModel = table.getColumnModel();
-                int columnModelIndex = colModel.getColumnIndexAtX(e.getX());
-                int modelIndex = colModel.getColumn(columnModelIndex)
-                        .getModelIndex();
-
-                if (modelIndex < 0) {
-
-                    return;
-                }
-
-                if (sortedColumn == modelIndex) {
-
-                    isAscending = !isAscending;
-                }
-                else {
-
-                    sortedColumn = modelIndex;
-                    isAscending = true;
-                }
-
-                for (int i = 0; i < getColumnCount(); i++) {
-
-                    TableColumn column = colModel.getColumn(i);
-                    column.setHeaderValue(getColumnName(
-                        column.getModelIndex()));
-                }
-
-                table.getTableHeader().repaint();
-
-                ColumnDescription des = columns[modelIndex];
-                
-                Collections.sort(getDataVector(), 
-                        new ColumnComparator(modelIndex,
-                    isAscending,  des, nullRepresentation));
-                
-                table.tableChanged(new TableModelEvent(
-                    SortableTableModel.this));
-                table.repaint();
-            }
-        }
-    }
-    
-    private static class ColumnComparator
-        implements Comparator<Vector<String>> {
-        
-        private int idx;
-        private boolean isAscending;
-        private ColumnDescription columnDescription;
-        String nullRepresentation;
-        
-        public ColumnComparator (int idx,
-                boolean isAscending,
-                ColumnDescription columnDescription,
-                String nullRepresentation) {
-            
-            this.idx = idx;
-            this.isAscending = isAscending;
-            this.columnDescription = columnDescription;
-            this.nullRepresentation = nullRepresentation;
-        }
-
-        public int compare (Vector<String> o1, Vector<String> o2) {
-            
-            Vector<String> row1 = o1;
-            Vector<String> row2 = o2;
-            int r = 0;
-            
-            /*
-             * First handle the case of nulls. We treat null as the
-             * "lowest" sort.
-             */
-            if (nullRepresentation.equals(row1.get(idx))) {
-                
-                if (nullRepresentation.equals(row2.get(idx))) {
-                    
-                    r = 0;
-                }
-                
-                r = -1;
-            }
-            else if (nullRepresentation.equals(row2.get(idx))) {
-                
-                r = 1;
-            }
-            else if (columnDescription.getType()
-                    == ColumnDescription.Type.NUMBER) {
-                
-                double diff =  Double.parseDouble(row2.get(idx))
-                    - Double.parseDouble(row1.get(idx));
-                
-                if (diff < 0) {
-                    
-                    r = -1;
-                }
-                else if (diff > 0) {
-                    
-                    r = 1;
-                }
-                else {
-                
-                    r = 0;
-                }
-            }
-            else {
-                
-                r = row1.get(idx).compareTo(row2.get(idx));
-            }
-            
-            if (r != 0) {
-                
-                if (!isAscending) {
-                    
-                    r = -(r);
-                }
-            }
-            
-            return r;
-        }
-    }
 }
@@ -20,6 +20,7 @@ import java.util.List;
 
 import org.sqsh.ColumnDescription;
 import org.sqsh.RendererManager;
+import org.sqsh.ResultPager;
 import org.sqsh.Session;
 
 /**
@@ -58,8 +59,7 @@ public class PerfectPrettyRenderer
      */
     public PerfectPrettyRenderer(Session session, RendererManager renderMan) {
         
-        super(session, renderMan, true);
-        sampleSize = renderMan.getPerfectSampleSize();
+        this(session, renderMan, true);
     }
 
     protected PerfectPrettyRenderer(Session session, RendererManager renderMan,
@@ -67,6 +67,18 @@ public class PerfectPrettyRenderer
 
         super(session, renderMan, hasOuterBorder);
         sampleSize = renderMan.getPerfectSampleSize();
+        
+        /*
+         * If the output is being paged, then holding back more than a
+         * screen of rows to size the columns would defeat the purpose of
+         * only fetching rows as the user asks for them.
+         */
+        ResultPager pager = session.getResultPager();
+        if (pager != null
+            && (sampleSize <= 0 || sampleSize > pager.getPageLines())) {
+            
+            sampleSize = pager.getPageLines();
+        }
     }
 
     @Override
@@ -20,6 +20,7 @@ import org.sqsh.Renderer;
 import org.sqsh.RendererManager;
 import org.sqsh.Session;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
@@ -59,8 +60,11 @@ import java.util.*;
  * | Thu       |  [NULL] |   [NULL] | 17.10000 |
  * +-----------+---------+----------+----------+
  * </pre>
- * In order to do this, it is important to note that the PivotRenderer must buffer
- * all of the data for the final table in memory before display!
+ * When more than one row lands in the same cell of the final table, the
+ * values are combined using a {@link PivotTable.Aggregate} (by default the
+ * last value wins). The data for the final table is held by a
+ * {@link PivotTable}, which will spill to disk if it grows beyond
+ * {@link RendererManager#getCrosstabMaxMemory()} megabytes.
  */
 public class PivotRenderer extends Renderer {
 
@@ -76,41 +80,33 @@ public class PivotRenderer extends Renderer {
     private String dataColName;
     private boolean isOk = true;
 
-    // The actual underlying table of data in [row][column] order
-    private String[][] table;
-    // Maps a value in the row (vertical) column header to which row in the
-    // final table contains the values
-    private Map<String, Integer> valueToRowIdx = new LinkedHashMap<>();
-    // Maps a value in the column (horizontal) header to which row in the
-    // final table contains the values
-    private Map<String, Integer> valueToColIdx = new HashMap<>();
-    // Number of columns in the results
-    private int nColumns;
-    // Column descriptors for each column header in the final table
-    private ColumnInfo []descriptions;
+    // How values in the same cell are combined
+    private PivotTable.Aggregate aggregate;
+    // The actual underlying table of data
+    private PivotTable table;
+    // Description of the column that provides the row (vertical) headers
+    private ColumnDescription vertColumnDescription;
     // The original column descriptor for the column chosen as the
-    // horizontal column header. A copy of this is made each time a new
-    // column is added to the final table.
+    // data column. A copy of this is made for each column in the final table.
     private ColumnDescription valueColumnDescription;
 
-    private static class ColumnInfo {
-
-        // Index of the column in the table[row][column] array
-        public int idx;
-        // Description of the column
-        public ColumnDescription desc;
-
-        public ColumnInfo(ColumnDescription desc, int idx, String name) {
-
-            this.desc = new ColumnDescription(
-                    name,
-                    desc.getWidth(),
-                    desc.getAlignment(),
-                    desc.getOverflowBehavior(),
-                    desc.isResizeable());
+    /**
+     * Creates the pivot renderer
+     * @param session The session running the query
+     * @param renderMan The renderer manager
+     * @param out A renderer that performs the actual final display of the results
+     *            that the pivot renderer produces
+     * @param vertColName The name or number (indexed from 1) of the column that
+     *            will produce the row headers
+     * @param horizColName The name or number of the column that will produce the
+     *            horizontal column headers
+     * @param dataColName The column that will provide the data for the final table.
+     */
+    public PivotRenderer(Session session, RendererManager renderMan,
+        Renderer out, String vertColName, String horizColName, String dataColName) {
 
-            this.idx = idx;
-        }
+        this(session, renderMan, out, vertColName, horizColName, dataColName,
+            PivotTable.Aggregate.LAST);
     }
 
     /**
@@ -124,9 +120,11 @@ public class PivotRenderer extends Renderer {
      * @param horizColName The name or number of the column that will produce the
      *            horizontal column headers
      * @param dataColName The column that will provide the data for the final table.
+     * @param aggregate How multiple values for the same cell are combined
      */
     public PivotRenderer(Session session, RendererManager renderMan,
-        Renderer out, String vertColName, String horizColName, String dataColName) {
+        Renderer out, String vertColName, String horizColName, String dataColName,
+        PivotTable.Aggregate aggregate) {
 
         super(session, renderMan);
 
@@ -134,6 +132,7 @@ public class PivotRenderer extends Renderer {
         this.vertColName = vertColName;
         this.horizColName = horizColName;
         this.dataColName = dataColName;
+        this.aggregate = aggregate;
     }
 
     @Override
@@ -147,16 +146,33 @@ public class PivotRenderer extends Renderer {
         // If any of the column's were not found, then don't try to display anything
         // during this round of results.
         isOk = (vertColNum >= 0 && horizColNum >= 0 && dataColNum >= 0);
-        valueToRowIdx.clear();
-        valueToColIdx.clear();
-        nColumns = 1;
-        table = null;
+
+        if (table != null) {
+
+            table.clear();
+            table = null;
+        }
 
         if (isOk) {
 
             valueColumnDescription = columns[dataColNum];
-            descriptions = new ColumnInfo[1];
-            descriptions[0] = new ColumnInfo(columns[vertColNum], 0, columns[vertColNum].getName());
+            vertColumnDescription = columns[vertColNum];
+
+            boolean isNumeric =
+                (valueColumnDescription.getType() == ColumnDescription.Type.NUMBER);
+            if (aggregate.isNumeric() && !isNumeric) {
+
+                session.err.println("The " + aggregate.name().toLowerCase()
+                    + " aggregate requires a numeric data column. Column \""
+                    + valueColumnDescription.getName() + "\" is not numeric");
+                isOk = false;
+                return;
+            }
+
+            table = new PivotTable(aggregate, isNumeric,
+                session.getDataFormatter().getNull(),
+                manager.getCrosstabMaxMemory() * 1024L * 1024L,
+                session.getDataFormatter().getScale());
         }
     }
 
@@ -169,30 +185,18 @@ public class PivotRenderer extends Renderer {
             return false;
         }
 
-        Integer rowId = valueToRowIdx.get(row[vertColNum]);
-        if (rowId == null) {
-
-            Integer colId = valueToColIdx.get(row[horizColNum]);
-            if (colId == null) {
+        try {
 
-                addNewRowAndColumn(row[vertColNum], row[horizColNum], row[dataColNum]);
-            }
-            else {
-
-                addNewRow(row[vertColNum], colId, row[dataColNum]);
-            }
+            table.add(row[vertColNum], row[horizColNum], row[dataColNum]);
         }
-        else {
+        catch (IOException e) {
 
-            Integer colId = valueToColIdx.get(row[horizColNum]);
-            if (colId == null) {
-
-                addColumnToExistingRow(rowId, row[horizColNum], row[dataColNum]);
-            }
-            else {
-
-                setValueForRowAndColumn(rowId, colId, row[dataColNum]);
-            }
+            session.err.println("Failed to spill crosstab to disk: "
+                + e.getMessage());
+            table.clear();
+            table = null;
+            isOk = false;
+            return false;
         }
 
         return true;
@@ -212,131 +216,112 @@ public class PivotRenderer extends Renderer {
             return false;
         }
 
-        if (table != null) {
-
-            Arrays.sort(descriptions, 1, descriptions.length, new Comparator<ColumnInfo>() {
+        if (table != null && table.getRowCount() > 0) {
 
-                @Override
-                public int compare(ColumnInfo o1, ColumnInfo o2) {
-
-                    return o1.desc.getName().compareTo(o2.desc.getName());
-                }
-            });
+            try {
 
-            ColumnDescription []cols = new ColumnDescription[descriptions.length];
-            for (int i = 0; i < descriptions.length; i++) {
-
-                cols[i] = descriptions[i].desc;
+                return display();
             }
+            catch (IOException e) {
 
-            out.header(cols);
-
-
-            for (int i = 0; i < table.length; i++) {
-
-                String[] row = new String[nColumns];
-                String[] currentRow = table[i];
-                for (int j = 0; j < descriptions.length; j++) {
-                    int idx = descriptions[j].idx;
-                    if (idx < currentRow.length) {
+                session.err.println("Failed to read crosstab from disk: "
+                    + e.getMessage());
+                return false;
+            }
+            finally {
 
-                        row[j] = currentRow[idx];
-                    }
-                    else {
+                if (table.getIgnoredCount() > 0) {
 
-                        row[idx] = null;
-                    }
+                    session.err.println("WARNING: " + table.getIgnoredCount()
+                        + " non-numeric value(s) were ignored by the "
+                        + aggregate.name().toLowerCase() + " aggregate");
                 }
 
-                out.row(row);
+                table.clear();
+                table = null;
             }
-
-            table = null;
-            return out.flush();
         }
 
         return true;
     }
 
-    private void setValueForRowAndColumn(int rowId, int colId, String value) {
+    /**
+     * Sends the final table to the output renderer.
+     *
+     * @return The result of flushing the output renderer.
+     * @throws IOException If the table could not be read from disk
+     */
+    private boolean display()
+        throws IOException {
 
-        String[] row = table[rowId];
-        if (colId >= row.length) {
+        final List<String> columnKeys = table.getColumnKeys();
+        Integer []order = new Integer[columnKeys.size()];
+        for (int i = 0; i < order.length; i++) {
 
-            String[] newRow = new String[nColumns];
-            System.arraycopy(row, 0, newRow, 0, row.length);
-            row = newRow;
-            table[rowId] = row;
+            order[i] = i;
         }
 
-        row[colId] = value;
-    }
+        Arrays.sort(order, new Comparator<Integer>() {
 
-    private void addNewRowAndColumn(String rowHeader, String columnHeader, String value) {
+            @Override
+            public int compare(Integer o1, Integer o2) {
 
-        int colNum = addColumn(columnHeader);
-        String[] row = new String[nColumns];
-        row[0] = rowHeader;
-        row[colNum] = value;
-
-        addRow(row);
-    }
-
-    private void addNewRow(String rowHeader, int colIdx, String value) {
-
-        String[] row = new String[nColumns];
-        row[0] = rowHeader;
-        row[colIdx] = value;
-        addRow(row);
-    }
+                return columnKeys.get(o1).compareTo(columnKeys.get(o2));
+            }
+        });
 
-    private void addColumnToExistingRow(int rowIdx, String columnName, String value) {
+        ColumnDescription []cols = new ColumnDescription[order.length + 1];
+        cols[0] = copyDescription(vertColumnDescription,
+            vertColumnDescription.getName());
+        for (int i = 0; i < order.length; i++) {
 
-        String[] existingRow = table[rowIdx];
+            cols[i + 1] = copyDescription(valueColumnDescription,
+                columnKeys.get(order[i]));
+        }
 
-        // New column number we have assigned
-        int colNum = addColumn(columnName);
+        out.header(cols);
 
-        // Add the column in the data
-        String[] newRow = new String[nColumns];
-        System.arraycopy(existingRow, 0, newRow, 0, existingRow.length);
-        newRow[colNum] = value;
-        table[rowIdx] = newRow;
-    }
+        final int []columnIdx = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
 
-    private int addColumn(String columnName) {
+            columnIdx[i] = order[i];
+        }
 
-        int newIdx = nColumns++;
+        final boolean []ok = new boolean[] { true };
+        table.read(new PivotTable.RowHandler() {
 
-        // Add the column definition
-        ColumnInfo[] newDescs = new ColumnInfo[descriptions.length+1];
-        System.arraycopy(descriptions, 0, newDescs, 0, descriptions.length);
-        newDescs[descriptions.length] = new ColumnInfo(valueColumnDescription, newIdx, columnName);
-        descriptions = newDescs;
+            @Override
+            public boolean row(String rowKey, String[] cells) {
 
-        valueToColIdx.put(columnName, newIdx);
-        return newIdx;
-    }
+                String []row = new String[columnIdx.length + 1];
+                row[0] = rowKey;
+                for (int i = 0; i < columnIdx.length; i++) {
 
-    private void addRow(String[] newRow) {
+                    row[i + 1] = cells[columnIdx[i]];
+                }
 
-        int idx = 0;
+                ok[0] = out.row(row);
+                return ok[0];
+            }
+        });
 
-        if (table == null) {
+        if (! ok[0]) {
 
-            table = new String[1][];
-            table[idx] = newRow;
+            return false;
         }
-        else {
 
-            idx = table.length;
-            String newTable[][] = new String[table.length+1][];
-            System.arraycopy(table, 0, newTable, 0, table.length);
-            newTable[idx] = newRow;
-            table = newTable;
-        }
+        return out.flush();
+    }
 
-        valueToRowIdx.put(newRow[0], idx);
+    private static ColumnDescription copyDescription(ColumnDescription desc,
+            String name) {
+
+        return new ColumnDescription(
+            name,
+            desc.getWidth(),
+            desc.getAlignment(),
+            desc.getOverflowBehavior(),
+            desc.isResizeable());
     }
 
     private int findColumn(ColumnDescription []columns, String name) {
@@ -384,32 +369,4 @@ public class PivotRenderer extends Renderer {
 
         return true;
     }
-
-    private void dumpTable() {
-
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < descriptions.length; i++) {
-
-            if (i > 0) {
-
-                sb.append(",");
-            }
-            sb.append(descriptions[i].desc.getName());
-        }
-        System.out.println(sb.toString());
-
-        for (int i = 0; i < table.length; i++) {
-
-            sb.setLength(0);
-            for (int j = 0; j < table[i].length; j++) {
-
-                if (j > 0) {
-
-                    sb.append(",");
-                }
-                sb.append(table[i][j]);
-            }
-            System.out.println(sb.toString());
-        }
-    }
 }
@@ -0,0 +1,847 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh.renderers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.text.DecimalFormatSymbols;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.sqsh.format.NumberFormatter;
+
+/**
+ * The storage engine behind the {@link PivotRenderer}. Values are added
+ * to the table by their row key (the value of the vertical column) and
+ * column key (the value of the horizontal column); when more than one
+ * value lands in the same cell they are combined with an {@link Aggregate}.
+ *
+ * <p>Row and column keys are mapped to indexes through hash tables and
+ * cells are kept in arrays that grow geometrically, so adding a value is
+ * constant time regardless of the size of the table. Values of a numeric
+ * data column are kept as {@link BigDecimal}'s so that they can be
+ * aggregated exactly. Note that the values are aggregated in the form in
+ * which they are displayed, so floating point values have already been
+ * rounded to the display scale.
+ *
+ * <p>The keys of the table are always kept in memory, but if the estimated
+ * size of the cells exceeds a memory budget then the cells are written
+ * (spilled) to a temporary file, in row order, and memory is cleared. When
+ * the table is read back, the spilled runs are merged together, combining
+ * partial aggregates for the same cell.
+ */
+public class PivotTable {
+
+    /**
+     * How values that land in the same cell are combined.
+     */
+    public static enum Aggregate {
+
+        /** The last value seen is kept */
+        LAST,
+        /** The sum of the (non-null) values */
+        SUM,
+        /** The number of non-null values */
+        COUNT,
+        /** The smallest value */
+        MIN,
+        /** The largest value */
+        MAX,
+        /** The average of the (non-null) values */
+        AVG;
+
+        /**
+         * Looks up an aggregate by name.
+         *
+         * @param name The name (case insensitive)
+         * @return The aggregate or null if there is no such aggregate
+         */
+        public static Aggregate forName(String name) {
+
+            for (Aggregate agg : values()) {
+
+                if (agg.name().equalsIgnoreCase(name)) {
+
+                    return agg;
+                }
+            }
+
+            return null;
+        }
+
+        /**
+         * @return true if the aggregate requires numeric values
+         */
+        public boolean isNumeric() {
+
+            return this == SUM || this == AVG;
+        }
+    }
+
+    /**
+     * Receives rows as they are read from the table.
+     */
+    public static interface RowHandler {
+
+        /**
+         * Called for each row in the table, in the order in which the row
+         * key was first added to the table.
+         *
+         * @param rowKey The key for the row
+         * @param cells The cells of the row, indexed by column number.
+         *   Cells to which no value was ever added are null.
+         * @return false to stop reading rows
+         */
+        boolean row(String rowKey, String []cells);
+    }
+
+    /*
+     * Marker for a cell containing a NULL value, as opposed to a cell that
+     * has never had a value.
+     */
+    private static final Object NULL = new Object();
+
+    /*
+     * Tags used to identify the type of a cell in a spill file.
+     */
+    private static final byte TAG_NULL    = 0;
+    private static final byte TAG_STRING  = 1;
+    private static final byte TAG_DECIMAL = 2;
+    private static final byte TAG_LONG    = 3;
+    private static final byte TAG_AVERAGE = 4;
+
+    /*
+     * Rough guess of how much memory a cell consumes, beyond the size of its
+     * value. This does not need to be precise, it just needs to be in the
+     * ballpark.
+     */
+    private static final int CELL_OVERHEAD = 16;
+
+    private Aggregate aggregate;
+    private boolean numeric;
+    private String nullValue;
+    private long maxMemory;
+    private int avgScale;
+    private char decimalSeparator;
+
+    private Map<String, Integer> rowIndex = new HashMap<String, Integer>();
+    private List<String> rowKeys = new ArrayList<String>();
+    private Map<String, Integer> columnIndex = new HashMap<String, Integer>();
+    private List<String> columnKeys = new ArrayList<String>();
+
+    /*
+     * The cells, [row][column]. Both dimensions are over-allocated and grow
+     * by doubling.
+     */
+    private Object [][]cells = new Object[16][];
+
+    private long memoryUsed = 0L;
+    private List<File> runs = new ArrayList<File>();
+    private int ignoredCount = 0;
+    private Map<Integer, NumberFormatter> formatters =
+        new HashMap<Integer, NumberFormatter>();
+
+    /**
+     * Creates a table.
+     *
+     * @param aggregate How values in the same cell are combined
+     * @param numeric If true, the values added to the table are the
+     *   display form of numbers.
+     * @param nullValue The display form of a NULL value
+     * @param maxMemory The number of bytes the cells may consume before
+     *   being spilled to disk. A value <= 0 indicates no limit.
+     * @param avgScale Minimum number of decimal places displayed for an
+     *   average.
+     */
+    public PivotTable(Aggregate aggregate, boolean numeric, String nullValue,
+            long maxMemory, int avgScale) {
+
+        this.aggregate = aggregate;
+        this.numeric = numeric;
+        this.nullValue = nullValue;
+        this.maxMemory = maxMemory;
+        this.avgScale = avgScale;
+        this.decimalSeparator =
+            DecimalFormatSymbols.getInstance().getDecimalSeparator();
+    }
+
+    /**
+     * @return The keys of the columns in the table, in column order
+     */
+    public List<String> getColumnKeys() {
+
+        return columnKeys;
+    }
+
+    /**
+     * @return The number of rows in the table
+     */
+    public int getRowCount() {
+
+        return rowKeys.size();
+    }
+
+    /**
+     * @return The number of times the table has been spilled to disk
+     */
+    public int getSpillCount() {
+
+        return runs.size();
+    }
+
+    /**
+     * @return The number of values that were ignored because they were
+     *   not numbers and the aggregate required a number.
+     */
+    public int getIgnoredCount() {
+
+        return ignoredCount;
+    }
+
+    /**
+     * Adds a value to the table.
+     *
+     * @param rowKey The key of the row
+     * @param columnKey The key of the column
+     * @param value The value. This may be the display form of NULL.
+     * @throws IOException If the table needed to spill to disk and failed
+     */
+    public void add(String rowKey, String columnKey, String value)
+        throws IOException {
+
+        Integer rowIdx = rowIndex.get(rowKey);
+        if (rowIdx == null) {
+
+            rowIdx = rowKeys.size();
+            rowKeys.add(rowKey);
+            rowIndex.put(rowKey, rowIdx);
+
+            if (rowIdx == cells.length) {
+
+                cells = Arrays.copyOf(cells, cells.length * 2);
+            }
+        }
+
+        Integer colIdx = columnIndex.get(columnKey);
+        if (colIdx == null) {
+
+            colIdx = columnKeys.size();
+            columnKeys.add(columnKey);
+            columnIndex.put(columnKey, colIdx);
+        }
+
+        Object []row = cells[rowIdx];
+        if (row == null) {
+
+            row = new Object[Math.max(4, colIdx + 1)];
+            cells[rowIdx] = row;
+            memoryUsed += CELL_OVERHEAD + (row.length * 4);
+        }
+        else if (colIdx >= row.length) {
+
+            int newLength = Math.max(colIdx + 1, row.length * 2);
+            memoryUsed += (newLength - row.length) * 4;
+            row = Arrays.copyOf(row, newLength);
+            cells[rowIdx] = row;
+        }
+
+        Object state = row[colIdx];
+        Object newState = add(state, toValue(value));
+        row[colIdx] = newState;
+
+        if (state == null) {
+
+            memoryUsed += CELL_OVERHEAD + sizeOf(newState);
+        }
+
+        if (maxMemory > 0 && memoryUsed > maxMemory) {
+
+            spill();
+        }
+    }
+
+    /**
+     * Reads the rows of the table.
+     *
+     * @param handler Receives each row
+     * @throws IOException If spilled data could not be read
+     */
+    public void read(RowHandler handler)
+        throws IOException {
+
+        final int nColumns = columnKeys.size();
+
+        if (runs.isEmpty()) {
+
+            for (int i = 0; i < rowKeys.size(); i++) {
+
+                String []out = new String[nColumns];
+                Object []row = cells[i];
+                if (row != null) {
+
+                    for (int c = 0; c < row.length && c < nColumns; c++) {
+
+                        if (row[c] != null) {
+
+                            out[c] = toString(row[c]);
+                        }
+                    }
+                }
+
+                if (!handler.row(rowKeys.get(i), out)) {
+
+                    return;
+                }
+            }
+
+            return;
+        }
+
+        /*
+         * Put whatever is still in memory out to disk so everything can
+         * be merged together.
+         */
+        spill();
+
+        PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>();
+        try {
+
+            for (int i = 0; i < runs.size(); i++) {
+
+                RunReader reader = new RunReader(runs.get(i), i);
+                if (reader.next()) {
+
+                    queue.add(reader);
+                }
+                else {
+
+                    reader.close();
+                }
+            }
+
+            while (!queue.isEmpty()) {
+
+                RunReader reader = queue.poll();
+                int rowIdx = reader.rowIdx;
+                Object []row = new Object[nColumns];
+
+                /*
+                 * The queue is ordered by row and then by run, so partial
+                 * results for the row are combined in the order in which
+                 * they were originally added.
+                 */
+                while (true) {
+
+                    for (int i = 0; i < reader.count; i++) {
+
+                        int c = reader.columns[i];
+                        row[c] = (row[c] == null)
+                            ? reader.states[i] : merge(row[c], reader.states[i]);
+                    }
+
+                    if (reader.next()) {
+
+                        queue.add(reader);
+                    }
+                    else {
+
+                        reader.close();
+                    }
+
+                    if (queue.isEmpty() || queue.peek().rowIdx != rowIdx) {
+
+                        break;
+                    }
+
+                    reader = queue.poll();
+                }
+
+                String []out = new String[nColumns];
+                for (int c = 0; c < nColumns; c++) {
+
+                    if (row[c] != null) {
+
+                        out[c] = toString(row[c]);
+                    }
+                }
+
+                if (!handler.row(rowKeys.get(rowIdx), out)) {
+
+                    return;
+                }
+            }
+        }
+        finally {
+
+            for (RunReader reader : queue) {
+
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * Discards the contents of the table, including any spill files.
+     */
+    public void clear() {
+
+        for (File run : runs) {
+
+            run.delete();
+        }
+
+        runs.clear();
+        rowIndex.clear();
+        rowKeys.clear();
+        columnIndex.clear();
+        columnKeys.clear();
+        cells = new Object[16][];
+        memoryUsed = 0L;
+        ignoredCount = 0;
+    }
+
+    /**
+     * Writes all cells that are currently in memory to a new run file.
+     */
+    private void spill()
+        throws IOException {
+
+        File file = File.createTempFile("jsqsh_pivot", ".tmp");
+        file.deleteOnExit();
+        runs.add(file);
+
+        DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(file)));
+
+        try {
+
+            for (int r = 0; r < rowKeys.size(); r++) {
+
+                Object []row = cells[r];
+                if (row == null) {
+
+                    continue;
+                }
+
+                int count = 0;
+                for (int c = 0; c < row.length; c++) {
+
+                    if (row[c] != null) {
+
+                        ++count;
+                    }
+                }
+
+                out.writeInt(r);
+                out.writeInt(count);
+                for (int c = 0; c < row.length; c++) {
+
+                    if (row[c] != null) {
+
+                        out.writeInt(c);
+                        writeState(out, row[c]);
+                    }
+                }
+
+                cells[r] = null;
+            }
+
+            out.writeInt(-1);
+        }
+        finally {
+
+            out.close();
+        }
+
+        memoryUsed = 0L;
+    }
+
+    /**
+     * Converts the display form of a value into the form that is kept
+     * in a cell.
+     */
+    private Object toValue(String value) {
+
+        if (value == null || value.equals(nullValue)) {
+
+            return NULL;
+        }
+
+        /*
+         * The last value wins and count doesn't care what the value is, so
+         * there is no reason to take the hit of parsing.
+         */
+        if (numeric && aggregate != Aggregate.LAST && aggregate != Aggregate.COUNT) {
+
+            String str = value.trim();
+            if (decimalSeparator != '.') {
+
+                str = str.replace(decimalSeparator, '.');
+            }
+
+            try {
+
+                return new BigDecimal(str);
+            }
+            catch (NumberFormatException e) {
+
+                /* Fall through and treat it as a string */
+            }
+        }
+
+        return value;
+    }
+
+    /**
+     * Adds a value to the current state of a cell.
+     *
+     * @param state The current state (null if the cell is empty)
+     * @param value The value
+     * @return The new state
+     */
+    private Object add(Object state, Object value) {
+
+        switch (aggregate) {
+
+            case COUNT:
+                long count = (state == null) ? 0L : ((Long) state).longValue();
+                return Long.valueOf(value == NULL ? count : count + 1);
+
+            case AVG:
+                Average avg = (state == null) ? new Average() : (Average) state;
+                if (value instanceof BigDecimal) {
+
+                    avg.sum = avg.sum.add((BigDecimal) value);
+                    ++avg.count;
+                }
+                else if (value != NULL) {
+
+                    ++ignoredCount;
+                }
+                return avg;
+
+            case SUM:
+                if (value instanceof BigDecimal) {
+
+                    return (state == null || state == NULL)
+                        ? value : ((BigDecimal) state).add((BigDecimal) value);
+                }
+                if (value != NULL) {
+
+                    ++ignoredCount;
+                }
+                return (state == null) ? NULL : state;
+
+            case MIN:
+            case MAX:
+                if (value == NULL) {
+
+                    return (state == null) ? NULL : state;
+                }
+                if (state == null || state == NULL) {
+
+                    return value;
+                }
+
+                int cmp = compare(value, state);
+                if (aggregate == Aggregate.MIN) {
+
+                    return cmp < 0 ? value : state;
+                }
+                return cmp > 0 ? value : state;
+
+            default:
+                return value;
+        }
+    }
+
+    /**
+     * Combines two partial states for the same cell.
+     *
+     * @param a The state from earlier values
+     * @param b The state from later values
+     * @return The combined state
+     */
+    private Object merge(Object a, Object b) {
+
+        switch (aggregate) {
+
+            case COUNT:
+                return Long.valueOf(((Long) a).longValue() + ((Long) b).longValue());
+
+            case AVG:
+                Average avg = (Average) a;
+                avg.sum = avg.sum.add(((Average) b).sum);
+                avg.count += ((Average) b).count;
+                return avg;
+
+            default:
+                /*
+                 * For the rest, the state is just a value, so combining is
+                 * the same as adding the value.
+                 */
+                return add(a, b);
+        }
+    }
+
+    private static int compare(Object a, Object b) {
+
+        if (a instanceof BigDecimal && b instanceof BigDecimal) {
+
+            return ((BigDecimal) a).compareTo((BigDecimal) b);
+        }
+
+        return a.toString().compareTo(b.toString());
+    }
+
+    /**
+     * Converts the state of a cell into its display form.
+     */
+    private String toString(Object state) {
+
+        if (state == NULL) {
+
+            return nullValue;
+        }
+
+        if (state instanceof Average) {
+
+            Average avg = (Average) state;
+            if (avg.count == 0) {
+
+                return nullValue;
+            }
+
+            int scale = Math.max(avg.sum.scale(), avgScale);
+            return format(avg.sum.divide(BigDecimal.valueOf(avg.count),
+                scale, RoundingMode.HALF_EVEN));
+        }
+
+        if (state instanceof BigDecimal) {
+
+            return format((BigDecimal) state);
+        }
+
+        return state.toString();
+    }
+
+    /**
+     * Formats a number using the same formatter that would have been used
+     * to display it in the original result set.
+     */
+    private String format(BigDecimal value) {
+
+        int scale = Math.max(0, value.scale());
+        NumberFormatter formatter = formatters.get(scale);
+        if (formatter == null) {
+
+            formatter = new NumberFormatter(38, scale);
+            formatters.put(scale, formatter);
+        }
+
+        return formatter.format(value.setScale(scale));
+    }
+
+    private static long sizeOf(Object state) {
+
+        if (state instanceof String) {
+
+            return 40 + (((String) state).length() * 2);
+        }
+        else if (state instanceof BigDecimal) {
+
+            return 64;
+        }
+        else if (state instanceof Average) {
+
+            return 96;
+        }
+        else if (state instanceof Long) {
+
+            return 24;
+        }
+
+        return 0;
+    }
+
+    private static void writeState(DataOutputStream out, Object state)
+        throws IOException {
+
+        if (state == NULL) {
+
+            out.writeByte(TAG_NULL);
+        }
+        else if (state instanceof BigDecimal) {
+
+            out.writeByte(TAG_DECIMAL);
+            writeString(out, state.toString());
+        }
+        else if (state instanceof Long) {
+
+            out.writeByte(TAG_LONG);
+            out.writeLong(((Long) state).longValue());
+        }
+        else if (state instanceof Average) {
+
+            out.writeByte(TAG_AVERAGE);
+            writeString(out, ((Average) state).sum.toString());
+            out.writeLong(((Average) state).count);
+        }
+        else {
+
+            out.writeByte(TAG_STRING);
+            writeString(out, state.toString());
+        }
+    }
+
+    private static Object readState(DataInputStream in)
+        throws IOException {
+
+        byte tag = in.readByte();
+        switch (tag) {
+
+            case TAG_NULL:
+                return NULL;
+            case TAG_DECIMAL:
+                return new BigDecimal(readString(in));
+            case TAG_LONG:
+                return Long.valueOf(in.readLong());
+            case TAG_AVERAGE:
+                Average avg = new Average();
+                avg.sum = new BigDecimal(readString(in));
+                avg.count = in.readLong();
+                return avg;
+            default:
+                return readString(in);
+        }
+    }
+
+    /*
+     * DataOutputStream.writeUTF() is limited to 64k, which is too small
+     * for some values.
+     */
+    private static void writeString(DataOutputStream out, String str)
+        throws IOException {
+
+        byte []bytes = str.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in)
+        throws IOException {
+
+        byte []bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    /**
+     * State of a cell that is computing an average.
+     */
+    private static class Average {
+
+        BigDecimal sum = BigDecimal.ZERO;
+        long count = 0L;
+    }
+
+    /**
+     * Reads back the rows of a spill file, one at a time.
+     */
+    private static class RunReader
+        implements Comparable<RunReader> {
+
+        private DataInputStream in;
+        private int run;
+        int rowIdx;
+        int count;
+        int []columns = new int[16];
+        Object []states = new Object[16];
+
+        RunReader(File file, int run)
+            throws IOException {
+
+            this.in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+            this.run = run;
+        }
+
+        /**
+         * Reads the next row.
+         *
+         * @return false if there are no more rows
+         */
+        boolean next()
+            throws IOException {
+
+            rowIdx = in.readInt();
+            if (rowIdx < 0) {
+
+                return false;
+            }
+
+            count = in.readInt();
+            if (count > columns.length) {
+
+                columns = new int[count];
+                states = new Object[count];
+            }
+
+            for (int i = 0; i < count; i++) {
+
+                columns[i] = in.readInt();
+                states[i] = readState(in);
+            }
+
+            return true;
+        }
+
+        void close() {
+
+            try {
+
+                in.close();
+            }
+            catch (IOException e) {
+
+                /* IGNORED */
+            }
+        }
+
+        @Override
+        public int compareTo(RunReader o) {
+
+            if (rowIdx != o.rowIdx) {
+
+                return rowIdx < o.rowIdx ? -1 : 1;
+            }
+
+            return run < o.run ? -1 : (run == o.run ? 0 : 1);
+        }
+    }
+}
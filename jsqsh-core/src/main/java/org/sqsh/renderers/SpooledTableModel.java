@@ -0,0 +1,505 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh.renderers;
+
+import java.awt.Cursor;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.text.DecimalFormatSymbols;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Logger;
+
+import javax.swing.JTable;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+import javax.swing.table.AbstractTableModel;
+import javax.swing.table.TableColumn;
+import javax.swing.table.TableColumnModel;
+
+import org.sqsh.ColumnDescription;
+import org.sqsh.util.RowSpool;
+
+/**
+ * A table model for the {@link GraphicalRenderer} that reads its rows from
+ * a {@link RowSpool}, so that only the rows being looked at are brought
+ * into memory. Sorting produces an index into the spool rather than
+ * re-arranging the rows, and is done on a background thread.
+ */
+public class SpooledTableModel
+    extends AbstractTableModel {
+    
+    private static final long serialVersionUID = 1L;
+    
+    private static final Logger LOG = 
+        Logger.getLogger(SpooledTableModel.class.getName());
+    
+    /*
+     * Client property of the table holding the last sort started on it.
+     */
+    private static final String SORTER = "jsqsh.sorter";
+    
+    private RowSpool spool;
+    private ColumnDescription []columns;
+    private String nullRepresentation;
+    private int sortedColumn = -1;
+    private boolean isAscending = false;
+    
+    /*
+     * Number of rows the table has been told about. This is only
+     * touched from the event thread.
+     */
+    private int rowCount = 0;
+    
+    /*
+     * When sorted, order[i] is the index in the spool of the i'th row
+     * being displayed. Rows that arrive after the sort are displayed
+     * at the end, in the order in which they arrived.
+     */
+    private int []order = null;
+    private SwingWorker<int[], Void> sorter = null;
+    private boolean updatePending = false;
+    
+    /**
+     * Creates a model.
+     * 
+     * @param spool The spool that rows are written to
+     * @param columns The columns of the rows
+     * @param nullRepresentation The display form of NULL
+     */
+    public SpooledTableModel(RowSpool spool,
+            ColumnDescription []columns,
+            String nullRepresentation) {
+        
+        this.spool = spool;
+        this.columns = columns;
+        this.nullRepresentation = nullRepresentation;
+    }
+    
+    @Override
+    public int getRowCount() {
+        
+        return rowCount;
+    }
+    
+    @Override
+    public int getColumnCount() {
+        
+        return columns.length;
+    }
+    
+    @Override
+    public String getColumnName(int column) {
+        
+        return columns[column].getName();
+    }
+    
+    @Override
+    public Object getValueAt(int rowIndex, int columnIndex) {
+        
+        int idx = (order != null && rowIndex < order.length)
+            ? order[rowIndex] : rowIndex;
+        
+        try {
+            
+            return spool.get(idx)[columnIndex];
+        }
+        catch (IOException e) {
+            
+            LOG.fine("Failed to read row " + idx + ": " + e.getMessage());
+            return "*ERROR*";
+        }
+    }
+    
+    /**
+     * Adds a row to the spool. This is called from the thread that is
+     * executing the query, so the table is told about new rows later,
+     * on the event thread, in batches.
+     * 
+     * @param row The row to add
+     * @return false if the model has been closed, in which case the row
+     *   is thrown away and no more rows are wanted.
+     * @throws IOException If the spool cannot be written
+     */
+    public boolean addRow(String []row)
+        throws IOException {
+        
+        if (!spool.add(row)) {
+            
+            return false;
+        }
+        
+        synchronized (this) {
+            
+            if (updatePending) {
+                
+                return true;
+            }
+            
+            updatePending = true;
+        }
+        
+        SwingUtilities.invokeLater(new Runnable() {
+            
+            @Override
+            public void run() {
+                
+                synchronized (SpooledTableModel.this) {
+                    
+                    updatePending = false;
+                }
+                
+                int newCount = spool.size();
+                if (newCount > rowCount) {
+                    
+                    int first = rowCount;
+                    rowCount = newCount;
+                    fireTableRowsInserted(first, newCount - 1);
+                }
+            }
+        });
+        
+        return true;
+    }
+    
+    /**
+     * Closes the model, discarding its spool, such as when the window
+     * displaying it is closed. This may be called while rows are still
+     * being added, which from then on are thrown away.
+     */
+    public void close() {
+        
+        if (sorter != null) {
+            
+            sorter.cancel(true);
+        }
+        
+        spool.close();
+    }
+    
+    /**
+     * Sorts the table on a background thread. A sort that is still
+     * running is cancelled. Rows that arrive while the table is being
+     * sorted are displayed after the sorted ones.
+     * 
+     * @param table The table being sorted
+     * @param column The column to sort on
+     * @param ascending The direction of the sort
+     * @return The sort, which is done once the table displays the rows in
+     *   their new order.
+     */
+    public SwingWorker<int[], Void> sort(final JTable table, final int column,
+            final boolean ascending) {
+        
+        if (sorter != null) {
+            
+            sorter.cancel(true);
+        }
+        
+        final int nRows = rowCount;
+        table.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        
+        sorter = new SwingWorker<int[], Void>() {
+            
+            @Override
+            protected int[] doInBackground() throws Exception {
+                
+                return sortIndex(column, ascending, nRows);
+            }
+            
+            @Override
+            protected void done() {
+                
+                if (isCancelled()) {
+                    
+                    return;
+                }
+                
+                /*
+                 * The table may have been given another model while we
+                 * were sorting, which may be sorting in turn, so the
+                 * cursor belongs to the last sort started on the table.
+                 */
+                if (table.getClientProperty(SORTER) == this) {
+                    
+                    table.putClientProperty(SORTER, null);
+                    table.setCursor(Cursor.getDefaultCursor());
+                }
+                
+                try {
+                    
+                    order = get();
+                    fireTableDataChanged();
+                }
+                catch (InterruptedException e) {
+                    
+                    /* IGNORED */
+                }
+                catch (ExecutionException e) {
+                    
+                    LOG.fine("Sort failed: " + e.getCause());
+                }
+            }
+        };
+        
+        table.putClientProperty(SORTER, sorter);
+        sorter.execute();
+        return sorter;
+    }
+    
+    /**
+     * Produces the order in which rows of the spool should be
+     * displayed. Only the values of the column being sorted are
+     * brought into memory, converted to their native type. Numbers are
+     * compared as BigDecimal so that large integers and decimals keep
+     * all of their digits; infinities and values that aren't numbers
+     * sort below and above all others.
+     * 
+     * @param column The column to sort on
+     * @param ascending The direction of the sort
+     * @param nRows The number of rows to sort
+     * @return The row indexes in sorted order
+     * @throws IOException If the spool cannot be read
+     */
+    private int[] sortIndex(int column, boolean ascending, int nRows)
+        throws IOException {
+        
+        final boolean []nulls = new boolean[nRows];
+        final boolean isNumber = 
+            columns[column].getType() == ColumnDescription.Type.NUMBER;
+        final BigDecimal []numbers = isNumber ? new BigDecimal[nRows] : null;
+        final byte []ranks = isNumber ? new byte[nRows] : null;
+        final String []strings = isNumber ? null : new String[nRows];
+        char decimalSeparator = 
+            DecimalFormatSymbols.getInstance().getDecimalSeparator();
+        
+        int idx = 0;
+        for (int page = 0; idx < nRows; page++) {
+            
+            if (Thread.currentThread().isInterrupted()) {
+                
+                return null;
+            }
+            
+            String [][]rows = spool.readPage(page);
+            for (int r = 0; r < rows.length && idx < nRows; r++, idx++) {
+                
+                String value = rows[r][column];
+                if (value == null || value.equals(nullRepresentation)) {
+                    
+                    nulls[idx] = true;
+                }
+                else if (isNumber) {
+                    
+                    value = value.trim().replace(decimalSeparator, '.');
+                    try {
+                        
+                        numbers[idx] = new BigDecimal(value);
+                    }
+                    catch (NumberFormatException e) {
+                        
+                        ranks[idx] = rank(value);
+                    }
+                }
+                else {
+                    
+                    strings[idx] = value;
+                }
+            }
+        }
+        
+        final int direction = ascending ? 1 : -1;
+        IndexComparator comparator = new IndexComparator() {
+            
+            @Override
+            public int compare(int a, int b) {
+                
+                int r;
+                
+                /*
+                 * NULLs sort lowest.
+                 */
+                if (nulls[a] || nulls[b]) {
+                    
+                    r = (nulls[a] == nulls[b]) ? 0 : (nulls[a] ? -1 : 1);
+                }
+                else if (isNumber) {
+                    
+                    r = (ranks[a] != ranks[b] || ranks[a] != 0)
+                        ? ranks[a] - ranks[b]
+                        : numbers[a].compareTo(numbers[b]);
+                }
+                else {
+                    
+                    r = strings[a].compareTo(strings[b]);
+                }
+                
+                return r * direction;
+            }
+        };
+        
+        int []index = new int[nRows];
+        for (int i = 0; i < nRows; i++) {
+            
+            index[i] = i;
+        }
+        
+        mergeSort(index, new int[nRows], 0, nRows, comparator);
+        return index;
+    }
+
+    /**
+     * Places a number that BigDecimal can't represent relative to those
+     * that it can (which have a rank of 0).
+     * 
+     * @param value The number
+     * @return -1 for negative infinity, 1 for positive infinity and 2 for
+     *   anything else.
+     */
+    private static byte rank(String value) {
+        
+        try {
+            
+            double d = Double.parseDouble(value);
+            if (d == Double.NEGATIVE_INFINITY) {
+                
+                return -1;
+            }
+            if (d == Double.POSITIVE_INFINITY) {
+                
+                return 1;
+            }
+        }
+        catch (NumberFormatException e) {
+            
+            /* Not a number at all */
+        }
+        
+        return 2;
+    }
+
+    /**
+     * Sorts the table on a column when its header is clicked, reversing
+     * the order when the same column is clicked again.
+     */
+    class ColumnListener
+        extends MouseAdapter {
+
+        protected JTable table;
+
+        public ColumnListener(JTable t) {
+
+            table = t;
+        }
+
+        public void mouseClicked (MouseEvent e) {
+
+            TableColumnModel colModel = table.getColumnModel();
+            int columnModelIndex = colModel.getColumnIndexAtX(e.getX());
+            int modelIndex = colModel.getColumn(columnModelIndex)
+                    .getModelIndex();
+
+            if (modelIndex < 0) {
+
+                return;
+            }
+
+            if (sortedColumn == modelIndex) {
+
+                isAscending = !isAscending;
+            }
+            else {
+
+                sortedColumn = modelIndex;
+                isAscending = true;
+            }
+
+            for (int i = 0; i < getColumnCount(); i++) {
+
+                TableColumn column = colModel.getColumn(i);
+                column.setHeaderValue(getColumnName(
+                    column.getModelIndex()));
+            }
+
+            table.getTableHeader().repaint();
+
+            sort(table, modelIndex, isAscending);
+        }
+    }
+    
+    /**
+     * Compares two rows by their index.
+     */
+    private static interface IndexComparator {
+    
+        int compare(int a, int b);
+    }
+    
+    /**
+     * A stable merge sort of an array of row indexes.
+     * 
+     * @param a The indexes to sort
+     * @param tmp Scratch space the same size as a
+     * @param lo The first index to sort
+     * @param hi One past the last index to sort
+     * @param c Used to compare rows
+     */
+    private static void mergeSort(int []a, int []tmp, int lo, int hi,
+            IndexComparator c) {
+    
+        if (hi - lo < 16) {
+    
+            for (int i = lo + 1; i < hi; i++) {
+    
+                int v = a[i];
+                int j = i - 1;
+                while (j >= lo && c.compare(a[j], v) > 0) {
+    
+                    a[j + 1] = a[j];
+                    --j;
+                }
+                a[j + 1] = v;
+            }
+    
+            return;
+        }
+    
+        int mid = (lo + hi) >>> 1;
+        mergeSort(a, tmp, lo, mid, c);
+        mergeSort(a, tmp, mid, hi, c);
+    
+        if (c.compare(a[mid - 1], a[mid]) <= 0) {
+    
+            return;
+        }
+    
+        System.arraycopy(a, lo, tmp, lo, hi - lo);
+        int i = lo;
+        int j = mid;
+        for (int k = lo; k < hi; k++) {
+    
+            if (j >= hi || (i < mid && c.compare(tmp[i], tmp[j]) <= 0)) {
+    
+                a[k] = tmp[i++];
+            }
+            else {
+    
+                a[k] = tmp[j++];
+            }
+        }
+    }
+}
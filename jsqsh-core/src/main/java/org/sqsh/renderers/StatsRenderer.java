@@ -0,0 +1,206 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh.renderers;
+
+import java.sql.Types;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Map;
+
+import org.sqsh.ColumnDescription;
+import org.sqsh.DataFormatter;
+import org.sqsh.Renderer;
+import org.sqsh.RendererManager;
+import org.sqsh.Session;
+
+/**
+ * Renderer that, rather than displaying rows, profiles them: the rows are
+ * fed, one at a time, into a {@link ColumnStats} for each column and when
+ * the result set is complete a summary of each column (NULLs, approximate
+ * distinct values, minimum, maximum, quartiles, width and most frequent
+ * values) is displayed in place of the rows. Memory use doesn't grow with
+ * the number of rows, so any result can be profiled.
+ */
+public class StatsRenderer
+    extends Renderer {
+
+    /*
+     * The number of most frequent values displayed for each column.
+     */
+    private static final int TOP_VALUES = 3;
+
+    private ColumnStats []stats = null;
+    private long rows = 0L;
+
+    public StatsRenderer(Session session, RendererManager manager) {
+
+        super(session, manager);
+    }
+
+    @Override
+    public void header (ColumnDescription []columns) {
+
+        super.header(columns);
+
+        DataFormatter formatter = session.getDataFormatter();
+        stats = new ColumnStats[columns.length];
+        rows = 0L;
+
+        for (int i = 0; i < columns.length; i++) {
+
+            ColumnStats.Kind kind = ColumnStats.Kind.TEXT;
+            String format = null;
+
+            switch (columns[i].getNativeType()) {
+
+                case Types.TINYINT:
+                case Types.SMALLINT:
+                case Types.INTEGER:
+                case Types.BIGINT:
+                case Types.DECIMAL:
+                case Types.NUMERIC:
+                case Types.REAL:
+                case Types.FLOAT:
+                case Types.DOUBLE:
+                    kind = ColumnStats.Kind.NUMBER;
+                    break;
+
+                case Types.DATE:
+                    kind = ColumnStats.Kind.TEMPORAL;
+                    format = formatter.getDateFormat();
+                    break;
+
+                case Types.TIME:
+                    kind = ColumnStats.Kind.TEMPORAL;
+                    format = formatter.getTimeFormat();
+                    break;
+
+                case Types.TIMESTAMP:
+                    kind = ColumnStats.Kind.TEMPORAL;
+                    format = formatter.getDatetimeFormat();
+                    break;
+
+                default:
+                    break;
+            }
+
+            DateFormat dateFormat = null;
+            if (format != null) {
+
+                try {
+
+                    dateFormat = new SimpleDateFormat(format);
+                    dateFormat.setLenient(false);
+                }
+                catch (IllegalArgumentException e) {
+
+                    /* Not a pattern we can parse with; treat it as text */
+                }
+            }
+
+            stats[i] = new ColumnStats(columns[i].getName(), kind, dateFormat);
+        }
+    }
+
+    @Override
+    public boolean row (String []row) {
+
+        ++rows;
+        for (int i = 0; i < stats.length; i++) {
+
+            String value = row[i];
+            stats[i].add(value == null || isNull(value) ? null : value);
+        }
+
+        return true;
+    }
+
+    @Override
+    public boolean flush () {
+
+        if (stats == null) {
+
+            return true;
+        }
+
+        ColumnDescription []columns = new ColumnDescription[8];
+        columns[0] = new ColumnDescription("Column", -1);
+        columns[1] = number("Nulls");
+        columns[2] = number("~Distinct");
+        columns[3] = new ColumnDescription("Min", -1);
+        columns[4] = new ColumnDescription("Max", -1);
+        columns[5] = new ColumnDescription("~Quartiles", -1);
+        columns[6] = number("Width");
+        columns[7] = new ColumnDescription("Top values", -1);
+
+        Renderer renderer =
+            session.getRendererManager().getCommandRenderer(session);
+        renderer.header(columns);
+
+        for (ColumnStats col : stats) {
+
+            String quartiles = null;
+            String median = col.getQuantile(0.5);
+            if (median != null) {
+
+                quartiles = col.getQuantile(0.25) + " / " + median
+                    + " / " + col.getQuantile(0.75);
+            }
+
+            StringBuilder top = new StringBuilder();
+            for (Map.Entry<String, Long> e : col.getTop(TOP_VALUES)) {
+
+                if (top.length() > 0) {
+
+                    top.append(", ");
+                }
+
+                top.append(e.getKey()).append(" (").append(e.getValue())
+                    .append(col.isTopExact() ? ")" : "+)");
+            }
+
+            renderer.row(new String[] {
+                col.getName(),
+                Long.toString(col.getNulls()),
+                Long.toString(col.getDistinct()),
+                orNull(col.getMin()),
+                orNull(col.getMax()),
+                orNull(quartiles),
+                Integer.toString(col.getMaxWidth()),
+                top.toString()
+            });
+        }
+
+        renderer.flush();
+        session.out.println(rows + " row" + (rows == 1 ? "" : "s")
+            + " profiled");
+
+        stats = null;
+        return true;
+    }
+
+    private String orNull(String value) {
+
+        return value == null ? session.getDataFormatter().getNull() : value;
+    }
+
+    private static ColumnDescription number(String name) {
+
+        return new ColumnDescription(name, -1,
+            ColumnDescription.Alignment.RIGHT,
+            ColumnDescription.OverflowBehavior.TRUNCATE);
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh.util;
+
+/**
+ * Fast, non-cryptographic 64-bit hashing, used to fingerprint values that
+ * are compared, counted or grouped: the 64-bit FNV-1a hash, and the
+ * finalizer of MurmurHash3 to spread its bits when all 64 of them matter.
+ */
+public class HashUtils {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private HashUtils() {}
+
+    /**
+     * Computes the 64-bit FNV-1a hash of a string, one character at a
+     * time.
+     *
+     * @param tag Combined with the starting value of the hash, so that the
+     *   same text can hash differently depending on what it represents.
+     *   Use 0 for the plain FNV-1a hash.
+     * @param value The string.
+     * @return The hash.
+     */
+    public static long fnv1a(long tag, String value) {
+
+        long h = FNV_OFFSET ^ tag;
+        int len = value.length();
+        for (int i = 0; i < len; i++) {
+
+            h ^= value.charAt(i);
+            h *= FNV_PRIME;
+        }
+
+        return h;
+    }
+
+    /**
+     * Computes the 64-bit FNV-1a hash of an array of bytes.
+     *
+     * @param tag Combined with the starting value of the hash, as for
+     *   {@link #fnv1a(long, String)}.
+     * @param value The bytes.
+     * @return The hash.
+     */
+    public static long fnv1a(long tag, byte []value) {
+
+        long h = FNV_OFFSET ^ tag;
+        for (byte b : value) {
+
+            h ^= (b & 0xff);
+            h *= FNV_PRIME;
+        }
+
+        return h;
+    }
+
+    /**
+     * The finalizer of MurmurHash3, which spreads the bits of a value
+     * across the whole 64 bits. FNV-1a leaves the high bits poorly mixed
+     * for short input.
+     *
+     * @param h The value.
+     * @return The mixed value.
+     */
+    public static long mix(long h) {
+
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * @param h A hash.
+     * @return The hash as 16 hex digits.
+     */
+    public static String toHex(long h) {
+
+        String hex = Long.toHexString(h);
+        return "0000000000000000".substring(hex.length()) + hex;
+    }
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An append-only store of rows that lives on disk. Rows are gathered into
+ * fixed size pages; full pages are written to a temporary file and only
+ * the index of where each page starts is kept in memory. A small number
+ * of recently read pages are cached so that repeatedly asking for nearby
+ * rows (such as when a table is being scrolled) doesn't go back to disk.
+ *
+ * <p>All methods are synchronized, so rows may be appended by one thread
+ * while being read by another. Once the spool is closed, rows that are
+ * added are thrown away and rows can no longer be read.
+ */
+public class RowSpool {
+
+    /**
+     * Number of rows in a page.
+     */
+    public static final int PAGE_SIZE = 256;
+
+    /**
+     * Number of pages that are cached in memory.
+     */
+    private static final int CACHED_PAGES = 64;
+
+    private File file;
+    private RandomAccessFile raf;
+    private long []pageOffsets = new long[64];
+    private int nPages = 0;
+    private int rowCount = 0;
+    private boolean closed = false;
+
+    /*
+     * Rows that have been added, but not yet written out as a full page.
+     */
+    private String [][]tail = new String[PAGE_SIZE][];
+    private int tailCount = 0;
+
+    private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+    private Map<Integer, String[][]> cache =
+        new LinkedHashMap<Integer, String[][]>(CACHED_PAGES, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, String[][]> eldest) {
+
+                return size() > CACHED_PAGES;
+            }
+        };
+
+    /**
+     * Creates a new spool, backed by a temporary file.
+     *
+     * @throws IOException If the file cannot be created
+     */
+    public RowSpool()
+        throws IOException {
+
+        file = File.createTempFile("jsqsh_spool", ".tmp");
+        file.deleteOnExit();
+        raf = new RandomAccessFile(file, "rw");
+    }
+
+    /**
+     * @return The number of rows in the spool.
+     */
+    public synchronized int size() {
+
+        return rowCount;
+    }
+
+    /**
+     * @return The number of pages in the spool, including the final
+     *   partially filled page.
+     */
+    public synchronized int getPageCount() {
+
+        return nPages + (tailCount > 0 ? 1 : 0);
+    }
+
+    /**
+     * @return true if the spool has been closed.
+     */
+    public synchronized boolean isClosed() {
+
+        return closed;
+    }
+
+    /**
+     * Adds a row.
+     *
+     * @param row The row to add. The spool takes ownership of the array.
+     * @return false if the spool has been closed, in which case the row
+     *   is thrown away.
+     * @throws IOException If the row cannot be written
+     */
+    public synchronized boolean add(String []row)
+        throws IOException {
+
+        if (closed) {
+
+            return false;
+        }
+
+        tail[tailCount++] = row;
+        ++rowCount;
+
+        if (tailCount == PAGE_SIZE) {
+
+            writePage();
+        }
+
+        return true;
+    }
+
+    /**
+     * Retrieves a row.
+     *
+     * @param idx The index of the row
+     * @return The row
+     * @throws IOException If the row cannot be read
+     */
+    public synchronized String[] get(int idx)
+        throws IOException {
+
+        if (idx < 0 || idx >= rowCount) {
+
+            throw new IndexOutOfBoundsException("Row " + idx
+                + ", size " + rowCount);
+        }
+
+        int page = idx / PAGE_SIZE;
+        return getPage(page, true)[idx % PAGE_SIZE];
+    }
+
+    /**
+     * Reads an entire page of rows. This is intended for scanning through
+     * the whole spool, so the page is not put in the cache.
+     *
+     * @param page The page number
+     * @return The rows of the page. The final page of the spool may contain
+     *   fewer than {@link #PAGE_SIZE} rows.
+     * @throws IOException If the page cannot be read
+     */
+    public synchronized String[][] readPage(int page)
+        throws IOException {
+
+        return getPage(page, false);
+    }
+
+    /**
+     * Discards the spool, removing its file.
+     */
+    public synchronized void close() {
+
+        if (closed) {
+
+            return;
+        }
+
+        closed = true;
+        try {
+
+            raf.close();
+        }
+        catch (IOException e) {
+
+            /* IGNORED */
+        }
+
+        file.delete();
+        cache.clear();
+        tail = null;
+    }
+
+    private String[][] getPage(int page, boolean useCache)
+        throws IOException {
+
+        if (closed) {
+
+            throw new IOException("The spool has been closed");
+        }
+
+        if (page == nPages) {
+
+            return Arrays.copyOf(tail, tailCount);
+        }
+
+        String [][]rows = cache.get(page);
+        if (rows != null) {
+
+            return rows;
+        }
+
+        long start = pageOffsets[page];
+        long end = (page + 1 < nPages) ? pageOffsets[page + 1] : raf.length();
+        byte []bytes = new byte[(int) (end - start)];
+
+        raf.seek(start);
+        raf.readFully(bytes);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        rows = new String[PAGE_SIZE][];
+        for (int r = 0; r < PAGE_SIZE; r++) {
+
+            String []row = new String[in.readInt()];
+            for (int c = 0; c < row.length; c++) {
+
+                int len = in.readInt();
+                if (len >= 0) {
+
+                    byte []str = new byte[len];
+                    in.readFully(str);
+                    row[c] = new String(str, "UTF-8");
+                }
+            }
+
+            rows[r] = row;
+        }
+
+        if (useCache) {
+
+            cache.put(page, rows);
+        }
+
+        return rows;
+    }
+
+    private void writePage()
+        throws IOException {
+
+        buffer.reset();
+        DataOutputStream out = new DataOutputStream(buffer);
+
+        for (int r = 0; r < tailCount; r++) {
+
+            String []row = tail[r];
+            out.writeInt(row.length);
+            for (String value : row) {
+
+                if (value == null) {
+
+                    out.writeInt(-1);
+                }
+                else {
+
+                    byte []bytes = value.getBytes("UTF-8");
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+            }
+        }
+
+        out.flush();
+
+        if (nPages == pageOffsets.length) {
+
+            pageOffsets = Arrays.copyOf(pageOffsets, nPages * 2);
+        }
+
+        long offset = raf.length();
+        pageOffsets[nPages++] = offset;
+        raf.seek(offset);
+        raf.write(buffer.toByteArray());
+
+        tail = new String[PAGE_SIZE][];
+        tailCount = 0;
+    }
+}
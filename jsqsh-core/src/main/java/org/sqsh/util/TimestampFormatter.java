@@ -16,129 +16,518 @@
 package org.sqsh.util;
 
 import java.sql.Timestamp;
-import java.text.FieldPosition;
+import java.text.DateFormatSymbols;
+import java.text.DecimalFormatSymbols;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
 
 /**
  * An alternative to Java's {@link SimpleDateFormat} object that modifies
  * the meaning of the "S" field to indicate number of digits of the fractional
- * portion of the time instead of strictly milliseconds. 
+ * portion of the time instead of strictly milliseconds.
+ *
+ * <p>Because this formatter is used for every date and timestamp value
+ * that is displayed, it is built for speed. The format is compiled once
+ * into a fixed sequence of field writers. Everything other than the
+ * fractional seconds depends only upon the second in which the value falls,
+ * so the text produced for the most recently seen second is cached and
+ * re-used by subsequent values, leaving only the fractional digits to be
+ * appended for each value.
+ *
+ * <p>Instances are thread safe.
  */
 public class TimestampFormatter {
-    
-    private SimpleDateFormat format;
-    private StringBuffer sb;
-    private FieldPosition fp;
-    private int nFractionalDigits;
-    
+
+    private final TimeZone timeZone;
+    private final Locale locale;
+
+    /**
+     * The compiled format. Each element is either a {@link FieldWriter}
+     * or a {@link Fraction} marker indicating where fractional seconds go.
+     */
+    private final List<Object> writers = new ArrayList<Object>();
+
+    /**
+     * Number of fractional digits for each fractional field in the format.
+     */
+    private final int []fractionDigits;
+
+    /**
+     * The text of the most recently formatted second. This is replaced
+     * as a whole (never modified) so it can be safely shared between threads.
+     */
+    private volatile CachedSecond cache = null;
+
+    /**
+     * Each thread gets its own calendar for computing field values.
+     */
+    private final ThreadLocal<Calendar> calendar = new ThreadLocal<Calendar>() {
+
+        @Override
+        protected Calendar initialValue() {
+
+            return Calendar.getInstance(timeZone, locale);
+        }
+    };
+
     public TimestampFormatter (String format) {
-        
-        final int len = format.length();
-        int idx = 0;
-        boolean inQuotes = false;
-        int startIdx = -1;
-        int endIdx = -1;
-        
+
+        this.timeZone = TimeZone.getDefault();
+        this.locale = Locale.getDefault();
+
         /*
-         * Search through the format for a span of "S" characters that are not
-         * contained within quotes...
+         * The hand written field writers only know how to deal with a
+         * gregorian calendar and western digits. For anything else, every
+         * field is handed off to SimpleDateFormat.
          */
+        boolean simpleFieldsOnly =
+            !(Calendar.getInstance(timeZone, locale) instanceof GregorianCalendar)
+               || DecimalFormatSymbols.getInstance(locale).getZeroDigit() != '0';
+
+        compile(format, simpleFieldsOnly);
+
+        int nFractions = 0;
+        for (Object writer : writers) {
+
+            if (writer instanceof Fraction) {
+
+                ++nFractions;
+            }
+        }
+
+        fractionDigits = new int[nFractions];
+        nFractions = 0;
+        for (Object writer : writers) {
+
+            if (writer instanceof Fraction) {
+
+                fractionDigits[nFractions++] = ((Fraction) writer).digits;
+            }
+        }
+    }
+
+    public String format (Date date) {
+
+        StringBuilder sb = new StringBuilder(32);
+        format(date, sb);
+        return sb.toString();
+    }
+
+    /**
+     * Formats a date, appending the result to a buffer.
+     *
+     * @param date The date to format
+     * @param sb The buffer to append to
+     */
+    public void format (Date date, StringBuilder sb) {
+
+        long millis = date.getTime();
+        long second = floorDiv(millis, 1000L);
+
+        CachedSecond cached = cache;
+        if (cached == null || cached.second != second) {
+
+            cached = formatSecond(second);
+            cache = cached;
+        }
+
+        String []chunks = cached.chunks;
+        sb.append(chunks[0]);
+
+        if (fractionDigits.length > 0) {
+
+            int nanos = (date instanceof Timestamp)
+                ? ((Timestamp) date).getNanos()
+                : (int) (millis - (second * 1000L)) * 1000000;
+
+            for (int i = 0; i < fractionDigits.length; i++) {
+
+                int divisor = 100000000;
+                for (int d = 0; d < fractionDigits[i]; d++) {
+
+                    if (divisor == 0) {
+
+                        sb.append('0');
+                    }
+                    else {
+
+                        sb.append((char) ('0' + ((nanos / divisor) % 10)));
+                        divisor /= 10;
+                    }
+                }
+
+                sb.append(chunks[i + 1]);
+            }
+        }
+    }
+
+    /**
+     * Produces the text for every field of the format other than the
+     * fractional seconds.
+     *
+     * @param second The number of seconds since the epoch
+     * @return The text, broken up into the chunks that fall between
+     *   fractional seconds fields.
+     */
+    private CachedSecond formatSecond(long second) {
+
+        Calendar cal = calendar.get();
+        cal.setTimeInMillis(second * 1000L);
+
+        String []chunks = new String[fractionDigits.length + 1];
+        StringBuilder sb = new StringBuilder();
+        int chunk = 0;
+
+        for (Object writer : writers) {
+
+            if (writer instanceof Fraction) {
+
+                chunks[chunk++] = sb.toString();
+                sb.setLength(0);
+            }
+            else {
+
+                ((FieldWriter) writer).write(cal, sb);
+            }
+        }
+
+        chunks[chunk] = sb.toString();
+        return new CachedSecond(second, chunks);
+    }
+
+    /**
+     * Compiles a {@link SimpleDateFormat} pattern into field writers.
+     *
+     * @param format The format
+     * @param simpleFieldsOnly If true, all fields are formatted by
+     *   SimpleDateFormat.
+     */
+    private void compile(String format, boolean simpleFieldsOnly) {
+
+        final int len = format.length();
+        StringBuilder literal = new StringBuilder();
+        int idx = 0;
+
         while (idx < len) {
-            
+
             char ch = format.charAt(idx);
+
             if (ch == '\'') {
-                
+
+                /*
+                 * A pair of quotes is a literal quote, otherwise we have
+                 * quoted text up to the next quote.
+                 */
                 ++idx;
                 if (idx < len && format.charAt(idx) == '\'') {
-                    
+
+                    literal.append('\'');
                     ++idx;
                 }
                 else {
-                    
-                    inQuotes = !inQuotes;
+
+                    while (idx < len) {
+
+                        ch = format.charAt(idx);
+                        if (ch == '\'') {
+
+                            if (idx + 1 < len && format.charAt(idx + 1) == '\'') {
+
+                                literal.append('\'');
+                                idx += 2;
+                            }
+                            else {
+
+                                ++idx;
+                                break;
+                            }
+                        }
+                        else {
+
+                            literal.append(ch);
+                            ++idx;
+                        }
+                    }
                 }
             }
-            else if (ch == 'S') {
-                
-                if (startIdx == -1) {
-                    
-                    startIdx = idx;
+            else if ((ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z')) {
+
+                int count = 1;
+                while (idx + count < len && format.charAt(idx + count) == ch) {
+
+                    ++count;
                 }
-                ++idx;
+
+                if (literal.length() > 0) {
+
+                    writers.add(new LiteralWriter(literal.toString()));
+                    literal.setLength(0);
+                }
+
+                if (ch == 'S') {
+
+                    writers.add(new Fraction(count));
+                }
+                else {
+
+                    writers.add(getFieldWriter(ch, count, simpleFieldsOnly));
+                }
+
+                idx += count;
             }
             else {
-                
-                if (startIdx != -1 && endIdx == -1) {
-                    
-                    endIdx = idx;
-                }
-                
+
+                literal.append(ch);
                 ++idx;
             }
         }
-        
-        if (startIdx != -1 && endIdx == -1) {
-            
-            endIdx = len;
-        }
-        
-        if ((startIdx == -1  && endIdx == -1) || (endIdx - startIdx) == 3) {
-            
-            this.format = new SimpleDateFormat(format);
-        }
-        else {
-            
-            sb = new StringBuffer();
-            sb.append(format, 0, startIdx);
-            for (int i = startIdx; i < endIdx; i++) {
-                
-                sb.append('\u0000');
-            }
-            sb.append(format, endIdx, len);
-            this.fp = new FieldPosition(0);
-            this.nFractionalDigits = endIdx - startIdx;
-            this.format = new SimpleDateFormat(sb.toString());
+
+        if (literal.length() > 0) {
+
+            writers.add(new LiteralWriter(literal.toString()));
         }
     }
-    
-    public String format (Date date) {
-        
-        if (nFractionalDigits == 0) {
-            
-            return format.format(date);
-        }
-        
-        sb.setLength(0);
-        format.format(date, sb, fp);
-        
-        /*
-         * Are we doing our own fractional digits?
-         */
-        if (nFractionalDigits > 0) {
-            
-            int idx = 0;
-            while (sb.charAt(idx) != '\u0000') {
-                
-                ++idx;
+
+    /**
+     * Returns a writer for a field in the format.
+     *
+     * @param ch The pattern letter
+     * @param count The number of times the letter was repeated
+     * @param simpleFieldsOnly If true, SimpleDateFormat does all the work
+     * @return The writer
+     */
+    private FieldWriter getFieldWriter(char ch, int count, boolean simpleFieldsOnly) {
+
+        if (!simpleFieldsOnly) {
+
+            DateFormatSymbols symbols = DateFormatSymbols.getInstance(locale);
+
+            switch (ch) {
+
+                case 'y':
+                    if (count == 2) {
+
+                        return new TwoDigitYearWriter();
+                    }
+                    return new NumberWriter(Calendar.YEAR, count, 0);
+                case 'M':
+                    if (count >= 4) {
+
+                        return new TextWriter(Calendar.MONTH, symbols.getMonths());
+                    }
+                    if (count == 3) {
+
+                        return new TextWriter(Calendar.MONTH, symbols.getShortMonths());
+                    }
+                    return new NumberWriter(Calendar.MONTH, count, 1);
+                case 'E':
+                    if (count >= 4) {
+
+                        return new TextWriter(Calendar.DAY_OF_WEEK, symbols.getWeekdays());
+                    }
+                    return new TextWriter(Calendar.DAY_OF_WEEK, symbols.getShortWeekdays());
+                case 'a':
+                    return new TextWriter(Calendar.AM_PM, symbols.getAmPmStrings());
+                case 'd':
+                    return new NumberWriter(Calendar.DAY_OF_MONTH, count, 0);
+                case 'D':
+                    return new NumberWriter(Calendar.DAY_OF_YEAR, count, 0);
+                case 'H':
+                    return new NumberWriter(Calendar.HOUR_OF_DAY, count, 0);
+                case 'k':
+                    return new ClockHourWriter(Calendar.HOUR_OF_DAY, count, 24);
+                case 'K':
+                    return new NumberWriter(Calendar.HOUR, count, 0);
+                case 'h':
+                    return new ClockHourWriter(Calendar.HOUR, count, 12);
+                case 'm':
+                    return new NumberWriter(Calendar.MINUTE, count, 0);
+                case 's':
+                    return new NumberWriter(Calendar.SECOND, count, 0);
+                default:
+                    break;
             }
-            
-            int divisor = 100000000;
-            int nanos = (date instanceof Timestamp) 
-                    ? ((Timestamp) date).getNanos()
-                    : (int) ((date.getTime() % 1000) * 1000000);
-            
-            for (int i = 0; i < nFractionalDigits; i++) {
-                
-                /*
-                 * Do we have our marker byte for where to put our fractional digits?
-                 */
-                 int val = (nanos / divisor) % 10;
-                 sb.setCharAt(idx++, (char) ('0' + val));
-                 divisor /= 10;
+        }
+
+        StringBuilder sb = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+
+            sb.append(ch);
+        }
+
+        return new SimpleFieldWriter(sb.toString());
+    }
+
+    private static long floorDiv(long x, long y) {
+
+        long r = x / y;
+        if ((x % y != 0) && ((x ^ y) < 0)) {
+
+            --r;
+        }
+
+        return r;
+    }
+
+    private static void appendPadded(StringBuilder sb, int value, int width) {
+
+        String str = Integer.toString(value);
+        for (int i = str.length(); i < width; i++) {
+
+            sb.append('0');
+        }
+        sb.append(str);
+    }
+
+    /**
+     * The formatted text for a specific second.
+     */
+    private static final class CachedSecond {
+
+        final long second;
+        final String []chunks;
+
+        CachedSecond(long second, String []chunks) {
+
+            this.second = second;
+            this.chunks = chunks;
+        }
+    }
+
+    /**
+     * Marks the location of fractional seconds in the compiled format.
+     */
+    private static final class Fraction {
+
+        final int digits;
+
+        Fraction(int digits) {
+
+            this.digits = digits;
+        }
+    }
+
+    /**
+     * Writes one field of the format.
+     */
+    private static interface FieldWriter {
+
+        void write(Calendar cal, StringBuilder sb);
+    }
+
+    private static final class LiteralWriter
+        implements FieldWriter {
+
+        private final String text;
+
+        LiteralWriter(String text) {
+
+            this.text = text;
+        }
+
+        public void write(Calendar cal, StringBuilder sb) {
+
+            sb.append(text);
+        }
+    }
+
+    private static class NumberWriter
+        implements FieldWriter {
+
+        protected final int field;
+        protected final int width;
+        private final int offset;
+
+        NumberWriter(int field, int width, int offset) {
+
+            this.field = field;
+            this.width = width;
+            this.offset = offset;
+        }
+
+        public void write(Calendar cal, StringBuilder sb) {
+
+            appendPadded(sb, cal.get(field) + offset, width);
+        }
+    }
+
+    /**
+     * The 'h' and 'k' fields, where zero is displayed as 12 or 24.
+     */
+    private static final class ClockHourWriter
+        extends NumberWriter {
+
+        private final int zeroValue;
+
+        ClockHourWriter(int field, int width, int zeroValue) {
+
+            super(field, width, 0);
+            this.zeroValue = zeroValue;
+        }
+
+        @Override
+        public void write(Calendar cal, StringBuilder sb) {
+
+            int value = cal.get(field);
+            appendPadded(sb, value == 0 ? zeroValue : value, width);
+        }
+    }
+
+    private static final class TwoDigitYearWriter
+        implements FieldWriter {
+
+        public void write(Calendar cal, StringBuilder sb) {
+
+            appendPadded(sb, cal.get(Calendar.YEAR) % 100, 2);
+        }
+    }
+
+    private static final class TextWriter
+        implements FieldWriter {
+
+        private final int field;
+        private final String []names;
+
+        TextWriter(int field, String []names) {
+
+            this.field = field;
+            this.names = names;
+        }
+
+        public void write(Calendar cal, StringBuilder sb) {
+
+            sb.append(names[cal.get(field)]);
+        }
+    }
+
+    /**
+     * Any field that we don't have a hand written writer for is formatted
+     * by a SimpleDateFormat that contains just that field. This is only
+     * called when a new second is encountered.
+     */
+    private final class SimpleFieldWriter
+        implements FieldWriter {
+
+        private final SimpleDateFormat format;
+
+        SimpleFieldWriter(String pattern) {
+
+            format = new SimpleDateFormat(pattern, locale);
+            format.setTimeZone(timeZone);
+        }
+
+        public void write(Calendar cal, StringBuilder sb) {
+
+            synchronized (format) {
+
+                sb.append(format.format(cal.getTime()));
             }
         }
-        
-        return sb.toString();
     }
 }
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh.variables;
+
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Method;
+import java.util.logging.Logger;
+
+import org.apache.commons.beanutils.ConvertUtils;
+import org.apache.commons.beanutils.MethodUtils;
+import org.apache.commons.beanutils.PropertyUtils;
+
+/**
+ * Reads and writes a (possibly nested) bean property, such as 
+ * "SQLRenderer.maxRows". The getter and setter at each step of the path are
+ * looked up the first time they are needed and then kept, so that reading
+ * the property is a chain of method calls rather than a trip through bean
+ * introspection. They are looked up again if the class of an object along
+ * the path changes (the connection context of a session, for example, is
+ * of a different class before and after it is connected).
+ * 
+ * <p>Values are converted and missing properties are treated the same way
+ * that {@link org.apache.commons.beanutils.BeanUtils#setProperty(Object, String, Object)}
+ * and {@link PropertyUtils#getNestedProperty(Object, String)} would, which
+ * is what were used before this class. Only simple nested properties are
+ * handled; use {@link #isSupported(String)} to check a path first.
+ */
+public class PropertyAccessor {
+    
+    private static final Logger LOG = 
+        Logger.getLogger(PropertyAccessor.class.getName());
+    
+    /**
+     * The methods of a property, as looked up for one class. This is never
+     * changed once created, so it can be handed between threads without
+     * locking.
+     */
+    private static class Binding {
+        
+        private final Class<?> boundClass;
+        private final Method getter;
+        private final Method setter;
+        private final Class<?> setterType;
+        
+        public Binding (Class<?> boundClass, Method getter, Method setter) {
+            
+            this.boundClass = boundClass;
+            this.getter = getter;
+            this.setter = setter;
+            this.setterType = (setter != null
+                ? setter.getParameterTypes()[0] : null);
+        }
+    }
+    
+    /**
+     * One property along the path.
+     */
+    private static class Step {
+        
+        private final String name;
+        private volatile Binding binding = null;
+        
+        public Step (String name) {
+            
+            this.name = name;
+        }
+        
+        /**
+         * Looks up the property's methods if the object isn't of the class
+         * that they were last looked up for. Two threads may race to look
+         * them up, in which case they both find the same methods and it
+         * doesn't matter whose are kept.
+         * 
+         * @param bean The object whose property is being used.
+         * @return The property's methods for the class of the object; the
+         *   getter and setter are both null if it has no such property.
+         */
+        public Binding bind(Object bean)
+            throws Exception {
+            
+            Class<?> beanClass = bean.getClass();
+            Binding current = binding;
+            if (current != null && current.boundClass == beanClass) {
+                
+                return current;
+            }
+            
+            Method getter = null;
+            Method setter = null;
+            
+            PropertyDescriptor desc = 
+                PropertyUtils.getPropertyDescriptor(bean, name);
+            if (desc != null) {
+                
+                if (desc.getReadMethod() != null) {
+                    
+                    getter = MethodUtils.getAccessibleMethod(beanClass,
+                        desc.getReadMethod());
+                }
+                
+                if (desc.getWriteMethod() != null) {
+                    
+                    setter = MethodUtils.getAccessibleMethod(beanClass,
+                        desc.getWriteMethod());
+                }
+            }
+            
+            current = new Binding(beanClass, getter, setter);
+            binding = current;
+            return current;
+        }
+    }
+    
+    private final String path;
+    private final Step []steps;
+    
+    /**
+     * Creates an accessor.
+     * 
+     * @param path The property path, made up of property names separated
+     *   by periods.
+     */
+    public PropertyAccessor (String path) {
+        
+        this.path = path;
+        
+        String []names = path.split("\\.");
+        steps = new Step[names.length];
+        for (int i = 0; i < names.length; i++) {
+            
+            steps[i] = new Step(names[i]);
+        }
+    }
+    
+    /**
+     * @param path A property path.
+     * @return true if the path is one that this class can handle (it 
+     *   doesn't use indexed or mapped properties).
+     */
+    public static boolean isSupported(String path) {
+        
+        return path != null
+            && path.length() > 0
+            && path.indexOf('[') < 0
+            && path.indexOf('(') < 0
+            && !path.startsWith(".")
+            && !path.endsWith(".")
+            && path.indexOf("..") < 0;
+    }
+    
+    /**
+     * Reads the property.
+     * 
+     * @param bean The object the path starts from.
+     * @return The value of the property.
+     * @throws Exception If the property can't be read, or the getter 
+     *   throws an exception (which will be wrapped in an 
+     *   {@link java.lang.reflect.InvocationTargetException}).
+     */
+    public Object get(Object bean)
+        throws Exception {
+        
+        Object o = bean;
+        for (int i = 0; i < steps.length; i++) {
+            
+            if (o == null) {
+                
+                throw new IllegalArgumentException("Null property value for '"
+                    + steps[i - 1].name + "' in '" + path + "'");
+            }
+            
+            Step step = steps[i];
+            Binding b = step.bind(o);
+            if (b.getter == null) {
+                
+                throw new NoSuchMethodException("Unknown property '"
+                    + step.name + "' on class '" + o.getClass() + "'");
+            }
+            
+            o = b.getter.invoke(o);
+        }
+        
+        return o;
+    }
+    
+    /**
+     * Sets the property, converting the value to the type the setter
+     * expects. As with BeanUtils, a property that doesn't exist or is
+     * read-only is quietly left alone.
+     * 
+     * @param bean The object the path starts from.
+     * @param value The new value.
+     * @throws Exception If the property can't be set, or the setter 
+     *   throws an exception (which will be wrapped in an 
+     *   {@link java.lang.reflect.InvocationTargetException}).
+     */
+    public void set(Object bean, String value)
+        throws Exception {
+        
+        Object o = bean;
+        int last = steps.length - 1;
+        for (int i = 0; i < last; i++) {
+            
+            Binding b = (o == null ? null : steps[i].bind(o));
+            if (b == null || b.getter == null) {
+                
+                LOG.fine("Unable to reach '" + path + "' to set it");
+                return;
+            }
+            
+            o = b.getter.invoke(o);
+        }
+        
+        Binding b = (o == null ? null : steps[last].bind(o));
+        if (b == null || b.setter == null) {
+            
+            LOG.fine("Skipping read-only property '" + path + "'");
+            return;
+        }
+        
+        Object converted = (b.setterType == String.class
+            ? value : ConvertUtils.convert(value, b.setterType));
+        b.setter.invoke(o, converted);
+    }
+}
@@ -34,6 +34,13 @@ public class PropertyVariable
     private boolean settable = true;
     private boolean quiet = false;
     
+    /*
+     * Used in place of BeanUtils for properties that it can handle, as
+     * the variables are read every time the prompt is drawn and every
+     * time a variable is expanded.
+     */
+    private PropertyAccessor accessor = null;
+    
     /**
      * Manditory constructor.
      */
@@ -56,6 +63,14 @@ public class PropertyVariable
         this.bean = bean;
     }
 
+    /**
+     * @return The name of the property that is manipulated by this variable.
+     */
+    public String getProperty () {
+        
+        return property;
+    }
+    
     /**
      * The name of the property that is to be manipulated by this variable.
      * @param property name of the property that is to be manipulated by this variable.
@@ -63,6 +78,8 @@ public class PropertyVariable
     public void setProperty(String property) {
         
         this.property = property;
+        this.accessor = PropertyAccessor.isSupported(property)
+            ? new PropertyAccessor(property) : null;
     }
     
     /**
@@ -117,7 +134,14 @@ public class PropertyVariable
             try {
                 
                 Object o = getManager().getBean(bean);
-                BeanUtils.setProperty(o, property, value);
+                if (accessor != null) {
+                    
+                    accessor.set(o, value);
+                }
+                else {
+                    
+                    BeanUtils.setProperty(o, property, value);
+                }
             }
             catch (InvocationTargetException e) {
                 
@@ -140,15 +164,27 @@ public class PropertyVariable
         return null;
     }
 
+    /**
+     * @return The value of the bean property, or null if it can't be read.
+     */
+    public Object getValue() {
+        
+        try {
+            
+            return readValue();
+        }
+        catch (Throwable e) {
+            
+            return null;
+        }
+    }
+
     @Override
     public String toString () {
 
         try {
             
-            Object o = getManager().getBean(bean);
-            Object val = 
-                PropertyUtils.getNestedProperty(o, property);
-            
+            Object val = readValue();
             if (val == null) {
                 
                 return "null";
@@ -167,4 +203,13 @@ public class PropertyVariable
                 + e.getMessage() + " (" + e.getClass().getName() + ")";
         }
     }
+    
+    private Object readValue()
+        throws Exception {
+        
+        Object o = getManager().getBean(bean);
+        return (accessor != null
+            ? accessor.get(o)
+            : PropertyUtils.getNestedProperty(o, property));
+    }
 }
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AliasManagerTest {
+
+    @Test
+    public void testProcess() {
+
+        AliasManager aliases = new AliasManager();
+        aliases.addAlias(new Alias("go", "\\go", false));
+        aliases.addAlias(new Alias("\\dbs", "\\databases", false));
+        aliases.addAlias(new Alias("@me", "'scott'", true));
+        aliases.addAlias(new Alias("TBL", "my_table", true));
+
+        Assert.assertEquals("  \\go -m csv", aliases.process("  go -m csv"));
+        Assert.assertEquals("gone", aliases.process("gone"));
+        Assert.assertEquals("select go from t", aliases.process("select go from t"));
+        Assert.assertEquals("\\databases", aliases.process("\\dbs"));
+
+        /*
+         * Expansions are applied in the order they appear in the line,
+         * regardless of the order in which the aliases were defined.
+         */
+        Assert.assertEquals("select * from my_table where u = 'scott' or v = 'scott'",
+            aliases.process("select * from TBL where u = @me or v = @me"));
+        Assert.assertEquals("select * from TBLX", aliases.process("select * from TBLX"));
+
+        /*
+         * Redefining an alias replaces it.
+         */
+        aliases.addAlias(new Alias("go", "\\go -m tight", false));
+        Assert.assertEquals("\\go -m tight", aliases.process("go"));
+        Assert.assertEquals(4, aliases.getAliases().length);
+    }
+}
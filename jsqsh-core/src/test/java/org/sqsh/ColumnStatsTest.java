@@ -0,0 +1,117 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh;
+
+import java.text.SimpleDateFormat;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.sqsh.renderers.ColumnStats;
+
+public class ColumnStatsTest {
+
+    @Test
+    public void testNumbers() throws Exception {
+
+        ColumnStats stats = new ColumnStats("n", ColumnStats.Kind.NUMBER, null);
+        for (String value : new String[] { "9", "10", null, "-2", "10", "7" }) {
+
+            stats.add(value);
+        }
+
+        Assert.assertEquals(6, stats.getCount());
+        Assert.assertEquals(1, stats.getNulls());
+        Assert.assertEquals(4, stats.getDistinct());
+        Assert.assertEquals("-2", stats.getMin());
+        Assert.assertEquals("10", stats.getMax());
+        Assert.assertEquals("9", stats.getQuantile(0.5));
+        Assert.assertEquals(2, stats.getMaxWidth());
+        Assert.assertTrue(stats.isTopExact());
+        Assert.assertEquals("[10=2, -2=1]", stats.getTop(2).toString());
+
+        /*
+         * Once a value isn't a number the column is compared as text.
+         */
+        stats.add("n/a");
+        Assert.assertEquals(ColumnStats.Kind.TEXT, stats.getKind());
+        Assert.assertEquals("-2", stats.getMin());
+        Assert.assertEquals("n/a", stats.getMax());
+        Assert.assertNull(stats.getQuantile(0.5));
+    }
+
+    @Test
+    public void testDates() throws Exception {
+
+        /*
+         * Both a format whose text sorts in time order and one that
+         * doesn't.
+         */
+        String [][]formats = {
+            { "yyyy-MM-dd", "2012-11-30", "2013-01-02", "2012-02-01" },
+            { "dd/MM/yyyy", "30/11/2012", "02/01/2013", "01/02/2012" }
+        };
+
+        for (String []format : formats) {
+
+            SimpleDateFormat dateFormat = new SimpleDateFormat(format[0]);
+            dateFormat.setLenient(false);
+            ColumnStats stats =
+                new ColumnStats("d", ColumnStats.Kind.TEMPORAL, dateFormat);
+            for (int i = 1; i < format.length; i++) {
+
+                stats.add(format[i]);
+            }
+
+            Assert.assertEquals(format[0], format[3], stats.getMin());
+            Assert.assertEquals(format[0], format[2], stats.getMax());
+            Assert.assertEquals(format[0], format[1], stats.getQuantile(0.5));
+        }
+    }
+
+    @Test
+    public void testLargeColumn() throws Exception {
+
+        int rows = 200000;
+        ColumnStats stats = new ColumnStats("n", ColumnStats.Kind.NUMBER, null);
+        for (int i = 0; i < rows; i++) {
+
+            /*
+             * Every tenth row is the same value.
+             */
+            stats.add(i % 10 == 0 ? "-1" : Integer.toString(i));
+        }
+
+        long expected = rows - rows / 10 + 1;
+        Assert.assertTrue(Long.toString(stats.getDistinct()),
+            Math.abs(stats.getDistinct() - expected) < expected * 0.05);
+
+        Assert.assertEquals("-1", stats.getMin());
+        Assert.assertEquals(Integer.toString(rows - 1), stats.getMax());
+
+        /*
+         * A tenth of the rows are -1, so half of the rows are at or below
+         * x where rows/10 + 0.9x = rows/2.
+         */
+        long median = Long.parseLong(stats.getQuantile(0.5));
+        Assert.assertTrue(Long.toString(median),
+            Math.abs(median - (rows * 4) / 9) < rows * 0.05);
+
+        Assert.assertFalse(stats.isTopExact());
+        Assert.assertEquals(1, stats.getTop(3).size());
+        Assert.assertEquals("-1", stats.getTop(3).get(0).getKey());
+        Assert.assertTrue(stats.getTop(3).get(0).getValue() <= rows / 10);
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+import org.sqsh.options.OptionProcessor;
+
+/**
+ * Measures the per-line overhead of getting a line of script input to the
+ * command that handles it: alias expansion, recognizing the command, 
+ * parsing its options and running it. The commands used do as little as
+ * possible, so what is left is mostly the dispatch itself. This is not run
+ * as part of the unit tests; run it by hand with:
+ * 
+ * <pre>
+ *    mvn test-compile
+ *    java -cp target/classes:target/test-classes:... org.sqsh.CommandDispatchBenchmark
+ * </pre>
+ * 
+ * (the classpath needs the jsqsh dependencies as well).
+ */
+public class CommandDispatchBenchmark {
+    
+    private static final int LINES = 200000;
+    private static final int ROUNDS = 10;
+    
+    /*
+     * Prevents the JIT from discarding the work being measured.
+     */
+    private static long sink = 0;
+    
+    public static void main(String []argv)
+        throws Exception {
+        
+        PrintStream nowhere = new PrintStream(new OutputStream() {
+            
+            @Override
+            public void write(int b) {
+                
+                /* Discarded */
+            }
+            
+            @Override
+            public void write(byte []b, int off, int len) {
+                
+                /* Discarded */
+            }
+        });
+        
+        SqshContext ctx = new SqshContext();
+        Session session = new Session(ctx, 1,
+            new ByteArrayInputStream(new byte[0]), nowhere, nowhere);
+        session.getBufferManager().addBuffer(
+            session.getBufferManager().newBuffer());
+        
+        AliasManager aliases = ctx.getAliasManager();
+        
+        for (int round = 1; round <= ROUNDS; round++) {
+            
+            boolean report = (round == ROUNDS);
+            
+            long start = System.nanoTime();
+            for (int i = 0; i < LINES; i++) {
+                
+                sink += aliases.process("select a, b from t where c = 1").length();
+            }
+            report(report, "alias scan (SQL)", start);
+            
+            start = System.nanoTime();
+            for (int i = 0; i < LINES; i++) {
+                
+                OptionProcessor parser = new OptionProcessor(
+                    ctx.getCommandManager().getCommand("\\go").getOptions());
+                parser.parseOptions(new String[] { "-m", "csv", "-i", "t" });
+                sink += 1;
+            }
+            report(report, "\\go option parse", start);
+            
+            start = System.nanoTime();
+            for (int i = 0; i < LINES; i++) {
+                
+                session.evaluate("\\set x=1");
+            }
+            report(report, "\\set x=1", start);
+            
+            start = System.nanoTime();
+            for (int i = 0; i < LINES; i++) {
+                
+                session.evaluate("\\echo hello");
+            }
+            report(report, "\\echo hello", start);
+            
+            start = System.nanoTime();
+            for (int i = 0; i < LINES; i++) {
+                
+                session.evaluate("\\reset");
+            }
+            report(report, "\\reset", start);
+            
+            start = System.nanoTime();
+            for (int i = 0; i < LINES; i++) {
+                
+                session.evaluate("   and c = 1");
+                if (i % 100 == 0) {
+                    
+                    session.getBufferManager().getCurrent().clear();
+                }
+            }
+            report(report, "SQL line", start);
+        }
+        
+        System.out.println("(" + sink + ")");
+        ctx.close();
+    }
+    
+    private static void report(boolean doReport, String name, long start) {
+        
+        long elapsed = System.nanoTime() - start;
+        if (doReport) {
+            
+            System.out.println(String.format("%-20s %8.1f ns/line",
+                name, (double) elapsed / LINES));
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh;
+
+import static org.sqsh.JdbcStubs.proxy;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.sqsh.normalizer.UpperCaseNormalizer;
+
+public class CurrentNamesTest {
+
+    private int catalogCalls = 0;
+    private int schemaCalls = 0;
+
+    @Test
+    public void testTracking() throws Exception {
+
+        SqshContext ctx = new SqshContext();
+        PrintStream out = new PrintStream(new ByteArrayOutputStream(), true);
+        Session session = new Session(ctx, 1,
+            new ByteArrayInputStream(new byte[0]), out, out);
+
+        Connection conn = proxy(Connection.class, new InvocationHandler() {
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+
+                if (method.getName().equals("getCatalog")) {
+
+                    ++catalogCalls;
+                    return "master";
+                }
+                if (method.getName().equals("getSchema")) {
+
+                    ++schemaCalls;
+                    return "dbo";
+                }
+
+                return null;
+            }
+        });
+
+        SQLConnectionContext sqlConn = new SQLConnectionContext(session,
+            new ConnectionDescriptor(), conn, "jdbc:test:", null,
+            new UpperCaseNormalizer(), null);
+
+        sqlConn.resyncCurrentNames();
+        Assert.assertEquals("master", sqlConn.getCurrentCatalog());
+        Assert.assertEquals("dbo", sqlConn.getCurrentSchema());
+        Assert.assertEquals(1, catalogCalls);
+        Assert.assertEquals(1, schemaCalls);
+
+        SQLObjectName name = new SQLObjectName(sqlConn, "t1");
+        Assert.assertEquals("master", name.getCatalog());
+        Assert.assertEquals("dbo", name.getSchema());
+        Assert.assertEquals(1, catalogCalls);
+
+        sqlConn.trackCurrentNames("select * from information_schema.tables", true);
+        sqlConn.trackCurrentNames("/* switch */ use pubs;", true);
+        Assert.assertEquals("PUBS", sqlConn.getCurrentCatalog());
+        Assert.assertEquals(1, catalogCalls);
+
+        sqlConn.trackCurrentNames("use [Sales]", true);
+        Assert.assertEquals("Sales", sqlConn.getCurrentCatalog());
+
+        sqlConn.trackCurrentNames("set current schema = 'Bob''s'", true);
+        Assert.assertEquals("Bob's", sqlConn.getCurrentSchema());
+        sqlConn.trackCurrentNames("ALTER SESSION SET CURRENT_SCHEMA = \"hr\"", true);
+        Assert.assertEquals("hr", sqlConn.getCurrentSchema());
+        Assert.assertEquals(1, schemaCalls);
+
+        /*
+         * Things that can't be followed are fetched again.
+         */
+        sqlConn.trackCurrentNames("set schema user", true);
+        Assert.assertEquals("dbo", sqlConn.getCurrentSchema());
+        Assert.assertEquals(2, schemaCalls);
+
+        sqlConn.trackCurrentNames("use pubs", false);
+        Assert.assertEquals("master", sqlConn.getCurrentCatalog());
+        Assert.assertEquals(2, catalogCalls);
+
+        ctx.close();
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh;
+
+import java.lang.reflect.Method;
+import java.sql.BatchUpdateException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.sqsh.JdbcStubs.ScriptedDatabase;
+
+public class DmlBatchTest {
+
+    /*
+     * What was sent to the database, in order: the SQL executed on its own
+     * "batch[...]" for each JDBC batch, and "commit" and "rollback".
+     */
+    private List<String> calls = new ArrayList<String>();
+    private String output;
+
+    @Test
+    public void testIsSimpleDml() {
+
+        Assert.assertTrue(DmlBatch.isSimpleDml("insert into t values (1, 'a;b')"));
+        Assert.assertTrue(DmlBatch.isSimpleDml(
+            "insert into t select * from s where x in (select y from u)"));
+        Assert.assertTrue(DmlBatch.isSimpleDml("update t set x = 1 where y = 2"));
+        Assert.assertTrue(DmlBatch.isSimpleDml("delete from t -- go"));
+        Assert.assertTrue(DmlBatch.isSimpleDml(
+            "insert into t values (1) on duplicate key update x = 1"));
+
+        Assert.assertFalse(DmlBatch.isSimpleDml("select * from t"));
+        Assert.assertFalse(DmlBatch.isSimpleDml("insert into t values (1);"));
+        Assert.assertFalse(DmlBatch.isSimpleDml(
+            "insert into t values (1)\ninsert into t values (2)"));
+        Assert.assertFalse(DmlBatch.isSimpleDml(
+            "delete from t output deleted.x"));
+        Assert.assertFalse(DmlBatch.isSimpleDml("update t set x = ?"));
+        Assert.assertFalse(DmlBatch.isSimpleDml("insert into t values (1"));
+    }
+
+    @Test
+    public void testBatching() throws Exception {
+
+        SqshContext ctx = new SqshContext();
+        ctx.setDmlBatchSize(2);
+
+        run(ctx, "insert 1\ngo\ninsert 2\ngo\ninsert 3\ngo\n"
+            + "select 1\ngo\ninsert 4\ngo\n");
+        Assert.assertEquals("[batch[insert 1, insert 2], batch[insert 3], "
+            + "select 1, batch[insert 4]]", calls.toString());
+
+        ctx.close();
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+
+        SqshContext ctx = new SqshContext();
+        ctx.setDmlBatchSize(10);
+
+        Session session = run(ctx,
+            "insert 1\ngo\n\ninsert fail\n  values (2)\ngo\ninsert 3\ngo\n");
+        Assert.assertEquals("[batch[insert 1, insert fail\n  values (2), "
+            + "insert 3], batch[insert 3]]", calls.toString());
+        Assert.assertTrue(output,
+            output.contains("Statement at line 4 failed:"));
+        Assert.assertEquals(1, session.getCommandFailCount());
+
+        ctx.close();
+    }
+
+    @Test
+    public void testStop() throws Exception {
+
+        SqshContext ctx = new SqshContext();
+        ctx.setDmlBatchSize(10);
+        ctx.setCommandsToExitOnFailure("\\go");
+
+        run(ctx, "insert 1\ngo\ninsert fail\ngo\ninsert 3\ngo\n"
+            + "insert 4\ngo\n");
+        Assert.assertEquals("[batch[insert 1, insert fail, insert 3, "
+            + "insert 4]]", calls.toString());
+        Assert.assertTrue(output, output.contains(
+            "2 statements from line 5 on were not run"));
+
+        ctx.close();
+    }
+
+    @Test
+    public void testTransactionGroup() throws Exception {
+
+        SqshContext ctx = new SqshContext();
+        ctx.setDmlBatchSize(10);
+        ctx.setTxGroupSize(2);
+
+        run(ctx, "insert 1\ngo\ninsert 2\ngo\ninsert 3\ngo\n"
+            + "insert fail\ngo\ninsert 5\ngo\n");
+        Assert.assertEquals("[batch[insert 1, insert 2], commit, "
+            + "batch[insert 3, insert fail], rollback, batch[insert 5], "
+            + "commit]", calls.toString());
+
+        ctx.close();
+    }
+
+    /**
+     * Runs a script on a new session connected to a database that updates
+     * a row for each statement, except for those that contain "fail". A
+     * batch stops at the first failure.
+     */
+    private Session run(SqshContext ctx, String script) throws Exception {
+
+        ScriptedDatabase database = new ScriptedDatabase() {
+
+            @Override
+            protected Object call(Method method, Object[] args)
+                throws Exception {
+
+                String name = method.getName();
+                if (name.equals("commit") || name.equals("rollback")) {
+
+                    calls.add(name);
+                }
+
+                return super.call(method, args);
+            }
+
+            @Override
+            protected int execute(String sql) {
+
+                calls.add(sql);
+                return 1;
+            }
+
+            @Override
+            protected int[] executeBatch(List<String> batch)
+                throws SQLException {
+
+                calls.add("batch" + batch);
+                int []counts = new int[batch.size()];
+                for (int i = 0; i < counts.length; i++) {
+
+                    if (batch.get(i).contains("fail")) {
+
+                        throw new BatchUpdateException("Failed: "
+                            + batch.get(i), Arrays.copyOf(counts, i));
+                    }
+
+                    counts[i] = 1;
+                }
+
+                return counts;
+            }
+        };
+
+        Session session = database.run(ctx, script);
+        output = database.getOutput();
+        return session;
+    }
+}
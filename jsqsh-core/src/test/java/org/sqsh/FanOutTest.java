@@ -0,0 +1,122 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.sql.DriverManager;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.sqsh.JdbcStubs.RowsDriver;
+
+public class FanOutTest {
+
+    @Test
+    public void testFanOut() throws Exception {
+
+        DriverManager.registerDriver(new RowsDriver());
+
+        SqshContext ctx = new SqshContext();
+        ctx.getDriverManager().addDriver(new SQLDriver("rows",
+            RowsDriver.class.getName(), "jdbc:rows:"));
+
+        Session shard1 = connect(ctx, "shard1", null);
+        Session shard2 = connect(ctx, "shard2", null);
+        Session other = connect(ctx, null, null);
+
+        Assert.assertEquals(Arrays.asList(shard1, shard2),
+            FanOut.select(ctx, "shard*"));
+        Assert.assertEquals(Arrays.asList(shard1, shard2, other),
+            FanOut.select(ctx, other.getId() + "," + shard1.getId() + "-" + shard2.getId()));
+
+        try {
+
+            FanOut.select(ctx, "999");
+            Assert.fail("Expected an unknown session to be rejected");
+        }
+        catch (IllegalArgumentException e) {
+
+            /* Expected */
+        }
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(buffer, true);
+        Session session = new Session(ctx, 99,
+            new ByteArrayInputStream(new byte[0]), out, out);
+
+        FanOut fanOut = new FanOut(session, FanOut.select(ctx, "*"));
+        fanOut.setStyle("csv");
+        fanOut.setParallel(2);
+        Assert.assertEquals(0, fanOut.execute("select 2"));
+
+        List<String> lines = Arrays.asList(buffer.toString().split("\n"));
+        Assert.assertEquals(buffer.toString(), "Source,c", lines.get(0));
+        Assert.assertTrue(lines.contains("shard1,row1"));
+        Assert.assertTrue(lines.contains("shard2,row2"));
+        Assert.assertTrue(lines.contains(other.getId() + ",row2"));
+        Assert.assertTrue(lines.get(lines.size() - 1).startsWith(
+            "(6 rows from 3 sessions; total: "));
+
+        buffer.reset();
+        fanOut = new FanOut(session, FanOut.select(ctx, "shard1"));
+        fanOut.setStyle("csv");
+        fanOut.setMerge(false);
+        Assert.assertEquals(0, fanOut.execute("select 1"));
+        Assert.assertTrue(buffer.toString(),
+            buffer.toString().startsWith("[Session " + shard1.getId()
+                + ": shard1]\nc\nrow1\n"));
+
+        /*
+         * Results with the same number of columns, but not the same
+         * columns, can't be merged.
+         */
+        Session renamed = connect(ctx, "renamed", "jdbc:rows:d");
+
+        buffer.reset();
+        fanOut = new FanOut(session, Arrays.asList(shard1, renamed));
+        fanOut.setStyle("csv");
+        fanOut.setParallel(1);
+        Assert.assertEquals(1, fanOut.execute("select 1"));
+        Assert.assertTrue(buffer.toString(), buffer.toString().contains(
+            "Results do not have the same columns as those of the other "
+            + "sessions: column 1 is d (VARCHAR) instead of c (VARCHAR)"));
+
+        ctx.close();
+    }
+
+    private Session connect(SqshContext ctx, String name, String url)
+        throws Exception {
+
+        Session session = ctx.newSession(false);
+        ConnectionDescriptor connDesc = new ConnectionDescriptor();
+        connDesc.setName(name);
+        connDesc.setDriver("rows");
+        if (url != null) {
+
+            connDesc.setUrl(url);
+        }
+        connDesc.setUsername("user");
+        connDesc.setPassword("pass");
+        session.setConnectionContext(
+            ctx.getDriverManager().connect(session, connDesc), false);
+
+        return session;
+    }
+}
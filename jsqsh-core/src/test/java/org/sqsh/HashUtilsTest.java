@@ -0,0 +1,54 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.sqsh.util.HashUtils;
+
+public class HashUtilsTest {
+
+    @Test
+    public void testFnv1a() {
+
+        /*
+         * The published FNV-1a test vectors.
+         */
+        Assert.assertEquals("cbf29ce484222325",
+            HashUtils.toHex(HashUtils.fnv1a(0L, "")));
+        Assert.assertEquals("af63dc4c8601ec8c",
+            HashUtils.toHex(HashUtils.fnv1a(0L, "a")));
+        Assert.assertEquals("85944171f73967e8",
+            HashUtils.toHex(HashUtils.fnv1a(0L, "foobar")));
+
+        /*
+         * Characters and their bytes hash the same for ASCII text, and the
+         * tag changes the hash.
+         */
+        Assert.assertEquals(HashUtils.fnv1a(7L, "foobar"),
+            HashUtils.fnv1a(7L, "foobar".getBytes()));
+        Assert.assertTrue(HashUtils.fnv1a(0L, "foobar")
+            != HashUtils.fnv1a(7L, "foobar"));
+    }
+
+    @Test
+    public void testMix() {
+
+        Assert.assertEquals(0L, HashUtils.mix(0L));
+        Assert.assertEquals("0000000000000001", HashUtils.toHex(1L));
+        Assert.assertTrue(HashUtils.mix(1L) != HashUtils.mix(2L));
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.sql.DriverManager;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.sqsh.JdbcStubs.RowsDriver;
+
+public class JdbcProfilerTest {
+
+    @Test
+    public void testProfile() throws Exception {
+
+        DriverManager.registerDriver(new RowsDriver());
+
+        SqshContext ctx = new SqshContext();
+        ctx.getDriverManager().addDriver(new SQLDriver("rows",
+            RowsDriver.class.getName(), "jdbc:rows:"));
+        ctx.getVariableManager().getVariable("jdbc_profile").setValue("batch");
+
+        Session session = ctx.newSession(false);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        session.setOut(new PrintStream(buffer, true), false);
+        session.setErr(new PrintStream(buffer, true), false);
+        session.getBufferManager().addBuffer(
+            session.getBufferManager().newBuffer());
+
+        ConnectionDescriptor connDesc = new ConnectionDescriptor();
+        connDesc.setDriver("rows");
+        connDesc.setUsername("user");
+        connDesc.setPassword("pass");
+        SQLConnectionContext conn =
+            ctx.getDriverManager().connect(session, connDesc);
+        session.setConnectionContext(conn, false);
+
+        JdbcProfiler profiler = conn.getProfiler();
+        Assert.assertNotNull(profiler);
+        Assert.assertTrue(profiler.getCounters().isEmpty());
+
+        session.getSQLRenderer().execute(session, "select 3");
+        Assert.assertTrue(buffer.toString(),
+            buffer.toString().contains("3 rows in results"));
+
+        Map<String, Long> calls = new HashMap<String, Long>();
+        for (JdbcProfiler.Counter counter : profiler.getCounters()) {
+
+            calls.put(counter.getName(), counter.getCalls());
+        }
+
+        Assert.assertEquals(calls.toString(), 1L,
+            (long) calls.get("Connection.createStatement"));
+        Assert.assertEquals(1L, (long) calls.get("Statement.execute"));
+        Assert.assertEquals(4L, (long) calls.get("ResultSet.next"));
+        Assert.assertEquals(3L, (long) calls.get("ResultSet.getString"));
+
+        /*
+         * In batch mode, \go shows the profile and starts it over.
+         */
+        session.evaluate("select 2");
+        session.evaluate("\\go");
+        String out = buffer.toString();
+        Assert.assertTrue(out, out.contains("ResultSet.next"));
+        Assert.assertTrue(out, out.contains("Driver: "));
+        Assert.assertTrue(out, out.contains("2 rows in results"));
+        Assert.assertTrue(profiler.getCounters().isEmpty());
+
+        try {
+
+            ctx.setJdbcProfile("sometimes");
+            Assert.fail("Expected an invalid mode to be rejected");
+        }
+        catch (IllegalArgumentException e) {
+
+            /* Expected */
+        }
+
+        ctx.close();
+    }
+}
@@ -0,0 +1,448 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * Stand-ins for JDBC objects used by the tests. JDBC interfaces are large,
+ * so the tests implement just the methods they care about with a
+ * {@link Proxy} and leave everything else to {@link #defaultValue(Method)}.
+ */
+public class JdbcStubs {
+
+    /**
+     * Creates a stand-in for a JDBC interface. The methods of Object are
+     * taken care of here (proxies are equal only to themselves), so the
+     * handler only sees the interface's own methods.
+     *
+     * @param iface The interface.
+     * @param handler Handles calls to the interface's methods.
+     * @return The stand-in.
+     */
+    public static <T> T proxy(final Class<T> iface,
+            final InvocationHandler handler) {
+
+        return iface.cast(Proxy.newProxyInstance(
+            JdbcStubs.class.getClassLoader(), new Class<?>[] { iface },
+            new InvocationHandler() {
+
+                @Override
+                public Object invoke(Object proxy, Method method,
+                        Object[] args) throws Throwable {
+
+                    if (method.getDeclaringClass() == Object.class) {
+
+                        String name = method.getName();
+                        if (name.equals("hashCode")) {
+
+                            return System.identityHashCode(proxy);
+                        }
+                        if (name.equals("equals")) {
+
+                            return proxy == args[0];
+                        }
+
+                        return iface.getSimpleName() + "@"
+                            + Integer.toHexString(System.identityHashCode(proxy));
+                    }
+
+                    return handler.invoke(proxy, method, args);
+                }
+            }));
+    }
+
+    /**
+     * @param method A method that a stand-in doesn't implement.
+     * @return What the method returns: false, zero or null.
+     */
+    public static Object defaultValue(Method method) {
+
+        Class<?> type = method.getReturnType();
+        if (type == boolean.class) {
+
+            return false;
+        }
+        if (type == int.class) {
+
+            return 0;
+        }
+        if (type == long.class) {
+
+            return 0L;
+        }
+
+        return null;
+    }
+
+    /**
+     * A fake database that a script of sqsh input is run against. What it
+     * does is up to the test, which overrides {@link #execute(String)} for
+     * SQL that is executed, {@link #executeBatch(List)} for JDBC batches
+     * and {@link #call(Method, Object[])} for anything else done to the
+     * connection. Statements don't return results, only update counts.
+     */
+    public static class ScriptedDatabase {
+
+        private String output;
+
+        /**
+         * Runs a script on a new session connected to the database.
+         *
+         * @param ctx The context to create the session in.
+         * @param script The input.
+         * @return The session, after the script has run.
+         */
+        public Session run(SqshContext ctx, String script) throws Exception {
+
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            PrintStream out = new PrintStream(buffer, true);
+            Session session = ctx.newSession(
+                new ByteArrayInputStream(script.getBytes()), out, out, false);
+            session.setConnectionContext(connect(session), false);
+
+            ctx.run(session);
+            output = buffer.toString();
+            return session;
+        }
+
+        /**
+         * @return Everything the session wrote while running the last
+         *   script, to its output and its error output.
+         */
+        public String getOutput() {
+
+            return output;
+        }
+
+        /**
+         * Connects a session to the database.
+         *
+         * @param session The session.
+         * @return The connection.
+         */
+        protected SQLConnectionContext connect(Session session)
+            throws Exception {
+
+            return new SQLConnectionContext(session,
+                new ConnectionDescriptor(), connection(), "jdbc:test:",
+                null, null, null);
+        }
+
+        /**
+         * @return A new connection to the database.
+         */
+        public Connection connection() {
+
+            return proxy(Connection.class, new InvocationHandler() {
+
+                @Override
+                public Object invoke(Object proxy, Method method,
+                        Object[] args) throws Exception {
+
+                    String name = method.getName();
+                    if (name.equals("createStatement")
+                        || name.equals("prepareStatement")) {
+
+                        return statement(args == null
+                            ? null : (String) args[0]);
+                    }
+
+                    return call(method, args);
+                }
+            });
+        }
+
+        /**
+         * Called for everything done to a connection other than creating
+         * statements. Connections are in auto-commit mode.
+         *
+         * @param method The method called.
+         * @param args Its arguments.
+         * @return What the method returns.
+         */
+        protected Object call(Method method, Object[] args) throws Exception {
+
+            if (method.getName().equals("getAutoCommit")) {
+
+                return true;
+            }
+
+            return defaultValue(method);
+        }
+
+        /**
+         * Called when SQL is executed on its own.
+         *
+         * @param sql The SQL, trimmed.
+         * @return The number of rows updated.
+         */
+        protected int execute(String sql) throws Exception {
+
+            return 1;
+        }
+
+        /**
+         * Called when a JDBC batch is executed.
+         *
+         * @param batch The SQL of each statement in the batch, trimmed.
+         * @return The number of rows updated by each.
+         */
+        protected int[] executeBatch(List<String> batch) throws Exception {
+
+            int []counts = new int[batch.size()];
+            for (int i = 0; i < counts.length; i++) {
+
+                counts[i] = 1;
+            }
+
+            return counts;
+        }
+
+        private PreparedStatement statement(final String prepared) {
+
+            return proxy(PreparedStatement.class, new InvocationHandler() {
+
+                List<String> batch = new ArrayList<String>();
+                int updateCount = -1;
+
+                @Override
+                public Object invoke(Object proxy, Method method,
+                        Object[] args) throws Exception {
+
+                    String name = method.getName();
+                    if (name.equals("execute")) {
+
+                        String sql = (args == null
+                            ? prepared : (String) args[0]);
+                        updateCount = execute(sql.trim());
+                        return false;
+                    }
+                    if (name.equals("addBatch")) {
+
+                        batch.add(((String) args[0]).trim());
+                        return null;
+                    }
+                    if (name.equals("executeBatch")) {
+
+                        try {
+
+                            return executeBatch(batch);
+                        }
+                        finally {
+
+                            batch = new ArrayList<String>();
+                        }
+                    }
+                    if (name.equals("getUpdateCount")) {
+
+                        int count = updateCount;
+                        updateCount = -1;
+                        return count;
+                    }
+
+                    return defaultValue(method);
+                }
+            });
+        }
+    }
+
+    /**
+     * A driver whose statements return as many rows as the number that
+     * the SQL ends with. The rows have one VARCHAR column, named by
+     * whatever follows "jdbc:rows:" in the URL, or "c".
+     */
+    public static class RowsDriver
+        implements Driver {
+
+        @Override
+        public Connection connect(String url, Properties info) {
+
+            if (!acceptsURL(url)) {
+
+                return null;
+            }
+
+            String name = url.substring("jdbc:rows:".length());
+            final String column = (name.length() > 0 ? name : "c");
+
+            return (Connection) proxy(Connection.class, new InvocationHandler() {
+
+                @Override
+                public Object invoke(Object proxy, Method method,
+                        Object[] args) {
+
+                    if (method.getName().equals("createStatement")) {
+
+                        return statement(column);
+                    }
+
+                    return defaultValue(method);
+                }
+            });
+        }
+
+        private Statement statement(final String column) {
+
+            final Statement []statement = new Statement[1];
+            final ResultSet []results = new ResultSet[1];
+            final ResultSetMetaData meta = (ResultSetMetaData) proxy(
+                ResultSetMetaData.class, new InvocationHandler() {
+
+                @Override
+                public Object invoke(Object proxy, Method method,
+                        Object[] args) {
+
+                    String name = method.getName();
+                    if (name.equals("getColumnCount")) {
+
+                        return 1;
+                    }
+                    if (name.equals("getColumnType")) {
+
+                        return Types.VARCHAR;
+                    }
+                    if (name.equals("getColumnLabel")
+                            || name.equals("getColumnName")) {
+
+                        return column;
+                    }
+
+                    return defaultValue(method);
+                }
+            });
+
+            statement[0] = (Statement) proxy(Statement.class,
+                new InvocationHandler() {
+
+                int rows = 0;
+                int row = 0;
+
+                @Override
+                public Object invoke(Object proxy, Method method,
+                        Object[] args) {
+
+                    String name = method.getName();
+                    if (name.equals("execute")) {
+
+                        String sql = ((String) args[0]).trim();
+                        rows = Integer.parseInt(
+                            sql.substring(sql.lastIndexOf(' ') + 1));
+                        results[0] = results();
+                        return true;
+                    }
+                    if (name.equals("getResultSet")) {
+
+                        return results[0];
+                    }
+                    if (name.equals("getUpdateCount")) {
+
+                        return -1;
+                    }
+
+                    return defaultValue(method);
+                }
+
+                private ResultSet results() {
+
+                    return (ResultSet) proxy(ResultSet.class,
+                        new InvocationHandler() {
+
+                        @Override
+                        public Object invoke(Object proxy, Method method,
+                                Object[] args) {
+
+                            String name = method.getName();
+                            if (name.equals("next")) {
+
+                                return ++row <= rows;
+                            }
+                            if (name.equals("getMetaData")) {
+
+                                return meta;
+                            }
+                            if (name.equals("getString")) {
+
+                                return "row" + row;
+                            }
+                            if (name.equals("getStatement")) {
+
+                                return statement[0];
+                            }
+
+                            return defaultValue(method);
+                        }
+                    });
+                }
+            });
+
+            return statement[0];
+        }
+
+        @Override
+        public boolean acceptsURL(String url) {
+
+            return url.startsWith("jdbc:rows:");
+        }
+
+        @Override
+        public DriverPropertyInfo[] getPropertyInfo(String url,
+                Properties info) {
+
+            return new DriverPropertyInfo[0];
+        }
+
+        @Override
+        public int getMajorVersion() {
+
+            return 1;
+        }
+
+        @Override
+        public int getMinorVersion() {
+
+            return 0;
+        }
+
+        @Override
+        public boolean jdbcCompliant() {
+
+            return false;
+        }
+
+        public Logger getParentLogger() {
+
+            return null;
+        }
+    }
+}
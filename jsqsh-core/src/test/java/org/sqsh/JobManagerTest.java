@@ -0,0 +1,100 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.sql.DriverManager;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.sqsh.JdbcStubs.RowsDriver;
+
+public class JobManagerTest {
+
+    @Test
+    public void testBackgroundJob() throws Exception {
+
+        DriverManager.registerDriver(new RowsDriver());
+
+        SqshContext ctx = new SqshContext();
+        ctx.getDriverManager().addDriver(new SQLDriver("rows",
+            RowsDriver.class.getName(), "jdbc:rows:"));
+
+        Session session = ctx.newSession(false);
+        ConnectionDescriptor connDesc = new ConnectionDescriptor();
+        connDesc.setDriver("rows");
+        connDesc.setUsername("user");
+        connDesc.setPassword("pass");
+        session.setConnectionContext(
+            ctx.getDriverManager().connect(session, connDesc), false);
+
+        JobManager jobMan = ctx.getJobManager();
+        Job job = jobMan.start(session, "select 3", null, "csv");
+        job.waitFor();
+
+        Assert.assertEquals(Job.State.DONE, job.getState());
+        Assert.assertEquals(3, job.getRowsFetched());
+        Assert.assertTrue(job.isSpooled());
+
+        File output = job.getOutput();
+        String results = new String(Files.readAllBytes(output.toPath()));
+        Assert.assertTrue(results, results.startsWith("c\nrow1\nrow2\nrow3\n"));
+
+        Assert.assertEquals(1, jobMan.getFinished(session.getId()).size());
+        Assert.assertEquals(0, jobMan.getFinished(session.getId()).size());
+        Assert.assertSame(job, jobMan.getLastJob(session.getId()));
+
+        Assert.assertTrue(jobMan.remove(job));
+        Assert.assertFalse(output.exists());
+        Assert.assertNull(jobMan.getJob(job.getId()));
+
+        ctx.close();
+    }
+
+    @Test
+    public void testPrivateSession() throws Exception {
+
+        SqshContext ctx = new SqshContext();
+        Session owner = ctx.newSession(false);
+        Session other = ctx.newSession(false);
+
+        /*
+         * A private session has its owner's id, but is only equal to
+         * itself.
+         */
+        Session session = new Session(owner,
+            new ByteArrayInputStream(new byte[0]), owner.out, owner.err);
+        Session session2 = new Session(owner,
+            new ByteArrayInputStream(new byte[0]), owner.out, owner.err);
+        Assert.assertEquals(owner.getId(), session.getId());
+        Assert.assertSame(owner, session.getOwner());
+        Assert.assertNull(owner.getOwner());
+
+        Assert.assertEquals(session, session);
+        Assert.assertFalse(session.equals(owner));
+        Assert.assertFalse(owner.equals(session));
+        Assert.assertFalse(session.equals(session2));
+
+        Assert.assertEquals(owner, ctx.getSession(owner.getId()));
+        Assert.assertEquals(owner.hashCode(),
+            ctx.getSession(owner.getId()).hashCode());
+        Assert.assertFalse(owner.equals(other));
+
+        ctx.close();
+    }
+}
@@ -0,0 +1,473 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh;
+
+import static org.sqsh.JdbcStubs.defaultValue;
+import static org.sqsh.JdbcStubs.proxy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.rowset.serial.SerialBlob;
+import javax.sql.rowset.serial.SerialClob;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.sqsh.format.BlobFormatter;
+import org.sqsh.format.ClobFormatter;
+import org.sqsh.format.LobExporter;
+
+public class LobTest {
+
+    private static final String URL = "jdbc:lobtest:db";
+
+    /*
+     * The values of the one row that the fake database returns, in a CLOB
+     * column and a BLOB column.
+     */
+    private static final String TEXT = "hello world";
+    private static final byte []BYTES = { 1, 2, 3, 4, 5, 6, 7, 8 };
+
+    static {
+
+        try {
+
+            DriverManager.registerDriver((Driver) proxy(Driver.class,
+                new InvocationHandler() {
+
+                @Override
+                public Object invoke(Object proxy, Method method,
+                        Object[] args) {
+
+                    String name = method.getName();
+                    if (name.equals("acceptsURL")) {
+
+                        return URL.equals(args[0]);
+                    }
+                    if (name.equals("connect")) {
+
+                        return URL.equals(args[0]) ? connection() : null;
+                    }
+
+                    return defaultValue(method);
+                }
+            }));
+        }
+        catch (SQLException e) {
+
+            throw new RuntimeException(e);
+        }
+    }
+
+    private File dir;
+
+    @Before
+    public void makeDir() throws IOException {
+
+        dir = File.createTempFile("lobtest", "");
+        Assert.assertTrue(dir.delete());
+    }
+
+    @After
+    public void removeDir() {
+
+        File []files = dir.listFiles();
+        if (files != null) {
+
+            for (File file : files) {
+
+                file.delete();
+            }
+        }
+
+        dir.delete();
+    }
+
+    @Test
+    public void testClobCap() throws Exception {
+
+        /*
+         * Far more text than could ever be displayed; only a little more
+         * than the cap may be read from the driver.
+         */
+        AtomicLong read = new AtomicLong();
+        Clob clob = clob(50000000L, read);
+
+        String value = new ClobFormatter(1000, null).format(clob);
+        Assert.assertEquals(1003, value.length());
+        Assert.assertTrue(value.endsWith("x..."));
+        Assert.assertTrue("Read " + read.get(), read.get() < 1000 + 8192);
+
+        /*
+         * A value that is exactly the length of the cap isn't truncated.
+         */
+        Assert.assertEquals(1000, new ClobFormatter(1000, null).format(
+            clob(1000L, read)).length());
+        Assert.assertEquals(TEXT, new ClobFormatter(TEXT.length(), null)
+            .format(new SerialClob(TEXT.toCharArray())));
+        Assert.assertEquals(TEXT, new ClobFormatter()
+            .format(new SerialClob(TEXT.toCharArray())));
+    }
+
+    @Test
+    public void testBlobCap() throws Exception {
+
+        /*
+         * Only the bytes that are displayed are asked for.
+         */
+        final int []asked = new int[1];
+        Blob blob = (Blob) proxy(Blob.class, new InvocationHandler() {
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+
+                String name = method.getName();
+                if (name.equals("length")) {
+
+                    return 50000000L;
+                }
+                if (name.equals("getBytes")) {
+
+                    asked[0] = (Integer) args[1];
+                    return new byte[asked[0]];
+                }
+
+                return defaultValue(method);
+            }
+        });
+
+        Assert.assertEquals("0x00000000...",
+            new BlobFormatter(4, null).format(blob));
+        Assert.assertEquals(4, asked[0]);
+
+        Assert.assertEquals("0x0102030405060708",
+            new BlobFormatter(8, null).format(new SerialBlob(BYTES)));
+        Assert.assertEquals("0x0102030405060708",
+            new BlobFormatter().format(new SerialBlob(BYTES)));
+    }
+
+    @Test
+    public void testCapThroughRenderer() throws Exception {
+
+        SqshContext ctx = new SqshContext();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        Session session = connect(ctx, buffer);
+
+        session.evaluate("\\set lob_maxlen=5");
+        Assert.assertEquals(5, ctx.getDataFormatter().getMaxLobLength());
+
+        session.evaluate("select lobs");
+        session.evaluate("\\go -m csv");
+
+        String output = buffer.toString();
+        Assert.assertTrue(output, output.contains("hello...,0x0102030405..."));
+        ctx.close();
+    }
+
+    @Test
+    public void testExportThroughRenderer() throws Exception {
+
+        SqshContext ctx = new SqshContext();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        Session session = connect(ctx, buffer);
+
+        /*
+         * The cap doesn't apply to exported values.
+         */
+        session.evaluate("\\set lob_maxlen=5");
+        session.evaluate("\\set lob_dir=" + dir.getPath());
+        Assert.assertEquals(dir.getPath(),
+            ctx.getDataFormatter().getLobExportDirectory());
+
+        session.evaluate("select lobs");
+        session.evaluate("\\go -m csv");
+
+        File text = new File(dir, "lob_000001.txt");
+        File bytes = new File(dir, "lob_000002.bin");
+        String output = buffer.toString();
+        Assert.assertTrue(output,
+            output.contains(text.getPath() + "," + bytes.getPath()));
+        Assert.assertEquals(TEXT, new String(read(text), "UTF-8"));
+        Assert.assertArrayEquals(BYTES, read(bytes));
+
+        session.evaluate("\\set lob_dir=");
+        Assert.assertNull(ctx.getDataFormatter().getLobExportDirectory());
+        ctx.close();
+    }
+
+    @Test
+    public void testExporter() throws Exception {
+
+        /*
+         * The directory is created when it is first needed, values larger
+         * than a chunk are copied whole, and files that are already there
+         * are left alone.
+         */
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+
+            sb.append((char) ('a' + (i % 26)));
+        }
+        sb.append('\u00e9');
+
+        byte []bytes = new byte[30000];
+        for (int i = 0; i < bytes.length; i++) {
+
+            bytes[i] = (byte) i;
+        }
+
+        LobExporter exporter = new LobExporter(dir);
+        Assert.assertFalse(dir.exists());
+
+        String textFile = exporter.export(
+            new SerialClob(sb.toString().toCharArray()));
+        Assert.assertEquals(new File(dir, "lob_000001.txt").getPath(),
+            textFile);
+        Assert.assertEquals(sb.toString(),
+            new String(read(new File(textFile)), "UTF-8"));
+
+        String bytesFile = exporter.export(new SerialBlob(bytes));
+        Assert.assertArrayEquals(bytes, read(new File(bytesFile)));
+
+        LobExporter again = new LobExporter(dir);
+        Assert.assertEquals(new File(dir, "lob_000002.txt").getPath(),
+            again.export(new SerialClob(TEXT.toCharArray())));
+        Assert.assertEquals(sb.toString(),
+            new String(read(new File(textFile)), "UTF-8"));
+    }
+
+    /**
+     * Creates a CLOB of a given number of x's, counting how many are read.
+     */
+    private static Clob clob(final long length, final AtomicLong read) {
+
+        read.set(0);
+        return (Clob) proxy(Clob.class, new InvocationHandler() {
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+
+                if (method.getName().equals("getCharacterStream")) {
+
+                    return new Reader() {
+
+                        @Override
+                        public int read(char[] cbuf, int off, int len) {
+
+                            long left = length - read.get();
+                            if (left <= 0) {
+
+                                return -1;
+                            }
+
+                            int count = (int) Math.min(len, left);
+                            for (int i = 0; i < count; i++) {
+
+                                cbuf[off + i] = 'x';
+                            }
+
+                            read.addAndGet(count);
+                            return count;
+                        }
+
+                        @Override
+                        public void close() {
+
+                            /* Nothing to do */
+                        }
+                    };
+                }
+
+                return defaultValue(method);
+            }
+        });
+    }
+
+    private static byte[] read(File file) throws IOException {
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        InputStream in = new FileInputStream(file);
+        try {
+
+            byte []chunk = new byte[4096];
+            int count;
+            while ((count = in.read(chunk)) >= 0) {
+
+                out.write(chunk, 0, count);
+            }
+        }
+        finally {
+
+            in.close();
+        }
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Creates a session connected to the fake database.
+     */
+    private static Session connect(SqshContext ctx,
+            ByteArrayOutputStream buffer) throws Exception {
+
+        Session session = ctx.newSession(false);
+        session.setOut(new PrintStream(buffer, true), false);
+        session.getBufferManager().addBuffer(
+            session.getBufferManager().newBuffer());
+        session.getRendererManager().setShowFooters(false);
+
+        session.getDriverManager().addDriver(new SQLDriver("lobtest",
+            LobTest.class.getName(), URL));
+
+        ConnectionDescriptor connDesc = new ConnectionDescriptor();
+        connDesc.setDriver("lobtest");
+        connDesc.setUrl(URL);
+        connDesc.setUsername("user");
+        connDesc.setPassword("password");
+        session.setConnectionContext(
+            session.getDriverManager().connect(session, connDesc), false);
+
+        return session;
+    }
+
+    /**
+     * A connection whose statements return one row, of a CLOB and a BLOB.
+     */
+    private static Connection connection() {
+
+        return (Connection) proxy(Connection.class, new InvocationHandler() {
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+
+                if (method.getName().equals("createStatement")) {
+
+                    return statement();
+                }
+
+                return defaultValue(method);
+            }
+        });
+    }
+
+    private static Statement statement() {
+
+        final Statement []statement = new Statement[1];
+        final ResultSetMetaData meta = (ResultSetMetaData) proxy(
+            ResultSetMetaData.class, new InvocationHandler() {
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+
+                String name = method.getName();
+                if (name.equals("getColumnCount")) {
+
+                    return 2;
+                }
+                if (name.equals("getColumnType")) {
+
+                    return ((Integer) args[0] == 1 ? Types.CLOB : Types.BLOB);
+                }
+                if (name.equals("getColumnLabel")
+                        || name.equals("getColumnName")) {
+
+                    return ((Integer) args[0] == 1 ? "text" : "bytes");
+                }
+
+                return defaultValue(method);
+            }
+        });
+
+        final ResultSet results = (ResultSet) proxy(ResultSet.class,
+            new InvocationHandler() {
+
+            int row = 0;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args)
+                throws SQLException {
+
+                String name = method.getName();
+                if (name.equals("next")) {
+
+                    return ++row <= 1;
+                }
+                if (name.equals("getMetaData")) {
+
+                    return meta;
+                }
+                if (name.equals("getObject")) {
+
+                    return ((Integer) args[0] == 1
+                        ? new SerialClob(TEXT.toCharArray())
+                        : new SerialBlob(BYTES));
+                }
+                if (name.equals("getStatement")) {
+
+                    return statement[0];
+                }
+
+                return defaultValue(method);
+            }
+        });
+
+        statement[0] = (Statement) proxy(Statement.class,
+            new InvocationHandler() {
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+
+                String name = method.getName();
+                if (name.equals("execute")) {
+
+                    return true;
+                }
+                if (name.equals("getResultSet")) {
+
+                    return results;
+                }
+                if (name.equals("getUpdateCount")) {
+
+                    return -1;
+                }
+
+                return defaultValue(method);
+            }
+        });
+
+        return statement[0];
+    }
+}
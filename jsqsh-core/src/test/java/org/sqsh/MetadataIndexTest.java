@@ -0,0 +1,402 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh;
+
+import static org.sqsh.JdbcStubs.proxy;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.sqsh.input.completion.MetadataIndex;
+
+public class MetadataIndexTest {
+
+    @Test
+    public void testCachingAndStats() throws Exception {
+
+        List<String> queries = new ArrayList<String>();
+        Connection conn = connection(queries, 50, "app",
+            "ORDERS", "ORDER_LINES", "customers");
+
+        MetadataIndex index = MetadataIndex.getInstance(conn);
+        index.setSlowThreshold(20);
+
+        /*
+         * Only the names in the current schema that start with the first
+         * character typed are fetched, in either case, and they are kept
+         * for any prefix that starts with it.
+         */
+        Set<String> names = new TreeSet<String>();
+        Assert.assertEquals(2, index.getTables(names, conn, "db", null, "ord"));
+        Assert.assertEquals("[ORDERS, ORDER_LINES]", names.toString());
+        Assert.assertEquals("[db.app.o%, db.app.O%]", queries.toString());
+
+        names.clear();
+        Assert.assertEquals(1, index.getTables(names, conn, "db", null, "CUST"));
+        Assert.assertEquals("[customers]", names.toString());
+        names.clear();
+        Assert.assertEquals(2, index.getTables(names, conn, "db", null, "O"));
+        Assert.assertEquals(4, queries.size());
+
+        Assert.assertEquals(1, index.getStats().size());
+        MetadataIndex.Stats stats = index.getStats().get(0);
+        Assert.assertEquals("db", stats.getCatalog());
+        Assert.assertEquals(2, stats.getFetches());
+        Assert.assertEquals(2, stats.getSlow());
+
+        /*
+         * Fuzzy matching only kicks in when nothing matches the prefix.
+         */
+        names.clear();
+        Assert.assertEquals(0, index.getTables(names, conn, "db", null, "olns"));
+        index.setSubsequence(true);
+        Assert.assertEquals(1, index.getTables(names, conn, "db", null, "olns"));
+        Assert.assertEquals("[ORDER_LINES]", names.toString());
+
+        /*
+         * A list fetched in full is used for any prefix.
+         */
+        index.clear();
+        queries.clear();
+        names.clear();
+        Assert.assertEquals(3, index.getTables(names, conn, "db", "app", null));
+        Assert.assertEquals(1,
+            index.getTables(names, conn, "db", "app", "cust"));
+        Assert.assertEquals("[db.app.%]", queries.toString());
+    }
+
+    @Test
+    public void testScope() throws Exception {
+
+        List<String> queries = new ArrayList<String>();
+        Connection conn = connection(queries, 0, null, "T_1", "TX1");
+        MetadataIndex index = MetadataIndex.getInstance(conn);
+
+        /*
+         * With no catalog, schema or prefix, nothing narrows the fetch
+         * down, and nor does a missing table when fetching columns.
+         */
+        Set<String> names = new TreeSet<String>();
+        Assert.assertEquals(0, index.getTables(names, conn, null, null, null));
+        Assert.assertEquals(0, index.getProcedures(names, conn, null, null, ""));
+        Assert.assertEquals(0,
+            index.getColumns(names, conn, "db", "app", null, null));
+        Assert.assertEquals(0, queries.size());
+
+        Assert.assertEquals(2, index.getTables(names, conn, null, null, "t"));
+        Assert.assertEquals("[null.null.t%, null.null.T%]",
+            queries.toString());
+
+        /*
+         * Names passed as patterns only match themselves.
+         */
+        queries.clear();
+        names.clear();
+        Assert.assertEquals(2,
+            index.getColumns(names, conn, "db", "a_b", "T_1", null));
+        Assert.assertEquals("[db.a\\_b.T\\_1.%]", queries.toString());
+
+        /*
+         * The current schema that the session keeps is used rather than
+         * asking the connection.
+         */
+        queries.clear();
+        index.setCurrentSchema("app");
+        Assert.assertEquals(2, index.getTables(names, conn, null, null, null));
+        Assert.assertEquals("[null.app.%]", queries.toString());
+    }
+
+    @Test
+    public void testConnectionInUse() throws Exception {
+
+        final Connection conn = connection(new ArrayList<String>(), 0,
+            "app", "T");
+        final MetadataIndex index = MetadataIndex.getInstance(conn);
+
+        /*
+         * An abandoned completion still holds the connection: another
+         * completion gives up waiting for it, and running something else on
+         * the connection waits for it to be done, for as long as it is
+         * allowed to.
+         */
+        Assert.assertTrue(index.acquire(0));
+        Assert.assertFalse(index.acquire(50));
+        Assert.assertFalse(MetadataIndex.awaitRelease(conn, 50));
+
+        final AtomicInteger released = new AtomicInteger();
+        Thread thread = new Thread() {
+
+            @Override
+            public void run() {
+
+                if (MetadataIndex.awaitRelease(conn, 0)) {
+
+                    released.incrementAndGet();
+                }
+            }
+        };
+        thread.start();
+        thread.join(100);
+        Assert.assertEquals(0, released.get());
+
+        index.release();
+        thread.join(5000);
+        Assert.assertEquals(1, released.get());
+        Assert.assertTrue(index.acquire(50));
+
+        /*
+         * The wait can be interrupted.
+         */
+        thread = new Thread() {
+
+            @Override
+            public void run() {
+
+                if (!MetadataIndex.awaitRelease(conn, 0)) {
+
+                    released.incrementAndGet();
+                }
+            }
+        };
+        thread.start();
+        thread.interrupt();
+        thread.join(5000);
+        Assert.assertEquals(2, released.get());
+        index.release();
+        Assert.assertTrue(MetadataIndex.awaitRelease(conn, 50));
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+
+        /*
+         * A metadata query that keeps returning rows until its statement
+         * is canceled.
+         */
+        final AtomicInteger cancels = new AtomicInteger();
+        final Statement statement = proxy(Statement.class,
+            new InvocationHandler() {
+
+                @Override
+                public Object invoke(Object proxy, Method method,
+                        Object[] args) {
+
+                    if (method.getName().equals("cancel")) {
+
+                        cancels.incrementAndGet();
+                    }
+                    return null;
+                }
+            });
+
+        final AtomicInteger rows = new AtomicInteger();
+        final ResultSet results = proxy(ResultSet.class,
+            new InvocationHandler() {
+
+                @Override
+                public Object invoke(Object proxy, Method method,
+                        Object[] args) throws Exception {
+
+                    String name = method.getName();
+                    if (name.equals("getStatement")) {
+
+                        return statement;
+                    }
+                    if (name.equals("next")) {
+
+                        Thread.sleep(5);
+                        rows.incrementAndGet();
+                        return cancels.get() == 0;
+                    }
+                    if (name.equals("getString")) {
+
+                        return "T" + rows.get();
+                    }
+
+                    return null;
+                }
+            });
+
+        final DatabaseMetaData meta = proxy(
+            DatabaseMetaData.class, new InvocationHandler() {
+
+                @Override
+                public Object invoke(Object proxy, Method method,
+                        Object[] args) {
+
+                    return results;
+                }
+            });
+
+        final Connection conn = proxy(Connection.class,
+            new InvocationHandler() {
+
+                @Override
+                public Object invoke(Object proxy, Method method,
+                        Object[] args) {
+
+                    if (method.getName().equals("getMetaData")) {
+
+                        return meta;
+                    }
+                    return null;
+                }
+            });
+
+        /*
+         * An abandoned completion is in the middle of fetching the names.
+         */
+        final MetadataIndex index = MetadataIndex.getInstance(conn);
+        Assert.assertTrue(index.acquire(0));
+        Thread thread = new Thread() {
+
+            @Override
+            public void run() {
+
+                try {
+
+                    index.getTables(new TreeSet<String>(), conn, "db", null,
+                        "T");
+                }
+                finally {
+
+                    index.release();
+                }
+            }
+        };
+        thread.start();
+        while (rows.get() < 3) {
+
+            Thread.sleep(5);
+        }
+
+        /*
+         * Waiting for the connection cancels the fetch, and what it had
+         * fetched isn't kept.
+         */
+        Assert.assertTrue(MetadataIndex.awaitRelease(conn, 5000));
+        Assert.assertEquals(1, cancels.get());
+        thread.join(5000);
+        Assert.assertEquals(0, index.getStats().get(0).getFailures());
+
+        int fetched = rows.get();
+        index.getTables(new TreeSet<String>(), conn, "db", null, "T");
+        Assert.assertTrue(rows.get() > fetched);
+    }
+
+    /**
+     * Creates a connection whose metadata returns, after a delay, those of
+     * a fixed set of names that match the pattern it is asked for. Each
+     * query is recorded as its catalog, schema and name patterns.
+     */
+    private Connection connection(final List<String> queries,
+            final long delay, final String schema, final String...names) {
+
+        final DatabaseMetaData meta = proxy(
+            DatabaseMetaData.class, new InvocationHandler() {
+
+                @Override
+                public Object invoke(Object proxy, Method method,
+                        Object[] args) throws Exception {
+
+                    if (method.getName().equals("getSearchStringEscape")) {
+
+                        return "\\";
+                    }
+
+                    StringBuilder sb = new StringBuilder();
+                    int count = (method.getName().equals("getColumns")
+                        ? 4 : 3);
+                    for (int i = 0; i < count; i++) {
+
+                        sb.append(i > 0 ? "." : "").append(args[i]);
+                    }
+
+                    queries.add(sb.toString());
+                    Thread.sleep(delay);
+
+                    String pattern = (String) args[count - 1];
+                    final List<String> matches = new ArrayList<String>();
+                    for (String name : names) {
+
+                        if (pattern.equals("%")
+                                || name.startsWith(pattern.substring(0,
+                                    pattern.length() - 1))) {
+
+                            matches.add(name);
+                        }
+                    }
+
+                    return results(matches);
+                }
+            });
+
+        return proxy(Connection.class,
+            new InvocationHandler() {
+
+                @Override
+                public Object invoke(Object proxy, Method method,
+                        Object[] args) {
+
+                    if (method.getName().equals("getMetaData")) {
+
+                        return meta;
+                    }
+                    if (method.getName().equals("getSchema")) {
+
+                        return schema;
+                    }
+                    return null;
+                }
+            });
+    }
+
+    private static ResultSet results(final List<String> names) {
+
+        return proxy(ResultSet.class,
+            new InvocationHandler() {
+
+                int row = -1;
+
+                @Override
+                public Object invoke(Object proxy, Method method,
+                        Object[] args) {
+
+                    if (method.getName().equals("next")) {
+
+                        return ++row < names.size();
+                    }
+                    if (method.getName().equals("getString")) {
+
+                        return names.get(row);
+                    }
+
+                    return null;
+                }
+            });
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.sqsh.input.completion.NameIndex;
+
+public class NameIndexTest {
+
+    @Test
+    public void testPrefix() {
+
+        NameIndex index = new NameIndex(Arrays.asList(
+            "CUSTOMER", "customer_orders", "Customers", "ORDERS",
+            "My Table", "CUSTOMER", null, "cust"));
+
+        Assert.assertEquals(6, index.size());
+        Assert.assertEquals("[CUSTOMER, Customers, cust, customer_orders]",
+            find(index, "cUsT"));
+        Assert.assertEquals("[CUSTOMER, Customers, customer_orders]",
+            find(index, "customer"));
+        Assert.assertEquals("[My Table]", find(index, "my t"));
+        Assert.assertEquals("[]", find(index, "x"));
+        Assert.assertEquals(6, index.find(null, new TreeSet<String>()));
+
+        Set<String> matches = new TreeSet<String>();
+        Assert.assertEquals(1, index.findSubsequence("cstord", matches));
+        Assert.assertEquals("[customer_orders]", matches.toString());
+    }
+
+    @Test
+    public void testMatchesScan() {
+
+        List<String> names = new ArrayList<String>();
+        for (int i = 0; i < 100000; i++) {
+
+            names.add((i % 3 == 0 ? "T" : "t") + Integer.toString(i * 7919, 36));
+        }
+
+        NameIndex index = new NameIndex(names);
+        String []prefixes = { "t", "T1", "tz", "t0", "ta", "tab", "T", "t9x" };
+        for (String prefix : prefixes) {
+
+            Set<String> expected = new TreeSet<String>();
+            for (String name : names) {
+
+                if (name.regionMatches(true, 0, prefix, 0, prefix.length())) {
+
+                    expected.add(name);
+                }
+            }
+
+            Assert.assertEquals(prefix, expected.toString(),
+                find(index, prefix));
+        }
+    }
+
+    private String find(NameIndex index, String prefix) {
+
+        Set<String> matches = new TreeSet<String>();
+        index.find(prefix, matches);
+        return matches.toString();
+    }
+}
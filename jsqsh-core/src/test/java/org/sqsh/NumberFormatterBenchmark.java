@@ -0,0 +1,124 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh;
+
+import java.math.BigDecimal;
+import java.util.Random;
+
+import org.sqsh.format.NumberFormatter;
+
+/**
+ * Measures the per-cell cost of formatting numeric values through the
+ * generic {@link NumberFormatter#format(Object)} path (which is what
+ * happens when values are fetched with <code>getObject()</code>) versus
+ * the primitive formatting methods. This is not run as part of the unit
+ * tests; run it by hand with:
+ * 
+ * <pre>
+ *    mvn test-compile
+ *    java -cp target/classes:target/test-classes org.sqsh.NumberFormatterBenchmark
+ * </pre>
+ */
+public class NumberFormatterBenchmark {
+    
+    private static final int CELLS = 1000000;
+    private static final int ROUNDS = 10;
+    
+    /*
+     * Prevents the JIT from discarding the work being measured.
+     */
+    private static long sink = 0;
+    
+    public static void main(String []argv) {
+        
+        Random random = new Random(0);
+        long []longs = new long[CELLS];
+        double []doubles = new double[CELLS];
+        BigDecimal []decimals = new BigDecimal[CELLS];
+        
+        for (int i = 0; i < CELLS; i++) {
+            
+            longs[i] = random.nextLong() >> random.nextInt(48);
+            doubles[i] = random.nextDouble() * random.nextInt(1000000);
+            decimals[i] = BigDecimal.valueOf(random.nextLong() % 10000000000L, 2);
+        }
+        
+        NumberFormatter longFormatter = new NumberFormatter(21, 0);
+        NumberFormatter doubleFormatter = new NumberFormatter(20, 5);
+        NumberFormatter decimalFormatter = new NumberFormatter(15, 2);
+        
+        for (int round = 1; round <= ROUNDS; round++) {
+            
+            boolean report = (round == ROUNDS);
+            
+            long start = System.nanoTime();
+            for (int i = 0; i < CELLS; i++) {
+                
+                Object boxed = Long.valueOf(longs[i]);
+                sink += longFormatter.format(boxed).length();
+            }
+            report(report, "BIGINT boxed", start);
+            
+            start = System.nanoTime();
+            for (int i = 0; i < CELLS; i++) {
+                
+                sink += longFormatter.format(longs[i]).length();
+            }
+            report(report, "BIGINT primitive", start);
+            
+            start = System.nanoTime();
+            for (int i = 0; i < CELLS; i++) {
+                
+                Object boxed = Double.valueOf(doubles[i]);
+                sink += doubleFormatter.format(boxed).length();
+            }
+            report(report, "DOUBLE boxed", start);
+            
+            start = System.nanoTime();
+            for (int i = 0; i < CELLS; i++) {
+                
+                sink += doubleFormatter.format(doubles[i]).length();
+            }
+            report(report, "DOUBLE primitive", start);
+            
+            start = System.nanoTime();
+            for (int i = 0; i < CELLS; i++) {
+                
+                sink += decimalFormatter.format((Object) decimals[i]).length();
+            }
+            report(report, "DECIMAL generic", start);
+            
+            start = System.nanoTime();
+            for (int i = 0; i < CELLS; i++) {
+                
+                sink += decimalFormatter.format(decimals[i]).length();
+            }
+            report(report, "DECIMAL direct", start);
+        }
+        
+        System.out.println("(" + sink + ")");
+    }
+    
+    private static void report(boolean doReport, String name, long start) {
+        
+        long elapsed = System.nanoTime() - start;
+        if (doReport) {
+            
+            System.out.println(String.format("%-20s %8.1f ns/cell",
+                name, (double) elapsed / CELLS));
+        }
+    }
+}
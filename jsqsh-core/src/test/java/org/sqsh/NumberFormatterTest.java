@@ -0,0 +1,138 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh;
+
+import java.math.BigDecimal;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.sqsh.format.NumberFormatter;
+
+/**
+ * Verifies that the primitive formatting methods of {@link NumberFormatter}
+ * produce exactly the same output as formatting the boxed value.
+ */
+public class NumberFormatterTest {
+    
+    @Test
+    public void testLongFormat() {
+        
+        NumberFormatter formatter = new NumberFormatter(21, 0);
+        long []values = { 0L, 1L, -1L, 9L, 10L, -10L, 1234567890L,
+            Long.MAX_VALUE, Long.MIN_VALUE, Integer.MIN_VALUE };
+        
+        NumberFormatter scaled = new NumberFormatter(21, 2);
+        for (long value : values) {
+            
+            Assert.assertEquals(formatter.format((Object) value),
+                formatter.format(value));
+            Assert.assertEquals(scaled.format((Object) value),
+                scaled.format(value));
+        }
+        
+        Random random = new Random(0);
+        for (int i = 0; i < 10000; i++) {
+            
+            long value = random.nextLong() >> random.nextInt(64);
+            Assert.assertEquals(formatter.format((Object) value),
+                formatter.format(value));
+        }
+    }
+    
+    @Test
+    public void testDoubleFormat() {
+        
+        NumberFormatter scaled = new NumberFormatter(20, 5);
+        NumberFormatter unscaled = new NumberFormatter(20, 0);
+        double []values = { 0.0, -0.0, 1.5, -1.5, 0.000001, 123456.789012,
+            1E20, -1E-20, Double.MAX_VALUE };
+        
+        for (double value : values) {
+            
+            Assert.assertEquals(scaled.format((Object) value), scaled.format(value));
+            Assert.assertEquals(unscaled.format((Object) value), unscaled.format(value));
+            Assert.assertEquals(scaled.format((Object) (float) value),
+                scaled.format((float) value));
+        }
+        
+        /*
+         * Ties, which are decided by the exact binary value, values that
+         * round to zero, and values that are too big to write directly.
+         */
+        double []edges = { 0.125, -0.125, 1.015, 2.675, 1.005, 0.5, 2.5,
+            -0.0000001, -0.004, 0.004, 1E15 + 0.5, 1E18, 9.22E16,
+            Double.NaN, Double.POSITIVE_INFINITY, Double.MIN_VALUE };
+        int []scales = { 1, 2, 3, 5, 10 };
+        for (int scale : scales) {
+            
+            NumberFormatter formatter = new NumberFormatter(38, scale);
+            for (double value : edges) {
+                
+                Assert.assertEquals("value " + value + ", scale " + scale,
+                    formatter.format((Object) value), formatter.format(value));
+            }
+        }
+        
+        Random random = new Random(0);
+        for (int i = 0; i < 100000; i++) {
+            
+            int scale = 1 + random.nextInt(6);
+            NumberFormatter formatter = new NumberFormatter(38, scale);
+            
+            /*
+             * Values with few decimal places, so that ties come up.
+             */
+            double value = (random.nextBoolean()
+                ? (random.nextInt(2000000) - 1000000) / Math.pow(10, scale + 1)
+                : random.nextDouble() * random.nextInt(1000000));
+            Assert.assertEquals("value " + value + ", scale " + scale,
+                formatter.format((Object) value), formatter.format(value));
+            Assert.assertEquals("value " + (float) value + ", scale " + scale,
+                formatter.format((Object) (float) value),
+                formatter.format((float) value));
+        }
+    }
+    
+    @Test
+    public void testBigDecimalFormat() {
+        
+        String []values = { "0", "-0", "0.5", "-0.001", "-0.005", "0.005",
+            "0.015", "0.025", "123.456", "-123.455", "1E+3",
+            "12345678901234567890.129", "-0.0000012", "99999999.995" };
+        int []scales = { 0, 1, 2, 3, 7, 25 };
+        
+        for (int scale : scales) {
+            
+            NumberFormatter formatter = new NumberFormatter(38, scale);
+            for (String value : values) {
+                
+                BigDecimal bd = new BigDecimal(value);
+                Assert.assertEquals("value " + value + ", scale " + scale,
+                    formatter.format((Object) bd), formatter.format(bd));
+            }
+        }
+        
+        Random random = new Random(0);
+        NumberFormatter formatter = new NumberFormatter(15, 4);
+        for (int i = 0; i < 10000; i++) {
+            
+            BigDecimal bd = BigDecimal.valueOf(random.nextLong() % 100000000000L,
+                random.nextInt(8));
+            Assert.assertEquals(formatter.format((Object) bd), formatter.format(bd));
+        }
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh;
+
+import static org.sqsh.JdbcStubs.defaultValue;
+import static org.sqsh.JdbcStubs.proxy;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.sqsh.JdbcStubs.ScriptedDatabase;
+
+public class ParallelBlockTest {
+
+    private static final String URL = "jdbc:paralleltest:db";
+
+    /*
+     * The fake driver is registered once, so it keeps track of what its
+     * connections get up to in static counters.
+     */
+    private static AtomicInteger connects = new AtomicInteger();
+    private static AtomicInteger closes = new AtomicInteger();
+    private static AtomicInteger running = new AtomicInteger();
+    private static AtomicInteger maxRunning = new AtomicInteger();
+
+    /*
+     * Runs "update count millis", updating count rows after waiting millis
+     * milliseconds, and fails anything else. Sessions connect to it through
+     * the driver, as the connections of a parallel block do.
+     */
+    private static final ScriptedDatabase DATABASE = new ScriptedDatabase() {
+
+        @Override
+        protected SQLConnectionContext connect(Session session)
+            throws Exception {
+
+            session.getDriverManager().addDriver(new SQLDriver(
+                "paralleltest", ParallelBlockTest.class.getName(), URL));
+
+            ConnectionDescriptor connDesc = new ConnectionDescriptor();
+            connDesc.setDriver("paralleltest");
+            connDesc.setUrl(URL);
+            connDesc.setUsername("user");
+            connDesc.setPassword("password");
+            SQLConnectionContext conn =
+                session.getDriverManager().connect(session, connDesc);
+            connects.set(0);
+
+            return conn;
+        }
+
+        @Override
+        protected Object call(Method method, Object[] args)
+            throws Exception {
+
+            if (method.getName().equals("close")) {
+
+                closes.incrementAndGet();
+            }
+
+            return super.call(method, args);
+        }
+
+        @Override
+        protected int execute(String sql) throws Exception {
+
+            String []words = sql.split(" ");
+            if (words[0].equals("crash")) {
+
+                throw new IllegalStateException("Crashed: " + sql);
+            }
+            if (!words[0].equals("update")) {
+
+                throw new SQLException("Failed: " + sql);
+            }
+
+            int now = running.incrementAndGet();
+            while (now > maxRunning.get()) {
+
+                maxRunning.compareAndSet(maxRunning.get(), now);
+            }
+
+            Thread.sleep(Integer.parseInt(words[2]));
+            running.decrementAndGet();
+
+            return Integer.parseInt(words[1]);
+        }
+    };
+
+    static {
+
+        try {
+
+            DriverManager.registerDriver((Driver) proxy(Driver.class,
+                new InvocationHandler() {
+
+                @Override
+                public Object invoke(Object proxy, Method method,
+                        Object[] args) {
+
+                    String name = method.getName();
+                    if (name.equals("acceptsURL")) {
+
+                        return URL.equals(args[0]);
+                    }
+                    if (name.equals("connect")) {
+
+                        if (!URL.equals(args[0])) {
+
+                            return null;
+                        }
+
+                        connects.incrementAndGet();
+                        return DATABASE.connection();
+                    }
+
+                    return defaultValue(method);
+                }
+            }));
+        }
+        catch (SQLException e) {
+
+            throw new RuntimeException(e);
+        }
+    }
+
+    private String output;
+
+    @Before
+    public void reset() {
+
+        connects.set(0);
+        closes.set(0);
+        running.set(0);
+        maxRunning.set(0);
+    }
+
+    @Test
+    public void testOrderedOutput() throws Exception {
+
+        SqshContext ctx = new SqshContext();
+
+        Session session = run(ctx, "\\parallel -P 2\n"
+            + "update 3 300\ngo\n"
+            + "update 2 0\ngo\n"
+            + "update 5 100\ngo\n"
+            + "update 7 0\ngo\n"
+            + "\\parallel end\n");
+
+        Assert.assertEquals(0, session.getCommandFailCount());
+        Assert.assertEquals(2, maxRunning.get());
+        Assert.assertEquals(2, connects.get());
+        Assert.assertEquals(2, closes.get());
+
+        int last = -1;
+        for (String count : new String[] { "3 rows", "2 rows", "5 rows",
+                "7 rows" }) {
+
+            int idx = output.indexOf(count + " affected");
+            Assert.assertTrue(output, idx > last);
+            last = idx;
+        }
+
+        ctx.close();
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+
+        SqshContext ctx = new SqshContext();
+
+        Session session = run(ctx, "\\parallel\n"
+            + "update 1 100\ngo\n"
+            + "\nfail\ngo\n"
+            + "update 2 0\ngo\n"
+            + "crash\ngo\n"
+            + "\\parallel end\n");
+
+        Assert.assertEquals(1, session.getCommandFailCount());
+        Assert.assertTrue(output,
+            output.contains("Batch 2, starting at line 5, failed:"));
+        Assert.assertTrue(output, output.contains("2 rows affected"));
+        Assert.assertTrue(output,
+            output.contains("Batch 4, starting at line 9, failed:"));
+        Assert.assertTrue(output, output.contains("Crashed: crash"));
+        Assert.assertTrue(output, output.contains("4 batches run in parallel, "
+            + "2 failed"));
+
+        ctx.close();
+    }
+
+    @Test
+    public void testNotEnded() throws Exception {
+
+        SqshContext ctx = new SqshContext();
+
+        Session session = run(ctx, "\\parallel\n"
+            + "update 4 100\ngo\n");
+
+        Assert.assertNull(session.getParallelBlock());
+        Assert.assertTrue(output, output.contains("4 rows affected"));
+        Assert.assertEquals(1, closes.get());
+
+        ctx.close();
+    }
+
+    /**
+     * Runs a script on a new session connected to the fake database.
+     */
+    private Session run(SqshContext ctx, String script) throws Exception {
+
+        Session session = DATABASE.run(ctx, script);
+        output = DATABASE.getOutput();
+        return session;
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.sql.DriverManager;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.sqsh.JdbcStubs.RowsDriver;
+
+public class ParallelRowFormatterTest {
+
+    private static final String NULL = "[NULL]";
+
+    @Test
+    public void testOrderAndNulls() throws Exception {
+
+        SqshContext ctx = new SqshContext();
+        ForkJoinPool pool = new ForkJoinPool(4);
+
+        try {
+
+            CollectingRenderer renderer = new CollectingRenderer(
+                ctx.newSession(false), -1);
+            ParallelRowFormatter parallel =
+                new ParallelRowFormatter(pool, renderer, formatters(4, 3));
+
+            /*
+             * Enough rows for a good many blocks, with the values that are
+             * already formatted (NULLs) scattered among them.
+             */
+            int nRows = 50000;
+            for (int i = 0; i < nRows; i++) {
+
+                Assert.assertTrue(parallel.row(row(i), values(i)));
+            }
+
+            Assert.assertTrue(parallel.finish());
+            Assert.assertEquals(nRows, renderer.rows.size());
+
+            for (int i = 0; i < nRows; i++) {
+
+                Assert.assertArrayEquals(expected(i), renderer.rows.get(i));
+            }
+        }
+        finally {
+
+            pool.shutdown();
+            ctx.close();
+        }
+    }
+
+    @Test
+    public void testEarlyAbort() throws Exception {
+
+        SqshContext ctx = new SqshContext();
+        ForkJoinPool pool = new ForkJoinPool(4);
+
+        try {
+
+            /*
+             * The renderer gives up part way through the third block.
+             */
+            int stopAt = 12000;
+            CollectingRenderer renderer = new CollectingRenderer(
+                ctx.newSession(false), stopAt);
+            ParallelRowFormatter parallel =
+                new ParallelRowFormatter(pool, renderer, formatters(4, 3));
+
+            int added = 0;
+            boolean more = true;
+            while (more && added < 100000) {
+
+                more = parallel.row(row(added), values(added));
+                ++added;
+            }
+
+            Assert.assertFalse(more);
+            Assert.assertEquals(stopAt, renderer.rows.size());
+
+            for (int i = 0; i < stopAt; i++) {
+
+                Assert.assertArrayEquals(expected(i), renderer.rows.get(i));
+            }
+        }
+        finally {
+
+            pool.shutdown();
+            ctx.close();
+        }
+    }
+
+    @Test
+    public void testSameAsSerial() throws Exception {
+
+        DriverManager.registerDriver(new RowsDriver());
+
+        String serial = run(1);
+        String parallel = run(4);
+
+        Assert.assertTrue(serial, serial.startsWith("c\nrow1\nrow2\n"));
+        Assert.assertTrue(serial, serial.contains("\nrow20000\n"));
+        Assert.assertEquals(serial, parallel);
+    }
+
+    /**
+     * Runs a query through the renderer, formatting every column in
+     * parallel if given more than one thread.
+     */
+    private String run(int threads) throws Exception {
+
+        SqshContext ctx = new SqshContext();
+        ctx.getDriverManager().addDriver(new SQLDriver("rows",
+            RowsDriver.class.getName(), "jdbc:rows:"));
+
+        Session session = ctx.newSession(false);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        session.setOut(new PrintStream(buffer, true), false);
+        session.getBufferManager().addBuffer(
+            session.getBufferManager().newBuffer());
+        session.getRendererManager().setShowFooters(false);
+
+        ConnectionDescriptor connDesc = new ConnectionDescriptor();
+        connDesc.setDriver("rows");
+        connDesc.setUsername("user");
+        connDesc.setPassword("pass");
+        session.setConnectionContext(
+            ctx.getDriverManager().connect(session, connDesc), false);
+
+        SQLRenderer sqlRenderer = session.getSQLRenderer();
+        sqlRenderer.setParallelFormatColumns(1);
+        sqlRenderer.setParallelFormatThreads(threads);
+
+        session.evaluate("select 20000");
+        session.evaluate("\\go -m csv");
+
+        ctx.close();
+        return buffer.toString();
+    }
+
+    private static List<Formatter[]> formatters(int sets, final int nCols) {
+
+        List<Formatter[]> formatterSets = new ArrayList<Formatter[]>();
+        for (int i = 0; i < sets; i++) {
+
+            Formatter []formatters = new Formatter[nCols];
+            for (int c = 0; c < nCols; c++) {
+
+                final int col = c;
+                formatters[c] = new Formatter() {
+
+                    @Override
+                    public int getMaxWidth() {
+
+                        return 20;
+                    }
+
+                    @Override
+                    public String format(Object value) {
+
+                        return "c" + col + "=" + value;
+                    }
+                };
+            }
+
+            formatterSets.add(formatters);
+        }
+
+        return formatterSets;
+    }
+
+    private static String[] row(int i) {
+
+        return new String[] { null, (i % 7 == 0) ? NULL : null, null };
+    }
+
+    private static Object[] values(int i) {
+
+        return new Object[] { i, (i % 7 == 0) ? null : i * 2, "v" + i };
+    }
+
+    private static String[] expected(int i) {
+
+        return new String[] { "c0=" + i,
+            (i % 7 == 0) ? NULL : "c1=" + (i * 2), "c2=v" + i };
+    }
+
+    /**
+     * Keeps the rows it is given, optionally refusing any more after a
+     * given number.
+     */
+    private static class CollectingRenderer
+        extends Renderer {
+
+        private List<String[]> rows = new ArrayList<String[]>();
+        private int stopAt;
+
+        public CollectingRenderer(Session session, int stopAt) {
+
+            super(session, session.getRendererManager());
+            this.stopAt = stopAt;
+        }
+
+        @Override
+        public boolean row(String []row) {
+
+            Assert.assertTrue("Row after the renderer gave up",
+                stopAt < 0 || rows.size() < stopAt);
+
+            rows.add(row);
+            return (stopAt < 0 || rows.size() < stopAt);
+        }
+
+        @Override
+        public boolean flush() {
+
+            return true;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.sqsh.input.completion.ParseStateCache;
+import org.sqsh.input.completion.SQLParseState;
+import org.sqsh.parser.SQLParser;
+
+public class ParseStateCacheTest {
+
+    private static final String []LINES = {
+        "use master",
+        "select a.x, b.y",
+        "  from db.dbo.t1 as a, t2 b",
+        " where a.id = b.id",
+        "   and a.v in (select v from t3 where t3.k = 'it''s",
+        " (still quoted', not a table' from t4",
+        "   ) /* a comment that",
+        " spans from t5 lines */",
+        "   and exists (select 1 from t6 x where x.id in",
+        "       (select id from t7",
+        "         where id > 0) -- from t8",
+        "       and x.q = @v",
+        "   )",
+        " order by a.x",
+        "delete from t9 where z = 1",
+        "exec @rc = myproc 1, 2",
+        "update t10 set a = (select max(a) from t11)",
+        "insert into t12 select * from t13 where",
+    };
+
+    private static final String []EDITS = {
+        "",
+        "select ",
+        "select x from ",
+        "where x = (select y from zz where ",
+        "'open string from q",
+        ") and ",
+    };
+
+    @Test
+    public void testMatchesFullParse() {
+
+        Buffer buffer = new Buffer();
+        ParseStateCache cache = ParseStateCache.getInstance(buffer);
+
+        for (String line : LINES) {
+
+            for (String edit : EDITS) {
+
+                check(cache, buffer, edit);
+            }
+
+            buffer.addLine(line);
+        }
+
+        for (String edit : EDITS) {
+
+            check(cache, buffer, edit);
+        }
+
+        Assert.assertTrue(cache.getResumeOffset() > 0);
+
+        /*
+         * Changing the buffer other than by appending to it has to
+         * start things over.
+         */
+        buffer.setLength(buffer.length() / 2);
+        check(cache, buffer, "");
+        buffer.set("select 1 from t1");
+        check(cache, buffer, " where ");
+        buffer.clear();
+        check(cache, buffer, "delete from t2");
+    }
+
+    private void check(ParseStateCache cache, Buffer buffer, String line) {
+
+        SQLParseState expected = new SQLParseState();
+        new SQLParser(expected).parse(buffer.toString() + line);
+
+        SQLParseState actual = cache.parse(buffer, line);
+
+        String where = "'" + buffer + line + "'";
+        Assert.assertEquals(where, expected.getStatement(),
+            actual.getStatement());
+        Assert.assertEquals(where, expected.getCurrentClause(),
+            actual.getCurrentClause());
+        Assert.assertEquals(where,
+            Arrays.toString(expected.getObjectReferences()),
+            Arrays.toString(actual.getObjectReferences()));
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.sqsh.renderers.PivotTable;
+
+public class PivotTableTest {
+    
+    private static final String [][]SALES = {
+        { "NJ", "Mon", "14.20000" },
+        { "NJ", "Tue", "11.40000" },
+        { "CA", "Mon", "4.10000" },
+        { "NJ", "Mon", "1.00000" },
+        { "CA", "Mon", "[NULL]" },
+        { "AR", "Tue", "4.30000" },
+    };
+    
+    @Test
+    public void testAggregates() throws Exception {
+        
+        Assert.assertEquals("[NJ=[1.00000, 11.40000], CA=[[NULL], null], AR=[null, 4.30000]]",
+            pivot(PivotTable.Aggregate.LAST, 0));
+        Assert.assertEquals("[NJ=[15.20000, 11.40000], CA=[4.10000, null], AR=[null, 4.30000]]",
+            pivot(PivotTable.Aggregate.SUM, 0));
+        Assert.assertEquals("[NJ=[2, 1], CA=[1, null], AR=[null, 1]]",
+            pivot(PivotTable.Aggregate.COUNT, 0));
+        Assert.assertEquals("[NJ=[1.00000, 11.40000], CA=[4.10000, null], AR=[null, 4.30000]]",
+            pivot(PivotTable.Aggregate.MIN, 0));
+        Assert.assertEquals("[NJ=[14.20000, 11.40000], CA=[4.10000, null], AR=[null, 4.30000]]",
+            pivot(PivotTable.Aggregate.MAX, 0));
+        Assert.assertEquals("[NJ=[7.60000, 11.40000], CA=[4.10000, null], AR=[null, 4.30000]]",
+            pivot(PivotTable.Aggregate.AVG, 0));
+    }
+    
+    @Test
+    public void testSpill() throws Exception {
+        
+        /*
+         * A budget of one byte forces a spill after every value, so every
+         * cell has to be put back together from the spill files.
+         */
+        for (PivotTable.Aggregate agg : PivotTable.Aggregate.values()) {
+            
+            Assert.assertEquals(agg.name(), pivot(agg, 0), pivot(agg, 1));
+        }
+        
+        PivotTable table = new PivotTable(PivotTable.Aggregate.SUM, true,
+            "[NULL]", 4096, 5);
+        for (int i = 0; i < 20000; i++) {
+            
+            table.add("R" + (i % 1000), "C" + (i % 7), Integer.toString(i));
+        }
+        
+        Assert.assertTrue(table.getSpillCount() > 0);
+        
+        final long []total = new long[1];
+        final int []rows = new int[1];
+        table.read(new PivotTable.RowHandler() {
+            
+            @Override
+            public boolean row(String rowKey, String[] cells) {
+                
+                Assert.assertEquals("R" + rows[0], rowKey);
+                ++rows[0];
+                for (String cell : cells) {
+                    
+                    if (cell != null) {
+                        
+                        total[0] += Long.parseLong(cell);
+                    }
+                }
+                return true;
+            }
+        });
+        table.clear();
+        
+        Assert.assertEquals(1000, rows[0]);
+        Assert.assertEquals(19999L * 20000L / 2L, total[0]);
+    }
+    
+    private static String pivot(PivotTable.Aggregate agg, long maxMemory)
+        throws Exception {
+        
+        PivotTable table = new PivotTable(agg, true, "[NULL]", maxMemory, 5);
+        for (String []row : SALES) {
+            
+            table.add(row[0], row[1], row[2]);
+        }
+        
+        final List<String> rows = new ArrayList<String>();
+        table.read(new PivotTable.RowHandler() {
+            
+            @Override
+            public boolean row(String rowKey, String[] cells) {
+                
+                rows.add(rowKey + "=" + java.util.Arrays.toString(cells));
+                return true;
+            }
+        });
+        table.clear();
+        
+        return rows.toString();
+    }
+}
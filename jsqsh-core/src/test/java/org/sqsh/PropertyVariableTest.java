@@ -0,0 +1,249 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import org.apache.commons.beanutils.PropertyUtils;
+import org.junit.Assert;
+import org.junit.Test;
+import org.sqsh.variables.PropertyAccessor;
+import org.sqsh.variables.PropertyVariable;
+import org.sqsh.variables.StringVariable;
+
+public class PropertyVariableTest {
+
+    public static class Inner {
+
+        private int count = 0;
+
+        public int getCount() {
+
+            return count;
+        }
+
+        public void setCount(int count) {
+
+            this.count = count;
+        }
+
+        public String getName() {
+
+            return "inner";
+        }
+    }
+
+    public static class OtherInner {
+
+        public int getCount() {
+
+            return 42;
+        }
+    }
+
+    public static class Outer {
+
+        private Object inner = new Inner();
+
+        public Object getInner() {
+
+            return inner;
+        }
+    }
+
+    @Test
+    public void testAccessor() throws Exception {
+
+        Outer outer = new Outer();
+        PropertyAccessor count = new PropertyAccessor("inner.count");
+
+        count.set(outer, "12");
+        Assert.assertEquals(12, count.get(outer));
+
+        /*
+         * Read-only properties are left alone, just like BeanUtils does.
+         */
+        PropertyAccessor name = new PropertyAccessor("inner.name");
+        name.set(outer, "x");
+        Assert.assertEquals("inner", name.get(outer));
+
+        /*
+         * The getter is looked up again when the class changes.
+         */
+        outer.inner = new OtherInner();
+        Assert.assertEquals(42, count.get(outer));
+
+        outer.inner = null;
+        try {
+
+            count.get(outer);
+            Assert.fail("Expected a null in the path to fail");
+        }
+        catch (IllegalArgumentException e) {
+
+            /* Expected */
+        }
+
+        try {
+
+            new PropertyAccessor("nope").get(outer);
+            Assert.fail("Expected an unknown property to fail");
+        }
+        catch (NoSuchMethodException e) {
+
+            /* Expected */
+        }
+
+        Assert.assertFalse(PropertyAccessor.isSupported("a[0].b"));
+        Assert.assertFalse(PropertyAccessor.isSupported("a..b"));
+        Assert.assertTrue(PropertyAccessor.isSupported("a.b"));
+    }
+
+    @Test
+    public void testAccessorSharedByThreads() throws Exception {
+
+        /*
+         * One accessor used at once on paths that go through different
+         * classes, so that each thread keeps finding the methods looked up
+         * by the other.
+         */
+        final PropertyAccessor count = new PropertyAccessor("inner.count");
+        final Outer outer = new Outer();
+        ((Inner) outer.inner).setCount(7);
+        final Outer other = new Outer();
+        other.inner = new OtherInner();
+
+        final Exception []failure = new Exception[1];
+        Thread thread = new Thread() {
+
+            @Override
+            public void run() {
+
+                try {
+
+                    for (int i = 0; i < 20000; i++) {
+
+                        Assert.assertEquals(42, count.get(other));
+                    }
+                }
+                catch (Exception e) {
+
+                    failure[0] = e;
+                }
+            }
+        };
+
+        thread.start();
+        for (int i = 0; i < 20000; i++) {
+
+            Assert.assertEquals(7, count.get(outer));
+        }
+        thread.join();
+
+        if (failure[0] != null) {
+
+            throw failure[0];
+        }
+    }
+
+    @Test
+    public void testSameAsBeanUtils() throws Exception {
+
+        SqshContext ctx = new SqshContext();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(buffer, true);
+        Session session = new Session(ctx, 1,
+            new ByteArrayInputStream(new byte[0]), out, out);
+
+        int checked = 0;
+        for (Variable var : session.getVariableManager().getVariables(true)) {
+
+            if (!(var instanceof PropertyVariable)) {
+
+                continue;
+            }
+
+            PropertyVariable prop = (PropertyVariable) var;
+            Object bean = prop.getManager().getBean(prop.getBean());
+            String expected;
+            try {
+
+                Object val = PropertyUtils.getNestedProperty(bean,
+                    prop.getProperty());
+                expected = (val == null ? "null" : val.toString());
+            }
+            catch (Exception e) {
+
+                /*
+                 * Only the quiet ones can be compared, as the error
+                 * messages differ.
+                 */
+                if (!prop.isQuiet()) {
+
+                    continue;
+                }
+
+                expected = "null";
+            }
+
+            Assert.assertEquals(var.getName(), expected, var.toString());
+            ++checked;
+        }
+
+        Assert.assertTrue(checked > 50);
+
+        session.getVariableManager().getVariable("maxrows").setValue("17");
+        Assert.assertEquals(17, ctx.getSQLRenderer().getMaxRows());
+        ctx.close();
+    }
+
+    @Test
+    public void testParentChanges() {
+
+        VariableManager parent = new VariableManager();
+        VariableManager child = new VariableManager(parent);
+
+        parent.put("a", "1");
+        Assert.assertEquals("1", child.get("a"));
+        Assert.assertNull(child.get("b"));
+
+        child.put("a", "2");
+        Assert.assertEquals("2", child.get("a"));
+        Assert.assertEquals("1", parent.get("a"));
+
+        /*
+         * Adding to the parent after the child has looked is seen.
+         */
+        parent.put(new StringVariable("b", "3", false));
+        Assert.assertTrue(child.containsKey("b"));
+        Assert.assertEquals("3", child.getVariable("b").toString());
+
+        /*
+         * Values set on a parent variable are seen without any change to
+         * the structure.
+         */
+        parent.put("b", "4");
+        Assert.assertEquals("4", child.get("b"));
+
+        parent.remove("b");
+        Assert.assertFalse(child.containsKey("b"));
+
+        child.remove("a");
+        Assert.assertEquals("1", child.get("a"));
+    }
+}
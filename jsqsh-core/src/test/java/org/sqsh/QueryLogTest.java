@@ -0,0 +1,132 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.sql.DriverManager;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.sqsh.JdbcStubs.RowsDriver;
+
+public class QueryLogTest {
+
+    @Test
+    public void testLog() throws Exception {
+
+        DriverManager.registerDriver(new RowsDriver());
+
+        SqshContext ctx = new SqshContext();
+        ctx.getDriverManager().addDriver(new SQLDriver("rows",
+            RowsDriver.class.getName(), "jdbc:rows:"));
+
+        File file = File.createTempFile("querylog", ".jsonl");
+        file.delete();
+        ctx.getVariableManager().getVariable("query_log").setValue(file.getPath());
+        Assert.assertTrue(ctx.getQueryLog().isEnabled());
+
+        Session session = ctx.newSession(false);
+        ConnectionDescriptor connDesc = new ConnectionDescriptor();
+        connDesc.setName("logged");
+        connDesc.setDriver("rows");
+        connDesc.setUsername("user");
+        connDesc.setPassword("pass");
+        session.setConnectionContext(
+            ctx.getDriverManager().connect(session, connDesc), false);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        session.setOut(new PrintStream(buffer, true), false);
+        session.setErr(new PrintStream(buffer, true), false);
+
+        SQLRenderer sqlRenderer = ctx.getSQLRenderer();
+        sqlRenderer.execute(session, "select 3");
+        try {
+
+            sqlRenderer.execute(session, "select \"x\"");
+            Assert.fail("Expected the fake driver to fail");
+        }
+        catch (RuntimeException e) {
+
+            /* Expected */
+        }
+
+        String output = buffer.toString();
+        Assert.assertTrue(output, output.contains("3 rows in results"));
+
+        ctx.close();
+        Assert.assertFalse(ctx.getQueryLog().isEnabled());
+        Assert.assertEquals("0", ctx.getVariableManager().get("query_log_dropped"));
+
+        List<String> lines = Files.readAllLines(file.toPath(),
+            Charset.forName("UTF-8"));
+        file.delete();
+
+        Assert.assertEquals(lines.toString(), 2, lines.size());
+        String ok = lines.get(0);
+        Assert.assertTrue(ok, ok.contains("\"session\":" + session.getId()
+            + ",\"connection\":\"logged\",\"hash\":\""
+            + QueryLog.hash("select 3") + "\",\"sql\":\"select 3\""));
+        Assert.assertTrue(ok, ok.contains("\"rows\":3,\"updates\":0,\"ok\":true}"));
+
+        String failed = lines.get(1);
+        Assert.assertTrue(failed, failed.contains("\"sql\":\"select \\\"x\\\"\""));
+        Assert.assertTrue(failed, failed.contains("\"ok\":false"));
+    }
+
+    @Test
+    public void testRotate() throws Exception {
+
+        File file = File.createTempFile("querylog", ".jsonl");
+        QueryLog log = new QueryLog();
+        log.setMaxSize(1);
+        log.setFile(file.getPath());
+
+        for (int i = 1; i <= 3; i++) {
+
+            Assert.assertTrue(log.log(new QueryLog.Entry(0L, 1, null,
+                "select " + i)));
+
+            /*
+             * Wait for each one to be written, so the order of rotation
+             * is known.
+             */
+            while (log.getWritten() < i) {
+
+                Thread.sleep(5);
+            }
+        }
+
+        log.close();
+        Assert.assertEquals(3, log.getWritten());
+        Assert.assertFalse(log.log(new QueryLog.Entry(0L, 1, null, "x")));
+
+        for (int i = 0; i < 3; i++) {
+
+            File f = (i == 0 ? file : new File(file.getPath() + "." + i));
+            List<String> lines = Files.readAllLines(f.toPath(),
+                Charset.forName("UTF-8"));
+            f.delete();
+
+            Assert.assertEquals(1, lines.size());
+            Assert.assertTrue(lines.get(0),
+                lines.get(0).contains("\"sql\":\"select " + (3 - i) + "\""));
+        }
+    }
+}
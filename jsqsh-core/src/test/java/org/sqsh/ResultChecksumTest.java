@@ -0,0 +1,221 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh;
+
+import static org.sqsh.JdbcStubs.proxy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Types;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.sqsh.JdbcStubs.RowsDriver;
+
+public class ResultChecksumTest {
+
+    @Test
+    public void testOrderIndependent() throws Exception {
+
+        int []types = { Types.INTEGER, Types.VARCHAR };
+        ResultChecksum a = checksum(types, new Object[][] {
+            { 1L, "a" }, { 2L, "b" }, { 3L, null }
+        });
+        ResultChecksum b = checksum(types, new Object[][] {
+            { 3L, null }, { 1L, "a" }, { 2L, "b" }
+        });
+
+        Assert.assertEquals(3, a.getRows());
+        Assert.assertEquals(a.getDigest(), b.getDigest());
+        Assert.assertEquals(a.getColumnDigest(0), b.getColumnDigest(0));
+        Assert.assertEquals(1, a.getNulls(1));
+
+        /*
+         * Swapping values between rows leaves the columns the same but
+         * changes the result.
+         */
+        ResultChecksum c = checksum(types, new Object[][] {
+            { 1L, "b" }, { 2L, "a" }, { 3L, null }
+        });
+        Assert.assertEquals(a.getColumnDigest(0), c.getColumnDigest(0));
+        Assert.assertEquals(a.getColumnDigest(1), c.getColumnDigest(1));
+        Assert.assertFalse(a.getDigest().equals(c.getDigest()));
+
+        /*
+         * Duplicates count.
+         */
+        ResultChecksum d = checksum(types, new Object[][] {
+            { 1L, "a" }, { 1L, "a" }, { 2L, "b" }, { 3L, null }
+        });
+        Assert.assertFalse(a.getDigest().equals(d.getDigest()));
+    }
+
+    @Test
+    public void testNormalized() throws Exception {
+
+        ResultChecksum ints = checksum(new int[] { Types.INTEGER, Types.CHAR },
+            new Object[][] { { 1L, "x  " }, { 0L, "" } });
+        ResultChecksum decimals = checksum(new int[] { Types.DECIMAL, Types.VARCHAR },
+            new Object[][] { { new BigDecimal("1.00"), "x" }, { new BigDecimal("0.0"), "" } });
+        ResultChecksum doubles = checksum(new int[] { Types.DOUBLE, Types.CHAR },
+            new Object[][] { { 1.0d, "x" }, { -0.0d, " " } });
+
+        Assert.assertEquals(ints.getDigest(), decimals.getDigest());
+        Assert.assertEquals(ints.getDigest(), doubles.getDigest());
+
+        ResultChecksum strings = checksum(new int[] { Types.VARCHAR, Types.CHAR },
+            new Object[][] { { "1", "x" }, { "0", "" } });
+        Assert.assertFalse(ints.getDigest().equals(strings.getDigest()));
+
+        ResultChecksum fraction = checksum(new int[] { Types.DOUBLE },
+            new Object[][] { { 0.1d } });
+        ResultChecksum decimal = checksum(new int[] { Types.NUMERIC },
+            new Object[][] { { new BigDecimal("0.10") } });
+        Assert.assertEquals(fraction.getDigest(), decimal.getDigest());
+    }
+
+    @Test
+    public void testMaxRowsIgnored() throws Exception {
+
+        DriverManager.registerDriver(new RowsDriver());
+
+        SqshContext ctx = new SqshContext();
+        ctx.getDriverManager().addDriver(new SQLDriver("rows",
+            RowsDriver.class.getName(), "jdbc:rows:"));
+
+        Session session = ctx.newSession(false);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        session.setOut(new PrintStream(buffer, true), false);
+        session.setErr(new PrintStream(buffer, true), false);
+        session.getBufferManager().addBuffer(
+            session.getBufferManager().newBuffer());
+
+        ConnectionDescriptor connDesc = new ConnectionDescriptor();
+        connDesc.setDriver("rows");
+        connDesc.setUsername("user");
+        connDesc.setPassword("pass");
+        SQLConnectionContext conn =
+            ctx.getDriverManager().connect(session, connDesc);
+        conn.setRowLimitStyle("limit");
+        session.setConnectionContext(conn, false);
+
+        session.evaluate("select 5");
+        session.evaluate("\\go -m checksum");
+        String all = digest(buffer.toString());
+        Assert.assertTrue(all, all.endsWith("(5 rows)"));
+
+        /*
+         * Neither discarding the rows over the limit nor rewriting the
+         * query to stop at the limit changes the checksum.
+         */
+        session.getSQLRenderer().setMaxRows(2);
+        for (String method : new String[] { "discard", "rewrite" }) {
+
+            session.getSQLRenderer().setRowLimitMethodName(method);
+            buffer.reset();
+            session.evaluate("select 5");
+            session.evaluate("\\go -m checksum");
+
+            String out = buffer.toString();
+            Assert.assertEquals(out, all, digest(out));
+            Assert.assertFalse(out, out.contains("rows shown"));
+        }
+
+        ctx.close();
+    }
+
+    /**
+     * Picks the result digest line out of the output of the checksum style.
+     */
+    private String digest(String out) {
+
+        int start = out.indexOf("Result digest:");
+        Assert.assertTrue(out, start >= 0);
+        return out.substring(start, out.indexOf(')', start) + 1);
+    }
+
+    private ResultChecksum checksum(final int []types, final Object [][]rows)
+        throws Exception {
+
+        final ResultSetMetaData meta = (ResultSetMetaData) proxy(
+            ResultSetMetaData.class, new InvocationHandler() {
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+
+                String name = method.getName();
+                if (name.equals("getColumnCount")) {
+
+                    return types.length;
+                }
+                if (name.equals("getColumnType")) {
+
+                    return types[(Integer) args[0] - 1];
+                }
+
+                return "c" + args[0];
+            }
+        });
+
+        ResultSet resultSet = (ResultSet) proxy(ResultSet.class,
+            new InvocationHandler() {
+
+            int row = -1;
+            boolean wasNull = false;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+
+                String name = method.getName();
+                if (name.equals("next")) {
+
+                    return ++row < rows.length;
+                }
+                if (name.equals("wasNull")) {
+
+                    return wasNull;
+                }
+
+                Object value = rows[row][(Integer) args[0] - 1];
+                wasNull = (value == null);
+                if (name.equals("getLong")) {
+
+                    return value == null ? 0L : value;
+                }
+                if (name.equals("getDouble")) {
+
+                    return value == null ? 0.0d : value;
+                }
+
+                return value;
+            }
+        });
+
+        ResultChecksum checksum = new ResultChecksum(meta);
+        while (resultSet.next()) {
+
+            checksum.add(resultSet);
+        }
+
+        return checksum;
+    }
+}
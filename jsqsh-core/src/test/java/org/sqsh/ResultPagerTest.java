@@ -0,0 +1,128 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.sqsh.input.ConsoleException;
+import org.sqsh.input.ConsoleLineReader;
+
+public class ResultPagerTest {
+
+    @Test
+    public void testPaging() {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Keys keys = new Keys(" \nq");
+        ResultPager pager = new ResultPager(bytes, keys, 5, 80);
+        PrintStream out = new PrintStream(pager);
+
+        Assert.assertEquals(4, pager.getPageLines());
+
+        int printed = 0;
+        while (!pager.isQuit()) {
+
+            out.println("line " + printed);
+            ++printed;
+        }
+
+        /*
+         * A screen, then another screen, then one more line.
+         */
+        Assert.assertEquals(3, keys.prompts);
+        Assert.assertEquals(9, printed);
+        Assert.assertEquals(9, bytes.toString().split("\n").length);
+
+        out.println("discarded");
+        Assert.assertTrue(out.checkError());
+        Assert.assertFalse(bytes.toString().contains("discarded"));
+    }
+
+    @Test
+    public void testWrappedLines() {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Keys keys = new Keys("q");
+        ResultPager pager = new ResultPager(bytes, keys, 5, 10);
+        PrintStream out = new PrintStream(pager);
+
+        /*
+         * Each of these takes up two lines on a ten column screen.
+         */
+        out.println("aaaaaaaaaaaaaaa");
+        out.println("bbbbbbbbbbbbbbb");
+        Assert.assertEquals(1, keys.prompts);
+        Assert.assertTrue(pager.isQuit());
+    }
+
+    /**
+     * A console that hands back a canned set of keystrokes.
+     */
+    private static class Keys
+        extends ConsoleLineReader {
+
+        private String keys;
+        int prompts = 0;
+
+        Keys(String keys) {
+
+            this.keys = keys;
+        }
+
+        @Override
+        public int readKey(String prompt)
+            throws ConsoleException {
+
+            return keys.charAt(prompts++);
+        }
+
+        @Override
+        public String getName() {
+
+            return "test";
+        }
+
+        @Override
+        public boolean isTerminal() {
+
+            return true;
+        }
+
+        @Override
+        public String readline(String prompt, boolean addToHistory) {
+
+            return null;
+        }
+
+        @Override
+        public void readHistory(String filename) {
+
+        }
+
+        @Override
+        public void addToHistory(String line) {
+
+        }
+
+        @Override
+        public void writeHistory() {
+
+        }
+    }
+}
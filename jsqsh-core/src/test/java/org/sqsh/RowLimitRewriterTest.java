@@ -0,0 +1,81 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh;
+
+import static org.sqsh.parser.RowLimitRewriter.STYLE_FETCH;
+import static org.sqsh.parser.RowLimitRewriter.STYLE_LIMIT;
+import static org.sqsh.parser.RowLimitRewriter.STYLE_TOP;
+import static org.sqsh.parser.RowLimitRewriter.rewrite;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RowLimitRewriterTest {
+
+    @Test
+    public void testStyles() {
+
+        Assert.assertEquals("select * from t\nLIMIT 11",
+            rewrite("select * from t  \n", STYLE_LIMIT, 11));
+        Assert.assertEquals("select * from t -- all\nFETCH FIRST 5 ROWS ONLY",
+            rewrite("select * from t -- all", STYLE_FETCH, 5));
+        Assert.assertEquals("select TOP 5 * from t",
+            rewrite("select * from t", STYLE_TOP, 5));
+        Assert.assertEquals("SELECT DISTINCT TOP 5 a from t",
+            rewrite("SELECT DISTINCT a from t", STYLE_TOP, 5));
+
+        Assert.assertNull(rewrite("select * from t", "bogus", 5));
+        Assert.assertNull(rewrite("select * from t", STYLE_LIMIT, 0));
+    }
+
+    @Test
+    public void testNesting() {
+
+        Assert.assertEquals(
+            "select a from t where b in (select top 1 b from u order by b)\nLIMIT 3",
+            rewrite("select a from t where b in (select top 1 b from u order by b)",
+                STYLE_LIMIT, 3));
+        Assert.assertEquals("select a from t union all select a from u\nLIMIT 3",
+            rewrite("select a from t union all select a from u", STYLE_LIMIT, 3));
+        Assert.assertNull(
+            rewrite("select a from t union select a from u", STYLE_TOP, 3));
+        Assert.assertEquals("select a from t where c = 'limit 5'\nLIMIT 3",
+            rewrite("select a from t where c = 'limit 5'", STYLE_LIMIT, 3));
+    }
+
+    @Test
+    public void testRejected() {
+
+        String []sql = {
+            "select * from t limit 5",
+            "select * from t fetch first 5 rows only",
+            "select top 5 * from t",
+            "select * into u from t",
+            "select * from t for update",
+            "select * from t; select * from u",
+            "select * from t\nselect * from u",
+            "select * from t where (a = 1",
+            "update t set a = 1",
+            "with x as (select 1 from t) select * from x",
+            "exec sp_who",
+        };
+
+        for (String s : sql) {
+
+            Assert.assertNull(s, rewrite(s, STYLE_LIMIT, 3));
+        }
+    }
+}
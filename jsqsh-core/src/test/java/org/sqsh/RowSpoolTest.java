@@ -0,0 +1,65 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.sqsh.util.RowSpool;
+
+public class RowSpoolTest {
+    
+    @Test
+    public void testSpool() throws Exception {
+        
+        RowSpool spool = new RowSpool();
+        int nRows = (RowSpool.PAGE_SIZE * 5) + 17;
+        
+        try {
+            
+            for (int i = 0; i < nRows; i++) {
+                
+                spool.add(new String[] { 
+                    Integer.toString(i), (i % 3 == 0) ? null : "r\u00e9sum\u00e9 " + i });
+            }
+            
+            Assert.assertEquals(nRows, spool.size());
+            Assert.assertEquals(6, spool.getPageCount());
+            
+            for (int i = nRows - 1; i >= 0; i -= 7) {
+                
+                String []row = spool.get(i);
+                Assert.assertEquals(Integer.toString(i), row[0]);
+                Assert.assertEquals((i % 3 == 0) ? null : "r\u00e9sum\u00e9 " + i, row[1]);
+            }
+            
+            int count = 0;
+            for (int page = 0; page < spool.getPageCount(); page++) {
+                
+                for (String []row : spool.readPage(page)) {
+                    
+                    Assert.assertEquals(Integer.toString(count), row[0]);
+                    ++count;
+                }
+            }
+            
+            Assert.assertEquals(nRows, count);
+        }
+        finally {
+            
+            spool.close();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh;
+
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.sqsh.variables.IntegerVariable;
+
+public class SQLParseUtilTest {
+    
+    @Test
+    public void testBindVariables() {
+        
+        Map<String, String> vars = new HashMap<String, String>();
+        vars.put("id", "10");
+        vars.put("name", "O'Brien");
+        
+        List<CallParameter> params = new ArrayList<CallParameter>();
+        String sql = SQLParseUtil.bindVariables(
+            "select * from t where id = ${id} and name = $name", vars, params);
+        
+        Assert.assertEquals("select * from t where id = ? and name = ?", sql);
+        Assert.assertEquals(2, params.size());
+        Assert.assertEquals(1, params.get(0).getIdx());
+        Assert.assertEquals("10", params.get(0).getValue());
+        Assert.assertEquals(2, params.get(1).getIdx());
+        Assert.assertEquals("O'Brien", params.get(1).getValue());
+    }
+    
+    @Test
+    public void testBindVariablesIgnored() {
+        
+        Map<String, String> vars = new HashMap<String, String>();
+        vars.put("id", "10");
+        
+        String []unchanged = {
+            "select '${id}' from t",
+            "select \"$id\" from t",
+            "select 1 -- where id = ${id}\n from t",
+            "select 1 /* $id */ from t",
+            "select $undefined, ${id from t",
+            "select \\${id} from t",
+            "select $$ from t",
+        };
+        
+        for (String str : unchanged) {
+            
+            List<CallParameter> params = new ArrayList<CallParameter>();
+            Assert.assertEquals(str, 
+                SQLParseUtil.bindVariables(str, vars, params));
+            Assert.assertEquals(str, 0, params.size());
+        }
+        
+        List<CallParameter> params = new ArrayList<CallParameter>();
+        Assert.assertEquals("select ? - 1, ? from t",
+            SQLParseUtil.bindVariables("select $!{id} - 1, $id from t", vars, params));
+        Assert.assertEquals(2, params.size());
+    }
+    
+    @Test
+    public void testBindExpanded() throws Exception {
+        
+        SqshContext ctx = new SqshContext();
+        Session session = ctx.newSession(false);
+        session.getVariableManager().put("debug", "true");
+        session.getVariableManager().put("who", "O'Brien");
+        session.getVariableManager().put(new IntegerVariable("id", 10));
+        
+        SQLRenderer renderer = session.getSQLRenderer();
+        renderer.setExpand(true);
+        
+        /*
+         * The references in the directives are evaluated, and only the
+         * ones that reach the SQL are bound.
+         */
+        List<CallParameter> params = new ArrayList<CallParameter>();
+        String sql = renderer.bind(session,
+            "select * from t where id = $id"
+            + "#if ($debug == 'true') and name = $who#end"
+            + "#if ($debug == 'false') and x = $id#end", params);
+        
+        Assert.assertEquals("select * from t where id = ? and name = ?", sql);
+        Assert.assertEquals(2, params.size());
+        Assert.assertEquals(Types.INTEGER, params.get(0).getType());
+        Assert.assertEquals("10", params.get(0).getValue());
+        Assert.assertEquals(2, params.get(1).getIdx());
+        Assert.assertEquals(Types.VARCHAR, params.get(1).getType());
+        Assert.assertEquals("O'Brien", params.get(1).getValue());
+        
+        /*
+         * A reference that expansion repeats is bound each time it
+         * appears.
+         */
+        List<CallParameter> refs = new ArrayList<CallParameter>();
+        String marked = SQLParseUtil.markVariables("or name = ${who}",
+            session.getVariableManager(), true, refs);
+        params.clear();
+        Assert.assertEquals("or name = ? or name = ?", 
+            SQLParseUtil.bindMarkers(marked + " " + marked, refs, params));
+        Assert.assertEquals(2, params.size());
+        Assert.assertEquals("O'Brien", params.get(1).getValue());
+        
+        /*
+         * Without expansion directives are left alone.
+         */
+        renderer.setExpand(false);
+        params.clear();
+        Assert.assertEquals("#if (?) ?#end", 
+            renderer.bind(session, "#if ($debug) $id#end", params));
+        Assert.assertEquals(2, params.size());
+        ctx.close();
+    }
+}
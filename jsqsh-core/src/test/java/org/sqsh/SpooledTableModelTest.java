@@ -0,0 +1,401 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh;
+
+import java.awt.Cursor;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.JTable;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.sqsh.renderers.SpooledTableModel;
+import org.sqsh.util.RowSpool;
+
+public class SpooledTableModelTest {
+
+    private static final String NULL = "[NULL]";
+
+    @Test
+    public void testSort() throws Exception {
+
+        RowSpool spool = new RowSpool();
+        final SpooledTableModel model = model(spool);
+        final JTable table = table(model);
+
+        try {
+
+            int nRows = (RowSpool.PAGE_SIZE * 20) + 7;
+            for (int i = 0; i < nRows; i++) {
+
+                model.addRow(row(i, nRows));
+            }
+            flush();
+            Assert.assertEquals(nRows, model.getRowCount());
+
+            /*
+             * Starting a second sort cancels the first, and only the
+             * second is applied. NULLs sort lowest.
+             */
+            final CountDownLatch done = new CountDownLatch(1);
+            SwingUtilities.invokeAndWait(new Runnable() {
+
+                @Override
+                public void run() {
+
+                    model.sort(table, 1, false);
+                    whenDone(model.sort(table, 0, true), done);
+                }
+            });
+
+            /*
+             * Rows that arrive during the sort go after the sorted rows.
+             */
+            model.addRow(new String[] { "-1", "late" });
+            Assert.assertTrue(done.await(30, TimeUnit.SECONDS));
+            flush();
+
+            Assert.assertEquals(nRows + 1, model.getRowCount());
+            Assert.assertEquals(Cursor.DEFAULT_CURSOR,
+                table.getCursor().getType());
+
+            int nulls = 0;
+            double last = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < nRows; i++) {
+
+                String value = (String) model.getValueAt(i, 0);
+                if (value.equals(NULL)) {
+
+                    Assert.assertEquals("NULLs come first", i, nulls);
+                    ++nulls;
+                }
+                else {
+
+                    double d = Double.parseDouble(value);
+                    Assert.assertTrue(d >= last);
+                    last = d;
+                }
+            }
+
+            Assert.assertEquals((nRows + 99) / 100, nulls);
+            Assert.assertEquals("late", model.getValueAt(nRows, 1));
+        }
+        finally {
+
+            spool.close();
+        }
+    }
+
+    @Test
+    public void testModelReplacedMidSort() throws Exception {
+
+        RowSpool bigSpool = new RowSpool();
+        RowSpool smallSpool = new RowSpool();
+        final SpooledTableModel big = model(bigSpool);
+        final SpooledTableModel small = model(smallSpool);
+        final JTable table = table(big);
+
+        try {
+
+            int nBig = RowSpool.PAGE_SIZE * 40;
+            for (int i = 0; i < nBig; i++) {
+
+                big.addRow(row(i, nBig));
+            }
+            for (int i = 0; i < 10; i++) {
+
+                small.addRow(row(i, 10));
+            }
+            flush();
+
+            /*
+             * The table is handed a new model while its first model is
+             * still sorting, and the new model is then sorted. The wait
+             * cursor is only cleared by the last sort started on the table.
+             */
+            final CountDownLatch bigDone = new CountDownLatch(1);
+            final CountDownLatch smallDone = new CountDownLatch(1);
+            final Object []smallRowWhenBigDone = new Object[1];
+            final int []cursorWhenBigDone = new int[1];
+            SwingUtilities.invokeAndWait(new Runnable() {
+
+                @Override
+                public void run() {
+
+                    SwingWorker<int[], Void> bigSort = big.sort(table, 0, false);
+                    bigSort.addPropertyChangeListener(
+                        new PropertyChangeListener() {
+
+                        @Override
+                        public void propertyChange(PropertyChangeEvent evt) {
+
+                            if (isDone(evt)) {
+
+                                smallRowWhenBigDone[0] = small.getValueAt(1, 0);
+                                cursorWhenBigDone[0] = table.getCursor().getType();
+                                bigDone.countDown();
+                            }
+                        }
+                    });
+
+                    table.setModel(small);
+                    whenDone(small.sort(table, 0, true), smallDone);
+                }
+            });
+
+            Assert.assertTrue(bigDone.await(30, TimeUnit.SECONDS));
+            Assert.assertTrue(smallDone.await(30, TimeUnit.SECONDS));
+            flush();
+
+            /*
+             * Until its sort is applied, the second row of the small model
+             * is "9" rather than "1".
+             */
+            if (cursorWhenBigDone[0] == Cursor.DEFAULT_CURSOR) {
+
+                Assert.assertEquals("1", smallRowWhenBigDone[0]);
+            }
+
+            Assert.assertSame(small, table.getModel());
+            Assert.assertEquals(Cursor.DEFAULT_CURSOR,
+                table.getCursor().getType());
+
+            /*
+             * Each model ends up in the order that it was sorted in.
+             */
+            Assert.assertEquals(NULL, small.getValueAt(0, 0));
+            Assert.assertEquals("1", small.getValueAt(1, 0));
+            Assert.assertEquals("9", small.getValueAt(9, 0));
+            double last = Double.POSITIVE_INFINITY;
+            for (int i = 0; i < nBig; i++) {
+
+                String value = (String) big.getValueAt(i, 0);
+                if (i < nBig - ((nBig + 99) / 100)) {
+
+                    double d = Double.parseDouble(value);
+                    Assert.assertTrue(d <= last);
+                    last = d;
+                }
+                else {
+
+                    Assert.assertEquals("NULLs come last", NULL, value);
+                }
+            }
+        }
+        finally {
+
+            bigSpool.close();
+            smallSpool.close();
+        }
+    }
+
+    @Test
+    public void testClosedMidStream() throws Exception {
+
+        RowSpool spool = new RowSpool();
+        final SpooledTableModel model = model(spool);
+        final JTable table = table(model);
+
+        /*
+         * The window is closed, closing the model, while rows are still
+         * arriving; from then on the rows are refused rather than failing.
+         */
+        final CountDownLatch started = new CountDownLatch(1);
+        final int []added = new int[1];
+        final Exception []failure = new Exception[1];
+        Thread fetcher = new Thread() {
+
+            @Override
+            public void run() {
+
+                try {
+
+                    while (model.addRow(row(added[0], 1000))) {
+
+                        if (++added[0] == RowSpool.PAGE_SIZE * 3) {
+
+                            started.countDown();
+                        }
+                    }
+                }
+                catch (Exception e) {
+
+                    failure[0] = e;
+                }
+            }
+        };
+
+        fetcher.start();
+        Assert.assertTrue(started.await(30, TimeUnit.SECONDS));
+        SwingUtilities.invokeAndWait(new Runnable() {
+
+            @Override
+            public void run() {
+
+                model.sort(table, 0, true);
+                model.close();
+            }
+        });
+
+        fetcher.join(30000);
+        Assert.assertFalse(fetcher.isAlive());
+        if (failure[0] != null) {
+
+            throw failure[0];
+        }
+
+        Assert.assertTrue(spool.isClosed());
+        Assert.assertFalse(model.addRow(row(0, 1000)));
+        flush();
+        Assert.assertEquals("*ERROR*", model.getValueAt(0, 0));
+    }
+
+    @Test
+    public void testSortKeepsPrecision() throws Exception {
+
+        RowSpool spool = new RowSpool();
+        final SpooledTableModel model = model(spool);
+        final JTable table = table(model);
+
+        try {
+
+            /*
+             * Values that are all the same as doubles.
+             */
+            String []values = { "9007199254740993", "Infinity",
+                "9007199254740992", "-Infinity", "9007199254740993.5",
+                NULL, "9007199254740992.25", "bogus" };
+            for (String value : values) {
+
+                model.addRow(new String[] { value, value });
+            }
+            flush();
+
+            final CountDownLatch done = new CountDownLatch(1);
+            SwingUtilities.invokeAndWait(new Runnable() {
+
+                @Override
+                public void run() {
+
+                    whenDone(model.sort(table, 0, true), done);
+                }
+            });
+            Assert.assertTrue(done.await(30, TimeUnit.SECONDS));
+
+            String []expected = { NULL, "-Infinity", "9007199254740992",
+                "9007199254740992.25", "9007199254740993",
+                "9007199254740993.5", "Infinity", "bogus" };
+            for (int i = 0; i < expected.length; i++) {
+
+                Assert.assertEquals(expected[i], model.getValueAt(i, 1));
+            }
+        }
+        finally {
+
+            spool.close();
+        }
+    }
+
+    /**
+     * Creates a model with a numeric column and a string column.
+     */
+    private static SpooledTableModel model(RowSpool spool) {
+
+        ColumnDescription number = new ColumnDescription("N", 10,
+            ColumnDescription.Alignment.RIGHT,
+            ColumnDescription.OverflowBehavior.TRUNCATE);
+        number.setType(ColumnDescription.Type.NUMBER);
+
+        return new SpooledTableModel(spool, new ColumnDescription[] {
+            number, new ColumnDescription("S", 10) }, NULL);
+    }
+
+    private static JTable table(final SpooledTableModel model)
+        throws Exception {
+
+        final JTable []table = new JTable[1];
+        SwingUtilities.invokeAndWait(new Runnable() {
+
+            @Override
+            public void run() {
+
+                table[0] = new JTable(model);
+            }
+        });
+
+        return table[0];
+    }
+
+    /**
+     * A row whose number is a scrambled, but distinct, value for each
+     * row, with every hundredth one NULL.
+     */
+    private static String[] row(int i, int nRows) {
+
+        String number = (i % 100 == 0)
+            ? NULL : Integer.toString((int) ((i * 7919L) % nRows));
+        return new String[] { number, "s" + i };
+    }
+
+    /**
+     * Waits for the event thread to get through the work that has been
+     * queued for it, such as telling the table about new rows.
+     */
+    private static void flush()
+        throws Exception {
+
+        SwingUtilities.invokeAndWait(new Runnable() {
+
+            @Override
+            public void run() {
+
+                /* Nothing to do */
+            }
+        });
+    }
+
+    /**
+     * Counts down a latch once a sort has been applied to its model. This
+     * has to be called on the event thread, right after the sort started,
+     * so that the end of the sort can't be missed.
+     */
+    private static void whenDone(SwingWorker<int[], Void> sort,
+            final CountDownLatch latch) {
+
+        sort.addPropertyChangeListener(new PropertyChangeListener() {
+
+            @Override
+            public void propertyChange(PropertyChangeEvent evt) {
+
+                if (isDone(evt)) {
+
+                    latch.countDown();
+                }
+            }
+        });
+    }
+
+    private static boolean isDone(PropertyChangeEvent evt) {
+
+        return "state".equals(evt.getPropertyName())
+            && evt.getNewValue() == SwingWorker.StateValue.DONE;
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh;
+
+import static org.sqsh.JdbcStubs.defaultValue;
+import static org.sqsh.JdbcStubs.proxy;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StatementCacheTest {
+
+    private List<String> prepared = new ArrayList<String>();
+    private List<String> closed = new ArrayList<String>();
+
+    @Test
+    public void testEviction() throws Exception {
+
+        SqshContext ctx = new SqshContext();
+        ctx.setStatementCacheSize(2);
+        StatementCache cache = new StatementCache(ctx);
+
+        Assert.assertNull(cache.take("a"));
+        cache.put(new StatementCache.Entry("a", statement("a")));
+        cache.put(new StatementCache.Entry("b", statement("b")));
+
+        /*
+         * Using "a" makes "b" the least recently used.
+         */
+        StatementCache.Entry a = cache.take("a");
+        Assert.assertNotNull(a);
+        Assert.assertNull(cache.take("a"));
+        cache.put(a);
+
+        cache.put(new StatementCache.Entry("c", statement("c")));
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals("[b]", closed.toString());
+        Assert.assertNull(cache.take("b"));
+
+        cache.invalidate("select * from foo");
+        Assert.assertEquals(2, cache.size());
+        cache.invalidate("  /* switch */ use otherdb");
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals("[b, a, c]", closed.toString());
+
+        ctx.close();
+    }
+
+    @Test
+    public void testDescriptions() throws Exception {
+
+        StatementCache.Entry entry =
+            new StatementCache.Entry("a", statement("a"));
+        ColumnDescription []columns = { new ColumnDescription("c", 10) };
+
+        entry.setDescription(0, 1, columns);
+        columns[0].setWidth(3);
+
+        ColumnDescription []saved = entry.getDescription(0, 1);
+        Assert.assertEquals(10, saved[0].getWidth());
+        Assert.assertNotSame(saved[0], entry.getDescription(0, 1)[0]);
+        Assert.assertNull(entry.getDescription(1, 1));
+        Assert.assertNull(entry.getDescription(0, 2));
+    }
+
+    @Test
+    public void testPrepareMode() throws Exception {
+
+        SqshContext ctx = new SqshContext();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(buffer, true);
+        Session session = new Session(ctx, 1,
+            new ByteArrayInputStream(new byte[0]), out, out);
+
+        Connection conn = (Connection) proxy(Connection.class,
+            new InvocationHandler() {
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+
+                if (method.getName().equals("prepareStatement")) {
+
+                    return statement((String) args[0]);
+                }
+
+                return defaultValue(method);
+            }
+        });
+
+        SQLConnectionContext sqlConn = new SQLConnectionContext(session,
+            new ConnectionDescriptor(), conn, "jdbc:test:", null, null, null);
+        sqlConn.setExecutionMode(SQLConnectionContext.EXEC_PREPARE);
+        session.setConnectionContext(sqlConn, false);
+
+        SQLRenderer sqlRenderer = new SQLRenderer(ctx);
+        sqlRenderer.setStyle("csv");
+
+        sqlRenderer.execute(session, "select 1");
+        sqlRenderer.execute(session, "select 1");
+        Assert.assertEquals("[select 1]", prepared.toString());
+        Assert.assertEquals(1, sqlConn.getStatementCache().getHits());
+        Assert.assertEquals("c\n1\nc\n1\n", buffer.toString());
+
+        ctx.getDataFormatter().setNull("-");
+        sqlRenderer.execute(session, "select 1");
+        Assert.assertEquals("[select 1]", prepared.toString());
+
+        ctx.setStatementCacheSize(0);
+        sqlRenderer.execute(session, "select 1");
+        Assert.assertEquals("[select 1]", closed.toString());
+        sqlRenderer.execute(session, "select 1");
+        Assert.assertEquals("[select 1, select 1]", prepared.toString());
+        Assert.assertEquals(0, sqlConn.getStatementCache().size());
+
+        ctx.close();
+    }
+
+    /**
+     * Creates a statement that returns a single row containing 1.
+     */
+    private PreparedStatement statement(final String sql) {
+
+        prepared.add(sql);
+
+        final ResultSetMetaData meta = (ResultSetMetaData) proxy(
+            ResultSetMetaData.class, new InvocationHandler() {
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+
+                String name = method.getName();
+                if (name.equals("getColumnCount")) {
+
+                    return 1;
+                }
+                if (name.equals("getColumnType")) {
+
+                    return Types.INTEGER;
+                }
+                if (name.equals("getColumnLabel")) {
+
+                    return "c";
+                }
+
+                return defaultValue(method);
+            }
+        });
+
+        return (PreparedStatement) proxy(PreparedStatement.class,
+            new InvocationHandler() {
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+
+                String name = method.getName();
+                if (name.equals("execute")) {
+
+                    return true;
+                }
+                if (name.equals("getResultSet")) {
+
+                    return results(meta);
+                }
+                if (name.equals("getUpdateCount")) {
+
+                    return -1;
+                }
+                if (name.equals("close")) {
+
+                    closed.add(sql);
+                }
+
+                return defaultValue(method);
+            }
+        });
+    }
+
+    private ResultSet results(final ResultSetMetaData meta) {
+
+        return (ResultSet) proxy(ResultSet.class, new InvocationHandler() {
+
+            int row = 0;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+
+                String name = method.getName();
+                if (name.equals("next")) {
+
+                    return ++row <= 1;
+                }
+                if (name.equals("getMetaData")) {
+
+                    return meta;
+                }
+                if (name.equals("getInt")) {
+
+                    return 1;
+                }
+                if (name.equals("getLong")) {
+
+                    return 1L;
+                }
+
+                return defaultValue(method);
+            }
+        });
+    }
+}
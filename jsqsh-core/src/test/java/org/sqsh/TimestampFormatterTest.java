@@ -19,6 +19,7 @@ import java.sql.Timestamp;
 import java.text.ParsePosition;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.Random;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -63,4 +64,121 @@ public class TimestampFormatterTest {
         formatter = new TimestampFormatter("MM/dd/yy HH:mm:ss.SSSS");
         Assert.assertEquals("01/01/97 11:23:15.1230", formatter.format(d));
     }
+    
+    /**
+     * For formats that don't use our special meaning of "S", the output
+     * should be exactly that of SimpleDateFormat.
+     */
+    @Test
+    public void testMatchesSimpleDateFormat() throws Exception {
+        
+        String []formats = {
+            "yyyy-MM-dd",
+            "yyyy-MM-dd HH:mm:ss.SSS",
+            "HH:mm:ss",
+            "MM/dd/yy hh:mm:ss a",
+            "EEE, d MMM yyyy HH:mm:ss Z",
+            "EEEE MMMM dd G yyyy k K D",
+            "yyyy.MM.dd 'at' HH:mm:ss z",
+            "''yy''' o''clock' h",
+            "y-M-d H:m:s w W F u",
+        };
+        
+        Random random = new Random(1234);
+        for (String format : formats) {
+            
+            TimestampFormatter formatter = new TimestampFormatter(format);
+            SimpleDateFormat expected = new SimpleDateFormat(format);
+            
+            /*
+             * Walk through a run of values that fall in the same second
+             * and values that cross second boundaries in both directions.
+             */
+            long millis = -2000000000000L;
+            for (int i = 0; i < 2000; i++) {
+                
+                millis += (random.nextInt(3) == 0)
+                    ? random.nextInt(1000)
+                    : (long) random.nextInt(Integer.MAX_VALUE) * 1000L;
+                
+                Date d = new Date(millis);
+                Assert.assertEquals(format, expected.format(d),
+                    formatter.format(d));
+                
+                Timestamp ts = new Timestamp(millis);
+                Assert.assertEquals(format, expected.format(ts),
+                    formatter.format(ts));
+            }
+        }
+    }
+    
+    @Test
+    public void testFractionAcrossSeconds() throws Exception {
+        
+        TimestampFormatter formatter =
+            new TimestampFormatter("HH:mm:ss.SSSSSS 'S'");
+        
+        Assert.assertEquals("11:23:15.123456 S", formatter.format(
+            Timestamp.valueOf("1997-01-01 11:23:15.123456789")));
+        Assert.assertEquals("11:23:15.000001 S", formatter.format(
+            Timestamp.valueOf("1997-01-01 11:23:15.000001")));
+        Assert.assertEquals("11:23:16.500000 S", formatter.format(
+            Timestamp.valueOf("1997-01-01 11:23:16.5")));
+        Assert.assertEquals("11:23:15.999999 S", formatter.format(
+            Timestamp.valueOf("1997-01-01 11:23:15.999999999")));
+        
+        formatter = new TimestampFormatter("ss.SSSSSSSSSSS");
+        Assert.assertEquals("15.12345678900", formatter.format(
+            Timestamp.valueOf("1997-01-01 11:23:15.123456789")));
+    }
+    
+    @Test
+    public void testThreadSafety() throws Exception {
+        
+        final TimestampFormatter formatter =
+            new TimestampFormatter("yyyy-MM-dd HH:mm:ss.SSSSSSSSS");
+        final SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        final int []failures = new int[1];
+        Thread []threads = new Thread[4];
+        
+        for (int t = 0; t < threads.length; t++) {
+            
+            final long seed = t;
+            threads[t] = new Thread() {
+                
+                @Override
+                public void run() {
+                    
+                    Random random = new Random(seed);
+                    SimpleDateFormat expected = (SimpleDateFormat) df.clone();
+                    
+                    for (int i = 0; i < 20000; i++) {
+                        
+                        Timestamp ts = new Timestamp(
+                            (long) random.nextInt(20) * 1000L);
+                        ts.setNanos(random.nextInt(1000000000));
+                        
+                        String str = formatter.format(ts);
+                        String nanos = Integer.toString(ts.getNanos() + 1000000000);
+                        if (!str.equals(expected.format(ts)
+                                + "." + nanos.substring(1))) {
+                            
+                            synchronized (failures) {
+                                
+                                ++failures[0];
+                            }
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        
+        for (Thread thread : threads) {
+            
+            thread.join();
+        }
+        
+        Assert.assertEquals(0, failures[0]);
+    }
 }
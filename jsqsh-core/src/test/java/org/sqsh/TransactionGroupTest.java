@@ -0,0 +1,197 @@
+/*
+ * Copyright 2007-2012 Scott C. Gray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqsh;
+
+import java.lang.reflect.Method;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.sqsh.JdbcStubs.ScriptedDatabase;
+
+public class TransactionGroupTest {
+
+    /*
+     * Everything done to the connection, in order: the SQL executed,
+     * "commit", "rollback", "autocommit=x" and "close".
+     */
+    private List<String> calls = new ArrayList<String>();
+    private boolean autoCommit = true;
+    private boolean closed = false;
+    private boolean failCommit = false;
+    private String output;
+
+    @Test
+    public void testGroupBySize() throws Exception {
+
+        SqshContext ctx = new SqshContext();
+        ctx.setTxGroupSize(2);
+
+        run(ctx, "update 1\ngo\nupdate 2\ngo\nupdate 3\ngo\n");
+        Assert.assertEquals("[autocommit=false, update 1, update 2, commit, "
+            + "update 3, commit, autocommit=true]", calls.toString());
+        Assert.assertTrue(autoCommit);
+        Assert.assertTrue(output, output.contains("1 row affected"));
+
+        ctx.close();
+    }
+
+    @Test
+    public void testRollbackAndContinue() throws Exception {
+
+        SqshContext ctx = new SqshContext();
+        ctx.setTxGroupSize(3);
+
+        Session session = run(ctx,
+            "update 1\ngo\nfail 2\ngo\nupdate 3\ngo\nupdate 4\ngo\n");
+        Assert.assertEquals("[autocommit=false, update 1, fail 2, rollback, "
+            + "update 3, update 4, commit, autocommit=true]",
+            calls.toString());
+        Assert.assertEquals(1, session.getCommandFailCount());
+        Assert.assertTrue(output, output.contains("Failed: fail 2"));
+
+        ctx.close();
+    }
+
+    @Test
+    public void testStop() throws Exception {
+
+        SqshContext ctx = new SqshContext();
+        ctx.setTxGroupSize(3);
+        ctx.setTxGroupOnError("stop");
+
+        run(ctx, "update 1\ngo\nfail 2\ngo\nupdate 3\ngo\n");
+        Assert.assertEquals("[autocommit=false, update 1, fail 2, rollback, "
+            + "autocommit=true, close]",
+            calls.toString());
+
+        try {
+
+            ctx.setTxGroupOnError("retry");
+            Assert.fail("Expected an unknown policy to be rejected");
+        }
+        catch (IllegalArgumentException e) {
+
+            /* Expected */
+        }
+
+        ctx.close();
+    }
+
+    @Test
+    public void testStopOnFailedCommit() throws Exception {
+
+        SqshContext ctx = new SqshContext();
+        ctx.setTxGroupSize(2);
+        ctx.setTxGroupOnError("stop");
+        failCommit = true;
+
+        Session session = run(ctx, "update 1\ngo\nupdate 2\ngo\nupdate 3\ngo\n");
+        Assert.assertEquals("[autocommit=false, update 1, update 2, commit, "
+            + "autocommit=true, close]", calls.toString());
+        Assert.assertEquals(1, session.getCommandFailCount());
+        Assert.assertTrue(output, output.contains("Commit failed"));
+
+        ctx.close();
+    }
+
+    @Test
+    public void testQuit() throws Exception {
+
+        SqshContext ctx = new SqshContext();
+        ctx.setTxGroupSize(5);
+
+        run(ctx, "update 1\ngo\nupdate 2\ngo\n\\quit\nupdate 3\ngo\n");
+        Assert.assertEquals("[autocommit=false, update 1, update 2, commit, "
+            + "autocommit=true, close]", calls.toString());
+
+        ctx.close();
+    }
+
+    @Test
+    public void testNoGrouping() throws Exception {
+
+        SqshContext ctx = new SqshContext();
+
+        run(ctx, "update 1\ngo\nupdate 2\ngo\n");
+        Assert.assertEquals("[update 1, update 2]", calls.toString());
+
+        ctx.close();
+    }
+
+    /**
+     * Runs a script on a new session connected to a database that updates
+     * a row for each statement, except for those that start with "fail".
+     */
+    private Session run(SqshContext ctx, String script) throws Exception {
+
+        ScriptedDatabase database = new ScriptedDatabase() {
+
+            @Override
+            protected Object call(Method method, Object[] args)
+                throws Exception {
+
+                String name = method.getName();
+                if (name.equals("getAutoCommit")) {
+
+                    return autoCommit;
+                }
+                if (name.equals("setAutoCommit")) {
+
+                    autoCommit = (Boolean) args[0];
+                    calls.add("autocommit=" + autoCommit);
+                }
+                if (name.equals("commit") || name.equals("rollback")) {
+
+                    calls.add(name);
+                    if (name.equals("commit") && failCommit) {
+
+                        throw new SQLException("Commit failed");
+                    }
+                }
+                if (name.equals("close")) {
+
+                    closed = true;
+                    calls.add(name);
+                }
+                if (name.equals("isClosed")) {
+
+                    return closed;
+                }
+
+                return super.call(method, args);
+            }
+
+            @Override
+            protected int execute(String sql) throws SQLException {
+
+                calls.add(sql);
+                if (sql.startsWith("fail")) {
+
+                    throw new SQLException("Failed: " + sql);
+                }
+
+                return 1;
+            }
+        };
+
+        Session session = database.run(ctx, script);
+        output = database.getOutput();
+        return session;
+    }
+}